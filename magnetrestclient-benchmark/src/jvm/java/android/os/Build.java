@@ -0,0 +1,15 @@
+package android.os;
+
+/**
+ * Stands in for the Android {@code Build} class on the JVM, whose values are read from native
+ * system properties.
+ */
+public class Build {
+
+    public static final String MODEL = "JVM";
+
+    public static class VERSION {
+
+        public static final String RELEASE = System.getProperty("java.version");
+    }
+}
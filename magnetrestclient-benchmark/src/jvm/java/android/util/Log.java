@@ -0,0 +1,46 @@
+package android.util;
+
+/**
+ * Stands in for the Android {@code Log} class on the JVM, whose methods are native. Only the
+ * methods used by {com.android.volley.VolleyLog} are provided: verbose and debug messages are
+ * dropped and errors are printed to the standard error.
+ */
+public final class Log {
+
+    public static final int VERBOSE = 2;
+
+    private Log() {
+    }
+
+    public static boolean isLoggable(String tag, int level) {
+        return false;
+    }
+
+    public static int v(String tag, String msg) {
+        return 0;
+    }
+
+    public static int d(String tag, String msg) {
+        return 0;
+    }
+
+    public static int e(String tag, String msg) {
+        return e(tag, msg, null);
+    }
+
+    public static int e(String tag, String msg, Throwable tr) {
+        System.err.println(tag + ": " + msg);
+        if (tr != null) {
+            tr.printStackTrace();
+        }
+        return 0;
+    }
+
+    public static int wtf(String tag, String msg) {
+        return e(tag, msg, null);
+    }
+
+    public static int wtf(String tag, String msg, Throwable tr) {
+        return e(tag, msg, tr);
+    }
+}
@@ -0,0 +1,14 @@
+package cl.magnet.magnetrestclient;
+
+/**
+ * The build constants of the library, which the Android build generates, for the JVM build of
+ * the benchmarks.
+ */
+public final class BuildConfig {
+
+    public static final String APPLICATION_ID = "cl.magnet.magnetrestclient";
+    public static final String VERSION_NAME = "benchmark";
+
+    private BuildConfig() {
+    }
+}
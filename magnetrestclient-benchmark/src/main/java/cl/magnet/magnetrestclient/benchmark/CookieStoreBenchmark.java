@@ -0,0 +1,136 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Lukas Zorich, Magnet.cl
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package cl.magnet.magnetrestclient.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.CookieManager;
+import java.net.CookieStore;
+import java.net.HttpCookie;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import cl.magnet.magnetrestclient.utils.ConcurrentCookieStore;
+import cl.magnet.magnetrestclient.utils.PersistentCookieStore;
+
+/**
+ * Measures how long it takes to look up the cookies of a request with
+ * {@link PersistentCookieStore}, whose lookups only visit the cookies of the host of the
+ * request, and with the store of {java.net.CookieManager}, whose lookups visit every cookie, as
+ * the number of hosts with cookies grows. The contended benchmarks look up from several threads
+ * at the same time, where the store of {java.net.CookieManager} takes a single lock and
+ * {@link ConcurrentCookieStore} doesn't lock.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CookieStoreBenchmark {
+
+    private static final URI REQUEST_URI = URI.create("https://host5.example.com/items");
+
+    @Param({"10", "2000"})
+    public int hosts;
+
+    private File mFile;
+    private CookieStore mPersistentStore;
+    private CookieStore mConcurrentStore;
+    private CookieStore mDefaultStore;
+
+    @Setup
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("cookies", ".json");
+        // the store starts without a file
+        mFile.delete();
+        mPersistentStore = new PersistentCookieStore(null, mFile);
+        mConcurrentStore = new ConcurrentCookieStore();
+        mDefaultStore = new CookieManager().getCookieStore();
+        fill(mPersistentStore);
+        fill(mConcurrentStore);
+        fill(mDefaultStore);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Benchmark
+    public List<HttpCookie> persistentStore() {
+        return mPersistentStore.get(REQUEST_URI);
+    }
+
+    @Benchmark
+    public List<HttpCookie> defaultStore() {
+        return mDefaultStore.get(REQUEST_URI);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public List<HttpCookie> concurrentStoreContended() {
+        return mConcurrentStore.get(REQUEST_URI);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public List<HttpCookie> defaultStoreContended() {
+        return mDefaultStore.get(REQUEST_URI);
+    }
+
+    private void fill(CookieStore store) {
+        for (int i = 0; i < hosts; i++) {
+            String host = "host" + i + ".example.com";
+            URI uri = URI.create("https://" + host + "/");
+            store.add(uri, newCookie("sessionid", host));
+            store.add(uri, newCookie("csrftoken", host));
+        }
+    }
+
+    private static HttpCookie newCookie(String name, String domain) {
+        HttpCookie cookie = new HttpCookie(name, "value");
+        cookie.setDomain(domain);
+        cookie.setPath("/");
+        cookie.setMaxAge(3600);
+        return cookie;
+    }
+}
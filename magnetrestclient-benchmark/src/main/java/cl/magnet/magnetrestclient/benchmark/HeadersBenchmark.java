@@ -0,0 +1,87 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Lukas Zorich, Magnet.cl
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package cl.magnet.magnetrestclient.benchmark;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.Request;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import cl.magnet.magnetrestclient.requests.StringJsonRequest;
+
+/**
+ * Measures how much it costs to build a request and read its headers, the way the network does
+ * before sending it: with the default headers that
+ * {@link cl.magnet.magnetrestclient.VolleyManager} shares between the requests, and with a
+ * header of the request's own. The bytes allocated per request are reported by the GC profiler.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HeadersBenchmark {
+
+    private static final String URL = "http://localhost/items";
+
+    private final Map<String, String> mDefaultHeaders = Collections.singletonMap("User-Agent",
+            "com.example.app/1.0 (Android 7.1.1; Pixel)");
+
+    @Benchmark
+    public Map<String, String> defaultHeaders() throws AuthFailureError {
+        StringJsonRequest request = new StringJsonRequest(Request.Method.GET, URL, null, null,
+                null);
+        request.setDefaultHeaders(mDefaultHeaders);
+        return request.getHeaders();
+    }
+
+    @Benchmark
+    public Map<String, String> ownHeader() throws AuthFailureError {
+        StringJsonRequest request = new AuthorizedRequest();
+        request.setDefaultHeaders(mDefaultHeaders);
+        return request.getHeaders();
+    }
+
+    private static class AuthorizedRequest extends StringJsonRequest {
+
+        AuthorizedRequest() {
+            super(Request.Method.GET, URL, null, null, null);
+            addHeader("Authorization", "Token 0123456789abcdef");
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Lukas Zorich, Magnet.cl
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package cl.magnet.magnetrestclient.benchmark;
+
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.Response;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import cl.magnet.magnetrestclient.requests.GsonRequest;
+import cl.magnet.magnetrestclient.requests.MagnetJsonObjectRequest;
+import cl.magnet.magnetrestclient.requests.StringJsonRequest;
+
+/**
+ * Measures how fast the requests of the library parse a response body, from 1KB to 10MB. The
+ * benchmarks are run with JMH's GC profiler (see the {@code jmh} task of the build), which also
+ * reports the allocation rate and the bytes allocated per parsed response.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+
+    @Param({"1024", "10240", "102400", "1048576", "10485760"})
+    public int size;
+
+    private NetworkResponse mResponse;
+    private BenchmarkGsonRequest mGsonRequest;
+    private BenchmarkGsonRequest mGsonStringRequest;
+    private BenchmarkStringJsonRequest mStringJsonRequest;
+    private BenchmarkJsonObjectRequest mJsonObjectRequest;
+
+    @Setup
+    public void setUp() {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Content-Type", "application/json; charset=utf-8");
+        mResponse = new NetworkResponse(200, Payloads.create(size), headers, false);
+
+        mGsonRequest = new BenchmarkGsonRequest();
+        mGsonStringRequest = new BenchmarkGsonRequest();
+        mGsonStringRequest.setStreamingParse(false);
+        mStringJsonRequest = new BenchmarkStringJsonRequest();
+        mJsonObjectRequest = new BenchmarkJsonObjectRequest();
+    }
+
+    @Benchmark
+    public Payloads.ItemList gsonRequest() {
+        return mGsonRequest.parse(mResponse).result;
+    }
+
+    @Benchmark
+    public Payloads.ItemList gsonRequestWithoutStreaming() {
+        return mGsonStringRequest.parse(mResponse).result;
+    }
+
+    @Benchmark
+    public String stringJsonRequest() {
+        return mStringJsonRequest.parse(mResponse).result;
+    }
+
+    @Benchmark
+    public JSONObject magnetJsonObjectRequest() {
+        return mJsonObjectRequest.parse(mResponse).result;
+    }
+
+    /**
+     * The parsing methods of the requests are protected, so the benchmarks call them through
+     * these subclasses.
+     */
+    private static class BenchmarkGsonRequest extends GsonRequest<Payloads.ItemList> {
+
+        BenchmarkGsonRequest() {
+            super(Request.Method.GET, "http://localhost/items", Payloads.ItemList.class, null,
+                    null, null);
+        }
+
+        Response<Payloads.ItemList> parse(NetworkResponse response) {
+            return parseNetworkResponse(response);
+        }
+    }
+
+    private static class BenchmarkStringJsonRequest extends StringJsonRequest {
+
+        BenchmarkStringJsonRequest() {
+            super(Request.Method.GET, "http://localhost/items", null, null, null);
+        }
+
+        Response<String> parse(NetworkResponse response) {
+            return parseNetworkResponse(response);
+        }
+    }
+
+    private static class BenchmarkJsonObjectRequest extends MagnetJsonObjectRequest {
+
+        BenchmarkJsonObjectRequest() {
+            super(Request.Method.GET, "http://localhost/items", null, null, null);
+        }
+
+        Response<JSONObject> parse(NetworkResponse response) {
+            return parseNetworkResponse(response);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Lukas Zorich, Magnet.cl
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package cl.magnet.magnetrestclient.benchmark;
+
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * Builds the JSON response bodies of the benchmarks: an object with a list of {@link Item}s,
+ * which is what a typical list endpoint returns. The payloads are generated from a fixed seed,
+ * so every run parses the same bytes.
+ */
+final class Payloads {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final long SEED = 42;
+    private static final String[] WORDS = {"magnet", "volley", "request", "response", "parse",
+            "network", "cache", "header", "json", "stream", "señal", "año"};
+
+    private Payloads() {
+    }
+
+    /**
+     * Builds a payload of about the given size. The payload is a few hundred bytes bigger at
+     * most, since it always contains whole items.
+     *
+     * @param size The size of the payload in bytes
+     * @return The payload encoded in UTF-8
+     */
+    static byte[] create(int size) {
+        Random random = new Random(SEED);
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        StringBuilder builder = new StringBuilder(size + 512);
+        builder.append("{\"items\":[");
+        for (int id = 1; builder.length() < size; id++) {
+            if (id > 1) {
+                builder.append(',');
+            }
+            appendItem(builder, id, random, format);
+        }
+        builder.append("]}");
+        return builder.toString().getBytes(UTF_8);
+    }
+
+    private static void appendItem(StringBuilder builder, int id, Random random,
+                                   SimpleDateFormat format) {
+        builder.append("{\"id\":").append(id)
+                .append(",\"name\":\"").append(words(random, 2))
+                .append("\",\"description\":\"").append(words(random, 12))
+                .append("\",\"price\":").append(random.nextInt(100000) / 100.0)
+                .append(",\"available\":").append(random.nextBoolean())
+                .append(",\"tags\":[");
+        int tags = 1 + random.nextInt(4);
+        for (int i = 0; i < tags; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append('"').append(WORDS[random.nextInt(WORDS.length)]).append('"');
+        }
+        builder.append("],\"created\":\"")
+                .append(format.format(new Date(1400000000000L + random.nextInt() * 1000L)))
+                .append("\",\"owner\":{\"id\":").append(random.nextInt(1000))
+                .append(",\"name\":\"").append(words(random, 2))
+                .append("\"}}");
+    }
+
+    private static String words(Random random, int count) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                builder.append(' ');
+            }
+            builder.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * The response of the list endpoint.
+     */
+    static class ItemList {
+        List<Item> items;
+    }
+
+    /**
+     * An item of the list.
+     */
+    static class Item {
+        long id;
+        String name;
+        String description;
+        double price;
+        boolean available;
+        List<String> tags;
+        Date created;
+        Owner owner;
+    }
+
+    /**
+     * The owner of an item.
+     */
+    static class Owner {
+        long id;
+        String name;
+    }
+}
@@ -0,0 +1,464 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Lukas Zorich, Magnet.cl
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package cl.magnet.magnetrestclient.compiler;
+
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.JavaFile;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.TypeVariable;
+import javax.lang.model.type.WildcardType;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.SimpleTypeVisitor7;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+
+/**
+ * Annotation processor that generates a reflection free {com.google.gson.TypeAdapter} for every
+ * class annotated with {@code cl.magnet.magnetrestclient.annotations.GenerateTypeAdapter}.
+ *
+ * For a class {@code com.example.Item} it generates {@code com.example.Item_TypeAdapter}, which
+ * reads and writes the fields of the class directly and delegates the field values to the
+ * adapters of the field types. The adapters are looked up once, when the generated adapter is
+ * created, so parsing doesn't use reflection.
+ */
+public class TypeAdapterProcessor extends AbstractProcessor {
+
+    static final String ANNOTATION = "cl.magnet.magnetrestclient.annotations.GenerateTypeAdapter";
+    static final String ADAPTER_SUFFIX = "_TypeAdapter";
+
+    private static final String SERIALIZED_NAME = "com.google.gson.annotations.SerializedName";
+
+    private static final ClassName GSON = ClassName.get("com.google.gson", "Gson");
+    private static final ClassName TYPE_ADAPTER = ClassName.get("com.google.gson", "TypeAdapter");
+    private static final ClassName TYPE_TOKEN = ClassName.get("com.google.gson.reflect",
+            "TypeToken");
+    private static final ClassName JSON_READER = ClassName.get("com.google.gson.stream",
+            "JsonReader");
+    private static final ClassName JSON_WRITER = ClassName.get("com.google.gson.stream",
+            "JsonWriter");
+    private static final ClassName JSON_TOKEN = ClassName.get("com.google.gson.stream",
+            "JsonToken");
+
+    private Elements mElements;
+    private Types mTypes;
+    private Messager mMessager;
+
+    @Override
+    public synchronized void init(ProcessingEnvironment processingEnv) {
+        super.init(processingEnv);
+        mElements = processingEnv.getElementUtils();
+        mTypes = processingEnv.getTypeUtils();
+        mMessager = processingEnv.getMessager();
+    }
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return Collections.singleton(ANNOTATION);
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        TypeElement annotation = mElements.getTypeElement(ANNOTATION);
+        if (annotation == null) {
+            return false;
+        }
+
+        for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+            if (element.getKind() != ElementKind.CLASS) {
+                error(element, "@GenerateTypeAdapter can only be applied to classes");
+                continue;
+            }
+
+            TypeElement type = (TypeElement) element;
+            if (!isValidModel(type)) {
+                continue;
+            }
+
+            List<Property> properties = getProperties(type);
+            if (properties == null) {
+                continue;
+            }
+
+            try {
+                buildAdapter(type, properties).writeTo(processingEnv.getFiler());
+            } catch (IOException e) {
+                error(type, "Unable to write the TypeAdapter: " + e.getMessage());
+            }
+        }
+
+        return true;
+    }
+
+    private boolean isValidModel(TypeElement type) {
+        Set<Modifier> modifiers = type.getModifiers();
+        if (modifiers.contains(Modifier.PRIVATE) || modifiers.contains(Modifier.ABSTRACT)) {
+            error(type, "@GenerateTypeAdapter classes must not be private or abstract");
+            return false;
+        }
+        if (type.getNestingKind() == NestingKind.MEMBER && !modifiers.contains(Modifier.STATIC)) {
+            error(type, "@GenerateTypeAdapter nested classes must be static");
+            return false;
+        }
+        if (type.getNestingKind() == NestingKind.LOCAL
+                || type.getNestingKind() == NestingKind.ANONYMOUS) {
+            error(type, "@GenerateTypeAdapter can't be applied to local or anonymous classes");
+            return false;
+        }
+        if (!type.getTypeParameters().isEmpty()) {
+            error(type, "@GenerateTypeAdapter classes must not be generic");
+            return false;
+        }
+
+        for (Element element : type.getEnclosedElements()) {
+            if (element.getKind() == ElementKind.CONSTRUCTOR
+                    && ((ExecutableElement) element).getParameters().isEmpty()
+                    && !element.getModifiers().contains(Modifier.PRIVATE)) {
+                return true;
+            }
+        }
+
+        error(type, "@GenerateTypeAdapter classes need a non private no argument constructor");
+        return false;
+    }
+
+    /**
+     * Collects the serialized fields of the class and its superclasses, following Gson's
+     * defaults: static and transient fields are skipped.
+     *
+     * @return The properties, or {@code null} if any of them can't be accessed by the adapter
+     */
+    private List<Property> getProperties(TypeElement type) {
+        List<Property> properties = new ArrayList<>();
+        Set<String> jsonNames = new HashSet<>();
+        Set<String> fieldNames = new HashSet<>();
+        DeclaredType declaredType = (DeclaredType) type.asType();
+        String packageName = mElements.getPackageOf(type).getQualifiedName().toString();
+
+        TypeElement current = type;
+        while (current != null
+                && !current.getQualifiedName().contentEquals(Object.class.getName())) {
+            String currentPackage = mElements.getPackageOf(current).getQualifiedName().toString();
+
+            for (Element element : current.getEnclosedElements()) {
+                if (element.getKind() != ElementKind.FIELD) {
+                    continue;
+                }
+
+                Set<Modifier> modifiers = element.getModifiers();
+                if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.TRANSIENT)) {
+                    continue;
+                }
+
+                if (modifiers.contains(Modifier.PRIVATE) || modifiers.contains(Modifier.FINAL)
+                        || (!modifiers.contains(Modifier.PUBLIC)
+                        && !currentPackage.equals(packageName))) {
+                    error(element, "Fields serialized by a generated TypeAdapter must not be "
+                            + "private or final, and must be visible from " + packageName);
+                    return null;
+                }
+
+                VariableElement field = (VariableElement) element;
+                String fieldName = field.getSimpleName().toString();
+                if (!fieldNames.add(fieldName)) {
+                    error(field, "Field " + fieldName + " is declared more than once in the class "
+                            + "hierarchy of " + type.getQualifiedName());
+                    return null;
+                }
+
+                // resolve type variables of generic superclasses
+                TypeMirror fieldType = mTypes.asMemberOf(declaredType, field);
+                if (containsTypeVariable(fieldType)) {
+                    error(field, "Field " + fieldName + " has an unresolved type variable");
+                    return null;
+                }
+
+                Property property = new Property(field, fieldType);
+                for (String jsonName : property.mJsonNames) {
+                    if (!jsonNames.add(jsonName)) {
+                        error(field, "Multiple fields are serialized with the name " + jsonName);
+                        return null;
+                    }
+                }
+
+                properties.add(property);
+            }
+
+            TypeMirror superclass = current.getSuperclass();
+            current = superclass.getKind() == TypeKind.DECLARED
+                    ? (TypeElement) mTypes.asElement(superclass) : null;
+        }
+
+        return properties;
+    }
+
+    private JavaFile buildAdapter(TypeElement type, List<Property> properties) {
+        ClassName modelName = ClassName.get(type);
+        String adapterName = joinSimpleNames(modelName) + ADAPTER_SUFFIX;
+
+        TypeSpec.Builder adapter = TypeSpec.classBuilder(adapterName)
+                .addOriginatingElement(type)
+                .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
+                .superclass(ParameterizedTypeName.get(TYPE_ADAPTER, modelName))
+                .addJavadoc("Reflection free TypeAdapter for {@link $T}.\n", modelName);
+
+        MethodSpec.Builder constructor = MethodSpec.constructorBuilder()
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(GSON, "gson");
+
+        for (Property property : properties) {
+            TypeName adapterType = ParameterizedTypeName.get(TYPE_ADAPTER, property.mBoxedType);
+            adapter.addField(FieldSpec.builder(adapterType, property.mAdapterName,
+                    Modifier.PRIVATE, Modifier.FINAL).build());
+
+            if (property.mBoxedType instanceof ClassName) {
+                constructor.addStatement("this.$N = gson.getAdapter($T.class)",
+                        property.mAdapterName, property.mBoxedType);
+            } else {
+                constructor.addStatement("this.$N = gson.getAdapter(new $T<$T>() {})",
+                        property.mAdapterName, TYPE_TOKEN, property.mBoxedType);
+            }
+        }
+
+        return JavaFile.builder(modelName.packageName(), adapter
+                .addMethod(constructor.build())
+                .addMethod(buildRead(modelName, properties))
+                .addMethod(buildWrite(modelName, properties))
+                .build())
+                .addFileComment("Generated by the magnetrestclient-compiler. Do not modify!")
+                .build();
+    }
+
+    private MethodSpec buildRead(ClassName modelName, List<Property> properties) {
+        MethodSpec.Builder read = MethodSpec.methodBuilder("read")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(modelName)
+                .addParameter(JSON_READER, "in")
+                .addException(IOException.class)
+                .beginControlFlow("if (in.peek() == $T.NULL)", JSON_TOKEN)
+                .addStatement("in.nextNull()")
+                .addStatement("return null")
+                .endControlFlow()
+                .addStatement("$T value = new $T()", modelName, modelName)
+                .addStatement("in.beginObject()")
+                .beginControlFlow("while (in.hasNext())")
+                .beginControlFlow("switch (in.nextName())");
+
+        for (Property property : properties) {
+            for (String jsonName : property.mJsonNames) {
+                read.addCode("case $S:\n", jsonName);
+            }
+
+            CodeBlock.Builder body = CodeBlock.builder().indent();
+            if (property.mType.getKind().isPrimitive()) {
+                // nulls leave primitive fields untouched, like Gson's reflective adapter does
+                String local = property.mFieldName + "Value";
+                body.addStatement("$T $N = $N.read(in)", property.mBoxedType, local,
+                        property.mAdapterName)
+                        .beginControlFlow("if ($N != null)", local)
+                        .addStatement("value.$N = $N", property.mFieldName, local)
+                        .endControlFlow();
+            } else {
+                body.addStatement("value.$N = $N.read(in)", property.mFieldName,
+                        property.mAdapterName);
+            }
+            read.addCode(body.addStatement("break").unindent().build());
+        }
+
+        return read.addCode("default:\n$>in.skipValue();\nbreak;\n$<")
+                .endControlFlow()
+                .endControlFlow()
+                .addStatement("in.endObject()")
+                .addStatement("return value")
+                .build();
+    }
+
+    private MethodSpec buildWrite(ClassName modelName, List<Property> properties) {
+        MethodSpec.Builder write = MethodSpec.methodBuilder("write")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(JSON_WRITER, "out")
+                .addParameter(modelName, "value")
+                .addException(IOException.class)
+                .beginControlFlow("if (value == null)")
+                .addStatement("out.nullValue()")
+                .addStatement("return")
+                .endControlFlow()
+                .addStatement("out.beginObject()");
+
+        for (Property property : properties) {
+            write.addStatement("out.name($S)", property.mJsonNames.get(0));
+            if (property.mType.getKind().isPrimitive()) {
+                write.addStatement("$N.write(out, value.$N)", property.mAdapterName,
+                        property.mFieldName);
+            } else {
+                write.beginControlFlow("if (value.$N == null)", property.mFieldName)
+                        .addStatement("out.nullValue()")
+                        .nextControlFlow("else")
+                        .addStatement("$N.write(out, value.$N)", property.mAdapterName,
+                                property.mFieldName)
+                        .endControlFlow();
+            }
+        }
+
+        return write.addStatement("out.endObject()").build();
+    }
+
+    private boolean containsTypeVariable(TypeMirror type) {
+        return type.accept(new SimpleTypeVisitor7<Boolean, Void>(false) {
+            @Override
+            public Boolean visitTypeVariable(TypeVariable t, Void p) {
+                return true;
+            }
+
+            @Override
+            public Boolean visitArray(ArrayType t, Void p) {
+                return t.getComponentType().accept(this, p);
+            }
+
+            @Override
+            public Boolean visitWildcard(WildcardType t, Void p) {
+                TypeMirror extendsBound = t.getExtendsBound();
+                TypeMirror superBound = t.getSuperBound();
+                return (extendsBound != null && extendsBound.accept(this, p))
+                        || (superBound != null && superBound.accept(this, p));
+            }
+
+            @Override
+            public Boolean visitDeclared(DeclaredType t, Void p) {
+                for (TypeMirror argument : t.getTypeArguments()) {
+                    if (argument.accept(this, p)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+        }, null);
+    }
+
+    private static String joinSimpleNames(ClassName className) {
+        StringBuilder builder = new StringBuilder();
+        for (String simpleName : className.simpleNames()) {
+            if (builder.length() > 0) {
+                builder.append('_');
+            }
+            builder.append(simpleName);
+        }
+        return builder.toString();
+    }
+
+    private void error(Element element, String message) {
+        mMessager.printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+
+    /**
+     * A serialized field of the model.
+     */
+    private static final class Property {
+
+        final String mFieldName;
+        final String mAdapterName;
+        final TypeMirror mType;
+        final TypeName mBoxedType;
+        final List<String> mJsonNames;
+
+        Property(VariableElement field, TypeMirror type) {
+            mFieldName = field.getSimpleName().toString();
+            mAdapterName = mFieldName + "Adapter";
+            mType = type;
+            mBoxedType = TypeName.get(type).box();
+            mJsonNames = getJsonNames(field);
+        }
+
+        /**
+         * @return The serialized name first, followed by the alternate names
+         */
+        @SuppressWarnings("unchecked")
+        private static List<String> getJsonNames(VariableElement field) {
+            List<String> names = new ArrayList<>();
+            names.add(field.getSimpleName().toString());
+
+            for (AnnotationMirror annotation : field.getAnnotationMirrors()) {
+                TypeElement annotationType = (TypeElement) annotation.getAnnotationType()
+                        .asElement();
+                if (!annotationType.getQualifiedName().contentEquals(SERIALIZED_NAME)) {
+                    continue;
+                }
+
+                for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry
+                        : annotation.getElementValues().entrySet()) {
+                    String key = entry.getKey().getSimpleName().toString();
+                    if ("value".equals(key)) {
+                        names.set(0, (String) entry.getValue().getValue());
+                    } else if ("alternate".equals(key)) {
+                        for (AnnotationValue alternate
+                                : (List<? extends AnnotationValue>) entry.getValue().getValue()) {
+                            names.add((String) alternate.getValue());
+                        }
+                    }
+                }
+            }
+
+            return names;
+        }
+    }
+}
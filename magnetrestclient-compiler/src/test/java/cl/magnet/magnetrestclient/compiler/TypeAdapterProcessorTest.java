@@ -0,0 +1,274 @@
+package cl.magnet.magnetrestclient.compiler;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.testing.compile.Compilation;
+import com.google.testing.compile.Compiler;
+import com.google.testing.compile.JavaFileObjects;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.util.Arrays;
+
+import javax.tools.JavaFileObject;
+
+import static com.google.testing.compile.CompilationSubject.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Compiles models with {@link TypeAdapterProcessor}, and parses JSON with the generated adapters.
+ */
+public class TypeAdapterProcessorTest {
+
+    private static final JavaFileObject ANNOTATION = JavaFileObjects.forSourceLines(
+            TypeAdapterProcessor.ANNOTATION,
+            "package cl.magnet.magnetrestclient.annotations;",
+            "public @interface GenerateTypeAdapter {}");
+
+    @Test
+    public void testNestedClass() throws Exception {
+        Compilation compilation = compile(JavaFileObjects.forSourceLines("test.Page",
+                "package test;",
+                "import cl.magnet.magnetrestclient.annotations.GenerateTypeAdapter;",
+                "public class Page {",
+                "    @GenerateTypeAdapter",
+                "    public static class Item {",
+                "        int id;",
+                "        String name;",
+                "    }",
+                "}"));
+        assertThat(compilation).succeeded();
+        assertThat(compilation).generatedSourceFile("test.Page_Item_TypeAdapter");
+
+        Object item = read(compilation, "test.Page$Item", "{\"id\":3,\"name\":\"item\"}");
+        assertEquals(3, get(item, "id"));
+        assertEquals("item", get(item, "name"));
+    }
+
+    @Test
+    public void testGenericSuperclass() throws Exception {
+        Compilation compilation = compile(
+                JavaFileObjects.forSourceLines("test.Envelope",
+                        "package test;",
+                        "import java.util.List;",
+                        "public class Envelope<T> {",
+                        "    T data;",
+                        "    List<T> items;",
+                        "}"),
+                JavaFileObjects.forSourceLines("test.NameEnvelope",
+                        "package test;",
+                        "import cl.magnet.magnetrestclient.annotations.GenerateTypeAdapter;",
+                        "@GenerateTypeAdapter",
+                        "public class NameEnvelope extends Envelope<String> {",
+                        "    int count;",
+                        "}"));
+        assertThat(compilation).succeeded();
+
+        Object envelope = read(compilation, "test.NameEnvelope",
+                "{\"data\":\"a\",\"items\":[\"b\",\"c\"],\"count\":2}");
+        assertEquals("a", get(envelope, "data"));
+        assertEquals(Arrays.asList("b", "c"), get(envelope, "items"));
+        assertEquals(2, get(envelope, "count"));
+    }
+
+    @Test
+    public void testSerializedNameAlternates() throws Exception {
+        Compilation compilation = compile(JavaFileObjects.forSourceLines("test.User",
+                "package test;",
+                "import cl.magnet.magnetrestclient.annotations.GenerateTypeAdapter;",
+                "import com.google.gson.annotations.SerializedName;",
+                "@GenerateTypeAdapter",
+                "public class User {",
+                "    @SerializedName(value = \"user_id\", alternate = {\"id\", \"userId\"})",
+                "    long userId;",
+                "    @SerializedName(\"full_name\")",
+                "    String name;",
+                "}"));
+        assertThat(compilation).succeeded();
+
+        assertEquals(1L, get(read(compilation, "test.User", "{\"user_id\":1}"), "userId"));
+        assertEquals(2L, get(read(compilation, "test.User", "{\"id\":2}"), "userId"));
+        assertEquals(3L, get(read(compilation, "test.User", "{\"userId\":3}"), "userId"));
+        Object user = read(compilation, "test.User", "{\"full_name\":\"a\",\"name\":\"b\"}");
+        assertEquals("a", get(user, "name"));
+
+        // the serialized name is written
+        assertEquals("{\"user_id\":1,\"full_name\":\"a\"}",
+                write(compilation, "test.User", "{\"id\":1,\"full_name\":\"a\"}"));
+    }
+
+    @Test
+    public void testNullLeavesPrimitiveUntouched() throws Exception {
+        Compilation compilation = compile(JavaFileObjects.forSourceLines("test.Counter",
+                "package test;",
+                "import cl.magnet.magnetrestclient.annotations.GenerateTypeAdapter;",
+                "@GenerateTypeAdapter",
+                "public class Counter {",
+                "    int count = 7;",
+                "    String label = \"default\";",
+                "}"));
+        assertThat(compilation).succeeded();
+
+        Object counter = read(compilation, "test.Counter", "{\"count\":null,\"label\":null}");
+        assertEquals(7, get(counter, "count"));
+        assertNull(get(counter, "label"));
+    }
+
+    @Test
+    public void testPrivateFieldFails() {
+        Compilation compilation = compile(JavaFileObjects.forSourceLines("test.Secret",
+                "package test;",
+                "import cl.magnet.magnetrestclient.annotations.GenerateTypeAdapter;",
+                "@GenerateTypeAdapter",
+                "public class Secret {",
+                "    private String value;",
+                "}"));
+        assertThat(compilation).failed();
+        assertThat(compilation).hadErrorContaining("must not be private or final");
+    }
+
+    @Test
+    public void testGenericClassFails() {
+        Compilation compilation = compile(JavaFileObjects.forSourceLines("test.Box",
+                "package test;",
+                "import cl.magnet.magnetrestclient.annotations.GenerateTypeAdapter;",
+                "@GenerateTypeAdapter",
+                "public class Box<T> {",
+                "    T value;",
+                "}"));
+        assertThat(compilation).failed();
+        assertThat(compilation).hadErrorContaining("must not be generic");
+    }
+
+    @Test
+    public void testDuplicateNameFails() {
+        Compilation compilation = compile(JavaFileObjects.forSourceLines("test.Duplicate",
+                "package test;",
+                "import cl.magnet.magnetrestclient.annotations.GenerateTypeAdapter;",
+                "import com.google.gson.annotations.SerializedName;",
+                "@GenerateTypeAdapter",
+                "public class Duplicate {",
+                "    @SerializedName(value = \"a\", alternate = \"b\")",
+                "    String first;",
+                "    @SerializedName(\"b\")",
+                "    String second;",
+                "}"));
+        assertThat(compilation).failed();
+        assertThat(compilation).hadErrorContaining("serialized with the name b");
+    }
+
+    private static Compilation compile(JavaFileObject... sources) {
+        JavaFileObject[] files = new JavaFileObject[sources.length + 1];
+        files[0] = ANNOTATION;
+        System.arraycopy(sources, 0, files, 1, sources.length);
+        return Compiler.javac().withProcessors(new TypeAdapterProcessor()).compile(files);
+    }
+
+    private static Object read(Compilation compilation, String className, String json)
+            throws Exception {
+        return newGson(compilation, className).fromJson(json, load(compilation, className));
+    }
+
+    private static String write(Compilation compilation, String className, String json)
+            throws Exception {
+        Gson gson = newGson(compilation, className);
+        return gson.toJson(gson.fromJson(json, load(compilation, className)));
+    }
+
+    /**
+     * @return A Gson instance that fails if the generated adapter of the class isn't used
+     */
+    private static Gson newGson(Compilation compilation, final String className)
+            throws Exception {
+        final Class<?> type = load(compilation, className);
+        final Class<?> adapterType = load(compilation,
+                className.replace('$', '_') + TypeAdapterProcessor.ADAPTER_SUFFIX);
+        return new GsonBuilder().registerTypeAdapterFactory(new TypeAdapterFactory() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> typeToken) {
+                if (typeToken.getRawType() != type) {
+                    return null;
+                }
+                try {
+                    return (TypeAdapter<T>) adapterType.getConstructor(Gson.class)
+                            .newInstance(gson);
+                } catch (Exception e) {
+                    throw new AssertionError(e);
+                }
+            }
+        }).create();
+    }
+
+    private static Class<?> load(Compilation compilation, String className)
+            throws ClassNotFoundException {
+        return Class.forName(className, true, new CompilationClassLoader(compilation));
+    }
+
+    private static Object get(Object object, String fieldName) throws Exception {
+        Class<?> type = object.getClass();
+        while (type != null) {
+            try {
+                Field field = type.getDeclaredField(fieldName);
+                field.setAccessible(true);
+                return field.get(object);
+            } catch (NoSuchFieldException e) {
+                type = type.getSuperclass();
+            }
+        }
+        throw new NoSuchFieldException(fieldName);
+    }
+
+    /**
+     * Loads the classes compiled in memory.
+     */
+    private static class CompilationClassLoader extends ClassLoader {
+
+        private final Compilation mCompilation;
+
+        CompilationClassLoader(Compilation compilation) {
+            super(TypeAdapterProcessorTest.class.getClassLoader());
+            mCompilation = compilation;
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            JavaFileObject file = null;
+            String path = "/" + name.replace('.', '/') + JavaFileObject.Kind.CLASS.extension;
+            for (JavaFileObject generated : mCompilation.generatedFiles()) {
+                if (generated.getKind() == JavaFileObject.Kind.CLASS
+                        && generated.toUri().getPath().endsWith(path)) {
+                    file = generated;
+                }
+            }
+            if (file == null) {
+                throw new ClassNotFoundException(name);
+            }
+            try {
+                InputStream in = file.openInputStream();
+                try {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    byte[] buffer = new byte[4096];
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, read);
+                    }
+                    byte[] bytes = out.toByteArray();
+                    return defineClass(name, bytes, 0, bytes.length);
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                throw new ClassNotFoundException(name, e);
+            }
+        }
+    }
+}
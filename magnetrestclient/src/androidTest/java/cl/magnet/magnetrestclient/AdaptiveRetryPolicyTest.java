@@ -0,0 +1,173 @@
+package cl.magnet.magnetrestclient;
+
+import android.test.AndroidTestCase;
+
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.ServerError;
+import com.android.volley.VolleyError;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+
+import cl.magnet.magnetrestclient.requests.StringJsonRequest;
+
+/**
+ * Tests that {@link AdaptiveRetryPolicy} retries idempotent requests within the
+ * {@link RetryBudget}, and stops retrying when the {@link HostCircuitBreaker} opens the circuit
+ * of the host.
+ */
+public class AdaptiveRetryPolicyTest extends AndroidTestCase {
+
+    private MockWebServer mMockWebServer;
+    private HostCircuitBreaker mCircuitBreaker;
+    private CircuitBreakerNetwork mNetwork;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        mMockWebServer = new MockWebServer();
+        mMockWebServer.start();
+        mCircuitBreaker = new HostCircuitBreaker(HostCircuitBreaker.DEFAULT_FAILURE_THRESHOLD,
+                HostCircuitBreaker.DEFAULT_OPEN_DURATION_MS);
+        mNetwork = new CircuitBreakerNetwork(new OkHttpNetwork(new OkHttpClient()),
+                mCircuitBreaker);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mMockWebServer.shutdown();
+
+        super.tearDown();
+    }
+
+    public void testServerErrorOfIdempotentRequestIsRetried() throws Exception {
+        mMockWebServer.enqueue(new MockResponse().setResponseCode(503));
+        mMockWebServer.enqueue(new MockResponse().setBody("ok"));
+
+        StringJsonRequest request = newRequest(Request.Method.GET, new RetryBudget(0.1f, 10));
+        NetworkResponse response = mNetwork.performRequest(request);
+
+        assertEquals(200, response.statusCode);
+        assertEquals(2, mMockWebServer.getRequestCount());
+        assertEquals(1, request.getRetryPolicy().getCurrentRetryCount());
+    }
+
+    public void testServerErrorOfPostIsNotRetried() throws Exception {
+        mMockWebServer.enqueue(new MockResponse().setResponseCode(503));
+
+        try {
+            mNetwork.performRequest(newRequest(Request.Method.POST, new RetryBudget(0.1f, 10)));
+            fail();
+        } catch (ServerError e) {
+            assertEquals(503, e.networkResponse.statusCode);
+        }
+        assertEquals(1, mMockWebServer.getRequestCount());
+    }
+
+    public void testRetriesDoNotExceedBudget() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            mMockWebServer.enqueue(new MockResponse().setResponseCode(500));
+        }
+        mMockWebServer.enqueue(new MockResponse().setBody("ok"));
+        // a single retry, and requests don't add to it
+        RetryBudget budget = new RetryBudget(0, 1);
+
+        try {
+            mNetwork.performRequest(newRequest(Request.Method.GET, budget));
+            fail();
+        } catch (ServerError e) {
+            // the retry failed and the budget refused the second one
+        }
+        try {
+            mNetwork.performRequest(newRequest(Request.Method.GET, budget));
+            fail();
+        } catch (ServerError e) {
+            // not retried
+        }
+
+        assertEquals(3, mMockWebServer.getRequestCount());
+        assertEquals(1, budget.getRetryCount());
+        assertEquals(2, budget.getRejectedCount());
+    }
+
+    public void testBudgetIsRefilledByRequests() {
+        RetryBudget budget = new RetryBudget(0.5f, 1);
+        assertTrue(budget.tryRetry());
+        assertFalse(budget.tryRetry());
+
+        budget.onRequest();
+        assertFalse(budget.tryRetry());
+        budget.onRequest();
+        assertTrue(budget.tryRetry());
+
+        // the balance is capped
+        for (int i = 0; i < 10; i++) {
+            budget.onRequest();
+        }
+        assertEquals(1f, budget.getBalance());
+    }
+
+    public void testOpenCircuitStopsRetriesAndRequests() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            mMockWebServer.enqueue(new MockResponse().setResponseCode(503));
+        }
+        String host = HostCircuitBreaker.getHost(mMockWebServer.getUrl("/").toString());
+        HostCircuitBreaker circuitBreaker = new HostCircuitBreaker(3, 60000);
+        CircuitBreakerNetwork network = new CircuitBreakerNetwork(
+                new OkHttpNetwork(new OkHttpClient()), circuitBreaker);
+
+        StringJsonRequest request = newRequest(Request.Method.GET, null);
+        request.setRetryPolicy(new AdaptiveRetryPolicy(request, 2500, 10, 1, 1, null,
+                circuitBreaker));
+        try {
+            network.performRequest(request);
+            fail();
+        } catch (CircuitOpenError e) {
+            assertEquals(host, e.getHost());
+            assertEquals(503, e.networkResponse.statusCode);
+        }
+        // the third failure opened the circuit, although the request had retries left
+        assertEquals(3, mMockWebServer.getRequestCount());
+        assertEquals(HostCircuitBreaker.State.OPEN, circuitBreaker.getState(host));
+        assertEquals(1, circuitBreaker.getOpenCount());
+
+        try {
+            network.performRequest(newRequest(Request.Method.GET, null));
+            fail();
+        } catch (CircuitOpenError e) {
+            assertNull(e.networkResponse);
+        }
+        assertEquals(3, mMockWebServer.getRequestCount());
+    }
+
+    public void testBackoffHasJitter() {
+        StringJsonRequest request = newRequest(Request.Method.GET, null);
+        AdaptiveRetryPolicy policy = new AdaptiveRetryPolicy(request, 2500, 5, 100, 1000, null,
+                null);
+        long first = 0;
+        boolean varies = false;
+        for (int i = 0; i < 20; i++) {
+            long backoff = policy.getBackoffMs(1);
+            assertTrue(backoff >= 0 && backoff < 100);
+            assertTrue(policy.getBackoffMs(5) < 1000);
+            if (i == 0) {
+                first = backoff;
+            } else if (backoff != first) {
+                varies = true;
+            }
+        }
+        assertTrue(varies);
+    }
+
+    private StringJsonRequest newRequest(int method, RetryBudget budget) {
+        StringJsonRequest request = new StringJsonRequest(method,
+                mMockWebServer.getUrl("/").toString(), method == Request.Method.GET ? null : "{}",
+                null, null);
+        request.setShouldCache(false);
+        request.setRetryPolicy(new AdaptiveRetryPolicy(request, 2500, 2, 1, 10, budget,
+                mCircuitBreaker));
+        return request;
+    }
+}
@@ -14,6 +14,9 @@ import com.squareup.okhttp.mockwebserver.RecordedRequest;
 import org.apache.http.protocol.HTTP;
 
 import java.io.UnsupportedEncodingException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 
 import cl.magnet.magnetrestclient.requests.BaseJsonRequest;
 
@@ -55,6 +58,45 @@ public class BaseJsonRequestTest extends AndroidTestCase {
         mMockWebServer.shutdown();
     }
 
+    public void testDefaultHeadersAreShared() throws Exception {
+        Map<String, String> defaultHeaders = Collections.singletonMap(HTTP.USER_AGENT, "default");
+
+        BaseJsonRequestImpl request = new BaseJsonRequestImpl(Request.Method.GET, "/", null, null,
+                null);
+        request.setDefaultHeaders(defaultHeaders);
+
+        assertSame(defaultHeaders, request.getHeaders());
+    }
+
+    public void testHeadersAreLayeredOverDefaultHeaders() throws Exception {
+        BaseJsonRequestImpl request = new BaseJsonRequestImpl(Request.Method.GET, "/", null, null,
+                null);
+        request.addHeader("Authorization", "token");
+        request.setDefaultHeaders(Collections.singletonMap(HTTP.USER_AGENT, "first"));
+        request.setDefaultHeaders(Collections.singletonMap(HTTP.USER_AGENT, "second"));
+
+        Map<String, String> headers = request.getHeaders();
+        assertEquals(2, headers.size());
+        assertEquals("token", headers.get("Authorization"));
+        assertEquals("second", headers.get(HTTP.USER_AGENT));
+    }
+
+    public void testHeadersTakePrecedenceOverDefaultHeaders() throws Exception {
+        Map<String, String> defaultHeaders = new HashMap<>();
+        defaultHeaders.put(HTTP.USER_AGENT, "default");
+        defaultHeaders.put("Accept-Language", "es");
+
+        BaseJsonRequestImpl request = new BaseJsonRequestImpl(Request.Method.GET, "/", null, null,
+                null);
+        request.setUserAgent("own");
+        request.setDefaultHeaders(Collections.unmodifiableMap(defaultHeaders));
+
+        assertEquals("own", request.getHeaders().get(HTTP.USER_AGENT));
+        assertEquals("es", request.getHeaders().get("Accept-Language"));
+        // the default headers are not modified
+        assertEquals("default", defaultHeaders.get(HTTP.USER_AGENT));
+    }
+
     private static class BaseJsonRequestImpl extends BaseJsonRequest<String> {
 
         public BaseJsonRequestImpl(int method, String url, String requestBody,
@@ -63,6 +105,11 @@ public class BaseJsonRequestTest extends AndroidTestCase {
             super(method, url, requestBody, listener, errorListener);
         }
 
+        @Override
+        public void addHeader(String key, String value) {
+            super.addHeader(key, value);
+        }
+
         @Override
         protected Response<String> parseNetworkResponse(NetworkResponse networkResponse) {
             String parsed;
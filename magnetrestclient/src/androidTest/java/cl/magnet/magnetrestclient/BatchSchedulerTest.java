@@ -0,0 +1,232 @@
+package cl.magnet.magnetrestclient;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.test.AndroidTestCase;
+
+import com.android.volley.ExecutorDelivery;
+import com.android.volley.Request;
+import com.android.volley.RequestQueue;
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.NoCache;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.mockwebserver.Dispatcher;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import cl.magnet.magnetrestclient.requests.StringJsonRequest;
+
+/**
+ * Tests that {@link BatchScheduler} sends the requests added within its window in a single
+ * {@link cl.magnet.magnetrestclient.requests.BatchRequest} and delivers each response to its
+ * request.
+ */
+public class BatchSchedulerTest extends AndroidTestCase {
+
+    private static final int REQUESTS = 5;
+
+    private MockWebServer mMockWebServer;
+    private BatchScheduler mScheduler;
+    private RequestQueue mRequestQueue;
+
+    private final List<String> mResponses = Collections.synchronizedList(
+            new ArrayList<String>());
+    private final List<VolleyError> mErrors = Collections.synchronizedList(
+            new ArrayList<VolleyError>());
+    private volatile CountDownLatch mLatch;
+    private volatile boolean mBatchFails;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        mMockWebServer = new MockWebServer();
+        mMockWebServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                if (!request.getPath().equals("/batch")) {
+                    return new MockResponse().setBody("single " + request.getPath());
+                }
+                if (mBatchFails) {
+                    return new MockResponse().setResponseCode(503);
+                }
+                return new MockResponse().setBody(respond(request.getBody().readUtf8()));
+            }
+        });
+        mMockWebServer.start();
+
+        BatchItemNetwork network = new BatchItemNetwork(new OkHttpNetwork(new OkHttpClient()));
+        mRequestQueue = new RequestQueue(new NoCache(), network, 2,
+                new ExecutorDelivery(new Handler(Looper.getMainLooper())));
+        mScheduler = new BatchScheduler(mMockWebServer.getUrl("/batch").toString(), 50,
+                REQUESTS, 2500);
+        mScheduler.attach(mRequestQueue, network);
+        mRequestQueue.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mRequestQueue.stop();
+        mMockWebServer.shutdown();
+
+        super.tearDown();
+    }
+
+    /**
+     * Responds each sub-request with its method and url, or with a 404 for /missing.
+     */
+    private static String respond(String body) {
+        JsonArray responses = new JsonArray();
+        for (JsonElement element : new JsonParser().parse(body).getAsJsonArray()) {
+            JsonObject request = element.getAsJsonObject();
+            String url = request.get("url").getAsString();
+            JsonObject response = new JsonObject();
+            response.addProperty("status", url.equals("/missing") ? 404 : 200);
+            response.add("headers", new JsonObject());
+            String responseBody = request.get("method").getAsString() + " " + url;
+            if (request.has("body")) {
+                responseBody += " " + request.get("body").getAsString();
+            }
+            response.addProperty("body", responseBody);
+            responses.add(response);
+        }
+        return responses.toString();
+    }
+
+    public void testRequestsAreSentInOneBatch() throws Exception {
+        mLatch = new CountDownLatch(3);
+        add(newRequest(Request.Method.GET, "/items/1?fields=name", null));
+        add(newRequest(Request.Method.POST, "/items", "{\"name\":\"item\"}"));
+        add(newRequest(Request.Method.DELETE, "/items/2", null));
+        awaitResponses();
+
+        assertEquals(1, mMockWebServer.getRequestCount());
+        assertTrue(mResponses.contains("GET /items/1?fields=name"));
+        assertTrue(mResponses.contains("POST /items {\"name\":\"item\"}"));
+        assertTrue(mResponses.contains("DELETE /items/2"));
+        assertEquals(1, mScheduler.getBatchCount());
+        assertEquals(3, mScheduler.getBatchedRequestCount());
+    }
+
+    public void testFullBatchIsSentBeforeTheWindowEnds() throws Exception {
+        mLatch = new CountDownLatch(REQUESTS);
+        for (int i = 0; i < REQUESTS; i++) {
+            add(newRequest(Request.Method.GET, "/items/" + i, null));
+        }
+        assertEquals(0, mScheduler.getPendingCount());
+        awaitResponses();
+
+        assertEquals(1, mMockWebServer.getRequestCount());
+        assertEquals(REQUESTS, mResponses.size());
+    }
+
+    public void testUnsuccessfulItemIsDeliveredAsError() throws Exception {
+        mLatch = new CountDownLatch(2);
+        add(newRequest(Request.Method.GET, "/items/1", null));
+        add(newRequest(Request.Method.GET, "/missing", null));
+        awaitResponses();
+
+        assertEquals(1, mResponses.size());
+        assertEquals(1, mErrors.size());
+        assertEquals(404, mErrors.get(0).networkResponse.statusCode);
+    }
+
+    public void testFailedBatchRetriesOnlyGetRequests() throws Exception {
+        mBatchFails = true;
+        mLatch = new CountDownLatch(3);
+        add(newRequest(Request.Method.GET, "/items/1", null));
+        add(newRequest(Request.Method.GET, "/items/2", null));
+        add(newRequest(Request.Method.POST, "/items", "{\"name\":\"item\"}"));
+        awaitResponses();
+
+        assertEquals(3, mMockWebServer.getRequestCount());
+        assertTrue(mResponses.contains("single /items/1"));
+        assertTrue(mResponses.contains("single /items/2"));
+        assertEquals(1, mErrors.size());
+        assertEquals(503, mErrors.get(0).networkResponse.statusCode);
+    }
+
+    public void testCacheableGetIsNotBatched() throws Exception {
+        mLatch = new CountDownLatch(2);
+        Request<String> cacheable = newRequest(Request.Method.GET, "/items/1", null);
+        cacheable.setShouldCache(true);
+        add(cacheable);
+        add(newRequest(Request.Method.GET, "/items/2", null));
+        awaitResponses();
+
+        assertTrue(mResponses.contains("single /items/1"));
+        assertTrue(mResponses.contains("single /items/2"));
+        assertEquals(0, mScheduler.getBatchCount());
+    }
+
+    public void testSingleRequestIsNotBatched() throws Exception {
+        mLatch = new CountDownLatch(1);
+        add(newRequest(Request.Method.GET, "/items/1", null));
+        awaitResponses();
+
+        assertEquals("single /items/1", mResponses.get(0));
+        assertEquals(0, mScheduler.getBatchCount());
+    }
+
+    public void testCancelledRequestIsNotSent() throws Exception {
+        mLatch = new CountDownLatch(2);
+        Request<String> cancelled = newRequest(Request.Method.GET, "/cancelled", null);
+        cancelled.setTag("cancelled");
+        add(cancelled);
+        add(newRequest(Request.Method.GET, "/items/1", null));
+        add(newRequest(Request.Method.GET, "/items/2", null));
+        mScheduler.cancelAll(new RequestQueue.RequestFilter() {
+            @Override
+            public boolean apply(Request<?> request) {
+                return "cancelled".equals(request.getTag());
+            }
+        });
+        awaitResponses();
+
+        assertEquals(2, mResponses.size());
+        assertEquals(2, mScheduler.getBatchedRequestCount());
+    }
+
+    private void add(Request<String> request) {
+        if (mScheduler.add(request)) {
+            mRequestQueue.add(request);
+        }
+    }
+
+    private void awaitResponses() throws InterruptedException {
+        assertTrue(mLatch.await(10, TimeUnit.SECONDS));
+    }
+
+    private Request<String> newRequest(int method, String path, String body) {
+        Response.Listener<String> listener = new Response.Listener<String>() {
+            @Override
+            public void onResponse(String response) {
+                mResponses.add(response);
+                mLatch.countDown();
+            }
+        };
+        Response.ErrorListener errorListener = new Response.ErrorListener() {
+            @Override
+            public void onErrorResponse(VolleyError error) {
+                mErrors.add(error);
+                mLatch.countDown();
+            }
+        };
+        StringJsonRequest request = new StringJsonRequest(method,
+                mMockWebServer.getUrl(path).toString(), body, listener, errorListener);
+        request.setShouldCache(false);
+        return request;
+    }
+}
@@ -0,0 +1,79 @@
+package cl.magnet.magnetrestclient;
+
+import android.graphics.Bitmap;
+import android.test.AndroidTestCase;
+import android.widget.ImageView.ScaleType;
+
+import java.io.ByteArrayOutputStream;
+
+import cl.magnet.magnetrestclient.utils.BitmapDecoder;
+import cl.magnet.magnetrestclient.utils.BitmapPool;
+
+/**
+ * Tests that {@link BitmapDecoder} decodes images at the requested size and config.
+ */
+public class BitmapDecoderTest extends AndroidTestCase {
+
+    private static final int WIDTH = 800;
+    private static final int HEIGHT = 600;
+
+    private final BitmapDecoder mDecoder = new BitmapDecoder(null);
+
+    public void testImageIsDecodedAtItsSize() {
+        Bitmap bitmap = mDecoder.decode(encode(Bitmap.CompressFormat.PNG), 0, 0,
+                ScaleType.CENTER_INSIDE, true);
+
+        assertEquals(WIDTH, bitmap.getWidth());
+        assertEquals(HEIGHT, bitmap.getHeight());
+    }
+
+    public void testImageIsDecodedAtTheTargetSize() {
+        Bitmap bitmap = mDecoder.decode(encode(Bitmap.CompressFormat.PNG), 100, 100,
+                ScaleType.CENTER_INSIDE, true);
+
+        assertEquals(100, bitmap.getWidth());
+        assertEquals(75, bitmap.getHeight(), 1);
+    }
+
+    public void testCenterCropFillsTheTargetSize() {
+        Bitmap bitmap = mDecoder.decode(encode(Bitmap.CompressFormat.PNG), 100, 100,
+                ScaleType.CENTER_CROP, true);
+
+        assertEquals(100, bitmap.getHeight(), 1);
+        assertTrue(bitmap.getWidth() >= 100);
+    }
+
+    public void testJpegIsDecodedAsRgb565() {
+        byte[] jpeg = encode(Bitmap.CompressFormat.JPEG);
+
+        assertEquals(Bitmap.Config.RGB_565, mDecoder.decode(jpeg, 100, 100,
+                ScaleType.CENTER_INSIDE, true).getConfig());
+        assertEquals(Bitmap.Config.ARGB_8888, mDecoder.decode(jpeg, 100, 100,
+                ScaleType.CENTER_INSIDE, false).getConfig());
+    }
+
+    public void testPngKeepsItsAlpha() {
+        Bitmap bitmap = mDecoder.decode(encode(Bitmap.CompressFormat.PNG), 100, 100,
+                ScaleType.CENTER_INSIDE, true);
+
+        assertEquals(Bitmap.Config.ARGB_8888, bitmap.getConfig());
+    }
+
+    public void testPooledBitmapIsReused() {
+        BitmapPool pool = new BitmapPool(WIDTH * HEIGHT * 4);
+        BitmapDecoder decoder = new BitmapDecoder(pool);
+        byte[] png = encode(Bitmap.CompressFormat.PNG);
+        pool.put(decoder.decode(png, 0, 0, ScaleType.CENTER_INSIDE, true));
+
+        decoder.decode(png, 0, 0, ScaleType.CENTER_INSIDE, true);
+
+        assertEquals(1, pool.getHitCount());
+    }
+
+    private static byte[] encode(Bitmap.CompressFormat format) {
+        Bitmap bitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        bitmap.compress(format, 90, output);
+        return output.toByteArray();
+    }
+}
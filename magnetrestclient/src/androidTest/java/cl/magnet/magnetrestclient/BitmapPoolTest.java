@@ -0,0 +1,75 @@
+package cl.magnet.magnetrestclient;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.test.AndroidTestCase;
+
+import cl.magnet.magnetrestclient.utils.BitmapPool;
+import cl.magnet.magnetrestclient.utils.LruBitmapCache;
+
+/**
+ * Tests that {@link BitmapPool} returns bitmaps that fit, and that {@link LruBitmapCache} doesn't
+ * add the evicted bitmaps to it, since they may still be displayed.
+ */
+public class BitmapPoolTest extends AndroidTestCase {
+
+    private static final int SIZE = 100;
+    private static final int BYTES = SIZE * SIZE * 4;
+
+    public void testBitmapIsReused() {
+        BitmapPool pool = new BitmapPool(BYTES * 2);
+        Bitmap bitmap = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        pool.put(bitmap);
+
+        assertEquals(BYTES, pool.getSizeBytes());
+        assertSame(bitmap, pool.get(SIZE, SIZE, Bitmap.Config.ARGB_8888));
+        assertEquals(0, pool.getSizeBytes());
+        assertNull(pool.get(SIZE, SIZE, Bitmap.Config.ARGB_8888));
+        assertEquals(1, pool.getHitCount());
+        assertEquals(1, pool.getMissCount());
+    }
+
+    public void testSmallerImageReusesBiggerBitmapFromKitKat() {
+        BitmapPool pool = new BitmapPool(BYTES * 2);
+        pool.put(Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888));
+
+        Bitmap reused = pool.get(SIZE / 2, SIZE, Bitmap.Config.ARGB_8888);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            assertNotNull(reused);
+        } else {
+            assertNull(reused);
+        }
+        // too big to fit
+        assertNull(pool.get(SIZE * 2, SIZE, Bitmap.Config.ARGB_8888));
+    }
+
+    public void testOldestBitmapsAreDropped() {
+        BitmapPool pool = new BitmapPool(BYTES * 2);
+        Bitmap oldest = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        pool.put(oldest);
+        pool.put(Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888));
+        pool.put(Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888));
+
+        assertEquals(BYTES * 2, pool.getSizeBytes());
+        assertNotSame(oldest, pool.get(SIZE, SIZE, Bitmap.Config.ARGB_8888));
+        assertNotSame(oldest, pool.get(SIZE, SIZE, Bitmap.Config.ARGB_8888));
+    }
+
+    public void testImmutableBitmapIsIgnored() {
+        BitmapPool pool = new BitmapPool(BYTES * 2);
+        Bitmap bitmap = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        pool.put(bitmap.copy(Bitmap.Config.ARGB_8888, false));
+
+        assertEquals(0, pool.getSizeBytes());
+    }
+
+    public void testEvictedBitmapIsNotAddedToThePool() {
+        BitmapPool pool = new BitmapPool(BYTES * 2);
+        LruBitmapCache cache = new LruBitmapCache(BYTES, pool);
+        cache.putBitmap("first", Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888));
+        cache.putBitmap("second", Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888));
+
+        assertNull(cache.getBitmap("first"));
+        assertEquals(0, pool.getSizeBytes());
+    }
+}
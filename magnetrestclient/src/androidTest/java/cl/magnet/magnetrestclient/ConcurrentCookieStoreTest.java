@@ -0,0 +1,111 @@
+package cl.magnet.magnetrestclient;
+
+import android.test.AndroidTestCase;
+
+import java.net.CookieManager;
+import java.net.HttpCookie;
+import java.net.URI;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import cl.magnet.magnetrestclient.utils.ConcurrentCookieStore;
+
+/**
+ * Tests that {@link ConcurrentCookieStore} matches cookies like a browser, and that it can be
+ * read and written by many threads at the same time. How reads scale with threads is measured
+ * by the CookieStoreBenchmark of the magnetrestclient-benchmark module.
+ */
+public class ConcurrentCookieStoreTest extends AndroidTestCase {
+
+    private static final int THREADS = 8;
+
+    public void testCookiesMatchDomainAndPath() {
+        ConcurrentCookieStore store = new ConcurrentCookieStore();
+        URI uri = URI.create("http://api.example.com/items/1");
+        store.add(uri, newCookie("domain", ".example.com", "/"));
+        store.add(uri, newCookie("host", "api.example.com", "/items"));
+        store.add(uri, newCookie("prefix", "api.example.com", "/item"));
+        store.add(uri, newCookie("sibling", "www.example.com", "/"));
+        store.add(uri, newCookie("suffix", "otherexample.com", "/"));
+
+        List<HttpCookie> cookies = store.get(uri);
+        assertEquals(2, cookies.size());
+        // longest paths first
+        assertEquals("host", cookies.get(0).getName());
+        assertEquals("domain", cookies.get(1).getName());
+        assertEquals(2, store.get(URI.create("http://www.example.com/")).size());
+        assertEquals(1, store.get(URI.create("http://example.com/")).size());
+    }
+
+    public void testHostOnlyCookie() {
+        ConcurrentCookieStore store = new ConcurrentCookieStore();
+        HttpCookie cookie = new HttpCookie("name", "value");
+        store.add(URI.create("http://localhost/"), cookie);
+
+        assertEquals(1, store.get(URI.create("http://localhost/path")).size());
+        assertTrue(store.remove(URI.create("http://localhost/"), cookie));
+        assertTrue(store.get(URI.create("http://localhost/path")).isEmpty());
+    }
+
+    public void testWorksWithCookieManager() throws Exception {
+        CookieManager cookieManager = new CookieManager(new ConcurrentCookieStore(), null);
+        URI uri = URI.create("http://api.example.com/login");
+        cookieManager.put(uri, Collections.singletonMap("Set-Cookie",
+                Collections.singletonList("sessionid=abc; Path=/")));
+
+        assertEquals(1, cookieManager.getCookieStore().get(URI.create("http://api.example.com/"))
+                .size());
+        assertTrue(cookieManager.getCookieStore().get(URI.create("http://example.com/"))
+                .isEmpty());
+    }
+
+    public void testConcurrentReadsAndWrites() throws Exception {
+        final ConcurrentCookieStore store = new ConcurrentCookieStore();
+        final URI uri = URI.create("https://example.com/");
+        store.add(uri, newCookie("sessionid", "example.com", "/"));
+        final AtomicInteger missing = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(THREADS);
+
+        for (int i = 0; i < THREADS; i++) {
+            final int thread = i;
+            new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 1000; j++) {
+                        HttpCookie cookie = newCookie("cookie" + thread, "example.com", "/");
+                        store.add(uri, cookie);
+                        if (!containsName(store.get(uri), "sessionid")) {
+                            missing.incrementAndGet();
+                        }
+                        store.remove(uri, cookie);
+                    }
+                    done.countDown();
+                }
+            }.start();
+        }
+
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        assertEquals(0, missing.get());
+        assertEquals(1, store.getCookies().size());
+    }
+
+    private static boolean containsName(List<HttpCookie> cookies, String name) {
+        for (HttpCookie cookie : cookies) {
+            if (cookie.getName().equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static HttpCookie newCookie(String name, String domain, String path) {
+        HttpCookie cookie = new HttpCookie(name, "value");
+        cookie.setDomain(domain);
+        cookie.setPath(path);
+        cookie.setVersion(0);
+        return cookie;
+    }
+}
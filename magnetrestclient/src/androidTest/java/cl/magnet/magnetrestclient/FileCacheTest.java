@@ -0,0 +1,202 @@
+package cl.magnet.magnetrestclient;
+
+import android.test.AndroidTestCase;
+
+import com.android.volley.Cache;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import cl.magnet.magnetrestclient.cache.EvictionPolicy;
+import cl.magnet.magnetrestclient.cache.FileCache;
+import cl.magnet.magnetrestclient.cache.ManagedCache;
+import cl.magnet.magnetrestclient.cache.PartitionedCache;
+
+/**
+ * Tests the eviction policies and counters of {@link FileCache} and the partitions of
+ * {@link PartitionedCache}.
+ */
+public class FileCacheTest extends AndroidTestCase {
+
+    private static final int ENTRY_SIZE = 1000;
+
+    /**
+     * Fits three entries and their headers, but not four.
+     */
+    private static final long MAX_BYTES = 3 * ENTRY_SIZE + 800;
+
+    private File mCacheDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        mCacheDir = new File(getContext().getCacheDir(), "file-cache-test");
+        deleteRecursively(mCacheDir);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteRecursively(mCacheDir);
+
+        super.tearDown();
+    }
+
+    public void testLruEvictsLeastRecentlyUsed() {
+        FileCache cache = newCache(EvictionPolicy.LRU);
+        cache.put("a", newEntry(Long.MAX_VALUE));
+        cache.put("b", newEntry(Long.MAX_VALUE));
+        cache.put("c", newEntry(Long.MAX_VALUE));
+        assertNotNull(cache.get("a"));
+
+        cache.put("d", newEntry(Long.MAX_VALUE));
+
+        assertFalse(cache.contains("b"));
+        assertTrue(cache.contains("a"));
+        assertEquals(1, cache.getStats().getEvictionCount());
+        assertTrue(cache.getSizeBytes() <= MAX_BYTES);
+    }
+
+    public void testLfuEvictsLeastFrequentlyUsed() {
+        FileCache cache = newCache(EvictionPolicy.LFU);
+        cache.put("a", newEntry(Long.MAX_VALUE));
+        cache.put("b", newEntry(Long.MAX_VALUE));
+        cache.put("c", newEntry(Long.MAX_VALUE));
+        cache.get("a");
+        cache.get("a");
+        cache.get("b");
+        cache.get("b");
+        cache.get("c");
+
+        cache.put("d", newEntry(Long.MAX_VALUE));
+
+        assertFalse(cache.contains("c"));
+        assertTrue(cache.contains("a"));
+        assertTrue(cache.contains("b"));
+    }
+
+    public void testTtlWeightedEvictsSoonestExpiring() {
+        long now = System.currentTimeMillis();
+        FileCache cache = newCache(EvictionPolicy.TTL_WEIGHTED);
+        cache.put("a", newEntry(now + 60000));
+        cache.put("b", newEntry(now + 1000));
+        cache.put("c", newEntry(now + 30000));
+        cache.get("b");
+
+        cache.put("d", newEntry(now + 60000));
+
+        assertFalse(cache.contains("b"));
+        assertTrue(cache.contains("c"));
+    }
+
+    public void testStats() {
+        FileCache cache = newCache(EvictionPolicy.LRU);
+        cache.put("a", newEntry(Long.MAX_VALUE));
+
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+
+        assertEquals(1, cache.getStats().getHitCount());
+        assertEquals(1, cache.getStats().getMissCount());
+        assertEquals(0.5, cache.getStats().getHitRate());
+    }
+
+    public void testEntriesSurviveRestart() {
+        FileCache cache = newCache(EvictionPolicy.LRU);
+        Cache.Entry entry = newEntry(Long.MAX_VALUE);
+        entry.etag = "etag";
+        entry.responseHeaders.put("Content-Type", "application/json");
+        cache.put("a", entry);
+
+        FileCache restarted = newCache(EvictionPolicy.LRU);
+        Cache.Entry restored = restarted.get("a");
+
+        assertNotNull(restored);
+        assertEquals("etag", restored.etag);
+        assertEquals(ENTRY_SIZE, restored.data.length);
+        assertEquals("application/json", restored.responseHeaders.get("content-type"));
+        assertEquals(cache.getSizeBytes(), restarted.getSizeBytes());
+    }
+
+    public void testMinTtlKeepsUncacheableResponses() {
+        FileCache cache = new FileCache(mCacheDir, MAX_BYTES, EvictionPolicy.LRU, 60000);
+        cache.initialize();
+        Cache.Entry stored = newEntry(0);
+        cache.put("a", stored);
+
+        Cache.Entry entry = cache.get("a");
+        assertFalse(entry.isExpired());
+        assertTrue(entry.refreshNeeded());
+        // the entry of the caller keeps its ttl
+        assertEquals(0, stored.ttl);
+    }
+
+    public void testInvalidateIgnoresMinTtl() throws Exception {
+        FileCache cache = new FileCache(mCacheDir, MAX_BYTES, EvictionPolicy.LRU, 60000);
+        cache.initialize();
+        cache.put("a", newEntry(0));
+        long ttl = cache.get("a").ttl;
+        Thread.sleep(10);
+
+        // a soft invalidation doesn't extend the entry
+        cache.invalidate("a", false);
+        assertEquals(ttl, cache.get("a").ttl);
+        assertTrue(cache.get("a").refreshNeeded());
+
+        cache.invalidate("a", true);
+        assertTrue(cache.get("a").isExpired());
+    }
+
+    public void testPartitionsAreIndependent() {
+        Map<String, ManagedCache> partitions = new HashMap<>();
+        partitions.put("images", new FileCache(new File(mCacheDir, "images"), MAX_BYTES,
+                EvictionPolicy.LRU));
+        PartitionedCache cache = new PartitionedCache(new FileCache(new File(mCacheDir,
+                "default"), MAX_BYTES, EvictionPolicy.LRU), partitions);
+        cache.initialize();
+
+        cache.assign("image", "images");
+        cache.assign("key 0", "unknown");
+        cache.put("image", newEntry(Long.MAX_VALUE));
+        cache.unassign("image");
+        for (int i = 0; i < 10; i++) {
+            cache.put("key " + i, newEntry(Long.MAX_VALUE));
+        }
+        // the entry stays in its partition after it is unassigned
+        cache.put("image", newEntry(Long.MAX_VALUE));
+
+        // the default partition evictions don't touch the image
+        assertNotNull(cache.get("image"));
+        assertTrue(cache.getPartition("images").contains("image"));
+        assertFalse(cache.getDefaultPartition().contains("image"));
+        assertEquals(1, cache.getPartition("images").getStats().getHitCount());
+        assertEquals(0, cache.getPartition("images").getStats().getEvictionCount());
+        assertEquals(7, cache.getStats().getEvictionCount());
+    }
+
+    private FileCache newCache(EvictionPolicy evictionPolicy) {
+        FileCache cache = new FileCache(mCacheDir, MAX_BYTES, evictionPolicy);
+        cache.initialize();
+        return cache;
+    }
+
+    private static Cache.Entry newEntry(long ttl) {
+        Cache.Entry entry = new Cache.Entry();
+        entry.data = new byte[ENTRY_SIZE];
+        entry.ttl = ttl;
+        entry.softTtl = ttl == Long.MAX_VALUE ? ttl : 0;
+        entry.responseHeaders = new HashMap<>();
+        return entry;
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
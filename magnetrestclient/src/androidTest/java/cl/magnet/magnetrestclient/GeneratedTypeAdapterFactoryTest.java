@@ -0,0 +1,58 @@
+package cl.magnet.magnetrestclient;
+
+import android.test.AndroidTestCase;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.annotations.SerializedName;
+import com.google.gson.reflect.TypeToken;
+
+import java.util.List;
+
+import cl.magnet.magnetrestclient.annotations.GenerateTypeAdapter;
+import cl.magnet.magnetrestclient.utils.GeneratedTypeAdapterFactory;
+import cl.magnet.magnetrestclient.utils.GsonRegistry;
+
+/**
+ * Tests that {@link GeneratedTypeAdapterFactory} returns the adapters generated by the
+ * magnetrestclient-compiler, which is the annotation processor of the tests.
+ */
+public class GeneratedTypeAdapterFactoryTest extends AndroidTestCase {
+
+    public void testGeneratedAdapterIsUsed() {
+        TypeAdapter<Item> adapter = GsonRegistry.getDefault().getAdapter(Item.class);
+
+        assertEquals(GeneratedTypeAdapterFactoryTest.class.getName() + "_Item"
+                + GeneratedTypeAdapterFactory.ADAPTER_SUFFIX, adapter.getClass().getName());
+    }
+
+    public void testGeneratedAdapterParses() {
+        Item item = GsonRegistry.getDefault().fromJson(
+                "{\"item_id\":1,\"name\":\"item\",\"tags\":[\"a\",\"b\"],\"unknown\":true}",
+                Item.class);
+
+        assertEquals(1, item.id);
+        assertEquals("item", item.name);
+        assertEquals(2, item.tags.size());
+    }
+
+    public void testReflectiveAdapterWithoutAnnotation() {
+        Gson gson = GsonRegistry.getDefault();
+
+        assertNull(new GeneratedTypeAdapterFactory().create(gson,
+                TypeToken.get(Plain.class)));
+        assertEquals(3, gson.fromJson("{\"id\":3}", Plain.class).id);
+    }
+
+    @GenerateTypeAdapter
+    static class Item {
+        @SerializedName(value = "item_id", alternate = "id")
+        int id;
+        String name;
+        List<String> tags;
+    }
+
+    static class Plain {
+        int id;
+    }
+}
@@ -0,0 +1,99 @@
+package cl.magnet.magnetrestclient;
+
+import android.test.AndroidTestCase;
+
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.google.gson.Gson;
+
+import java.util.HashMap;
+import java.util.List;
+
+import cl.magnet.magnetrestclient.requests.GsonRequest;
+import cl.magnet.magnetrestclient.utils.GsonRegistry;
+
+/**
+ * Tests {@link GsonRegistry}. How much the shared instance saves is measured by the JMH benchmarks
+ * of the magnetrestclient-benchmark module.
+ */
+public class GsonRegistryTest extends AndroidTestCase {
+
+    private static final String TAG = GsonRegistryTest.class.getSimpleName();
+
+    private static final String PAYLOAD = "{\"id\":1,\"name\":\"user\",\"email\":\"user@example"
+            + ".com\",\"tags\":[\"a\",\"b\",\"c\"],\"address\":{\"street\":\"Main\","
+            + "\"number\":123,\"city\":\"Santiago\"}}";
+
+    private NetworkResponse mNetworkResponse;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        mNetworkResponse = new NetworkResponse(200, PAYLOAD.getBytes("UTF-8"),
+                new HashMap<String, String>(), false);
+    }
+
+    public void testDefaultIsShared() {
+        assertSame(GsonRegistry.getDefault(), GsonRegistry.getDefault());
+    }
+
+    public void testGetByKey() {
+        GsonRegistry.GsonFactory factory = new GsonRegistry.GsonFactory() {
+            @Override
+            public Gson create() {
+                return new Gson();
+            }
+        };
+
+        Gson gson = GsonRegistry.get(TAG, factory);
+        assertSame(gson, GsonRegistry.get(TAG, factory));
+        assertNotSame(gson, GsonRegistry.getDefault());
+
+        GsonRegistry.unregister(TAG);
+        assertNotSame(gson, GsonRegistry.get(TAG, factory));
+        GsonRegistry.unregister(TAG);
+    }
+
+    public void testRequestsShareGsonAndAdapters() {
+        UserRequest first = new UserRequest();
+        UserRequest second = new UserRequest();
+        assertSame(GsonRegistry.getDefault(), first.gson());
+        assertSame(first.gson(), second.gson());
+
+        assertTrue(first.parse(mNetworkResponse).isSuccess());
+        assertTrue(second.parse(mNetworkResponse).isSuccess());
+        // the TypeAdapter created for the first request is reused
+        assertSame(first.gson().getAdapter(User.class), second.gson().getAdapter(User.class));
+    }
+
+    private static class UserRequest extends GsonRequest<User> {
+
+        public UserRequest() {
+            super(Request.Method.GET, "http://example.com/", User.class, null, null, null);
+        }
+
+        public Response<User> parse(NetworkResponse networkResponse) {
+            return parseNetworkResponse(networkResponse);
+        }
+
+        public Gson gson() {
+            return getGson();
+        }
+    }
+
+    private static class User {
+        long id;
+        String name;
+        String email;
+        List<String> tags;
+        Address address;
+    }
+
+    private static class Address {
+        String street;
+        int number;
+        String city;
+    }
+}
@@ -0,0 +1,164 @@
+package cl.magnet.magnetrestclient;
+
+import android.os.Debug;
+import android.test.AndroidTestCase;
+
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.google.gson.reflect.TypeToken;
+
+import java.lang.reflect.Type;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import cl.magnet.magnetrestclient.requests.GsonRequest;
+
+/**
+ * Tests the streaming and String parse modes of {@link GsonRequest}, and parsing generic types.
+ */
+public class GsonRequestTest extends AndroidTestCase {
+
+    private static final int ITEMS = 20000;
+
+    private NetworkResponse mNetworkResponse;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        StringBuilder builder = new StringBuilder("{\"items\":[");
+        for (int i = 0; i < ITEMS; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append("{\"id\":").append(i)
+                    .append(",\"name\":\"item ").append(i)
+                    .append("\",\"description\":\"a description long enough to matter\"}");
+        }
+        builder.append("]}");
+
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Content-Type", "application/json; charset=utf-8");
+        mNetworkResponse = new NetworkResponse(200, builder.toString().getBytes("UTF-8"),
+                headers, false);
+    }
+
+    public void testStreamingParse() throws Exception {
+        Response<ItemList> response = newRequest(true).parse(mNetworkResponse);
+
+        assertTrue(response.isSuccess());
+        assertEquals(ITEMS, response.result.items.size());
+        assertEquals("item 42", response.result.items.get(42).name);
+    }
+
+    public void testStreamingParseError() throws Exception {
+        NetworkResponse networkResponse = new NetworkResponse(200, "{\"items\":[".getBytes(),
+                new HashMap<String, String>(), false);
+        Response<ItemList> response = newRequest(true).parse(networkResponse);
+
+        assertFalse(response.isSuccess());
+    }
+
+    public void testTypeTokenParse() throws Exception {
+        NetworkResponse networkResponse = new NetworkResponse(200,
+                "[{\"id\":1,\"name\":\"first\"},{\"id\":2,\"name\":\"second\"}]"
+                        .getBytes("UTF-8"), new HashMap<String, String>(), false);
+        TypeToken<List<Item>> typeToken = new TypeToken<List<Item>>() {
+        };
+
+        for (boolean streaming : new boolean[]{true, false}) {
+            TypedGsonRequest<List<Item>> request = new TypedGsonRequest<>(typeToken);
+            request.setStreamingParse(streaming);
+            Response<List<Item>> response = request.parse(networkResponse);
+
+            assertTrue(response.isSuccess());
+            assertEquals(2, response.result.size());
+            // the elements are parsed as Items, not as maps
+            assertEquals("second", response.result.get(1).name);
+            assertEquals(typeToken.getType(), request.getType());
+        }
+    }
+
+    public void testTypeParse() throws Exception {
+        NetworkResponse networkResponse = new NetworkResponse(200,
+                "{\"a\":{\"id\":1}}".getBytes("UTF-8"), new HashMap<String, String>(), false);
+        Type type = new TypeToken<Map<String, Item>>() {
+        }.getType();
+
+        Response<Map<String, Item>> response = new TypedGsonRequest<Map<String, Item>>(type)
+                .parse(networkResponse);
+
+        assertTrue(response.isSuccess());
+        assertEquals(1, response.result.get("a").id);
+    }
+
+    public void testStreamingAllocatesLess() throws Exception {
+        // warm up both paths so class loading and adapter creation is not measured
+        newRequest(false).parse(mNetworkResponse);
+        newRequest(true).parse(mNetworkResponse);
+
+        long stringBytes = measureAllocatedBytes(newRequest(false));
+        long streamingBytes = measureAllocatedBytes(newRequest(true));
+
+        // the String path holds a UTF-16 copy of the whole body, that is at least two bytes per
+        // response byte, which the streaming path never allocates
+        assertTrue("streaming: " + streamingBytes + " string: " + stringBytes,
+                streamingBytes + 2L * mNetworkResponse.data.length <= stringBytes);
+    }
+
+    @SuppressWarnings("deprecation")
+    private long measureAllocatedBytes(TestGsonRequest request) {
+        Debug.resetThreadAllocSize();
+        Debug.startAllocCounting();
+        try {
+            request.parse(mNetworkResponse);
+            return Debug.getThreadAllocSize();
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    private TestGsonRequest newRequest(boolean streaming) {
+        TestGsonRequest request = new TestGsonRequest();
+        request.setStreamingParse(streaming);
+        return request;
+    }
+
+    private static class TestGsonRequest extends GsonRequest<ItemList> {
+
+        public TestGsonRequest() {
+            super(Request.Method.GET, "http://example.com/", ItemList.class, null, null, null);
+        }
+
+        public Response<ItemList> parse(NetworkResponse networkResponse) {
+            return parseNetworkResponse(networkResponse);
+        }
+    }
+
+    private static class TypedGsonRequest<T> extends GsonRequest<T> {
+
+        public TypedGsonRequest(TypeToken<T> typeToken) {
+            super(Request.Method.GET, "http://example.com/", typeToken, null, null, null);
+        }
+
+        public TypedGsonRequest(Type type) {
+            super(Request.Method.GET, "http://example.com/", type, null, null, null);
+        }
+
+        public Response<T> parse(NetworkResponse networkResponse) {
+            return parseNetworkResponse(networkResponse);
+        }
+    }
+
+    private static class ItemList {
+        List<Item> items;
+    }
+
+    private static class Item {
+        int id;
+        String name;
+        String description;
+    }
+}
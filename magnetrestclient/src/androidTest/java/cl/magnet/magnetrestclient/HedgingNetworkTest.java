@@ -0,0 +1,169 @@
+package cl.magnet.magnetrestclient;
+
+import android.test.AndroidTestCase;
+
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.VolleyError;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.mockwebserver.Dispatcher;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import cl.magnet.magnetrestclient.requests.StringJsonRequest;
+
+/**
+ * Tests that {@link HedgingNetwork} sends a second request when the response of a hedged
+ * request is slower than the usual latency of its route.
+ */
+public class HedgingNetworkTest extends AndroidTestCase {
+
+    private static final long SLOW_MS = 1500;
+
+    private MockWebServer mMockWebServer;
+    private HedgingNetwork mNetwork;
+
+    /**
+     * The number of the request that is slow, starting at 1.
+     */
+    private volatile int mSlowRequest;
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        mMockWebServer = new MockWebServer();
+        mMockWebServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                int number = mRequestCount.incrementAndGet();
+                if (number == mSlowRequest || mSlowRequest < 0) {
+                    Thread.sleep(SLOW_MS);
+                }
+                return new MockResponse().setBody(String.valueOf(number));
+            }
+        });
+        mMockWebServer.start();
+        mNetwork = new HedgingNetwork(new OkHttpNetwork(new OkHttpClient()));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mMockWebServer.shutdown();
+
+        super.tearDown();
+    }
+
+    public void testSlowRequestIsHedged() throws Exception {
+        warmUp();
+        mSlowRequest = HedgingNetwork.MIN_SAMPLES + 1;
+
+        long start = System.currentTimeMillis();
+        NetworkResponse response = mNetwork.performRequest(newRequest("/items/1", true));
+
+        assertTrue(System.currentTimeMillis() - start < SLOW_MS);
+        // the response of the second request
+        assertEquals(String.valueOf(HedgingNetwork.MIN_SAMPLES + 2),
+                new String(response.data, "UTF-8"));
+        assertEquals(1, mNetwork.getHedgedCount());
+    }
+
+    public void testRequestIsNotHedgedWithoutLatencies() throws Exception {
+        mSlowRequest = 1;
+
+        NetworkResponse response = mNetwork.performRequest(newRequest("/items/1", true));
+
+        assertEquals("1", new String(response.data, "UTF-8"));
+        assertEquals(1, mRequestCount.get());
+        assertEquals(0, mNetwork.getHedgedCount());
+    }
+
+    public void testRequestIsNotHedgedByDefault() throws Exception {
+        warmUp();
+        mSlowRequest = HedgingNetwork.MIN_SAMPLES + 1;
+
+        mNetwork.performRequest(newRequest("/items/1", false));
+
+        assertEquals(HedgingNetwork.MIN_SAMPLES + 1, mRequestCount.get());
+        assertEquals(0, mNetwork.getHedgedCount());
+    }
+
+    public void testCancelledRequestStopsWaiting() throws Exception {
+        warmUp();
+        mSlowRequest = -1;
+
+        final StringJsonRequest request = newRequest("/items/1", true);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    // cancelled right away
+                }
+                request.cancel();
+            }
+        }).start();
+
+        long start = System.currentTimeMillis();
+        try {
+            mNetwork.performRequest(request);
+            fail();
+        } catch (VolleyError e) {
+            assertTrue(System.currentTimeMillis() - start < SLOW_MS);
+        }
+        assertEquals(1, mNetwork.getHedgedCount());
+    }
+
+    public void testRoutesShareIds() {
+        String route = HedgingNetwork.getRoute(newRequest("/items/23", false));
+        assertEquals(route, HedgingNetwork.getRoute(newRequest("/items/1?page=2", false)));
+        assertEquals(route, HedgingNetwork.getRoute(newRequest(
+                "/items/123e4567-e89b-12d3-a456-426614174000", false)));
+        assertEquals(route, HedgingNetwork.getRoute(newRequest(
+                "/items/d41d8cd98f00b204e9800998ecf8427e", false)));
+        assertFalse(route.equals(HedgingNetwork.getRoute(newRequest("/items/1/tags", false))));
+        assertFalse(route.equals(HedgingNetwork.getRoute(newRequest("/items/cafe", false))));
+    }
+
+    public void testOnlyHedgedRequestsRecordLatencies() throws Exception {
+        mNetwork.performRequest(newRequest("/items/1", false));
+        assertEquals(0, mNetwork.getLatencyHistogram(HedgingNetwork.getRoute(
+                newRequest("/items/1", false))).getCount());
+
+        mNetwork.performRequest(newRequest("/items/1", true));
+        assertEquals(1, mNetwork.getLatencyHistogram(HedgingNetwork.getRoute(
+                newRequest("/items/1", true))).getCount());
+    }
+
+    public void testOnlyGetRequestsCanBeHedged() {
+        StringJsonRequest request = new StringJsonRequest(Request.Method.POST,
+                mMockWebServer.getUrl("/").toString(), "{}", null, null);
+        try {
+            request.setHedging(true);
+            fail();
+        } catch (IllegalStateException e) {
+            assertFalse(request.isHedging());
+        }
+    }
+
+    /**
+     * Records the latency of enough fast hedged requests to hedge the requests to the route.
+     */
+    private void warmUp() throws VolleyError {
+        for (int i = 0; i < HedgingNetwork.MIN_SAMPLES; i++) {
+            mNetwork.performRequest(newRequest("/items/" + i, true));
+        }
+    }
+
+    private StringJsonRequest newRequest(String path, boolean hedging) {
+        StringJsonRequest request = new StringJsonRequest(Request.Method.GET,
+                mMockWebServer.getUrl(path).toString(), null, null, null);
+        request.setHedging(hedging);
+        return request;
+    }
+}
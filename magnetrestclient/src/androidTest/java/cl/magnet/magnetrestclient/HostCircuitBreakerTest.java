@@ -0,0 +1,133 @@
+package cl.magnet.magnetrestclient;
+
+import android.test.AndroidTestCase;
+
+import com.android.volley.Network;
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.ServerError;
+import com.android.volley.TimeoutError;
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.StringRequest;
+
+import java.util.HashMap;
+
+/**
+ * Tests that {@link HostCircuitBreaker} opens the circuit of a host on its error rate and
+ * latency, and probes the host with a single request when the circuit is half-open.
+ */
+public class HostCircuitBreakerTest extends AndroidTestCase {
+
+    private static final String HOST = "example.com";
+
+    private static final VolleyError SERVER_ERROR = new ServerError(new NetworkResponse(503,
+            new byte[0], new HashMap<String, String>(), false));
+    private static final VolleyError NOT_FOUND = new ServerError(new NetworkResponse(404,
+            new byte[0], new HashMap<String, String>(), false));
+
+    public void testConsecutiveFailuresOpenCircuit() {
+        HostCircuitBreaker circuitBreaker = new HostCircuitBreaker(3, 60000);
+        circuitBreaker.onResult(HOST, new TimeoutError());
+        circuitBreaker.onResult(HOST, SERVER_ERROR);
+        assertEquals(HostCircuitBreaker.State.CLOSED, circuitBreaker.getState(HOST));
+
+        circuitBreaker.onResult(HOST, SERVER_ERROR);
+        assertEquals(HostCircuitBreaker.State.OPEN, circuitBreaker.getState(HOST));
+        assertFalse(circuitBreaker.allowRequest(HOST));
+        // other hosts are not affected
+        assertTrue(circuitBreaker.allowRequest("other.com"));
+    }
+
+    public void testErrorRateOpensCircuit() {
+        HostCircuitBreaker circuitBreaker = new HostCircuitBreaker(100, 0.5f, 60000, 60000);
+        for (int i = 0; i < HostCircuitBreaker.MIN_REQUESTS - 2; i++) {
+            circuitBreaker.onResult(HOST, i % 2 == 0 ? SERVER_ERROR : null, 10);
+        }
+        // the error rate is high, but there aren't enough requests yet
+        assertEquals(HostCircuitBreaker.State.CLOSED, circuitBreaker.getState(HOST));
+        assertEquals(0.5f, circuitBreaker.getFailureRate(HOST));
+
+        // responses other than server errors show the host is up
+        circuitBreaker.onResult(HOST, NOT_FOUND, 10);
+        assertEquals(HostCircuitBreaker.State.CLOSED, circuitBreaker.getState(HOST));
+        circuitBreaker.onResult(HOST, SERVER_ERROR, 10);
+        assertEquals(HostCircuitBreaker.State.OPEN, circuitBreaker.getState(HOST));
+        assertEquals(1, circuitBreaker.getOpenCount());
+    }
+
+    public void testSlowRequestsOpenCircuit() {
+        HostCircuitBreaker circuitBreaker = new HostCircuitBreaker(100, 0.5f, 1000, 60000);
+        for (int i = 0; i < HostCircuitBreaker.MIN_REQUESTS; i++) {
+            circuitBreaker.onResult(HOST, null, i < HostCircuitBreaker.MIN_REQUESTS / 2 ? 100
+                    : 2000);
+        }
+
+        assertEquals(HostCircuitBreaker.State.OPEN, circuitBreaker.getState(HOST));
+        assertTrue(circuitBreaker.getLatencyMs(HOST) > 100);
+        assertTrue(circuitBreaker.getLatencyMs(HOST) < 2000);
+    }
+
+    public void testOldRequestsLeaveWindow() {
+        HostCircuitBreaker circuitBreaker = new HostCircuitBreaker(100, 0.5f, 60000, 60000);
+        for (int i = 0; i < 4; i++) {
+            circuitBreaker.onResult(HOST, SERVER_ERROR);
+            circuitBreaker.onResult(HOST, null);
+            circuitBreaker.onResult(HOST, null);
+        }
+        for (int i = 0; i < HostCircuitBreaker.WINDOW_SIZE; i++) {
+            circuitBreaker.onResult(HOST, null);
+        }
+
+        assertEquals(0f, circuitBreaker.getFailureRate(HOST));
+    }
+
+    public void testHalfOpenCircuitIsProbedOnce() throws Exception {
+        HostCircuitBreaker circuitBreaker = new HostCircuitBreaker(1, 50);
+        circuitBreaker.onResult(HOST, SERVER_ERROR);
+        assertFalse(circuitBreaker.acquire(HOST));
+
+        Thread.sleep(60);
+        assertEquals(HostCircuitBreaker.State.HALF_OPEN, circuitBreaker.getState(HOST));
+        // checking doesn't take the probe
+        assertTrue(circuitBreaker.allowRequest(HOST));
+        assertTrue(circuitBreaker.acquire(HOST));
+        assertFalse(circuitBreaker.acquire(HOST));
+        assertFalse(circuitBreaker.allowRequest(HOST));
+
+        circuitBreaker.onResult(HOST, null, 10);
+        assertEquals(HostCircuitBreaker.State.CLOSED, circuitBreaker.getState(HOST));
+        assertEquals(0f, circuitBreaker.getFailureRate(HOST));
+    }
+
+    public void testFailedProbeOpensCircuit() throws Exception {
+        HostCircuitBreaker circuitBreaker = new HostCircuitBreaker(1, 50);
+        circuitBreaker.onResult(HOST, SERVER_ERROR);
+        Thread.sleep(60);
+        assertTrue(circuitBreaker.acquire(HOST));
+
+        circuitBreaker.onResult(HOST, new TimeoutError());
+        assertEquals(HostCircuitBreaker.State.OPEN, circuitBreaker.getState(HOST));
+        assertEquals(2, circuitBreaker.getOpenCount());
+    }
+
+    public void testProbeIsReleasedOnRuntimeException() throws Exception {
+        HostCircuitBreaker circuitBreaker = new HostCircuitBreaker(1, 50);
+        circuitBreaker.onResult(HOST, SERVER_ERROR);
+        Thread.sleep(60);
+        CircuitBreakerNetwork network = new CircuitBreakerNetwork(new Network() {
+            @Override
+            public NetworkResponse performRequest(Request<?> request) {
+                throw new IllegalStateException();
+            }
+        }, circuitBreaker);
+
+        try {
+            network.performRequest(new StringRequest("http://" + HOST + "/", null, null));
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        // the next request probes the host
+        assertEquals(HostCircuitBreaker.State.HALF_OPEN, circuitBreaker.getState(HOST));
+        assertTrue(circuitBreaker.acquire(HOST));
+    }
+}
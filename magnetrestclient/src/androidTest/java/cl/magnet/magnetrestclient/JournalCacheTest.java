@@ -0,0 +1,214 @@
+package cl.magnet.magnetrestclient;
+
+import android.test.AndroidTestCase;
+
+import com.android.volley.Cache;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+
+import cl.magnet.magnetrestclient.cache.EvictionPolicy;
+import cl.magnet.magnetrestclient.cache.JournalCache;
+
+/**
+ * Tests that {@link JournalCache} keeps its entries between restarts, starts up from its index
+ * alone, and drops the records torn or corrupted by a crash.
+ */
+public class JournalCacheTest extends AndroidTestCase {
+
+    private static final int ENTRIES = 1000;
+    private static final int ENTRY_SIZE = 512;
+
+    private File mCacheDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        mCacheDir = new File(getContext().getCacheDir(), "journal-cache-test");
+        deleteRecursively(mCacheDir);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteRecursively(mCacheDir);
+
+        super.tearDown();
+    }
+
+    public void testEntriesSurviveRestart() {
+        JournalCache cache = newCache(mCacheDir, 1024 * 1024);
+        Cache.Entry entry = newEntry(100);
+        entry.etag = "etag";
+        entry.responseHeaders.put("Content-Type", "application/json");
+        cache.put("a", entry);
+        cache.put("b", newEntry(100));
+        cache.put("b", newEntry(200));
+        cache.put("c", newEntry(100));
+        cache.remove("c");
+        long sizeBytes = cache.getSizeBytes();
+        cache.close();
+
+        JournalCache restarted = newCache(mCacheDir, 1024 * 1024);
+        Cache.Entry restored = restarted.get("a");
+
+        assertNotNull(restored);
+        assertEquals("etag", restored.etag);
+        assertEquals("application/json", restored.responseHeaders.get("content-type"));
+        assertEquals(200, restarted.get("b").data.length);
+        assertNull(restarted.get("c"));
+        assertEquals(sizeBytes, restarted.getSizeBytes());
+    }
+
+    public void testIncompleteIndexRecordIsDropped() throws Exception {
+        JournalCache cache = newCache(mCacheDir, 1024 * 1024);
+        cache.put("a", newEntry(100));
+        cache.put("b", newEntry(100));
+        cache.close();
+
+        // simulates a process killed while writing the last index record
+        RandomAccessFile index = new RandomAccessFile(new File(mCacheDir, "index"), "rw");
+        index.setLength(index.length() - 3);
+        index.close();
+
+        JournalCache restarted = newCache(mCacheDir, 1024 * 1024);
+        assertNotNull(restarted.get("a"));
+        assertNull(restarted.get("b"));
+
+        restarted.put("c", newEntry(100));
+        restarted.close();
+        assertNotNull(newCache(mCacheDir, 1024 * 1024).get("c"));
+    }
+
+    public void testIndexOfAnotherJournalIsRejected() throws Exception {
+        File otherDir = new File(mCacheDir, "other");
+        JournalCache other = newCache(otherDir, 1024 * 1024);
+        other.put("a", newEntry(100));
+        other.close();
+        JournalCache cache = newCache(mCacheDir, 1024 * 1024);
+        cache.put("a", newEntry(100));
+        cache.close();
+
+        // simulates a process killed between the renames of a compaction
+        File index = new File(mCacheDir, "index");
+        assertTrue(index.delete());
+        assertTrue(new File(otherDir, "index").renameTo(index));
+
+        JournalCache restarted = newCache(mCacheDir, 1024 * 1024);
+        assertNull(restarted.get("a"));
+        assertEquals(0, restarted.getSizeBytes());
+    }
+
+    public void testCorruptRecordIsDropped() throws Exception {
+        JournalCache cache = newCache(mCacheDir, 1024 * 1024);
+        cache.put("a", newEntry(100));
+        cache.put("b", newEntry(100));
+        cache.close();
+
+        // simulates data of the last entry that never reached the disk
+        RandomAccessFile journal = new RandomAccessFile(new File(mCacheDir, "journal"), "rw");
+        journal.seek(journal.length() - 1);
+        journal.write(1);
+        journal.close();
+
+        JournalCache restarted = newCache(mCacheDir, 1024 * 1024);
+        assertNotNull(restarted.get("a"));
+        assertNull(restarted.get("b"));
+        assertFalse(restarted.contains("b"));
+    }
+
+    public void testInvalidateIgnoresMinTtl() throws Exception {
+        JournalCache cache = new JournalCache(mCacheDir, 1024 * 1024, EvictionPolicy.LRU, 60000);
+        cache.initialize();
+        Cache.Entry entry = newEntry(100);
+        entry.ttl = 0;
+        entry.softTtl = 0;
+        cache.put("a", entry);
+        long ttl = cache.get("a").ttl;
+        Thread.sleep(10);
+
+        // a soft invalidation doesn't extend the entry
+        cache.invalidate("a", false);
+        assertEquals(ttl, cache.get("a").ttl);
+
+        cache.invalidate("a", true);
+        assertTrue(cache.get("a").isExpired());
+    }
+
+    public void testEvictionAndCompaction() {
+        long maxBytes = 200 * 1024;
+        JournalCache cache = newCache(mCacheDir, maxBytes);
+        for (int i = 0; i < 200; i++) {
+            cache.put("key " + i, newEntry(8 * 1024));
+        }
+
+        assertTrue(cache.getSizeBytes() <= maxBytes);
+        assertTrue(cache.getStats().getEvictionCount() > 0);
+        // evicted entries are reclaimed instead of growing the journal forever
+        assertTrue(cache.getJournalBytes() <= 2 * 1024 * 1024);
+        assertNotNull(cache.get("key 199"));
+        assertNull(cache.get("key 0"));
+
+        long sizeBytes = cache.getSizeBytes();
+        cache.close();
+        JournalCache restarted = newCache(mCacheDir, maxBytes);
+        assertNotNull(restarted.get("key 199"));
+        assertEquals(sizeBytes, restarted.getSizeBytes());
+    }
+
+    public void testStartupOnlyReadsTheIndex() throws Exception {
+        JournalCache cache = newCache(mCacheDir, 1024 * 1024);
+        for (int i = 0; i < ENTRIES; i++) {
+            cache.put("http://example.com/items/" + i, newEntry(ENTRY_SIZE));
+        }
+        long sizeBytes = cache.getSizeBytes();
+        long journalBytes = cache.getJournalBytes();
+        cache.close();
+
+        // the last entry is corrupt, which is only noticed when it is read
+        RandomAccessFile journal = new RandomAccessFile(new File(mCacheDir, "journal"), "rw");
+        journal.seek(journal.length() - 1);
+        journal.write(1);
+        journal.close();
+
+        JournalCache restarted = newCache(mCacheDir, 1024 * 1024);
+        // every entry of the index is there, and the journal is reused as it is
+        for (int i = 0; i < ENTRIES; i++) {
+            assertTrue(restarted.contains("http://example.com/items/" + i));
+        }
+        assertEquals(sizeBytes, restarted.getSizeBytes());
+        assertEquals(journalBytes, restarted.getJournalBytes());
+        assertEquals(ENTRY_SIZE, restarted.get("http://example.com/items/0").data.length);
+        assertNull(restarted.get("http://example.com/items/" + (ENTRIES - 1)));
+    }
+
+    private static JournalCache newCache(File dir, long maxBytes) {
+        JournalCache cache = newUninitializedCache(dir, maxBytes);
+        cache.initialize();
+        return cache;
+    }
+
+    private static JournalCache newUninitializedCache(File dir, long maxBytes) {
+        return new JournalCache(dir, maxBytes, EvictionPolicy.LRU);
+    }
+
+    private static Cache.Entry newEntry(int size) {
+        Cache.Entry entry = new Cache.Entry();
+        entry.data = new byte[size];
+        entry.ttl = Long.MAX_VALUE;
+        entry.softTtl = Long.MAX_VALUE;
+        entry.responseHeaders = new HashMap<>();
+        return entry;
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
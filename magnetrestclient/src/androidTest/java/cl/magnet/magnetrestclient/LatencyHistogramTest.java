@@ -0,0 +1,43 @@
+package cl.magnet.magnetrestclient;
+
+import android.test.AndroidTestCase;
+
+/**
+ * Tests the buckets and percentiles of {@link LatencyHistogram}.
+ */
+public class LatencyHistogramTest extends AndroidTestCase {
+
+    public void testBucketsCoverValues() {
+        for (long value = 0; value < 100000; value++) {
+            int index = LatencyHistogram.getIndex(value);
+            assertTrue(value <= LatencyHistogram.getHighestValue(index));
+            if (index > 0) {
+                assertTrue(value > LatencyHistogram.getHighestValue(index - 1));
+            }
+        }
+    }
+
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentile(95));
+
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(1, histogram.getPercentile(0));
+        assertEquals(50, histogram.getPercentile(50), 50 / 16);
+        assertEquals(95, histogram.getPercentile(95), 95 / 16);
+        assertTrue(histogram.getPercentile(100) >= 100);
+    }
+
+    public void testOutOfRangeValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-1);
+        histogram.record(Long.MAX_VALUE);
+
+        assertEquals(0, histogram.getPercentile(50));
+        assertTrue(histogram.getPercentile(100) > 0);
+    }
+}
@@ -0,0 +1,70 @@
+package cl.magnet.magnetrestclient;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.test.AndroidTestCase;
+
+import cl.magnet.magnetrestclient.utils.BitmapPool;
+import cl.magnet.magnetrestclient.utils.LruBitmapCache;
+
+/**
+ * Tests the memory budget of {@link LruBitmapCache} and that it shrinks when the system is low
+ * on memory.
+ */
+public class LruBitmapCacheTest extends AndroidTestCase {
+
+    private static final int SIZE = 100;
+    private static final int BYTES = SIZE * SIZE * 4;
+    private static final int ENTRIES = 4;
+
+    private LruBitmapCache mCache;
+    private BitmapPool mPool;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        mPool = new BitmapPool(BYTES * ENTRIES);
+        mCache = new LruBitmapCache(BYTES * ENTRIES, mPool);
+        for (int i = 0; i < ENTRIES; i++) {
+            mCache.putBitmap("bitmap " + i, Bitmap.createBitmap(SIZE, SIZE,
+                    Bitmap.Config.ARGB_8888));
+        }
+    }
+
+    public void testCacheSizeIsAFractionOfTheHeap() {
+        ActivityManager activityManager = (ActivityManager) getContext().getSystemService(
+                Context.ACTIVITY_SERVICE);
+        long heapBytes = activityManager.getMemoryClass() * 1024L * 1024L;
+
+        int cacheSize = LruBitmapCache.getCacheSize(getContext());
+        assertTrue(cacheSize > 0);
+        assertTrue(cacheSize <= heapBytes / 8);
+    }
+
+    public void testRunningLowHalvesTheCache() {
+        mCache.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+
+        assertEquals(BYTES * ENTRIES / 2, mCache.size());
+        assertEquals(2, mCache.evictionCount());
+        // the most recently used bitmaps are kept
+        assertNotNull(mCache.getBitmap("bitmap " + (ENTRIES - 1)));
+        assertNull(mCache.getBitmap("bitmap 0"));
+        assertTrue(mPool.getSizeBytes() <= BYTES * ENTRIES / 2);
+    }
+
+    public void testModerateClearsTheCacheAndThePool() {
+        mCache.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_MODERATE);
+
+        assertEquals(0, mCache.size());
+        assertEquals(0, mPool.getSizeBytes());
+    }
+
+    public void testRunningModerateKeepsMostOfTheCache() {
+        mCache.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE);
+
+        assertEquals(BYTES * (ENTRIES - 1), mCache.size());
+    }
+}
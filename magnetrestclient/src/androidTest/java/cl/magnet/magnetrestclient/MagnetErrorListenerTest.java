@@ -55,6 +55,14 @@ public class MagnetErrorListenerTest extends AndroidTestCase {
                 mMagnetErrorListener.getError());
     }
 
+    public void testCircuitOpenErrorIsHandledByStatusCode() throws Exception {
+        NetworkResponse networkResponse = new NetworkResponse(503, "ERROR!".getBytes(),
+                new HashMap<String, String>(), true);
+        VolleyError error = new CircuitOpenError("blabla.com", new VolleyError(networkResponse));
+        mRequest.deliverError(error);
+        assertEquals(MagnetErrorListenerImpl.UNHANDLED_ERROR, mMagnetErrorListener.getError());
+    }
+
     private class MagnetErrorListenerImpl extends MagnetErrorListener {
 
         static final int NO_ERROR = 0;
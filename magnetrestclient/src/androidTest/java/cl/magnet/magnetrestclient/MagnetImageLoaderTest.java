@@ -0,0 +1,187 @@
+package cl.magnet.magnetrestclient;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.test.AndroidTestCase;
+import android.widget.ImageView.ScaleType;
+
+import com.android.volley.RequestQueue;
+import com.android.volley.toolbox.NoCache;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.mockwebserver.Dispatcher;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import okio.Buffer;
+
+import cl.magnet.magnetrestclient.utils.LruBitmapCache;
+
+/**
+ * Tests that {@link MagnetImageLoader} prefetches images into the memory cache, a few at a time,
+ * and cancels the ones that are no longer needed.
+ */
+public class MagnetImageLoaderTest extends AndroidTestCase {
+
+    private static final int SIZE = 50;
+    private static final int IMAGES = 5;
+    private static final String TAG = "list";
+
+    private MockWebServer mMockWebServer;
+    private RequestQueue mRequestQueue;
+    private MagnetImageLoader mImageLoader;
+
+    /**
+     * The server doesn't respond until it is released, so the prefetches stay in flight.
+     */
+    private final CountDownLatch mServerLatch = new CountDownLatch(1);
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        final byte[] png = encodePng();
+        mMockWebServer = new MockWebServer();
+        mMockWebServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                mServerLatch.await(10, TimeUnit.SECONDS);
+                return new MockResponse().setBody(new Buffer().write(png));
+            }
+        });
+        mMockWebServer.start();
+        mRequestQueue = new RequestQueue(new NoCache(), new OkHttpNetwork(new OkHttpClient()), 4);
+        mRequestQueue.start();
+        mImageLoader = new MagnetImageLoader(mRequestQueue, new LruBitmapCache(1024 * 1024),
+                null, true, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServerLatch.countDown();
+        mRequestQueue.stop();
+        mMockWebServer.shutdown();
+
+        super.tearDown();
+    }
+
+    public void testPrefetchesWaitForAFreeSlot() throws Exception {
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < IMAGES; i++) {
+                    prefetch(i, ImagePriority.PREFETCH);
+                }
+                assertEquals(MagnetImageLoader.MAX_CONCURRENT_PREFETCHES,
+                        mImageLoader.getPrefetchInFlightCount());
+                assertEquals(IMAGES - MagnetImageLoader.MAX_CONCURRENT_PREFETCHES,
+                        mImageLoader.getPendingPrefetchCount());
+            }
+        });
+
+        mServerLatch.countDown();
+        waitForPrefetches();
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < IMAGES; i++) {
+                    assertTrue(mImageLoader.isCached(getUrl(i), SIZE, SIZE,
+                            ScaleType.CENTER_CROP));
+                }
+            }
+        });
+    }
+
+    public void testCancelledPrefetchesAreNotRequested() throws Exception {
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < IMAGES; i++) {
+                    prefetch(i, ImagePriority.PREFETCH);
+                }
+                mImageLoader.cancelPrefetches(TAG);
+                assertEquals(0, mImageLoader.getPendingPrefetchCount());
+                assertEquals(0, mImageLoader.getPrefetchInFlightCount());
+            }
+        });
+
+        mServerLatch.countDown();
+        assertTrue(mMockWebServer.getRequestCount() <= MagnetImageLoader.MAX_CONCURRENT_PREFETCHES);
+    }
+
+    public void testBackgroundPrefetchesWaitForTheOthers() throws Exception {
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                prefetch(0, ImagePriority.BACKGROUND);
+                for (int i = 1; i < IMAGES; i++) {
+                    prefetch(i, ImagePriority.PREFETCH);
+                }
+                // the background prefetch took a slot before the others were added
+                assertEquals(MagnetImageLoader.MAX_CONCURRENT_PREFETCHES,
+                        mImageLoader.getPrefetchInFlightCount());
+                prefetch(IMAGES, ImagePriority.BACKGROUND);
+                prefetch(IMAGES + 1, ImagePriority.VISIBLE);
+                // visible ones don't wait
+                assertEquals(MagnetImageLoader.MAX_CONCURRENT_PREFETCHES + 1,
+                        mImageLoader.getPrefetchInFlightCount());
+            }
+        });
+    }
+
+    private void prefetch(int image, ImagePriority priority) {
+        mImageLoader.prefetch(getUrl(image), SIZE, SIZE, ScaleType.CENTER_CROP, priority, TAG);
+    }
+
+    private String getUrl(int image) {
+        return mMockWebServer.getUrl("/image/" + image).toString();
+    }
+
+    private void waitForPrefetches() throws Exception {
+        long deadline = System.currentTimeMillis() + 10000;
+        final boolean[] done = new boolean[1];
+        while (!done[0] && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+            runOnMainThread(new Runnable() {
+                @Override
+                public void run() {
+                    done[0] = mImageLoader.getPendingPrefetchCount() == 0
+                            && mImageLoader.getPrefetchInFlightCount() == 0;
+                }
+            });
+        }
+        assertTrue(done[0]);
+    }
+
+    private static void runOnMainThread(final Runnable runnable) throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final Throwable[] failure = new Throwable[1];
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    runnable.run();
+                } catch (Throwable t) {
+                    failure[0] = t;
+                }
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        if (failure[0] != null) {
+            throw new AssertionError(failure[0]);
+        }
+    }
+
+    private static byte[] encodePng() {
+        Bitmap bitmap = Bitmap.createBitmap(SIZE * 2, SIZE * 2, Bitmap.Config.ARGB_8888);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.PNG, 100, output);
+        return output.toByteArray();
+    }
+}
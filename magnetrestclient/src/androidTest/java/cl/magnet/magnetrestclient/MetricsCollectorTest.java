@@ -0,0 +1,166 @@
+package cl.magnet.magnetrestclient;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.test.AndroidTestCase;
+
+import com.android.volley.ExecutorDelivery;
+import com.android.volley.Request;
+import com.android.volley.RequestQueue;
+import com.android.volley.Response;
+import com.android.volley.toolbox.NoCache;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import cl.magnet.magnetrestclient.requests.StringJsonRequest;
+
+/**
+ * Tests that {@link MetricsCollector} reports the timing breakdown and the byte counts of the
+ * requests, and that {@link HistogramMetricsAggregator} aggregates them per tag.
+ */
+public class MetricsCollectorTest extends AndroidTestCase {
+
+    private static final String BODY = "{\"items\":[1,2,3]}";
+
+    private MockWebServer mMockWebServer;
+    private MetricsCollector mCollector;
+    private RequestQueue mRequestQueue;
+
+    private final List<RequestMetrics> mMetrics = Collections.synchronizedList(
+            new ArrayList<RequestMetrics>());
+    private volatile CountDownLatch mLatch;
+    private final Semaphore mResponses = new Semaphore(0);
+
+    private final VolleyManager.MetricsListener mListener = new VolleyManager.MetricsListener() {
+        @Override
+        public void onRequestMetrics(RequestMetrics metrics) {
+            mMetrics.add(metrics);
+            mLatch.countDown();
+        }
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        mMockWebServer = new MockWebServer();
+        mMockWebServer.start();
+        mCollector = new MetricsCollector();
+        OkHttpClient client = new OkHttpClient();
+        mCollector.instrument(client);
+        mRequestQueue = new RequestQueue(new NoCache(), new OkHttpNetwork(client, mCollector), 1,
+                new MetricsDelivery(new ExecutorDelivery(new Handler(Looper.getMainLooper())),
+                        mCollector));
+        mRequestQueue.addRequestFinishedListener(mCollector);
+        mRequestQueue.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mRequestQueue.stop();
+        mMockWebServer.shutdown();
+
+        super.tearDown();
+    }
+
+    public void testRequestMetricsAreReported() throws Exception {
+        mCollector.addListener(mListener);
+        mMockWebServer.enqueue(new MockResponse().setBody(BODY)
+                .throttleBody(4, 20, TimeUnit.MILLISECONDS));
+        mMockWebServer.enqueue(new MockResponse().setResponseCode(500).setBody("error"));
+
+        add(Request.Method.POST, "{\"id\":1}", "first");
+        add(Request.Method.GET, null, "second");
+        awaitMetrics(2);
+
+        RequestMetrics first = mMetrics.get(0);
+        assertEquals("first", first.getTag());
+        assertEquals(200, first.getStatusCode());
+        assertTrue(first.isNetwork());
+        assertEquals("{\"id\":1}".length(), first.getRequestBytes());
+        assertEquals(BODY.length(), first.getResponseBytes());
+        // a new connection was opened
+        assertTrue(first.getDurationNs(RequestMetrics.Phase.CONNECT) > 0);
+        // the throttled body took a while
+        assertTrue(first.getDurationMs(RequestMetrics.Phase.DOWNLOAD) >= 50);
+        assertTrue(first.getDurationNs(RequestMetrics.Phase.TIME_TO_FIRST_BYTE) > 0);
+        assertTrue(first.getDurationNs(RequestMetrics.Phase.DELIVERY) > 0);
+        assertTrue(first.getDurationNs(RequestMetrics.Phase.TOTAL)
+                >= first.getDurationNs(RequestMetrics.Phase.DOWNLOAD));
+
+        RequestMetrics second = mMetrics.get(1);
+        assertEquals(500, second.getStatusCode());
+        assertEquals("error".length(), second.getResponseBytes());
+        // the connection was reused
+        assertEquals(0, second.getDurationNs(RequestMetrics.Phase.CONNECT));
+    }
+
+    public void testNothingIsReportedWithoutListeners() throws Exception {
+        mMockWebServer.enqueue(new MockResponse().setBody(BODY));
+        mMockWebServer.enqueue(new MockResponse().setBody(BODY));
+
+        mCollector.addListener(mListener);
+        mCollector.removeListener(mListener);
+        add(Request.Method.GET, null, "first");
+        assertTrue(mResponses.tryAcquire(10, TimeUnit.SECONDS));
+        mCollector.addListener(mListener);
+        add(Request.Method.GET, null, "second");
+        awaitMetrics(1);
+
+        assertEquals(1, mMetrics.size());
+        assertEquals("second", mMetrics.get(0).getTag());
+    }
+
+    public void testMetricsAreAggregatedPerTag() throws Exception {
+        HistogramMetricsAggregator aggregator = new HistogramMetricsAggregator();
+        mCollector.addListener(aggregator);
+        mCollector.addListener(mListener);
+        for (int i = 0; i < 3; i++) {
+            mMockWebServer.enqueue(new MockResponse().setBody(BODY));
+        }
+
+        add(Request.Method.GET, null, "feed");
+        add(Request.Method.GET, null, "feed");
+        add(Request.Method.GET, null, "profile");
+        awaitMetrics(3);
+
+        assertEquals(2, aggregator.getCount("feed"));
+        assertEquals(1, aggregator.getCount("profile"));
+        assertEquals(2, aggregator.getHistogram("feed", RequestMetrics.Phase.TOTAL).getCount());
+        String dump = aggregator.dump();
+        assertTrue(dump, dump.startsWith("feed: 2 requests, 0 errors, 0 bytes sent, "
+                + 2 * BODY.length() + " bytes received\n"));
+        assertTrue(dump, dump.contains("profile: 1 requests"));
+        assertTrue(dump, dump.contains("  TIME_TO_FIRST_BYTE "));
+    }
+
+    private void add(int method, String body, String tag) {
+        StringJsonRequest request = new StringJsonRequest(method,
+                mMockWebServer.getUrl("/").toString(), body, new Response.Listener<String>() {
+            @Override
+            public void onResponse(String response) {
+                mResponses.release();
+            }
+        }, null);
+        request.setShouldCache(false);
+        request.setTag(tag);
+        mCollector.onQueued(request);
+        mRequestQueue.add(request);
+    }
+
+    private void awaitMetrics(int count) throws InterruptedException {
+        mLatch = new CountDownLatch(count);
+        for (int i = 0; i < mMetrics.size() && i < count; i++) {
+            mLatch.countDown();
+        }
+        assertTrue(mLatch.await(10, TimeUnit.SECONDS));
+    }
+}
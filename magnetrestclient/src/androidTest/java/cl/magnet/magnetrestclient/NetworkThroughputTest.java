@@ -0,0 +1,160 @@
+package cl.magnet.magnetrestclient;
+
+import android.net.ConnectivityManager;
+import android.telephony.TelephonyManager;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.android.volley.Network;
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.RequestQueue;
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.NoCache;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.mockwebserver.Dispatcher;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import cl.magnet.magnetrestclient.requests.StringJsonRequest;
+
+/**
+ * Tests {@link AdaptiveNetwork} and reports the request throughput of the RequestQueue with
+ * different numbers of network dispatcher threads against a local server. The throughput is
+ * only logged, since it depends on the load of the device.
+ */
+public class NetworkThroughputTest extends AndroidTestCase {
+
+    private static final String TAG = NetworkThroughputTest.class.getSimpleName();
+
+    private static final int REQUESTS = 48;
+    private static final long SERVER_LATENCY_MS = 100;
+
+    private MockWebServer mMockWebServer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        mMockWebServer = new MockWebServer();
+        mMockWebServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                // simulates the latency of a real server
+                Thread.sleep(SERVER_LATENCY_MS);
+                return new MockResponse().setBody("{}");
+            }
+        });
+        mMockWebServer.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mMockWebServer.shutdown();
+
+        super.tearDown();
+    }
+
+    public void testConcurrencyFollowsNetworkType() {
+        int wifi = AdaptiveNetwork.getConcurrency(4, ConnectivityManager.TYPE_WIFI, 0);
+        int lte = AdaptiveNetwork.getConcurrency(4, ConnectivityManager.TYPE_MOBILE,
+                TelephonyManager.NETWORK_TYPE_LTE);
+        int edge = AdaptiveNetwork.getConcurrency(4, ConnectivityManager.TYPE_MOBILE,
+                TelephonyManager.NETWORK_TYPE_EDGE);
+
+        assertEquals(8, wifi);
+        assertTrue(wifi > lte);
+        assertTrue(lte > edge);
+        assertEquals(AdaptiveNetwork.MAX_CONCURRENCY,
+                AdaptiveNetwork.getConcurrency(64, ConnectivityManager.TYPE_WIFI, 0));
+    }
+
+    public void testLimitIsHonored() throws Exception {
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger maxActive = new AtomicInteger();
+        final OkHttpNetwork okHttpNetwork = new OkHttpNetwork(new OkHttpClient());
+        Network countingNetwork = new Network() {
+            @Override
+            public NetworkResponse performRequest(Request<?> request) throws VolleyError {
+                int current = active.incrementAndGet();
+                synchronized (maxActive) {
+                    maxActive.set(Math.max(maxActive.get(), current));
+                }
+                try {
+                    return okHttpNetwork.performRequest(request);
+                } finally {
+                    active.decrementAndGet();
+                }
+            }
+        };
+        AdaptiveNetwork network = new AdaptiveNetwork(countingNetwork);
+        network.setLimit(2);
+
+        run(network, network.getMaxConcurrency(), REQUESTS / 4);
+
+        assertTrue("max active: " + maxActive.get(), maxActive.get() <= 2);
+    }
+
+    public void testThroughputIsReported() throws Exception {
+        // warm up the connection pool and the thread pool of the server
+        run(new OkHttpNetwork(new OkHttpClient()), 4, 8);
+
+        long oneThreadMs = run(new OkHttpNetwork(new OkHttpClient()), 1, REQUESTS / 4);
+        long fourThreadsMs = run(new OkHttpNetwork(new OkHttpClient()), 4, REQUESTS);
+        AdaptiveNetwork adaptiveNetwork = new AdaptiveNetwork(new OkHttpNetwork(
+                new OkHttpClient()));
+        long adaptiveMs = run(adaptiveNetwork, adaptiveNetwork.getMaxConcurrency(), REQUESTS);
+
+        // requests per second
+        double oneThread = REQUESTS / 4 * 1000.0 / oneThreadMs;
+        double fourThreads = REQUESTS * 1000.0 / fourThreadsMs;
+        double adaptive = REQUESTS * 1000.0 / adaptiveMs;
+        Log.i(TAG, "1 thread: " + oneThread + " req/s, 4 threads: " + fourThreads + " req/s, "
+                + adaptiveNetwork.getMaxConcurrency() + " adaptive threads: " + adaptive
+                + " req/s");
+    }
+
+    /**
+     * Performs the requests through a RequestQueue and waits for all of them.
+     *
+     * @return The elapsed time in milliseconds
+     */
+    private long run(Network network, int threadPoolSize, int requests) throws Exception {
+        RequestQueue requestQueue = new RequestQueue(new NoCache(), network, threadPoolSize);
+        requestQueue.start();
+        try {
+            final CountDownLatch latch = new CountDownLatch(requests);
+            Response.Listener<String> listener = new Response.Listener<String>() {
+                @Override
+                public void onResponse(String response) {
+                    latch.countDown();
+                }
+            };
+            Response.ErrorListener errorListener = new Response.ErrorListener() {
+                @Override
+                public void onErrorResponse(VolleyError error) {
+                    fail(error.toString());
+                }
+            };
+
+            long start = System.nanoTime();
+            for (int i = 0; i < requests; i++) {
+                StringJsonRequest request = new StringJsonRequest(Request.Method.GET,
+                        mMockWebServer.getUrl("/" + i).toString(), null, listener, errorListener);
+                request.setShouldCache(false);
+                requestQueue.add(request);
+            }
+            assertTrue(latch.await(60, TimeUnit.SECONDS));
+
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        } finally {
+            requestQueue.stop();
+        }
+    }
+}
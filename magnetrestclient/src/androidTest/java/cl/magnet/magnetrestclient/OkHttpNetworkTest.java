@@ -0,0 +1,75 @@
+package cl.magnet.magnetrestclient;
+
+import android.test.AndroidTestCase;
+
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.ServerError;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+
+import cl.magnet.magnetrestclient.requests.StringJsonRequest;
+
+/**
+ * Tests {@link OkHttpNetwork}.
+ */
+public class OkHttpNetworkTest extends AndroidTestCase {
+
+    private MockWebServer mMockWebServer;
+    private OkHttpNetwork mNetwork;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        mMockWebServer = new MockWebServer();
+        mMockWebServer.start();
+        mNetwork = new OkHttpNetwork(new OkHttpClient());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mMockWebServer.shutdown();
+
+        super.tearDown();
+    }
+
+    public void testCachedResponseIsRead() throws Exception {
+        mMockWebServer.enqueue(new MockResponse().setBody("cached"));
+
+        NetworkResponse response = mNetwork.performRequest(newRequest());
+
+        assertFalse(response instanceof SourceNetworkResponse);
+        assertEquals("cached", new String(response.data, "UTF-8"));
+    }
+
+    public void testUncachedResponseIsStreamed() throws Exception {
+        mMockWebServer.enqueue(new MockResponse().setBody("streamed"));
+
+        StringJsonRequest request = newRequest();
+        request.setShouldCache(false);
+        NetworkResponse response = mNetwork.performRequest(request);
+
+        assertTrue(response instanceof SourceNetworkResponse);
+        assertEquals("streamed", ((SourceNetworkResponse) response).readString("UTF-8"));
+        ((SourceNetworkResponse) response).close();
+    }
+
+    public void testServerError() throws Exception {
+        mMockWebServer.enqueue(new MockResponse().setResponseCode(404).setBody("not found"));
+
+        try {
+            mNetwork.performRequest(newRequest());
+            fail();
+        } catch (ServerError e) {
+            assertEquals(404, e.networkResponse.statusCode);
+            assertEquals("not found", new String(e.networkResponse.data, "UTF-8"));
+        }
+    }
+
+    private StringJsonRequest newRequest() {
+        return new StringJsonRequest(Request.Method.GET, mMockWebServer.getUrl("/").toString(),
+                null, null, null);
+    }
+}
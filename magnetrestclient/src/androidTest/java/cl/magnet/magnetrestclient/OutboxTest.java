@@ -0,0 +1,297 @@
+package cl.magnet.magnetrestclient;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.test.AndroidTestCase;
+
+import com.android.volley.ExecutorDelivery;
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.RequestQueue;
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.NoCache;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import cl.magnet.magnetrestclient.requests.StringJsonRequest;
+
+/**
+ * Tests that {@link Outbox} saves the requests, sends them in order, retries the ones that
+ * fail and sends the ones left by a previous session.
+ */
+public class OutboxTest extends AndroidTestCase {
+
+    private MockWebServer mMockWebServer;
+    private RequestQueue mRequestQueue;
+    private File mFile;
+    private Outbox mOutbox;
+
+    private final List<String> mDelivered = Collections.synchronizedList(
+            new ArrayList<String>());
+    private final List<Integer> mFailed = Collections.synchronizedList(new ArrayList<Integer>());
+    private volatile CountDownLatch mLatch;
+
+    private final Outbox.Listener mListener = new Outbox.Listener() {
+        @Override
+        public void onDelivered(Outbox.Entry entry, NetworkResponse response) {
+            mDelivered.add(entry.getBody());
+            mLatch.countDown();
+        }
+
+        @Override
+        public void onFailed(Outbox.Entry entry, VolleyError error) {
+            mFailed.add(error.networkResponse != null ? error.networkResponse.statusCode : -1);
+            mLatch.countDown();
+        }
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        mMockWebServer = new MockWebServer();
+        mMockWebServer.start();
+        mRequestQueue = new RequestQueue(new NoCache(), new OkHttpNetwork(new OkHttpClient()), 4,
+                new ExecutorDelivery(new Handler(Looper.getMainLooper())));
+        mRequestQueue.start();
+        mFile = new File(getContext().getCacheDir(), "outbox-test");
+        mFile.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mOutbox != null) {
+            mOutbox.close();
+        }
+        mRequestQueue.stop();
+        mMockWebServer.shutdown();
+        mFile.delete();
+
+        super.tearDown();
+    }
+
+    public void testRequestsAreSentInOrder() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            mMockWebServer.enqueue(new MockResponse().setBody("{}"));
+        }
+        mOutbox = newOutbox(null);
+        mOutbox.attach(mRequestQueue);
+
+        mLatch = new CountDownLatch(5);
+        for (int i = 0; i < 5; i++) {
+            mOutbox.add(newRequest(i));
+        }
+        assertTrue(mLatch.await(10, TimeUnit.SECONDS));
+
+        assertEquals(5, mDelivered.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(body(i), mDelivered.get(i));
+            RecordedRequest request = mMockWebServer.takeRequest();
+            assertEquals(body(i), request.getBody().readUtf8());
+            assertEquals("PUT", request.getMethod());
+            assertNotNull(request.getHeader(Outbox.IDEMPOTENCY_KEY_HEADER));
+        }
+        assertTrue(mOutbox.getPendingEntries().isEmpty());
+    }
+
+    public void testPendingRequestsSurviveRestart() throws Exception {
+        mOutbox = newOutbox(null);
+        // not attached to a queue, so nothing is sent
+        Outbox.Entry first = mOutbox.add(newRequest(0));
+        mOutbox.add(newRequest(1));
+        assertEquals(2, mOutbox.getPendingEntries().size());
+        mOutbox.close();
+
+        // a record torn by a crash is discarded
+        FileOutputStream out = new FileOutputStream(mFile, true);
+        out.write(new byte[]{0, 0, 0, 100, 1, 2});
+        out.close();
+
+        mMockWebServer.enqueue(new MockResponse().setBody("{}"));
+        mMockWebServer.enqueue(new MockResponse().setBody("{}"));
+        mOutbox = newOutbox(null);
+        List<Outbox.Entry> pending = mOutbox.getPendingEntries();
+        assertEquals(2, pending.size());
+        assertEquals(first.getKey(), pending.get(0).getKey());
+
+        mLatch = new CountDownLatch(2);
+        mOutbox.attach(mRequestQueue);
+        assertTrue(mLatch.await(10, TimeUnit.SECONDS));
+        assertEquals(body(0), mDelivered.get(0));
+        assertEquals(body(1), mDelivered.get(1));
+        assertEquals(first.getKey(), mMockWebServer.takeRequest().getHeader(
+                Outbox.IDEMPOTENCY_KEY_HEADER));
+
+        // the removals were saved too
+        mOutbox.close();
+        mOutbox = newOutbox(null);
+        assertTrue(mOutbox.getPendingEntries().isEmpty());
+    }
+
+    public void testServerErrorIsRetried() throws Exception {
+        mMockWebServer.enqueue(new MockResponse().setResponseCode(503));
+        mMockWebServer.enqueue(new MockResponse().setResponseCode(503));
+        mMockWebServer.enqueue(new MockResponse().setBody("{}"));
+        mMockWebServer.enqueue(new MockResponse().setBody("{}"));
+        mOutbox = newOutbox(null);
+        mOutbox.attach(mRequestQueue);
+
+        mLatch = new CountDownLatch(2);
+        mOutbox.add(newRequest(0));
+        mOutbox.add(newRequest(1));
+        assertTrue(mLatch.await(10, TimeUnit.SECONDS));
+
+        // the second request waits for the first one
+        assertEquals(body(0), mDelivered.get(0));
+        assertEquals(body(1), mDelivered.get(1));
+        assertEquals(4, mMockWebServer.getRequestCount());
+    }
+
+    public void testRejectedRequestFails() throws Exception {
+        mMockWebServer.enqueue(new MockResponse().setResponseCode(400));
+        mMockWebServer.enqueue(new MockResponse().setBody("{}"));
+        mOutbox = newOutbox(null);
+        mOutbox.attach(mRequestQueue);
+
+        mLatch = new CountDownLatch(2);
+        mOutbox.add(newRequest(0));
+        mOutbox.add(newRequest(1));
+        assertTrue(mLatch.await(10, TimeUnit.SECONDS));
+
+        assertEquals(Collections.singletonList(400), mFailed);
+        assertEquals(Collections.singletonList(body(1)), mDelivered);
+    }
+
+    public void testUnauthorizedRequestIsNotRetried() throws Exception {
+        mMockWebServer.enqueue(new MockResponse().setResponseCode(401));
+        mOutbox = newOutbox(null);
+        mOutbox.attach(mRequestQueue);
+
+        mLatch = new CountDownLatch(1);
+        mOutbox.add(newRequest(0));
+        assertTrue(mLatch.await(10, TimeUnit.SECONDS));
+
+        assertEquals(Collections.singletonList(401), mFailed);
+        assertEquals(1, mMockWebServer.getRequestCount());
+    }
+
+    public void testNoConnectionKeepsRequests() throws Exception {
+        mOutbox = newOutbox(null);
+        mOutbox.attach(mRequestQueue);
+        mOutbox.add(new StringJsonRequest(Request.Method.POST, "http://localhost:1/items",
+                "{}", null, null));
+        // the connection drops while the request is in flight
+        mOutbox.setConnected(false);
+        Thread.sleep(500);
+
+        // it waits for the connection and doesn't count as an attempt
+        List<Outbox.Entry> pending = mOutbox.getPendingEntries();
+        assertEquals(1, pending.size());
+        assertEquals(0, pending.get(0).getAttempts());
+        assertTrue(mDelivered.isEmpty());
+        assertTrue(mFailed.isEmpty());
+    }
+
+    public void testUnreachableHostRunsOutOfAttempts() throws Exception {
+        mOutbox = newOutbox(null);
+        mOutbox.attach(mRequestQueue);
+
+        // the device is connected, so the error counts as an attempt
+        mLatch = new CountDownLatch(1);
+        mOutbox.add(new StringJsonRequest(Request.Method.POST, "http://localhost:1/items",
+                "{}", null, null));
+        assertTrue(mLatch.await(10, TimeUnit.SECONDS));
+
+        assertEquals(Collections.singletonList(-1), mFailed);
+        assertTrue(mOutbox.getPendingEntries().isEmpty());
+    }
+
+    public void testAttemptsSurviveRestart() throws Exception {
+        mMockWebServer.enqueue(new MockResponse().setResponseCode(503));
+        mOutbox = newOutbox(null);
+        // the request isn't retried before the restart
+        mOutbox.setRetryPolicy(60000, 60000, 2);
+        mOutbox.attach(mRequestQueue);
+        mOutbox.add(newRequest(0));
+        awaitAttempts(1);
+        mOutbox.close();
+
+        mMockWebServer.enqueue(new MockResponse().setResponseCode(503));
+        mOutbox = newOutbox(null);
+        mOutbox.setRetryPolicy(10, 50, 2);
+        assertEquals(1, mOutbox.getPendingEntries().get(0).getAttempts());
+
+        // the second attempt is the last one
+        mLatch = new CountDownLatch(1);
+        mOutbox.attach(mRequestQueue);
+        assertTrue(mLatch.await(10, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList(503), mFailed);
+        assertEquals(2, mMockWebServer.getRequestCount());
+    }
+
+    public void testRequestsAreBatched() throws Exception {
+        mMockWebServer.enqueue(new MockResponse().setBody("[{\"status\": 201, \"body\": {}}, "
+                + "{\"status\": 201, \"body\": {}}, {\"status\": 201, \"body\": {}}]"));
+        mOutbox = newOutbox(mMockWebServer.getUrl("/batch").toString());
+        for (int i = 0; i < 3; i++) {
+            mOutbox.add(newRequest(i));
+        }
+
+        mLatch = new CountDownLatch(3);
+        mOutbox.attach(mRequestQueue);
+        assertTrue(mLatch.await(10, TimeUnit.SECONDS));
+
+        assertEquals(1, mMockWebServer.getRequestCount());
+        RecordedRequest batch = mMockWebServer.takeRequest();
+        assertEquals("/batch", batch.getPath());
+        String body = batch.getBody().readUtf8();
+        assertTrue(body.indexOf("item0") < body.indexOf("item1"));
+        assertTrue(body.indexOf("item1") < body.indexOf("item2"));
+        assertEquals(3, mDelivered.size());
+    }
+
+    public void testGetRequestIsRejected() {
+        mOutbox = newOutbox(null);
+        try {
+            mOutbox.add(new StringJsonRequest(Request.Method.GET,
+                    mMockWebServer.getUrl("/").toString(), null, null, null));
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private void awaitAttempts(int attempts) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (mOutbox.getPendingEntries().get(0).getAttempts() < attempts) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private Outbox newOutbox(String batchUrl) {
+        Outbox outbox = new Outbox(mFile, batchUrl, 20, 2500);
+        outbox.setRetryPolicy(10, 50, Outbox.DEFAULT_MAX_ATTEMPTS);
+        outbox.addListener(mListener);
+        return outbox;
+    }
+
+    private StringJsonRequest newRequest(int index) {
+        return new StringJsonRequest(Request.Method.PUT,
+                mMockWebServer.getUrl("/items/" + index).toString(), body(index), null, null);
+    }
+
+    private static String body(int index) {
+        return "{\"name\":\"item" + index + "\"}";
+    }
+}
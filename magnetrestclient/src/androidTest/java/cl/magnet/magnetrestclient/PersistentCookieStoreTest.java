@@ -0,0 +1,170 @@
+package cl.magnet.magnetrestclient;
+
+import android.test.AndroidTestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.CookieStore;
+import java.net.HttpCookie;
+import java.net.URI;
+import java.util.List;
+
+import cl.magnet.magnetrestclient.utils.PersistentCookieStore;
+
+/**
+ * Tests that {@link PersistentCookieStore} matches cookies by domain and path, saves them in
+ * batches and reads them back, and that its lookups only return the cookies of the host.
+ */
+public class PersistentCookieStoreTest extends AndroidTestCase {
+
+    private File mFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        mFile = new File(getContext().getCacheDir(), "cookies-test.json");
+        mFile.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mFile.delete();
+
+        super.tearDown();
+    }
+
+    public void testCookiesMatchDomainAndPath() {
+        PersistentCookieStore store = new PersistentCookieStore(null, mFile);
+        URI uri = URI.create("http://api.example.com/items/1");
+        store.add(uri, newCookie("domain", ".example.com", "/", 3600));
+        store.add(uri, newCookie("host", "api.example.com", "/items", 3600));
+        store.add(uri, newCookie("path", "api.example.com", "/users", 3600));
+        store.add(uri, newCookie("other", "other.com", "/", 3600));
+
+        List<HttpCookie> cookies = store.get(uri);
+        assertEquals(2, cookies.size());
+        assertEquals(1, store.get(URI.create("http://www.example.com/")).size());
+        assertEquals(0, store.get(URI.create("http://example.org/")).size());
+    }
+
+    public void testSecureCookieIsOnlySentOverHttps() {
+        PersistentCookieStore store = new PersistentCookieStore(null, mFile);
+        HttpCookie cookie = newCookie("secure", "example.com", "/", 3600);
+        cookie.setSecure(true);
+        store.add(URI.create("https://example.com/"), cookie);
+
+        assertEquals(0, store.get(URI.create("http://example.com/")).size());
+        assertEquals(1, store.get(URI.create("https://example.com/")).size());
+    }
+
+    public void testCookieIsReplaced() {
+        PersistentCookieStore store = new PersistentCookieStore(null, mFile);
+        URI uri = URI.create("http://example.com/");
+        store.add(uri, newCookie("sessionid", "example.com", "/", 3600));
+        HttpCookie replacement = newCookie("sessionid", "example.com", "/", 3600);
+        replacement.setValue("new");
+        store.add(uri, replacement);
+
+        List<HttpCookie> cookies = store.get(uri);
+        assertEquals(1, cookies.size());
+        assertEquals("new", cookies.get(0).getValue());
+
+        // a max age of 0 deletes the cookie
+        store.add(uri, newCookie("sessionid", "example.com", "/", 0));
+        assertTrue(store.get(uri).isEmpty());
+    }
+
+    public void testExpiredCookieIsEvicted() throws Exception {
+        PersistentCookieStore store = new PersistentCookieStore(null, mFile);
+        URI uri = URI.create("http://example.com/");
+        store.add(uri, newCookie("short", "example.com", "/", 1));
+        assertEquals(1, store.get(uri).size());
+
+        Thread.sleep(1100);
+        assertTrue(store.get(uri).isEmpty());
+        assertTrue(store.getCookies().isEmpty());
+    }
+
+    public void testCookiesAreSavedInBatches() {
+        PersistentCookieStore store = new PersistentCookieStore(null, mFile);
+        for (int i = 0; i < 100; i++) {
+            store.add(URI.create("http://example.com/"), newCookie("cookie" + i, "example.com",
+                    "/", 3600));
+        }
+        store.flush();
+
+        // the scheduled write may run once more after the flush
+        assertTrue(store.getWriteCount() <= 2);
+        assertTrue(mFile.exists());
+    }
+
+    public void testCookiesAreRead() {
+        PersistentCookieStore store = new PersistentCookieStore(null, mFile);
+        URI uri = URI.create("https://example.com/items");
+        HttpCookie secure = newCookie("secure", "example.com", "/items", 3600);
+        secure.setSecure(true);
+        store.add(uri, secure);
+        store.add(uri, newCookie("session", "example.com", "/", -1));
+        store.add(uri, newCookie("expired", "example.com", "/", 0));
+        store.flush();
+
+        PersistentCookieStore read = new PersistentCookieStore(null, mFile);
+        List<HttpCookie> cookies = read.get(uri);
+        assertEquals(2, cookies.size());
+        for (HttpCookie cookie : cookies) {
+            if (cookie.getName().equals("secure")) {
+                assertTrue(cookie.getSecure());
+                assertEquals("/items", cookie.getPath());
+                assertTrue(cookie.getMaxAge() > 3500 && cookie.getMaxAge() <= 3600);
+            } else {
+                assertEquals("session", cookie.getName());
+                assertEquals(-1, cookie.getMaxAge());
+            }
+        }
+    }
+
+    public void testCorruptFileIsIgnored() throws Exception {
+        FileOutputStream out = new FileOutputStream(mFile);
+        out.write("[{\"name\":".getBytes("UTF-8"));
+        out.close();
+
+        PersistentCookieStore store = new PersistentCookieStore(null, mFile);
+        assertTrue(store.getCookies().isEmpty());
+    }
+
+    /**
+     * A lookup returns the cookies of the host of the request, however many hosts there are. How
+     * long it takes is measured by the CookieStoreBenchmark of the magnetrestclient-benchmark
+     * module.
+     */
+    public void testLookupReturnsTheCookiesOfTheHost() {
+        PersistentCookieStore store = new PersistentCookieStore(null, mFile);
+        fill(store, 2000);
+
+        List<HttpCookie> cookies = store.get(URI.create("https://host5.example.com/items"));
+        assertEquals(2, cookies.size());
+        for (HttpCookie cookie : cookies) {
+            assertEquals("host5.example.com", cookie.getDomain());
+        }
+        assertEquals(4000, store.getCookies().size());
+    }
+
+    private void fill(CookieStore store, int hosts) {
+        for (int i = 0; i < hosts; i++) {
+            String host = "host" + i + ".example.com";
+            URI uri = URI.create("https://" + host + "/");
+            store.add(uri, newCookie("sessionid", host, "/", 3600));
+            store.add(uri, newCookie("csrftoken", host, "/", 3600));
+        }
+    }
+
+    private static HttpCookie newCookie(String name, String domain, String path, long maxAge) {
+        HttpCookie cookie = new HttpCookie(name, "value");
+        cookie.setDomain(domain);
+        cookie.setPath(path);
+        cookie.setMaxAge(maxAge);
+        cookie.setVersion(0);
+        return cookie;
+    }
+}
@@ -0,0 +1,220 @@
+package cl.magnet.magnetrestclient;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.test.AndroidTestCase;
+
+import com.android.volley.Cache;
+import com.android.volley.ExecutorDelivery;
+import com.android.volley.Request;
+import com.android.volley.RequestQueue;
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.DiskBasedCache;
+import com.android.volley.toolbox.NoCache;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.mockwebserver.Dispatcher;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import cl.magnet.magnetrestclient.requests.GsonRequest;
+
+/**
+ * Tests that {@link RequestCoalescer} performs identical requests once and delivers the response
+ * to all of them.
+ */
+public class RequestCoalescerTest extends AndroidTestCase {
+
+    private static final int REQUESTS = 5;
+
+    private MockWebServer mMockWebServer;
+    private RequestCoalescer mCoalescer;
+    private RequestQueue mRequestQueue;
+
+    private final List<Item> mResponses = Collections.synchronizedList(new ArrayList<Item>());
+    private final List<VolleyError> mErrors = Collections.synchronizedList(
+            new ArrayList<VolleyError>());
+    private volatile CountDownLatch mLatch;
+
+    /**
+     * The server doesn't respond until it is released, so every request is added while the
+     * first one is in flight.
+     */
+    private final CountDownLatch mServerLatch = new CountDownLatch(1);
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        mMockWebServer = new MockWebServer();
+        mMockWebServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                mServerLatch.await(10, TimeUnit.SECONDS);
+                if (request.getHeader("If-None-Match") != null) {
+                    return new MockResponse().setResponseCode(304);
+                }
+                if (request.getPath().equals("/error")) {
+                    return new MockResponse().setResponseCode(500).setBody("error");
+                }
+                return new MockResponse().setBody("{\"id\":1}");
+            }
+        });
+        mMockWebServer.start();
+        startQueue(new NoCache());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mRequestQueue.stop();
+        mMockWebServer.shutdown();
+
+        super.tearDown();
+    }
+
+    public void testIdenticalRequestsAreCoalesced() throws Exception {
+        mLatch = new CountDownLatch(REQUESTS);
+        for (int i = 0; i < REQUESTS; i++) {
+            add(newRequest("/item", Request.Method.GET));
+        }
+        awaitResponses();
+
+        assertEquals(1, mMockWebServer.getRequestCount());
+        assertEquals(REQUESTS, mResponses.size());
+        // parsed once
+        for (Item item : mResponses) {
+            assertSame(mResponses.get(0), item);
+        }
+        assertEquals(REQUESTS, mCoalescer.getRequestCount());
+        assertEquals(REQUESTS - 1, mCoalescer.getMergedCount());
+        assertEquals(0, mCoalescer.getInFlightCount());
+    }
+
+    public void testDifferentRequestsAreNotCoalesced() throws Exception {
+        mLatch = new CountDownLatch(3);
+        add(newRequest("/item", Request.Method.GET));
+        add(newRequest("/other", Request.Method.GET));
+        add(newRequest("/item", Request.Method.POST));
+        awaitResponses();
+
+        assertEquals(3, mMockWebServer.getRequestCount());
+        assertEquals(0, mCoalescer.getMergedCount());
+    }
+
+    public void testErrorIsDeliveredToEveryRequest() throws Exception {
+        mLatch = new CountDownLatch(REQUESTS);
+        for (int i = 0; i < REQUESTS; i++) {
+            add(newRequest("/error", Request.Method.GET));
+        }
+        awaitResponses();
+
+        assertEquals(1, mMockWebServer.getRequestCount());
+        assertEquals(REQUESTS, mErrors.size());
+    }
+
+    public void testFollowerReplacesCancelledLeader() throws Exception {
+        // the single network thread is busy with this request while the others are added
+        mLatch = new CountDownLatch(2);
+        add(newRequest("/busy", Request.Method.GET));
+        Request<Item> leader = newRequest("/item", Request.Method.GET);
+        add(leader);
+        add(newRequest("/item", Request.Method.GET));
+        leader.cancel();
+
+        awaitResponses();
+        // the cancelled leader doesn't receive the response
+        assertEquals(2, mResponses.size());
+        assertEquals(2, mMockWebServer.getRequestCount());
+    }
+
+    public void testRevalidatedResponseIsDeliveredOnce() throws Exception {
+        mRequestQueue.stop();
+        DiskBasedCache cache = new DiskBasedCache(new File(getContext().getCacheDir(),
+                "coalescer-test"));
+        startQueue(cache);
+        String url = mMockWebServer.getUrl("/item").toString();
+        // a response with max-age=0, stale-while-revalidate=600 that needs to be revalidated
+        Cache.Entry entry = new Cache.Entry();
+        entry.data = "{\"id\":1}".getBytes("UTF-8");
+        entry.etag = "v1";
+        entry.softTtl = System.currentTimeMillis() - 1000;
+        entry.ttl = entry.softTtl + 600 * 1000;
+        entry.responseHeaders = new HashMap<>();
+        entry.responseHeaders.put("ETag", "v1");
+        entry.responseHeaders.put("Cache-Control", "max-age=0, stale-while-revalidate=600");
+        cache.put(url, entry);
+
+        try {
+            mLatch = new CountDownLatch(3);
+            for (int i = 0; i < 3; i++) {
+                Request<Item> request = newRequest("/item", Request.Method.GET);
+                request.setShouldCache(true);
+                add(request);
+            }
+            awaitResponses();
+            // the server answers 304, which doesn't deliver another response
+            Thread.sleep(500);
+
+            assertEquals(1, mMockWebServer.getRequestCount());
+            assertEquals(3, mResponses.size());
+            assertEquals(0, mCoalescer.getInFlightCount());
+        } finally {
+            cache.clear();
+        }
+    }
+
+    private void startQueue(Cache cache) {
+        ExecutorDelivery delivery = new ExecutorDelivery(new Handler(Looper.getMainLooper()));
+        mCoalescer = new RequestCoalescer();
+        mRequestQueue = new RequestQueue(cache, new OkHttpNetwork(new OkHttpClient()), 1,
+                new CoalescingDelivery(delivery, mCoalescer));
+        mCoalescer.attach(mRequestQueue, delivery);
+        mRequestQueue.start();
+    }
+
+    private void add(Request<Item> request) {
+        if (mCoalescer.add(request)) {
+            mRequestQueue.add(request);
+        }
+    }
+
+    private void awaitResponses() throws InterruptedException {
+        mServerLatch.countDown();
+        assertTrue(mLatch.await(10, TimeUnit.SECONDS));
+    }
+
+    private Request<Item> newRequest(String path, int method) {
+        Response.Listener<Item> listener = new Response.Listener<Item>() {
+            @Override
+            public void onResponse(Item response) {
+                mResponses.add(response);
+                mLatch.countDown();
+            }
+        };
+        Response.ErrorListener errorListener = new Response.ErrorListener() {
+            @Override
+            public void onErrorResponse(VolleyError error) {
+                mErrors.add(error);
+                mLatch.countDown();
+            }
+        };
+        GsonRequest<Item> request = new GsonRequest<>(method,
+                mMockWebServer.getUrl(path).toString(), Item.class, null, listener,
+                errorListener);
+        request.setShouldCache(false);
+        return request;
+    }
+
+    private static class Item {
+        int id;
+    }
+}
@@ -0,0 +1,86 @@
+package cl.magnet.magnetrestclient;
+
+import android.test.AndroidTestCase;
+
+import com.android.volley.Request;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Protocol;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import cl.magnet.magnetrestclient.requests.StringJsonRequest;
+
+/**
+ * Tests that {@link VolleyManagerConfig} is applied to the OkHttpClient, and that connections
+ * are reused.
+ */
+public class VolleyManagerConfigTest extends AndroidTestCase {
+
+    private static final int REQUESTS = 10;
+
+    private MockWebServer mMockWebServer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        mMockWebServer = new MockWebServer();
+        mMockWebServer.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mMockWebServer.shutdown();
+
+        super.tearDown();
+    }
+
+    public void testConfigIsApplied() {
+        VolleyManagerConfig config = new VolleyManagerConfig.Builder()
+                .setProtocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .setConnectTimeout(3, TimeUnit.SECONDS)
+                .setWriteTimeout(4, TimeUnit.SECONDS)
+                .setRequestTimeout(5, TimeUnit.SECONDS)
+                .build();
+        OkHttpClient client = VolleyManager.createOkHttpClient(config);
+
+        assertEquals(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1), client.getProtocols());
+        assertEquals(3000, client.getConnectTimeout());
+        assertEquals(4000, client.getWriteTimeout());
+        assertEquals(5000, client.getReadTimeout());
+    }
+
+    public void testProtocolsRequireHttp11() {
+        try {
+            new VolleyManagerConfig.Builder().setProtocols(Arrays.asList(Protocol.HTTP_2));
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testConnectionsAreReused() throws Exception {
+        VolleyManagerConfig config = new VolleyManagerConfig.Builder()
+                .setMaxIdleConnections(2)
+                .setKeepAliveDuration(1, TimeUnit.MINUTES)
+                .build();
+        OkHttpClient client = VolleyManager.createOkHttpClient(config);
+        OkHttpNetwork network = new OkHttpNetwork(client);
+
+        for (int i = 0; i < REQUESTS; i++) {
+            mMockWebServer.enqueue(new MockResponse().setBody("response " + i));
+            network.performRequest(new StringJsonRequest(Request.Method.GET,
+                    mMockWebServer.getUrl("/" + i).toString(), null, null, null));
+        }
+
+        // the sequence number is the index of the request on its connection, so every request
+        // after the first one went through the same connection
+        for (int i = 0; i < REQUESTS; i++) {
+            assertEquals(i, mMockWebServer.takeRequest().getSequenceNumber());
+        }
+        assertEquals(1, client.getConnectionPool().getConnectionCount());
+    }
+}
@@ -0,0 +1,188 @@
+package cl.magnet.magnetrestclient;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.test.AndroidTestCase;
+
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import cl.magnet.magnetrestclient.requests.StringJsonRequest;
+
+/**
+ * Tests that {@link VolleyManager} initializes in the background without blocking the caller,
+ * and the requests added meanwhile.
+ */
+public class VolleyManagerInitializationTest extends AndroidTestCase {
+
+    private MockWebServer mMockWebServer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        mMockWebServer = new MockWebServer();
+        mMockWebServer.start();
+        VolleyManager.reset();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        VolleyManager.reset();
+        mMockWebServer.shutdown();
+
+        super.tearDown();
+    }
+
+    public void testAsyncInitializationDoesNotBlock() throws Exception {
+        mMockWebServer.enqueue(new MockResponse().setBody("sent"));
+        final Thread caller = Thread.currentThread();
+        final AtomicBoolean builtOnCaller = new AtomicBoolean();
+        final CountDownLatch building = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        // the networking stack is built until it is released
+        Context context = new ContextWrapper(getContext()) {
+            @Override
+            public Object getSystemService(String name) {
+                if (Thread.currentThread() == caller) {
+                    builtOnCaller.set(true);
+                } else {
+                    building.countDown();
+                    try {
+                        release.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return super.getSystemService(name);
+            }
+        };
+
+        VolleyManager volleyManager = VolleyManager.init(context, newAsyncConfig());
+        assertTrue(building.await(10, TimeUnit.SECONDS));
+        assertFalse(builtOnCaller.get());
+        // the request waits for the networking stack
+        CountDownLatch latch = new CountDownLatch(1);
+        volleyManager.addToRequestQueue(newRequest("/sent", latch));
+        assertEquals(0, mMockWebServer.getRequestCount());
+
+        release.countDown();
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertNotNull(volleyManager.getCache());
+        assertNotNull(volleyManager.getImageLoader());
+    }
+
+    public void testRequestsAddedDuringInitializationAreSent() throws Exception {
+        mMockWebServer.enqueue(new MockResponse().setBody("first"));
+        mMockWebServer.enqueue(new MockResponse().setBody("second"));
+        // a single network thread sends the requests in the order they are queued
+        VolleyManager volleyManager = VolleyManager.init(getContext(),
+                new VolleyManagerConfig.Builder()
+                        .setAsyncInitialization(true)
+                        .setNetworkThreadPoolSize(1)
+                        .build());
+
+        CountDownLatch latch = new CountDownLatch(2);
+        StringJsonRequest first = newRequest("/first", latch);
+        StringJsonRequest second = newRequest("/second", latch);
+        volleyManager.addToRequestQueue(first);
+        volleyManager.addToRequestQueue(second);
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        // in the order they were added
+        assertEquals("/first", mMockWebServer.takeRequest().getPath());
+        assertEquals("/second", mMockWebServer.takeRequest().getPath());
+    }
+
+    public void testPendingRequestsAreCancelled() throws Exception {
+        mMockWebServer.enqueue(new MockResponse().setBody("cancelled"));
+        VolleyManager volleyManager = VolleyManager.init(getContext(), newAsyncConfig());
+
+        CountDownLatch latch = new CountDownLatch(1);
+        StringJsonRequest request = newRequest("/cancelled", latch);
+        volleyManager.addToRequestQueue(request, "tag");
+        volleyManager.cancelPendingRequests("tag");
+
+        assertTrue(request.isCanceled());
+        assertFalse(latch.await(1, TimeUnit.SECONDS));
+    }
+
+    public void testFailedInitializationIsSurfaced() throws Exception {
+        // the networking stack can't be built with this context
+        Context context = new ContextWrapper(getContext()) {
+            @Override
+            public Object getSystemService(String name) {
+                throw new IllegalStateException("no " + name);
+            }
+        };
+        VolleyManager volleyManager = VolleyManager.init(context, newAsyncConfig());
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<VolleyError> error = new AtomicReference<>();
+        StringJsonRequest request = new StringJsonRequest(Request.Method.GET,
+                mMockWebServer.getUrl("/pending").toString(), null,
+                new Response.Listener<String>() {
+                    @Override
+                    public void onResponse(String response) {
+                        fail(response);
+                    }
+                }, new Response.ErrorListener() {
+                    @Override
+                    public void onErrorResponse(VolleyError volleyError) {
+                        error.set(volleyError);
+                        latch.countDown();
+                    }
+                });
+        volleyManager.addToRequestQueue(request);
+
+        // the pending request fails with the error of the initialization
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertTrue(error.get().getCause() instanceof IllegalStateException);
+        try {
+            volleyManager.getCache();
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("no " + Context.ACTIVITY_SERVICE, e.getCause().getMessage());
+        }
+        try {
+            volleyManager.addToRequestQueue(newRequest("/added", new CountDownLatch(1)));
+            fail();
+        } catch (IllegalStateException e) {
+            assertNotNull(e.getCause());
+        }
+        assertEquals(0, mMockWebServer.getRequestCount());
+    }
+
+    private static VolleyManagerConfig newAsyncConfig() {
+        return new VolleyManagerConfig.Builder()
+                .setAsyncInitialization(true)
+                .build();
+    }
+
+    private StringJsonRequest newRequest(String path, final CountDownLatch latch) {
+        Response.Listener<String> listener = new Response.Listener<String>() {
+            @Override
+            public void onResponse(String response) {
+                latch.countDown();
+            }
+        };
+        Response.ErrorListener errorListener = new Response.ErrorListener() {
+            @Override
+            public void onErrorResponse(VolleyError error) {
+                fail(error.toString());
+            }
+        };
+        StringJsonRequest request = new StringJsonRequest(Request.Method.GET,
+                mMockWebServer.getUrl(path).toString(), null, listener, errorListener);
+        request.setShouldCache(false);
+        return request;
+    }
+}
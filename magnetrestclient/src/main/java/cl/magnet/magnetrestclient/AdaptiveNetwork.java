@@ -0,0 +1,228 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Lukas Zorich, Magnet.cl
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package cl.magnet.magnetrestclient;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.telephony.TelephonyManager;
+
+import com.android.volley.Network;
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.VolleyError;
+
+/**
+ * A {com.android.volley.Network} decorator that limits how many requests are performed
+ * concurrently, scaling the limit with the number of CPU cores and the type of the active
+ * network: fast networks get more concurrent requests than slow mobile networks, where parallel
+ * requests only compete for the same bandwidth.
+ *
+ * Volley's {com.android.volley.RequestQueue} owns a fixed number of network dispatcher threads,
+ * so the queue is created with {@link #getMaxConcurrency()} threads and this network blocks the
+ * ones above the current limit. The limit is updated every time the connectivity changes.
+ */
+public class AdaptiveNetwork implements Network {
+
+    /**
+     * Concurrency when there is no active network, so requests fail fast one at a time.
+     */
+    static final int MIN_CONCURRENCY = 1;
+
+    /**
+     * Upper bound of the concurrency, regardless of the number of cores.
+     */
+    static final int MAX_CONCURRENCY = 16;
+
+    private final Network mNetwork;
+    private final int mCores;
+
+    private final Object mLock = new Object();
+    private int mLimit;
+    private int mActive;
+
+    private final BroadcastReceiver mConnectivityReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            updateLimit(context);
+        }
+    };
+
+    /**
+     * @param network The network that performs the requests
+     */
+    public AdaptiveNetwork(Network network) {
+        if (network == null) {
+            throw new NullPointerException("Network must not be null.");
+        }
+        mNetwork = network;
+        mCores = Runtime.getRuntime().availableProcessors();
+        mLimit = getMaxConcurrency();
+    }
+
+    /**
+     * @return The number of network dispatcher threads the RequestQueue should have, that is, the
+     * concurrency on the fastest network
+     */
+    public int getMaxConcurrency() {
+        return getConcurrency(mCores, ConnectivityManager.TYPE_WIFI, 0);
+    }
+
+    /**
+     * @return The current concurrency limit
+     */
+    public int getLimit() {
+        synchronized (mLock) {
+            return mLimit;
+        }
+    }
+
+    /**
+     * Starts following the connectivity changes to update the concurrency limit.
+     *
+     * @param context The application context
+     */
+    public void register(Context context) {
+        Context appContext = context.getApplicationContext();
+        updateLimit(appContext);
+        appContext.registerReceiver(mConnectivityReceiver,
+                new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+    }
+
+    /**
+     * Stops following the connectivity changes.
+     *
+     * @param context The application context
+     */
+    public void unregister(Context context) {
+        context.getApplicationContext().unregisterReceiver(mConnectivityReceiver);
+    }
+
+    @Override
+    public NetworkResponse performRequest(Request<?> request) throws VolleyError {
+        acquire(request);
+        try {
+            return mNetwork.performRequest(request);
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Sets the concurrency limit. Requests already being performed are not interrupted when the
+     * limit is lowered.
+     *
+     * @param limit The maximum number of concurrent requests
+     */
+    public void setLimit(int limit) {
+        synchronized (mLock) {
+            mLimit = Math.max(MIN_CONCURRENCY, Math.min(limit, getMaxConcurrency()));
+            mLock.notifyAll();
+        }
+    }
+
+    private void acquire(Request<?> request) throws VolleyError {
+        synchronized (mLock) {
+            while (mActive >= mLimit) {
+                try {
+                    mLock.wait();
+                } catch (InterruptedException e) {
+                    // the RequestQueue is being stopped
+                    Thread.currentThread().interrupt();
+                    throw new VolleyError(e);
+                }
+            }
+            mActive++;
+        }
+        request.addMarker("network-concurrency-acquired");
+    }
+
+    private void release() {
+        synchronized (mLock) {
+            mActive--;
+            mLock.notifyAll();
+        }
+    }
+
+    private void updateLimit(Context context) {
+        ConnectivityManager connectivityManager = (ConnectivityManager) context.getSystemService(
+                Context.CONNECTIVITY_SERVICE);
+        NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
+        if (networkInfo == null || !networkInfo.isConnected()) {
+            setLimit(MIN_CONCURRENCY);
+        } else {
+            setLimit(getConcurrency(mCores, networkInfo.getType(), networkInfo.getSubtype()));
+        }
+    }
+
+    /**
+     * Returns the number of concurrent requests for a network type.
+     *
+     * @param cores   The number of CPU cores
+     * @param type    The network type, e.g: {android.net.ConnectivityManager#TYPE_WIFI}
+     * @param subtype The network subtype, e.g: {android.telephony.TelephonyManager#NETWORK_TYPE_LTE}
+     * @return The concurrency
+     */
+    static int getConcurrency(int cores, int type, int subtype) {
+        int concurrency;
+        switch (type) {
+            case ConnectivityManager.TYPE_WIFI:
+            case ConnectivityManager.TYPE_ETHERNET:
+            case ConnectivityManager.TYPE_WIMAX:
+                // never below the thread count Volley uses by default
+                concurrency = Math.max(VolleyManagerConfig.DEFAULT_NETWORK_THREAD_POOL_SIZE,
+                        cores * 2);
+                break;
+            case ConnectivityManager.TYPE_MOBILE:
+                concurrency = getMobileConcurrency(cores, subtype);
+                break;
+            default:
+                concurrency = cores;
+                break;
+        }
+
+        return Math.max(MIN_CONCURRENCY, Math.min(concurrency, MAX_CONCURRENCY));
+    }
+
+    private static int getMobileConcurrency(int cores, int subtype) {
+        switch (subtype) {
+            case TelephonyManager.NETWORK_TYPE_GPRS:
+            case TelephonyManager.NETWORK_TYPE_EDGE:
+            case TelephonyManager.NETWORK_TYPE_CDMA:
+            case TelephonyManager.NETWORK_TYPE_1xRTT:
+            case TelephonyManager.NETWORK_TYPE_IDEN:
+                // 2G
+                return 2;
+            case TelephonyManager.NETWORK_TYPE_LTE:
+                return Math.max(4, cores);
+            default:
+                // 3G
+                return 4;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Lukas Zorich, Magnet.cl
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package cl.magnet.magnetrestclient;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.DefaultRetryPolicy;
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.RetryPolicy;
+import com.android.volley.TimeoutError;
+import com.android.volley.VolleyError;
+
+import java.util.Random;
+
+/**
+ * A {com.android.volley.RetryPolicy} that waits between attempts, with an exponential backoff
+ * and full jitter, so the clients of a backend that failed don't retry in lockstep. Like
+ * {com.android.volley.DefaultRetryPolicy}, the timeout grows on every attempt.
+ *
+ * Besides timeouts and 401/403 responses, which Volley retries, it retries connection errors,
+ * server errors (5xx), 408 and 429 responses of idempotent requests. A retry is only made if:
+ * <ul>
+ * <li>The request has retries left.</li>
+ * <li>The {@link RetryBudget} allows it, so retries don't exceed a ratio of the traffic.</li>
+ * <li>The circuit of the host is closed, see {@link HostCircuitBreaker}. Otherwise the request
+ * fails with a {@link CircuitOpenError}.</li>
+ * </ul>
+ *
+ * The backoff is spent in the network dispatcher thread that performs the request, so it is
+ * capped at a few seconds.
+ */
+public class AdaptiveRetryPolicy implements RetryPolicy {
+
+    public static final int DEFAULT_MAX_RETRIES = 2;
+    public static final long DEFAULT_MIN_BACKOFF_MS = 100;
+    public static final long DEFAULT_MAX_BACKOFF_MS = 2000;
+
+    private static final int HTTP_REQUEST_TIMEOUT = 408;
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    private static final Random RANDOM = new Random();
+
+    private final int mMaxRetries;
+    private final long mMinBackoffMs;
+    private final long mMaxBackoffMs;
+    private final boolean mIdempotent;
+    private final String mHost;
+    private final RetryBudget mRetryBudget;
+    private final HostCircuitBreaker mCircuitBreaker;
+
+    private int mCurrentTimeoutMs;
+    private int mCurrentRetryCount;
+    private VolleyError mRecordedError;
+
+    /**
+     * @param request        The request that uses the policy
+     * @param timeoutMs      The timeout of the first attempt, in milliseconds
+     * @param maxRetries     The maximum number of retries
+     * @param minBackoffMs   The backoff before the first retry, in milliseconds. It doubles on
+     *                       every retry, and the actual wait is a random time up to it.
+     * @param maxBackoffMs   The maximum backoff, in milliseconds
+     * @param retryBudget    The budget of retries, or null to retry without limit
+     * @param circuitBreaker The circuit breaker of the hosts, or null
+     */
+    public AdaptiveRetryPolicy(Request<?> request, int timeoutMs, int maxRetries,
+                               long minBackoffMs, long maxBackoffMs, RetryBudget retryBudget,
+                               HostCircuitBreaker circuitBreaker) {
+        mCurrentTimeoutMs = timeoutMs;
+        mMaxRetries = maxRetries;
+        mMinBackoffMs = minBackoffMs;
+        mMaxBackoffMs = maxBackoffMs;
+        mIdempotent = isIdempotent(request.getMethod());
+        mHost = HostCircuitBreaker.getHost(request.getUrl());
+        mRetryBudget = retryBudget;
+        mCircuitBreaker = circuitBreaker;
+    }
+
+    @Override
+    public int getCurrentTimeout() {
+        return mCurrentTimeoutMs;
+    }
+
+    @Override
+    public int getCurrentRetryCount() {
+        return mCurrentRetryCount;
+    }
+
+    @Override
+    public void retry(VolleyError error) throws VolleyError {
+        if (mCircuitBreaker != null) {
+            // every attempt is recorded, so the circuit can open before the retries end
+            mCircuitBreaker.onResult(mHost, error);
+            mRecordedError = error;
+        }
+        if (mCurrentRetryCount >= mMaxRetries || !isRetriable(error)) {
+            throw error;
+        }
+        if (mCircuitBreaker != null && !mCircuitBreaker.allowRequest(mHost)) {
+            throw new CircuitOpenError(mHost, error);
+        }
+        if (mRetryBudget != null && !mRetryBudget.tryRetry()) {
+            throw error;
+        }
+
+        mCurrentRetryCount++;
+        mCurrentTimeoutMs += (int) (mCurrentTimeoutMs * DefaultRetryPolicy.DEFAULT_BACKOFF_MULT);
+        try {
+            Thread.sleep(getBackoffMs(mCurrentRetryCount));
+        } catch (InterruptedException e) {
+            // the request queue is stopping
+            Thread.currentThread().interrupt();
+            throw error;
+        }
+    }
+
+    /**
+     * Whether the error was already recorded in the circuit breaker by the policy.
+     */
+    boolean isRecorded(VolleyError error) {
+        return error == mRecordedError;
+    }
+
+    /**
+     * @return A random backoff up to the exponential backoff of the retry
+     */
+    long getBackoffMs(int retry) {
+        long backoff = mMinBackoffMs << Math.min(retry - 1, 20);
+        if (backoff <= 0 || backoff > mMaxBackoffMs) {
+            backoff = mMaxBackoffMs;
+        }
+        return (long) (RANDOM.nextDouble() * backoff);
+    }
+
+    /**
+     * Whether an error can be retried. Errors that may have reached the server are only
+     * retried for idempotent requests.
+     */
+    private boolean isRetriable(VolleyError error) {
+        if (error instanceof TimeoutError || error instanceof AuthFailureError) {
+            // retried by Volley's default policy too
+            return true;
+        }
+        if (!mIdempotent) {
+            return false;
+        }
+        NetworkResponse response = error.networkResponse;
+        return response == null || response.statusCode >= 500
+                || response.statusCode == HTTP_REQUEST_TIMEOUT
+                || response.statusCode == HTTP_TOO_MANY_REQUESTS;
+    }
+
+    private static boolean isIdempotent(int method) {
+        switch (method) {
+            case Request.Method.GET:
+            case Request.Method.HEAD:
+            case Request.Method.OPTIONS:
+            case Request.Method.TRACE:
+            case Request.Method.PUT:
+            case Request.Method.DELETE:
+                return true;
+            default:
+                return false;
+        }
+    }
+}
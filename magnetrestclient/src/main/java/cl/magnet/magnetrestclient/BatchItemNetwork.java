@@ -0,0 +1,95 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Lukas Zorich, Magnet.cl
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package cl.magnet.magnetrestclient;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.Network;
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.ServerError;
+import com.android.volley.VolleyError;
+
+import java.net.HttpURLConnection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * A {com.android.volley.Network} that returns the responses already received in a
+ * {@link cl.magnet.magnetrestclient.requests.BatchRequest}, so the requests of the batch are
+ * parsed, cached and delivered by the RequestQueue as if they had been performed by themselves.
+ * The other requests are performed by the wrapped network.
+ */
+class BatchItemNetwork implements Network {
+
+    private final Network mNetwork;
+
+    /**
+     * The response, or the error, of each request. The keys are weak since a request can be
+     * cancelled, or served from the cache, before reaching the network.
+     */
+    private final Map<Request<?>, Object> mResults = Collections.synchronizedMap(
+            new WeakHashMap<Request<?>, Object>());
+
+    BatchItemNetwork(Network network) {
+        mNetwork = network;
+    }
+
+    /**
+     * Sets the response of the request, which is returned the next time it is performed.
+     */
+    void putResponse(Request<?> request, NetworkResponse response) {
+        mResults.put(request, response);
+    }
+
+    /**
+     * Sets the error of the request, which is thrown the next time it is performed.
+     */
+    void putError(Request<?> request, VolleyError error) {
+        mResults.put(request, error);
+    }
+
+    @Override
+    public NetworkResponse performRequest(Request<?> request) throws VolleyError {
+        Object result = mResults.remove(request);
+        if (result == null) {
+            return mNetwork.performRequest(request);
+        }
+        if (result instanceof VolleyError) {
+            throw (VolleyError) result;
+        }
+
+        // the same errors thrown by OkHttpNetwork
+        NetworkResponse response = (NetworkResponse) result;
+        if (response.statusCode >= 200 && response.statusCode <= 299) {
+            return response;
+        }
+        if (response.statusCode == HttpURLConnection.HTTP_UNAUTHORIZED
+                || response.statusCode == HttpURLConnection.HTTP_FORBIDDEN) {
+            throw new AuthFailureError(response);
+        }
+        throw new ServerError(response);
+    }
+}
@@ -0,0 +1,310 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Lukas Zorich, Magnet.cl
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package cl.magnet.magnetrestclient;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.android.volley.DefaultRetryPolicy;
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.RequestQueue;
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.JsonRequest;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import cl.magnet.magnetrestclient.requests.BatchRequest;
+
+/**
+ * Packs the JSON requests added within a short window into a single {@link BatchRequest}. The
+ * window starts when a request is added and there are no pending ones; when it ends, or when
+ * the maximum number of requests is reached, the pending requests are sent to the batch
+ * endpoint in a single POST. Only {com.android.volley.toolbox.JsonRequest} requests to the host
+ * of the batch endpoint are batched, except for GET requests that may be served from the cache,
+ * which go through the RequestQueue so the cache is looked up first. Use
+ * {com.android.volley.Request#setShouldCache(boolean)} to batch a GET request.
+ *
+ * When the batch response arrives, each request is added to the RequestQueue with its own
+ * response, which is returned by {@link BatchItemNetwork} instead of being performed. Therefore
+ * every request is parsed, cached and delivered to its own listener, and the responses that
+ * aren't successful are delivered as errors with their status code, so a
+ * {@link MagnetErrorListener} handles them as usual. If the batch fails, its GET requests are
+ * performed by themselves, and its error is delivered to the other requests, since the batch
+ * endpoint may have performed some of them before failing.
+ *
+ * Pending requests are cancelled with {@link #cancelAll(RequestQueue.RequestFilter)}.
+ */
+public class BatchScheduler {
+
+    private final String mBatchUrl;
+    private final String mOrigin;
+    private final long mWindowMs;
+    private final int mMaxBatchSize;
+    private final int mTimeoutMs;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    private RequestQueue mRequestQueue;
+    private BatchItemNetwork mNetwork;
+    private Map<String, String> mDefaultHeaders;
+
+    private List<Request<?>> mPending = new ArrayList<>();
+    private final List<BatchRequest> mInFlight = new ArrayList<>();
+    private long mRequestCount;
+    private long mBatchCount;
+    private long mBatchedRequestCount;
+
+    /**
+     * @param batchUrl     The url of the batch endpoint
+     * @param windowMs     How long requests are collected before being sent, in milliseconds
+     * @param maxBatchSize The maximum number of requests sent in a batch
+     * @param timeoutMs    The timeout of the batch requests, in milliseconds
+     */
+    public BatchScheduler(String batchUrl, long windowMs, int maxBatchSize, int timeoutMs) {
+        URI uri = URI.create(batchUrl);
+        if (uri.getScheme() == null || uri.getRawAuthority() == null) {
+            throw new IllegalArgumentException("batchUrl is not absolute: " + batchUrl);
+        }
+        mBatchUrl = batchUrl;
+        mOrigin = uri.getScheme() + "://" + uri.getRawAuthority() + "/";
+        mWindowMs = windowMs;
+        mMaxBatchSize = maxBatchSize;
+        mTimeoutMs = timeoutMs;
+    }
+
+    /**
+     * Attaches the scheduler to the queue that performs the batches, whose network returns the
+     * response of each request of a batch.
+     */
+    void attach(RequestQueue requestQueue, BatchItemNetwork network) {
+        mRequestQueue = requestQueue;
+        mNetwork = network;
+    }
+
+    /**
+     * Sets the default headers, like the user agent, of the batch requests.
+     */
+    void setDefaultHeaders(Map<String, String> defaultHeaders) {
+        mDefaultHeaders = defaultHeaders;
+    }
+
+    /**
+     * Registers a request before it is added to the RequestQueue.
+     *
+     * @param request The request
+     * @return True if the request must be added to the RequestQueue, false if it will be sent in
+     * a batch
+     */
+    public boolean add(Request<?> request) {
+        if (!isBatchable(request)) {
+            return true;
+        }
+
+        List<Request<?>> batch = null;
+        synchronized (this) {
+            mRequestCount++;
+            request.addMarker("batched");
+            mPending.add(request);
+            if (mPending.size() >= mMaxBatchSize) {
+                batch = takePending();
+            } else if (mPending.size() == 1) {
+                mHandler.postDelayed(mFlushRunnable, mWindowMs);
+            }
+        }
+
+        if (batch != null) {
+            mHandler.removeCallbacks(mFlushRunnable);
+            send(batch);
+        }
+        return false;
+    }
+
+    /**
+     * Sends the pending requests without waiting for the window to end.
+     */
+    public void flush() {
+        List<Request<?>> batch;
+        synchronized (this) {
+            batch = takePending();
+        }
+        send(batch);
+    }
+
+    /**
+     * Cancels the requests that match the filter and haven't been added to the RequestQueue
+     * yet, that is, the pending ones and the ones in a batch in flight.
+     *
+     * @param filter The filter
+     */
+    public synchronized void cancelAll(RequestQueue.RequestFilter filter) {
+        for (Request<?> request : mPending) {
+            if (filter.apply(request)) {
+                request.cancel();
+            }
+        }
+        for (BatchRequest batchRequest : mInFlight) {
+            for (Request<?> request : batchRequest.getRequests()) {
+                if (filter.apply(request)) {
+                    request.cancel();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The number of requests registered to be batched
+     */
+    public synchronized long getRequestCount() {
+        return mRequestCount;
+    }
+
+    /**
+     * @return The number of batches sent
+     */
+    public synchronized long getBatchCount() {
+        return mBatchCount;
+    }
+
+    /**
+     * @return The number of requests sent in a batch. This minus {@link #getBatchCount()} is the
+     * number of round trips saved.
+     */
+    public synchronized long getBatchedRequestCount() {
+        return mBatchedRequestCount;
+    }
+
+    /**
+     * @return The number of requests waiting for the window to end
+     */
+    public synchronized int getPendingCount() {
+        return mPending.size();
+    }
+
+    /**
+     * Whether the request is a JSON request to the host of the batch endpoint.
+     */
+    private boolean isBatchable(Request<?> request) {
+        String url = request.getUrl();
+        return request instanceof JsonRequest && !(request instanceof BatchRequest)
+                && (request.getMethod() != Request.Method.GET || !request.shouldCache())
+                && url.regionMatches(true, 0, mOrigin, 0, mOrigin.length())
+                && !url.equals(mBatchUrl);
+    }
+
+    private List<Request<?>> takePending() {
+        List<Request<?>> pending = mPending;
+        mPending = new ArrayList<>();
+        return pending;
+    }
+
+    /**
+     * Sends the requests in a batch. Requests cancelled while pending, or a single request, are
+     * added to the RequestQueue by themselves.
+     */
+    private void send(List<Request<?>> requests) {
+        List<Request<?>> batch = new ArrayList<>(requests.size());
+        for (Request<?> request : requests) {
+            if (request.isCanceled()) {
+                // it finishes right away, so it isn't left behind by the RequestCoalescer
+                mRequestQueue.add(request);
+            } else {
+                batch.add(request);
+            }
+        }
+        if (batch.size() == 1) {
+            mRequestQueue.add(batch.get(0));
+        }
+        if (batch.size() <= 1) {
+            return;
+        }
+
+        BatchRequest batchRequest = new Batch(batch).request;
+        // it isn't retried, since it may contain requests that aren't idempotent
+        batchRequest.setRetryPolicy(new DefaultRetryPolicy(mTimeoutMs, 0,
+                DefaultRetryPolicy.DEFAULT_BACKOFF_MULT));
+        if (mDefaultHeaders != null) {
+            batchRequest.setDefaultHeaders(mDefaultHeaders);
+        }
+
+        synchronized (this) {
+            mInFlight.add(batchRequest);
+            mBatchCount++;
+            mBatchedRequestCount += batch.size();
+        }
+        mRequestQueue.add(batchRequest);
+    }
+
+    private synchronized void onBatchFinished(BatchRequest batchRequest) {
+        mInFlight.remove(batchRequest);
+    }
+
+    /**
+     * Adds the requests of a batch to the RequestQueue when its response, or its error, is
+     * delivered.
+     */
+    private class Batch implements Response.Listener<List<NetworkResponse>>,
+            Response.ErrorListener {
+
+        final List<Request<?>> requests;
+        final BatchRequest request;
+
+        Batch(List<Request<?>> requests) {
+            this.requests = requests;
+            request = new BatchRequest(mBatchUrl, requests, this, this);
+        }
+
+        @Override
+        public void onResponse(List<NetworkResponse> responses) {
+            onBatchFinished(request);
+            for (int i = 0; i < requests.size(); i++) {
+                mNetwork.putResponse(requests.get(i), responses.get(i));
+                mRequestQueue.add(requests.get(i));
+            }
+        }
+
+        @Override
+        public void onErrorResponse(VolleyError error) {
+            onBatchFinished(request);
+            for (Request<?> item : requests) {
+                if (item.getMethod() != Request.Method.GET) {
+                    // it isn't sent again, the batch may have performed it
+                    mNetwork.putError(item, error);
+                }
+                mRequestQueue.add(item);
+            }
+        }
+    }
+}
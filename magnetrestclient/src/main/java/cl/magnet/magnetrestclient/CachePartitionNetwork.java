@@ -0,0 +1,70 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Lukas Zorich, Magnet.cl
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package cl.magnet.magnetrestclient;
+
+import com.android.volley.Network;
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.RequestQueue;
+import com.android.volley.VolleyError;
+
+import cl.magnet.magnetrestclient.cache.PartitionedCache;
+
+/**
+ * A {com.android.volley.Network} that assigns the cache key of every cacheable request with a
+ * String tag to the partition of the tag in a {@link PartitionedCache}, so the response is
+ * stored in that partition. The assignment is removed when the request finishes, since the
+ * partition that holds the entry is found by its key afterwards.
+ */
+class CachePartitionNetwork implements Network, RequestQueue.RequestFinishedListener<Object> {
+
+    private final Network mNetwork;
+    private final PartitionedCache mCache;
+
+    CachePartitionNetwork(Network network, PartitionedCache cache) {
+        mNetwork = network;
+        mCache = cache;
+    }
+
+    @Override
+    public NetworkResponse performRequest(Request<?> request) throws VolleyError {
+        if (isPartitioned(request)) {
+            mCache.assign(request.getCacheKey(), (String) request.getTag());
+        }
+        return mNetwork.performRequest(request);
+    }
+
+    @Override
+    public void onRequestFinished(Request<Object> request) {
+        if (isPartitioned(request)) {
+            mCache.unassign(request.getCacheKey());
+        }
+    }
+
+    private static boolean isPartitioned(Request<?> request) {
+        return request.shouldCache() && request.getTag() instanceof String;
+    }
+}
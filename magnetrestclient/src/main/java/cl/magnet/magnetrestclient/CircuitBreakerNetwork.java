@@ -0,0 +1,84 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Lukas Zorich, Magnet.cl
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package cl.magnet.magnetrestclient;
+
+import com.android.volley.Network;
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.RetryPolicy;
+import com.android.volley.VolleyError;
+
+/**
+ * A {com.android.volley.Network} that records the outcome and the latency of every request in a
+ * {@link HostCircuitBreaker}, and fails the requests to hosts whose circuit is open with a
+ * {@link CircuitOpenError} instead of performing them. When the circuit is half-open, only the
+ * first request is performed to probe the host. The failed attempts of the requests with an
+ * {@link AdaptiveRetryPolicy} are recorded by the policy.
+ */
+class CircuitBreakerNetwork implements Network {
+
+    private final Network mNetwork;
+    private final HostCircuitBreaker mCircuitBreaker;
+
+    CircuitBreakerNetwork(Network network, HostCircuitBreaker circuitBreaker) {
+        mNetwork = network;
+        mCircuitBreaker = circuitBreaker;
+    }
+
+    @Override
+    public NetworkResponse performRequest(Request<?> request) throws VolleyError {
+        String host = HostCircuitBreaker.getHost(request.getUrl());
+        if (!mCircuitBreaker.acquire(host)) {
+            request.addMarker("circuit-open");
+            throw new CircuitOpenError(host, null);
+        }
+
+        boolean recorded = false;
+        try {
+            NetworkResponse response = mNetwork.performRequest(request);
+            mCircuitBreaker.onResult(host, null, response.networkTimeMs);
+            recorded = true;
+            return response;
+        } catch (CircuitOpenError e) {
+            // the retry policy gave up because the circuit opened, it's already recorded
+            recorded = true;
+            throw e;
+        } catch (VolleyError e) {
+            RetryPolicy retryPolicy = request.getRetryPolicy();
+            if (!(retryPolicy instanceof AdaptiveRetryPolicy)
+                    || !((AdaptiveRetryPolicy) retryPolicy).isRecorded(e)) {
+                mCircuitBreaker.onResult(host, e);
+            }
+            recorded = true;
+            throw e;
+        } finally {
+            if (!recorded) {
+                // e.g: a RuntimeException, which says nothing about the host, must not keep the
+                // probe of a half-open circuit forever
+                mCircuitBreaker.release(host);
+            }
+        }
+    }
+}
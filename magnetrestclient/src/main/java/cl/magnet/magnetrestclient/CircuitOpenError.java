@@ -0,0 +1,63 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Lukas Zorich, Magnet.cl
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package cl.magnet.magnetrestclient;
+
+import com.android.volley.VolleyError;
+
+/**
+ * The error of a request to a host whose circuit is open, see {@link HostCircuitBreaker}. The
+ * request either wasn't sent, or wasn't retried. When the circuit opened because of an error
+ * response, it is the network response of the error.
+ */
+public class CircuitOpenError extends VolleyError {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String mHost;
+
+    /**
+     * @param host  The host whose circuit is open
+     * @param cause The error of the last attempt of the request, or null if it wasn't sent
+     */
+    public CircuitOpenError(String host, VolleyError cause) {
+        super(cause == null ? null : cause.networkResponse);
+        mHost = host;
+        if (cause != null) {
+            initCause(cause);
+        }
+    }
+
+    /**
+     * @return The host whose circuit is open
+     */
+    public String getHost() {
+        return mHost;
+    }
+
+    @Override
+    public String getMessage() {
+        return "The circuit of " + mHost + " is open";
+    }
+}
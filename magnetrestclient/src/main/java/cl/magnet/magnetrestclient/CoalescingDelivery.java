@@ -0,0 +1,76 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Lukas Zorich, Magnet.cl
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package cl.magnet.magnetrestclient;
+
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.ResponseDelivery;
+import com.android.volley.VolleyError;
+
+import java.util.List;
+
+/**
+ * A {com.android.volley.ResponseDelivery} that delivers the responses and errors of the
+ * leaders of a {@link RequestCoalescer} to their followers too.
+ */
+class CoalescingDelivery implements ResponseDelivery {
+
+    private final ResponseDelivery mDelivery;
+    private final RequestCoalescer mCoalescer;
+
+    /**
+     * @param delivery  The delivery that delivers every response
+     * @param coalescer The coalescer that knows the followers of each leader
+     */
+    CoalescingDelivery(ResponseDelivery delivery, RequestCoalescer coalescer) {
+        mDelivery = delivery;
+        mCoalescer = coalescer;
+    }
+
+    @Override
+    public void postResponse(Request<?> request, Response<?> response) {
+        postResponse(request, response, null);
+    }
+
+    @Override
+    public void postResponse(Request<?> request, Response<?> response, Runnable runnable) {
+        // the followers are taken before the leader is delivered, otherwise it could finish
+        // first and one of them would be queued as a new leader
+        List<Request<?>> followers = mCoalescer.onResponse(request, response);
+        mDelivery.postResponse(request, response, runnable);
+        for (Request<?> follower : followers) {
+            mDelivery.postResponse(follower, response);
+        }
+    }
+
+    @Override
+    public void postError(Request<?> request, VolleyError error) {
+        List<Request<?>> followers = mCoalescer.onError(request);
+        mDelivery.postError(request, error);
+        for (Request<?> follower : followers) {
+            mDelivery.postError(follower, error);
+        }
+    }
+}
@@ -0,0 +1,329 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Lukas Zorich, Magnet.cl
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package cl.magnet.magnetrestclient;
+
+import android.net.Uri;
+
+import com.android.volley.Network;
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.VolleyError;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import cl.magnet.magnetrestclient.requests.BaseJsonRequest;
+
+/**
+ * A {com.android.volley.Network} that keeps a {@link LatencyHistogram} of the successful hedged
+ * requests of every route, and hedges the requests that ask for it (see
+ * {@link BaseJsonRequest#setHedging(boolean)}): when the response of a hedged request doesn't
+ * arrive within the {@value #HEDGE_PERCENTILE}th percentile latency of its route, a second,
+ * identical request is sent. The first response is returned and the call of the other request
+ * is cancelled. The second request is not retried, so retries follow the retry policy of the
+ * request, and it uses the timeout the request had when it started, since the retries of the
+ * first request grow the timeout of the policy meanwhile.
+ *
+ * A route is the method, host and path of a request, with the path segments that look like
+ * ids, i.e: numbers, UUIDs and hex hashes, replaced by {@code {id}}, so e.g: every item of an
+ * endpoint shares a histogram. Only the latencies of hedged requests are recorded, so the
+ * routes of the other requests don't take memory. Requests are not hedged until their route
+ * has {@value #MIN_SAMPLES} latencies.
+ *
+ * Hedged requests are performed in background threads, while the network dispatcher waits for
+ * them. When the request is cancelled, e.g: by {com.android.volley.RequestQueue#cancelAll}, the
+ * calls of both requests are cancelled too.
+ */
+class HedgingNetwork implements Network {
+
+    private static final String TAG = HedgingNetwork.class.getSimpleName();
+
+    static final double HEDGE_PERCENTILE = 95;
+    static final int MIN_SAMPLES = 20;
+
+    /**
+     * The minimum length of a hex path segment that is taken as a hash, e.g: an md5 or a sha1.
+     */
+    private static final int MIN_HASH_LENGTH = 16;
+
+    /**
+     * How often a dispatcher waiting for a hedged request checks if it was cancelled.
+     */
+    private static final long CANCEL_CHECK_MS = 50;
+
+    private final OkHttpNetwork mNetwork;
+    private final ConcurrentMap<String, LatencyHistogram> mLatencies = new ConcurrentHashMap<>();
+    private final AtomicLong mHedgedCount = new AtomicLong();
+    private final ExecutorService mExecutor;
+
+    HedgingNetwork(OkHttpNetwork network) {
+        mNetwork = network;
+        mExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, TAG);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    @Override
+    public NetworkResponse performRequest(Request<?> request) throws VolleyError {
+        if (!isHedged(request)) {
+            return mNetwork.performRequest(request);
+        }
+        return new Race(request).run();
+    }
+
+    /**
+     * @param route The route, see {@link #getRoute(Request)}
+     * @return The histogram of the latencies of the route
+     */
+    LatencyHistogram getLatencyHistogram(String route) {
+        LatencyHistogram histogram = mLatencies.get(route);
+        if (histogram == null) {
+            histogram = new LatencyHistogram();
+            LatencyHistogram existing = mLatencies.putIfAbsent(route, histogram);
+            if (existing != null) {
+                histogram = existing;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * @return The number of hedged requests that sent a second request
+     */
+    long getHedgedCount() {
+        return mHedgedCount.get();
+    }
+
+    /**
+     * @return The route of a request, e.g: {@code GET example.com/items/{id}}
+     */
+    static String getRoute(Request<?> request) {
+        Uri uri = Uri.parse(request.getUrl());
+        StringBuilder route = new StringBuilder();
+        route.append(getMethodName(request.getMethod())).append(' ').append(uri.getHost());
+        for (String segment : uri.getPathSegments()) {
+            route.append('/').append(isId(segment) ? "{id}" : segment);
+        }
+        return route.toString();
+    }
+
+    private static String getMethodName(int method) {
+        switch (method) {
+            case Request.Method.GET:
+                return "GET";
+            case Request.Method.POST:
+                return "POST";
+            case Request.Method.PUT:
+                return "PUT";
+            case Request.Method.DELETE:
+                return "DELETE";
+            case Request.Method.PATCH:
+                return "PATCH";
+            case Request.Method.HEAD:
+                return "HEAD";
+            default:
+                return String.valueOf(method);
+        }
+    }
+
+    /**
+     * @return True if the path segment is a number, a UUID or a hex hash
+     */
+    private static boolean isId(String segment) {
+        int length = segment.length();
+        boolean numeric = length > 0;
+        boolean hex = length >= MIN_HASH_LENGTH;
+        boolean uuid = length == 36;
+        for (int i = 0; i < length; i++) {
+            char c = segment.charAt(i);
+            boolean hexDigit = Character.digit(c, 16) >= 0;
+            numeric &= Character.isDigit(c);
+            hex &= hexDigit;
+            uuid &= i == 8 || i == 13 || i == 18 || i == 23 ? c == '-' : hexDigit;
+        }
+        return numeric || hex || uuid;
+    }
+
+    private static boolean isHedged(Request<?> request) {
+        return request instanceof BaseJsonRequest && ((BaseJsonRequest<?>) request).isHedging()
+                && request.getMethod() == Request.Method.GET;
+    }
+
+    private static void close(NetworkResponse response) {
+        if (response instanceof SourceNetworkResponse) {
+            ((SourceNetworkResponse) response).close();
+        }
+    }
+
+    /**
+     * The requests sent for a hedged request. The first is performed with the retry policy of
+     * the request, the second one without retries.
+     */
+    private class Race {
+
+        private final Request<?> mRequest;
+        private final String mRoute;
+        private final int mTimeoutMs;
+        private final Object[] mTags = {new Object(), new Object()};
+
+        private int mStarted;
+        private int mFailed;
+        private NetworkResponse mResponse;
+        private VolleyError mError;
+        private RuntimeException mRuntimeError;
+        private boolean mCancelled;
+
+        Race(Request<?> request) {
+            mRequest = request;
+            mRoute = getRoute(request);
+            // the timeout before the first request is retried
+            mTimeoutMs = request.getTimeoutMs();
+        }
+
+        NetworkResponse run() throws VolleyError {
+            LatencyHistogram histogram = getLatencyHistogram(mRoute);
+            long hedgeDelayMs = histogram.getCount() < MIN_SAMPLES ? -1
+                    : histogram.getPercentile(HEDGE_PERCENTILE);
+            long start = System.nanoTime();
+
+            synchronized (this) {
+                try {
+                    start();
+                    if (hedgeDelayMs >= 0) {
+                        await(start + TimeUnit.MILLISECONDS.toNanos(hedgeDelayMs));
+                        if (!isDecided()) {
+                            mRequest.addMarker("hedged");
+                            mHedgedCount.incrementAndGet();
+                            start();
+                        }
+                    }
+                    await(Long.MAX_VALUE);
+                } catch (InterruptedException e) {
+                    // the request queue is stopping
+                    Thread.currentThread().interrupt();
+                    cancelCalls();
+                    throw new VolleyError(e);
+                }
+
+                if (mResponse != null) {
+                    histogram.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                    return mResponse;
+                }
+                if (mCancelled) {
+                    // the error is not delivered to a cancelled request
+                    throw new VolleyError("The request was cancelled");
+                }
+                if (mRuntimeError != null) {
+                    throw mRuntimeError;
+                }
+                throw mError;
+            }
+        }
+
+        private void start() {
+            final int attempt = mStarted++;
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        onResponse(attempt, attempt == 0
+                                ? mNetwork.performRequest(mRequest, mTags[attempt], true, 0)
+                                : mNetwork.performRequest(mRequest, mTags[attempt], false,
+                                mTimeoutMs));
+                    } catch (VolleyError e) {
+                        onError(attempt, e, null);
+                    } catch (RuntimeException e) {
+                        onError(attempt, null, e);
+                    }
+                }
+            });
+        }
+
+        /**
+         * Waits until the race is decided or the deadline passes.
+         */
+        private void await(long deadline) throws InterruptedException {
+            while (!isDecided()) {
+                if (mRequest.isCanceled()) {
+                    mCancelled = true;
+                    cancelCalls();
+                    return;
+                }
+                long remainingMs = deadline == Long.MAX_VALUE ? CANCEL_CHECK_MS
+                        : TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remainingMs <= 0) {
+                    return;
+                }
+                wait(Math.min(remainingMs, CANCEL_CHECK_MS));
+            }
+        }
+
+        private boolean isDecided() {
+            return mResponse != null || mCancelled || mFailed == mStarted;
+        }
+
+        private synchronized void onResponse(int attempt, NetworkResponse response) {
+            if (mResponse != null || mCancelled) {
+                close(response);
+                return;
+            }
+            mResponse = response;
+            // the body of the response may still be read from its call
+            for (int i = 0; i < mStarted; i++) {
+                if (i != attempt) {
+                    mNetwork.cancel(mTags[i]);
+                }
+            }
+            notifyAll();
+        }
+
+        private synchronized void onError(int attempt, VolleyError error,
+                                          RuntimeException runtimeError) {
+            mFailed++;
+            // the error of the first request, which was retried, is the one reported
+            if (attempt == 0 || (mError == null && mRuntimeError == null)) {
+                mError = error;
+                mRuntimeError = runtimeError;
+            }
+            notifyAll();
+        }
+
+        private void cancelCalls() {
+            for (int i = 0; i < mStarted; i++) {
+                mNetwork.cancel(mTags[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Lukas Zorich, Magnet.cl
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package cl.magnet.magnetrestclient;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link VolleyManager.MetricsListener} that aggregates the {@link RequestMetrics} of the
+ * requests per tag, in a {@link LatencyHistogram} per phase, so the percentiles of each phase can
+ * be read or dumped at any time. Recording is lock-free, so it adds little to the thread that
+ * finishes the requests.
+ * <pre>
+ * {@code
+ * HistogramMetricsAggregator aggregator = new HistogramMetricsAggregator();
+ * VolleyManager.getInstance(context).addMetricsListener(aggregator);
+ * ...
+ * Log.d(TAG, aggregator.dump());
+ * }
+ * </pre>
+ */
+public class HistogramMetricsAggregator implements VolleyManager.MetricsListener {
+
+    private static final double[] DUMP_PERCENTILES = {50, 90, 99, 100};
+
+    private final ConcurrentMap<String, TagMetrics> mTags = new ConcurrentHashMap<>();
+
+    @Override
+    public void onRequestMetrics(RequestMetrics metrics) {
+        String tag = String.valueOf(metrics.getTag());
+        TagMetrics tagMetrics = mTags.get(tag);
+        if (tagMetrics == null) {
+            tagMetrics = new TagMetrics();
+            TagMetrics existing = mTags.putIfAbsent(tag, tagMetrics);
+            if (existing != null) {
+                tagMetrics = existing;
+            }
+        }
+        tagMetrics.record(metrics);
+    }
+
+    /**
+     * @param tag   The tag of the requests
+     * @param phase The phase
+     * @return The histogram of the durations of the phase in milliseconds, or null if no request
+     * with the tag finished
+     */
+    public LatencyHistogram getHistogram(Object tag, RequestMetrics.Phase phase) {
+        TagMetrics tagMetrics = mTags.get(String.valueOf(tag));
+        return tagMetrics == null ? null : tagMetrics.mHistograms[phase.ordinal()];
+    }
+
+    /**
+     * @param tag The tag of the requests
+     * @return The number of finished requests with the tag
+     */
+    public long getCount(Object tag) {
+        TagMetrics tagMetrics = mTags.get(String.valueOf(tag));
+        return tagMetrics == null ? 0 : tagMetrics.mCount.get();
+    }
+
+    /**
+     * Dumps the number of requests, the bytes sent and received, and the 50th, 90th, 99th and
+     * 100th percentiles of every phase, per tag, e.g:
+     * <pre>
+     * feed: 120 requests, 4 errors, 0 bytes sent, 5242880 bytes received
+     *   QUEUE              1 / 3 / 12 / 15 ms
+     *   ...
+     * </pre>
+     *
+     * @return The dump
+     */
+    public String dump() {
+        StringBuilder builder = new StringBuilder();
+        // sorted, so dumps are easy to compare
+        for (Map.Entry<String, TagMetrics> entry : new TreeMap<>(mTags).entrySet()) {
+            TagMetrics tagMetrics = entry.getValue();
+            builder.append(entry.getKey()).append(": ")
+                    .append(tagMetrics.mCount.get()).append(" requests, ")
+                    .append(tagMetrics.mErrors.get()).append(" errors, ")
+                    .append(tagMetrics.mRequestBytes.get()).append(" bytes sent, ")
+                    .append(tagMetrics.mResponseBytes.get()).append(" bytes received\n");
+            for (RequestMetrics.Phase phase : RequestMetrics.Phase.values()) {
+                LatencyHistogram histogram = tagMetrics.mHistograms[phase.ordinal()];
+                builder.append("  ").append(phase.name());
+                for (int i = phase.name().length(); i < 19; i++) {
+                    builder.append(' ');
+                }
+                for (int i = 0; i < DUMP_PERCENTILES.length; i++) {
+                    builder.append(i == 0 ? "" : " / ")
+                            .append(histogram.getPercentile(DUMP_PERCENTILES[i]));
+                }
+                builder.append(" ms\n");
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * The metrics of the requests with a tag.
+     */
+    private static class TagMetrics {
+
+        private final LatencyHistogram[] mHistograms =
+                new LatencyHistogram[RequestMetrics.Phase.values().length];
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mErrors = new AtomicLong();
+        private final AtomicLong mRequestBytes = new AtomicLong();
+        private final AtomicLong mResponseBytes = new AtomicLong();
+
+        TagMetrics() {
+            for (int i = 0; i < mHistograms.length; i++) {
+                mHistograms[i] = new LatencyHistogram();
+            }
+        }
+
+        void record(RequestMetrics metrics) {
+            for (RequestMetrics.Phase phase : RequestMetrics.Phase.values()) {
+                mHistograms[phase.ordinal()].record(metrics.getDurationMs(phase));
+            }
+            mCount.incrementAndGet();
+            if (metrics.getStatusCode() >= 400 || (metrics.isNetwork()
+                    && metrics.getStatusCode() == 0)) {
+                mErrors.incrementAndGet();
+            }
+            mRequestBytes.addAndGet(metrics.getRequestBytes());
+            mResponseBytes.addAndGet(metrics.getResponseBytes());
+        }
+    }
+}
@@ -0,0 +1,365 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Lukas Zorich, Magnet.cl
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package cl.magnet.magnetrestclient;
+
+import android.net.Uri;
+
+import com.android.volley.NetworkResponse;
+import com.android.volley.VolleyError;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps a circuit per host, which tracks the error rate and the latency of the last
+ * {@value #WINDOW_SIZE} requests to the host. A circuit opens when a number of consecutive
+ * requests fail, or, once it has seen at least {@value #MIN_REQUESTS} requests, when the rate of
+ * failed or slow requests reaches the failure rate. While a circuit is open, the requests to its
+ * host are not retried, and fail with a {@link CircuitOpenError} instead of being sent.
+ *
+ * After the open duration the circuit is half-open: a single request is sent to probe the host,
+ * while the others keep failing fast. The circuit closes if the probe succeeds, and opens again
+ * if it fails.
+ *
+ * A failure is a request without a response, e.g: a timeout, or with a server error (5xx) or a
+ * 429 response. Other responses show the host is up.
+ */
+public class HostCircuitBreaker {
+
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    public static final float DEFAULT_FAILURE_RATE = 0.5f;
+    public static final long DEFAULT_SLOW_REQUEST_MS = TimeUnit.SECONDS.toMillis(5);
+    public static final long DEFAULT_OPEN_DURATION_MS = TimeUnit.SECONDS.toMillis(10);
+
+    /**
+     * The number of requests whose outcome is tracked per host.
+     */
+    public static final int WINDOW_SIZE = 20;
+
+    /**
+     * The number of requests a circuit must see before its failure rate is considered.
+     */
+    public static final int MIN_REQUESTS = 10;
+
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    /**
+     * The weight of the latest request in the average latency of a host.
+     */
+    private static final float LATENCY_WEIGHT = 0.2f;
+
+    /**
+     * The state of the circuit of a host.
+     */
+    public enum State {
+        /**
+         * Requests are sent.
+         */
+        CLOSED,
+        /**
+         * Requests fail without being sent.
+         */
+        OPEN,
+        /**
+         * A single request is sent to probe the host, the others fail without being sent.
+         */
+        HALF_OPEN
+    }
+
+    private final int mFailureThreshold;
+    private final float mFailureRate;
+    private final long mSlowRequestMs;
+    private final long mOpenDurationNs;
+    private final ConcurrentMap<String, Circuit> mCircuits = new ConcurrentHashMap<>();
+    private final AtomicLong mOpenCount = new AtomicLong();
+
+    /**
+     * Creates a circuit breaker with the default failure rate and slow request duration.
+     *
+     * @param failureThreshold The number of consecutive failures that open a circuit
+     * @param openDurationMs   How long a circuit stays open, in milliseconds
+     */
+    public HostCircuitBreaker(int failureThreshold, long openDurationMs) {
+        this(failureThreshold, DEFAULT_FAILURE_RATE, DEFAULT_SLOW_REQUEST_MS, openDurationMs);
+    }
+
+    /**
+     * @param failureThreshold The number of consecutive failures that open a circuit
+     * @param failureRate      The rate of failed or slow requests that opens a circuit
+     * @param slowRequestMs    How long a request must take to be slow, in milliseconds
+     * @param openDurationMs   How long a circuit stays open, in milliseconds
+     */
+    public HostCircuitBreaker(int failureThreshold, float failureRate, long slowRequestMs,
+                              long openDurationMs) {
+        if (failureThreshold < 1) {
+            throw new IllegalArgumentException("failureThreshold < 1");
+        }
+        if (failureRate <= 0 || failureRate > 1) {
+            throw new IllegalArgumentException("failureRate must be in (0, 1]");
+        }
+        mFailureThreshold = failureThreshold;
+        mFailureRate = failureRate;
+        mSlowRequestMs = slowRequestMs;
+        mOpenDurationNs = TimeUnit.MILLISECONDS.toNanos(openDurationMs);
+    }
+
+    /**
+     * Whether a request to the host can be added to the queue. It doesn't take the probe of a
+     * half-open circuit.
+     *
+     * @param host The host
+     * @return True if the circuit is closed, or half-open without a probe in flight
+     */
+    public boolean allowRequest(String host) {
+        Circuit circuit = mCircuits.get(host);
+        return circuit == null || circuit.allowRequest(false);
+    }
+
+    /**
+     * Whether a request to the host can be sent now. When the circuit is half-open, the first
+     * caller takes the probe, so its outcome must be recorded with {@link #onResult}.
+     *
+     * @param host The host
+     * @return True if the request can be sent
+     */
+    boolean acquire(String host) {
+        Circuit circuit = mCircuits.get(host);
+        return circuit == null || circuit.allowRequest(true);
+    }
+
+    /**
+     * Gives back the probe of a half-open circuit taken with {@link #acquire(String)}, without
+     * recording an outcome, e.g: when the request failed before reaching the host.
+     *
+     * @param host The host
+     */
+    void release(String host) {
+        Circuit circuit = mCircuits.get(host);
+        if (circuit != null) {
+            circuit.release();
+        }
+    }
+
+    /**
+     * @param host The host
+     * @return The state of the circuit of the host
+     */
+    public State getState(String host) {
+        Circuit circuit = mCircuits.get(host);
+        return circuit == null ? State.CLOSED : circuit.getState();
+    }
+
+    /**
+     * @param host The host
+     * @return The rate of failed or slow requests among the last ones to the host
+     */
+    public float getFailureRate(String host) {
+        Circuit circuit = mCircuits.get(host);
+        return circuit == null ? 0 : circuit.getFailureRate();
+    }
+
+    /**
+     * @param host The host
+     * @return The moving average of the latency of the successful requests to the host, in
+     * milliseconds
+     */
+    public long getLatencyMs(String host) {
+        Circuit circuit = mCircuits.get(host);
+        return circuit == null ? 0 : circuit.getLatencyMs();
+    }
+
+    /**
+     * Records the outcome of a request whose latency is unknown.
+     *
+     * @param host  The host of the request
+     * @param error The error of the request, or null if it succeeded
+     */
+    public void onResult(String host, VolleyError error) {
+        onResult(host, error, 0);
+    }
+
+    /**
+     * Records the outcome of a request.
+     *
+     * @param host      The host of the request
+     * @param error     The error of the request, or null if it succeeded
+     * @param latencyMs How long the request took, in milliseconds
+     */
+    public void onResult(String host, VolleyError error, long latencyMs) {
+        if (isFailure(error)) {
+            getCircuit(host).onResult(true, false, 0);
+        } else {
+            getCircuit(host).onResult(false, latencyMs >= mSlowRequestMs, latencyMs);
+        }
+    }
+
+    /**
+     * @return The number of times a circuit opened
+     */
+    public long getOpenCount() {
+        return mOpenCount.get();
+    }
+
+    /**
+     * @return The host of a url, or an empty string if it has none
+     */
+    static String getHost(String url) {
+        String host = Uri.parse(url).getHost();
+        return host == null ? "" : host;
+    }
+
+    /**
+     * Whether an error shows that the host is failing.
+     */
+    static boolean isFailure(VolleyError error) {
+        if (error == null) {
+            return false;
+        }
+        NetworkResponse response = error.networkResponse;
+        return response == null || response.statusCode >= 500
+                || response.statusCode == HTTP_TOO_MANY_REQUESTS;
+    }
+
+    private Circuit getCircuit(String host) {
+        Circuit circuit = mCircuits.get(host);
+        if (circuit == null) {
+            circuit = new Circuit();
+            Circuit existing = mCircuits.putIfAbsent(host, circuit);
+            if (existing != null) {
+                circuit = existing;
+            }
+        }
+        return circuit;
+    }
+
+    /**
+     * The circuit of a host. The outcomes of the last requests are kept in a ring.
+     */
+    private class Circuit {
+
+        private final boolean[] mBad = new boolean[WINDOW_SIZE];
+        private int mNext;
+        private int mCount;
+        private int mBadCount;
+        private int mConsecutiveFailures;
+        private long mLatencyMs;
+
+        private State mState = State.CLOSED;
+        private long mOpenedAt;
+        private boolean mProbeInFlight;
+
+        synchronized boolean allowRequest(boolean acquire) {
+            switch (getState()) {
+                case CLOSED:
+                    return true;
+                case HALF_OPEN:
+                    if (mProbeInFlight) {
+                        return false;
+                    }
+                    mProbeInFlight = acquire;
+                    return true;
+                default:
+                    return false;
+            }
+        }
+
+        synchronized void release() {
+            mProbeInFlight = false;
+        }
+
+        synchronized State getState() {
+            if (mState == State.OPEN && System.nanoTime() - mOpenedAt >= mOpenDurationNs) {
+                mState = State.HALF_OPEN;
+                mProbeInFlight = false;
+            }
+            return mState;
+        }
+
+        synchronized float getFailureRate() {
+            return mCount == 0 ? 0 : (float) mBadCount / mCount;
+        }
+
+        synchronized long getLatencyMs() {
+            return mLatencyMs;
+        }
+
+        synchronized void onResult(boolean failure, boolean slow, long latencyMs) {
+            if (!failure && latencyMs > 0) {
+                mLatencyMs = mLatencyMs == 0 ? latencyMs
+                        : Math.round(mLatencyMs + LATENCY_WEIGHT * (latencyMs - mLatencyMs));
+            }
+            mConsecutiveFailures = failure ? mConsecutiveFailures + 1 : 0;
+
+            switch (getState()) {
+                case HALF_OPEN:
+                    // the outcome of the probe decides
+                    if (failure) {
+                        open();
+                    } else {
+                        close();
+                    }
+                    return;
+                case OPEN:
+                    // a request sent before the circuit opened
+                    return;
+                default:
+                    break;
+            }
+
+            if (mCount == WINDOW_SIZE && mBad[mNext]) {
+                mBadCount--;
+            }
+            mBad[mNext] = failure || slow;
+            if (mBad[mNext]) {
+                mBadCount++;
+            }
+            mNext = (mNext + 1) % WINDOW_SIZE;
+            mCount = Math.min(mCount + 1, WINDOW_SIZE);
+
+            if (mConsecutiveFailures >= mFailureThreshold
+                    || (mCount >= MIN_REQUESTS && mBadCount >= mFailureRate * mCount)) {
+                open();
+            }
+        }
+
+        private void open() {
+            mState = State.OPEN;
+            mOpenedAt = System.nanoTime();
+            mProbeInFlight = false;
+            mOpenCount.incrementAndGet();
+        }
+
+        private void close() {
+            mState = State.CLOSED;
+            mProbeInFlight = false;
+            mNext = 0;
+            mCount = 0;
+            mBadCount = 0;
+            mConsecutiveFailures = 0;
+        }
+    }
+}
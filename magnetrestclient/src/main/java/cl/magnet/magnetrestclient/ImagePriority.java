@@ -0,0 +1,65 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Lukas Zorich, Magnet.cl
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package cl.magnet.magnetrestclient;
+
+import com.android.volley.Request;
+
+/**
+ * The priority of an image loaded by {@link MagnetImageLoader}. Images that are on screen are
+ * requested before the ones that are prefetched, which are requested before the background
+ * ones.
+ */
+public enum ImagePriority {
+
+    /**
+     * An image that is on screen. It is requested with the same priority as the rest of the
+     * requests, ahead of the prefetched images.
+     */
+    VISIBLE(Request.Priority.NORMAL),
+
+    /**
+     * An image that will soon be on screen, e.g: in the next rows of a list.
+     */
+    PREFETCH(Request.Priority.LOW),
+
+    /**
+     * An image that may be shown later. It is only requested when there are no visible or
+     * prefetched images waiting.
+     */
+    BACKGROUND(Request.Priority.LOW);
+
+    private final Request.Priority mRequestPriority;
+
+    ImagePriority(Request.Priority requestPriority) {
+        mRequestPriority = requestPriority;
+    }
+
+    /**
+     * @return The priority of the request in the RequestQueue
+     */
+    public Request.Priority getRequestPriority() {
+        return mRequestPriority;
+    }
+}
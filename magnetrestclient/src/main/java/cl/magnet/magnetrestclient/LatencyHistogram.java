@@ -0,0 +1,120 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Lukas Zorich, Magnet.cl
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package cl.magnet.magnetrestclient;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of latencies in milliseconds. Like an HdrHistogram, values are counted
+ * in buckets whose width doubles with every power of two, and each power of two is split in
+ * {@value #SUB_BUCKETS} sub-buckets, so percentiles are precise to about 6% whatever the
+ * magnitude. Values from 0 to about an hour are tracked; larger ones are counted as the maximum.
+ *
+ * Recording a value is a couple of atomic increments, so it can be done from any thread.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * The largest tracked power of two, 2^22 ms is about 70 minutes.
+     */
+    private static final int MAX_EXPONENT = 22;
+
+    private static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(getIndex(MAX_VALUE) + 1);
+    private final AtomicLong mTotalCount = new AtomicLong();
+
+    /**
+     * Records a latency.
+     *
+     * @param valueMs The latency in milliseconds
+     */
+    public void record(long valueMs) {
+        mCounts.incrementAndGet(getIndex(Math.max(0, Math.min(valueMs, MAX_VALUE))));
+        mTotalCount.incrementAndGet();
+    }
+
+    /**
+     * @return The number of recorded latencies
+     */
+    public long getCount() {
+        return mTotalCount.get();
+    }
+
+    /**
+     * Returns the latency below which the given percentage of the recorded latencies fall. It is
+     * the upper bound of the bucket of the percentile, so it may be slightly larger than any
+     * recorded latency.
+     *
+     * @param percentile The percentile, from 0 to 100
+     * @return The latency in milliseconds, or 0 if nothing was recorded
+     */
+    public long getPercentile(double percentile) {
+        long count = mTotalCount.get();
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0, length = mCounts.length(); i < length; i++) {
+            seen += mCounts.get(i);
+            if (seen >= rank) {
+                return getHighestValue(i);
+            }
+        }
+        // values recorded while iterating
+        return getHighestValue(mCounts.length() - 1);
+    }
+
+    /**
+     * The index of the bucket of a value. The first {@value #SUB_BUCKETS} values have a bucket
+     * each, then every power of two has {@value #SUB_BUCKETS} buckets.
+     */
+    static int getIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) (value >> shift) - SUB_BUCKETS;
+    }
+
+    /**
+     * The largest value counted in a bucket.
+     */
+    static long getHighestValue(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long lowest = (long) (index % SUB_BUCKETS + SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
@@ -39,6 +39,8 @@ import java.net.HttpURLConnection;
  * <li>Upgrade required error: response status code 426</li>
  * <li>Other errors</li>
  * </ul>
+ * Errors of requests to a host whose circuit is open are also reported to
+ * {@link #onCircuitOpenError(CircuitOpenError)}.
  *
  * MagnetErrorListener only works when using with requests that inherit from
  * {@link cl.magnet.magnetrestclient.requests.BaseJsonRequest}
@@ -61,6 +63,30 @@ public abstract class MagnetErrorListener implements Response.ErrorListener {
 
     @Override
     public void onErrorResponse(VolleyError error) {
+        if (error instanceof CircuitOpenError) {
+            onCircuitOpenError((CircuitOpenError) error);
+        } else {
+            dispatchError(error);
+        }
+    }
+
+    /**
+     * Method called when a request fails because the circuit of its host is open, that is, too
+     * many of the last requests to the host failed or were slow (see
+     * {@link HostCircuitBreaker}). The request was not sent, or not retried. By default the
+     * error is handled like any other error: as an internet connection error if there is no
+     * response, or according to its status code.
+     *
+     * @param error The error, with the response of the last attempt if there was one
+     */
+    public void onCircuitOpenError(CircuitOpenError error) {
+        dispatchError(error);
+    }
+
+    /**
+     * Calls the method that handles the error according to its status code.
+     */
+    private void dispatchError(VolleyError error) {
 
         NetworkResponse networkResponse = error.networkResponse;
 
@@ -86,7 +112,8 @@ public abstract class MagnetErrorListener implements Response.ErrorListener {
 
     /**
      * Method called when there is no internet connection. This happens when there is
-     * no response from the server
+     * no response from the server. Mutating requests that must not be lost can be added to the
+     * {@link Outbox} instead, which sends them when the connection comes back.
      */
     public abstract void noInternetConnectionError();
 
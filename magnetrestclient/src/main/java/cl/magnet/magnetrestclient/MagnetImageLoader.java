@@ -0,0 +1,338 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Lukas Zorich, Magnet.cl
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package cl.magnet.magnetrestclient;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.util.DisplayMetrics;
+import android.widget.ImageView.ScaleType;
+
+import com.android.volley.Request;
+import com.android.volley.RequestQueue;
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.ImageLoader;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import cl.magnet.magnetrestclient.requests.BitmapRequest;
+import cl.magnet.magnetrestclient.utils.BitmapDecoder;
+import cl.magnet.magnetrestclient.utils.BitmapPool;
+
+/**
+ * An {com.android.volley.toolbox.ImageLoader} backed by two tiers: the decoded bitmaps are kept
+ * in memory by its {com.android.volley.toolbox.ImageLoader.ImageCache}, and the encoded images
+ * are kept on disk by a partition of the response cache, so a bitmap evicted from memory is
+ * decoded again from disk instead of being downloaded.
+ *
+ * Images are decoded by a {@link BitmapDecoder} at the size they are displayed at, which is
+ * part of the key of the memory cache: pass the dimensions of the view to
+ * {@link #get(String, ImageListener, int, int, ScaleType)}, as
+ * {com.android.volley.toolbox.NetworkImageView} does. Images requested without dimensions are
+ * decoded at most at the size of the screen. When the loader has a {@link BitmapPool}, the
+ * decoded bitmaps reuse the ones put in it by the app once nothing draws them.
+ *
+ * Images that will soon be on screen, e.g: the ones of the next rows of a list, can be warmed
+ * into the memory cache with {@link #prefetch(String, int, int, ScaleType, ImagePriority,
+ * Object)}. Prefetched images are requested with a lower priority than the visible ones, and at
+ * most {@value #MAX_CONCURRENT_PREFETCHES} at a time, so they don't take the network threads
+ * needed by the visible images. Prefetches that are no longer needed, e.g: when their rows
+ * leave the window, are cancelled with {@link #cancelPrefetches(Object)}. Like the rest of the
+ * methods of the loader, they must be called from the main thread.
+ */
+public class MagnetImageLoader extends ImageLoader {
+
+    /**
+     * Maximum number of prefetched images requested at the same time.
+     */
+    public static final int MAX_CONCURRENT_PREFETCHES = 2;
+
+    private final RequestQueue mRequestQueue;
+    private final ImageCache mImageCache;
+    private final BitmapPool mBitmapPool;
+    private final BitmapDecoder mDecoder;
+    private final boolean mPreferRgb565;
+    private final String mCacheTag;
+
+    private final Map<String, Prefetch> mPendingPrefetches = new LinkedHashMap<>();
+    private final Map<String, Prefetch> mPrefetchesInFlight = new HashMap<>();
+
+    /**
+     * @param requestQueue The queue that performs the image requests
+     * @param imageCache   The memory cache of decoded bitmaps
+     * @param bitmapPool   The pool of reusable bitmaps, or null to allocate new ones
+     * @param preferRgb565 True to decode images without alpha as RGB_565
+     * @param cacheTag     The tag of the cache partition where the encoded images are kept, or
+     *                     null to keep them with the rest of the responses
+     */
+    public MagnetImageLoader(RequestQueue requestQueue, ImageCache imageCache,
+                             BitmapPool bitmapPool, boolean preferRgb565, String cacheTag) {
+        super(requestQueue, imageCache);
+        mRequestQueue = requestQueue;
+        mImageCache = imageCache;
+        mBitmapPool = bitmapPool;
+        mDecoder = new BitmapDecoder(bitmapPool);
+        mPreferRgb565 = preferRgb565;
+        mCacheTag = cacheTag;
+    }
+
+    /**
+     * Requests an image that is on screen. If it was waiting to be prefetched, the prefetch is
+     * cancelled since this request takes its place.
+     *
+     * {@inheritDoc}
+     */
+    @Override
+    public ImageContainer get(String requestUrl, ImageListener imageListener, int maxWidth,
+                              int maxHeight, ScaleType scaleType) {
+        mPendingPrefetches.remove(getCacheKey(requestUrl, maxWidth, maxHeight, scaleType));
+        return super.get(requestUrl, imageListener, maxWidth, maxHeight, scaleType);
+    }
+
+    @Override
+    protected Request<Bitmap> makeImageRequest(String requestUrl, int maxWidth, int maxHeight,
+                                               ScaleType scaleType, final String cacheKey) {
+        BitmapRequest request = newBitmapRequest(requestUrl, maxWidth, maxHeight, scaleType,
+                new Response.Listener<Bitmap>() {
+                    @Override
+                    public void onResponse(Bitmap response) {
+                        onGetImageSuccess(cacheKey, response);
+                    }
+                }, new Response.ErrorListener() {
+                    @Override
+                    public void onErrorResponse(VolleyError error) {
+                        onGetImageError(cacheKey, error);
+                    }
+                });
+        request.setPriority(ImagePriority.VISIBLE.getRequestPriority());
+        return request;
+    }
+
+    private BitmapRequest newBitmapRequest(String requestUrl, int maxWidth, int maxHeight,
+                                           ScaleType scaleType,
+                                           Response.Listener<Bitmap> listener,
+                                           Response.ErrorListener errorListener) {
+        if (maxWidth == 0 && maxHeight == 0) {
+            // a bitmap bigger than the screen can't be displayed at its size
+            DisplayMetrics displayMetrics = Resources.getSystem().getDisplayMetrics();
+            int screenSize = Math.max(displayMetrics.widthPixels, displayMetrics.heightPixels);
+            maxWidth = screenSize;
+            maxHeight = screenSize;
+            scaleType = ScaleType.CENTER_INSIDE;
+        }
+
+        BitmapRequest request = new BitmapRequest(requestUrl, listener, maxWidth, maxHeight,
+                scaleType, mPreferRgb565, mDecoder, errorListener);
+        if (mCacheTag != null) {
+            // the response is cached in the partition of the tag
+            request.setTag(mCacheTag);
+        }
+        return request;
+    }
+
+    /**
+     * Warms the memory cache with an image that will soon be on screen. The dimensions and scale
+     * type must be the ones the image will be requested with, e.g: the size of the view. Nothing
+     * is done if the image is already cached or being prefetched.
+     *
+     * @param requestUrl The url of the image
+     * @param maxWidth   The maximum width of the bitmap, or zero for none
+     * @param maxHeight  The maximum height of the bitmap, or zero for none
+     * @param scaleType  The ImageView's scale type
+     * @param priority   The priority of the image. Visible images are requested right away;
+     *                   the others wait for a free prefetch slot.
+     * @param tag        The tag used to cancel the prefetch, e.g: the list it is shown in
+     */
+    public void prefetch(String requestUrl, int maxWidth, int maxHeight, ScaleType scaleType,
+                         ImagePriority priority, Object tag) {
+        final String cacheKey = getCacheKey(requestUrl, maxWidth, maxHeight, scaleType);
+        if (isCached(requestUrl, maxWidth, maxHeight, scaleType)
+                || mPendingPrefetches.containsKey(cacheKey)
+                || mPrefetchesInFlight.containsKey(cacheKey)) {
+            return;
+        }
+
+        Prefetch prefetch = new Prefetch(cacheKey, priority, tag);
+        prefetch.request = newBitmapRequest(requestUrl, maxWidth, maxHeight, scaleType,
+                prefetch, prefetch);
+        prefetch.request.setPriority(priority.getRequestPriority());
+        mPendingPrefetches.put(cacheKey, prefetch);
+        startPrefetches();
+    }
+
+    /**
+     * Cancels the pending and in flight prefetches with the tag.
+     *
+     * @param tag The tag of the prefetches
+     */
+    public void cancelPrefetches(Object tag) {
+        List<Prefetch> prefetches = new ArrayList<>(mPendingPrefetches.values());
+        prefetches.addAll(mPrefetchesInFlight.values());
+        for (Prefetch prefetch : prefetches) {
+            if (prefetch.tag == tag || (tag != null && tag.equals(prefetch.tag))) {
+                cancel(prefetch);
+            }
+        }
+        startPrefetches();
+    }
+
+    /**
+     * Cancels the prefetch of an image.
+     *
+     * @param requestUrl The url of the image
+     * @param maxWidth   The maximum width it was prefetched with
+     * @param maxHeight  The maximum height it was prefetched with
+     * @param scaleType  The scale type it was prefetched with
+     */
+    public void cancelPrefetch(String requestUrl, int maxWidth, int maxHeight,
+                               ScaleType scaleType) {
+        String cacheKey = getCacheKey(requestUrl, maxWidth, maxHeight, scaleType);
+        Prefetch prefetch = mPendingPrefetches.get(cacheKey);
+        if (prefetch == null) {
+            prefetch = mPrefetchesInFlight.get(cacheKey);
+        }
+        if (prefetch != null) {
+            cancel(prefetch);
+            startPrefetches();
+        }
+    }
+
+    /**
+     * @return The number of prefetches waiting for a free slot
+     */
+    public int getPendingPrefetchCount() {
+        return mPendingPrefetches.size();
+    }
+
+    /**
+     * @return The number of prefetches in flight
+     */
+    public int getPrefetchInFlightCount() {
+        return mPrefetchesInFlight.size();
+    }
+
+    private void cancel(Prefetch prefetch) {
+        mPendingPrefetches.remove(prefetch.cacheKey);
+        if (mPrefetchesInFlight.remove(prefetch.cacheKey) != null) {
+            prefetch.request.cancel();
+        }
+    }
+
+    /**
+     * Adds the pending prefetches to the RequestQueue while there are free slots. Visible ones
+     * go first and don't need a slot, and background ones wait until there are no other ones.
+     */
+    private void startPrefetches() {
+        Iterator<Prefetch> iterator = mPendingPrefetches.values().iterator();
+        while (iterator.hasNext()) {
+            Prefetch prefetch = iterator.next();
+            if (prefetch.priority == ImagePriority.VISIBLE) {
+                iterator.remove();
+                start(prefetch);
+            }
+        }
+
+        for (ImagePriority priority : new ImagePriority[]{ImagePriority.PREFETCH,
+                ImagePriority.BACKGROUND}) {
+            iterator = mPendingPrefetches.values().iterator();
+            while (iterator.hasNext() && mPrefetchesInFlight.size() < MAX_CONCURRENT_PREFETCHES) {
+                Prefetch prefetch = iterator.next();
+                if (prefetch.priority == priority) {
+                    iterator.remove();
+                    start(prefetch);
+                }
+            }
+            if (hasPending(priority)) {
+                // lower priorities wait
+                return;
+            }
+        }
+    }
+
+    private boolean hasPending(ImagePriority priority) {
+        for (Prefetch prefetch : mPendingPrefetches.values()) {
+            if (prefetch.priority == priority) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void start(Prefetch prefetch) {
+        mPrefetchesInFlight.put(prefetch.cacheKey, prefetch);
+        mRequestQueue.add(prefetch.request);
+    }
+
+    /**
+     * Returns the key of an image in the memory cache, the same one used by
+     * {com.android.volley.toolbox.ImageLoader}.
+     */
+    private static String getCacheKey(String url, int maxWidth, int maxHeight,
+                                      ScaleType scaleType) {
+        return "#W" + maxWidth + "#H" + maxHeight + "#S" + scaleType.ordinal() + url;
+    }
+
+    /**
+     * @return The pool of reusable bitmaps, or null
+     */
+    public BitmapPool getBitmapPool() {
+        return mBitmapPool;
+    }
+
+    /**
+     * An image being prefetched. When it is decoded, it is added to the memory cache.
+     */
+    private class Prefetch implements Response.Listener<Bitmap>, Response.ErrorListener {
+
+        final String cacheKey;
+        final ImagePriority priority;
+        final Object tag;
+        BitmapRequest request;
+
+        Prefetch(String cacheKey, ImagePriority priority, Object tag) {
+            this.cacheKey = cacheKey;
+            this.priority = priority;
+            this.tag = tag;
+        }
+
+        @Override
+        public void onResponse(Bitmap response) {
+            mPrefetchesInFlight.remove(cacheKey);
+            mImageCache.putBitmap(cacheKey, response);
+            startPrefetches();
+        }
+
+        @Override
+        public void onErrorResponse(VolleyError error) {
+            mPrefetchesInFlight.remove(cacheKey);
+            startPrefetches();
+        }
+    }
+}
@@ -0,0 +1,372 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Lukas Zorich, Magnet.cl
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package cl.magnet.magnetrestclient;
+
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.RequestQueue;
+import com.android.volley.VolleyLog;
+import com.squareup.okhttp.Interceptor;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Response;
+import com.squareup.okhttp.ResponseBody;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.net.SocketFactory;
+
+import okio.Buffer;
+import okio.ForwardingSource;
+import okio.Okio;
+import okio.Source;
+
+/**
+ * Collects the {@link RequestMetrics} of the requests of a {com.android.volley.RequestQueue},
+ * and reports them to the {@link VolleyManager.MetricsListener}s when the requests finish.
+ *
+ * The events of a request are recorded by {@link VolleyManager} when it is queued, by
+ * {@link OkHttpNetwork} around each call, by {@link MetricsDelivery} when its response is
+ * posted, and by the finished listener of the queue. The setup of the connections and the
+ * response headers are timed by a socket factory and a network interceptor of the
+ * {com.squareup.okhttp.OkHttpClient}, which OkHttp runs on the thread that executes the call, so
+ * the call being timed is kept in a thread local.
+ *
+ * Nothing is recorded while there are no listeners.
+ */
+class MetricsCollector implements RequestQueue.RequestFinishedListener<Object> {
+
+    private static final int PHASES = RequestMetrics.Phase.values().length;
+
+    private final ConcurrentMap<Request<?>, Timings> mTimings = new ConcurrentHashMap<>();
+    private final ThreadLocal<CallMetrics> mCurrentCall = new ThreadLocal<>();
+    private final CopyOnWriteArrayList<VolleyManager.MetricsListener> mListeners =
+            new CopyOnWriteArrayList<>();
+
+    void addListener(VolleyManager.MetricsListener listener) {
+        mListeners.addIfAbsent(listener);
+    }
+
+    void removeListener(VolleyManager.MetricsListener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Times the connections and responses of the calls of a client.
+     */
+    void instrument(OkHttpClient client) {
+        client.setSocketFactory(new TimingSocketFactory());
+        client.networkInterceptors().add(new TimingInterceptor());
+    }
+
+    /**
+     * Called right before a request is added to the queue.
+     */
+    void onQueued(Request<?> request) {
+        if (!mListeners.isEmpty()) {
+            mTimings.put(request, new Timings(System.nanoTime()));
+        }
+    }
+
+    /**
+     * Called when the network starts a call of a request.
+     *
+     * @return The call, or null if metrics are not collected
+     */
+    CallMetrics onCallStart(Request<?> request, long requestBytes) {
+        if (mListeners.isEmpty()) {
+            return null;
+        }
+        Timings timings = mTimings.get(request);
+        if (timings == null) {
+            // added to the queue by another component, e.g: the batch scheduler
+            timings = new Timings(0);
+            Timings existing = mTimings.putIfAbsent(request, timings);
+            if (existing != null) {
+                timings = existing;
+            }
+        }
+        CallMetrics call = new CallMetrics(timings, requestBytes);
+        timings.onNetworkStart(call.mStart);
+        mCurrentCall.set(call);
+        return call;
+    }
+
+    /**
+     * Called when a call of a request ends.
+     *
+     * @param call       The call returned by {@link #onCallStart}, or null
+     * @param statusCode The status code of the response, or 0 if there was none
+     */
+    void onCallEnd(CallMetrics call, int statusCode) {
+        if (call == null) {
+            return;
+        }
+        mCurrentCall.remove();
+        call.mStatusCode = statusCode;
+        call.mTimings.onCallEnd(call, System.nanoTime());
+    }
+
+    /**
+     * Called when the response or the error of a request is posted to the main thread.
+     */
+    void onPosted(Request<?> request, NetworkResponse errorResponse) {
+        Timings timings = mTimings.get(request);
+        if (timings != null) {
+            timings.onPosted(System.nanoTime(), errorResponse);
+        }
+    }
+
+    @Override
+    public void onRequestFinished(Request<Object> request) {
+        Timings timings = mTimings.remove(request);
+        if (timings == null || mListeners.isEmpty()) {
+            return;
+        }
+
+        RequestMetrics metrics = timings.toMetrics(request, System.nanoTime());
+        for (VolleyManager.MetricsListener listener : mListeners) {
+            try {
+                listener.onRequestMetrics(metrics);
+            } catch (RuntimeException e) {
+                // a listener doesn't keep the others from being called
+                VolleyLog.e(e, "Metrics listener failed");
+            }
+        }
+    }
+
+    private static long elapsed(long start, long end) {
+        return start == 0 || end < start ? 0 : end - start;
+    }
+
+    /**
+     * The events of a request, in {java.lang.System#nanoTime()}.
+     */
+    private static class Timings {
+
+        private final long mQueued;
+        private long mNetworkStart;
+        private long mNetworkEnd;
+        private long mPosted;
+        private CallMetrics mCall;
+        private int mErrorStatusCode;
+
+        Timings(long queued) {
+            mQueued = queued;
+        }
+
+        synchronized void onNetworkStart(long time) {
+            if (mNetworkStart == 0) {
+                mNetworkStart = time;
+            }
+        }
+
+        synchronized void onCallEnd(CallMetrics call, long time) {
+            // a failed call, e.g: the cancelled one of a hedged request, doesn't replace a
+            // successful one
+            if (mCall != null && mCall.isSuccessful() && !call.isSuccessful()) {
+                return;
+            }
+            mCall = call;
+            mNetworkEnd = time;
+        }
+
+        synchronized void onPosted(long time, NetworkResponse errorResponse) {
+            mPosted = time;
+            if (errorResponse != null) {
+                mErrorStatusCode = errorResponse.statusCode;
+            }
+        }
+
+        synchronized RequestMetrics toMetrics(Request<?> request, long finished) {
+            long[] durations = new long[PHASES];
+            long start = mQueued != 0 ? mQueued : mNetworkStart != 0 ? mNetworkStart : mPosted;
+            set(durations, RequestMetrics.Phase.QUEUE, elapsed(mQueued, mNetworkStart));
+            set(durations, RequestMetrics.Phase.DELIVERY, elapsed(mPosted, finished));
+            set(durations, RequestMetrics.Phase.TOTAL, elapsed(start, finished));
+
+            int statusCode = mErrorStatusCode;
+            long requestBytes = 0;
+            long responseBytes = 0;
+            if (mCall != null) {
+                CallMetrics call = mCall;
+                long connected = call.mConnected != 0 ? call.mConnected : call.mStart;
+                if (call.mConnectStart != 0) {
+                    set(durations, RequestMetrics.Phase.DNS, elapsed(call.mStart,
+                            call.mConnectStart));
+                    set(durations, RequestMetrics.Phase.CONNECT, elapsed(call.mConnectStart,
+                            call.mConnectEnd));
+                    set(durations, RequestMetrics.Phase.TLS, elapsed(call.mConnectEnd,
+                            call.mConnected));
+                }
+                set(durations, RequestMetrics.Phase.TIME_TO_FIRST_BYTE, elapsed(connected,
+                        call.mHeaders));
+                long bodyEnd = Math.max(call.mBodyEnd, mNetworkEnd);
+                set(durations, RequestMetrics.Phase.DOWNLOAD, elapsed(call.mHeaders, bodyEnd));
+                set(durations, RequestMetrics.Phase.PARSE, elapsed(bodyEnd, mPosted));
+                if (call.mStatusCode != 0) {
+                    statusCode = call.mStatusCode;
+                }
+                requestBytes = call.mRequestBytes;
+                responseBytes = call.mResponseBytes;
+            }
+            return new RequestMetrics(request, statusCode, mCall != null, durations,
+                    requestBytes, responseBytes);
+        }
+
+        private static void set(long[] durations, RequestMetrics.Phase phase, long duration) {
+            durations[phase.ordinal()] = duration;
+        }
+    }
+
+    /**
+     * The events of a call. They are written by the thread that executes it, or that reads its
+     * body, and read when the request finishes.
+     */
+    static class CallMetrics {
+
+        private final Timings mTimings;
+        private final long mRequestBytes;
+        private final long mStart = System.nanoTime();
+        private volatile long mConnectStart;
+        private volatile long mConnectEnd;
+        private volatile long mConnected;
+        private volatile long mHeaders;
+        private volatile long mBodyEnd;
+        private volatile long mResponseBytes;
+        private volatile int mStatusCode;
+
+        CallMetrics(Timings timings, long requestBytes) {
+            mTimings = timings;
+            mRequestBytes = requestBytes;
+        }
+
+        boolean isSuccessful() {
+            return mStatusCode >= 200 && mStatusCode < 400;
+        }
+    }
+
+    /**
+     * Records when the connection of a call is ready, when its response headers arrive, and how
+     * many body bytes are read.
+     */
+    private class TimingInterceptor implements Interceptor {
+
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            final CallMetrics call = mCurrentCall.get();
+            if (call == null) {
+                return chain.proceed(chain.request());
+            }
+            if (call.mConnected == 0) {
+                call.mConnected = System.nanoTime();
+            }
+
+            Response response = chain.proceed(chain.request());
+            call.mHeaders = System.nanoTime();
+            ResponseBody body = response.body();
+            if (body == null) {
+                return response;
+            }
+            Source source = new ForwardingSource(body.source()) {
+                @Override
+                public long read(Buffer sink, long byteCount) throws IOException {
+                    long read = super.read(sink, byteCount);
+                    if (read == -1) {
+                        call.mBodyEnd = System.nanoTime();
+                    } else {
+                        call.mResponseBytes += read;
+                    }
+                    return read;
+                }
+
+                @Override
+                public void close() throws IOException {
+                    // a streamed body may be closed by the parser before it is exhausted
+                    if (call.mBodyEnd == 0) {
+                        call.mBodyEnd = System.nanoTime();
+                    }
+                    super.close();
+                }
+            };
+            return response.newBuilder().body(ResponseBody.create(body.contentType(),
+                    body.contentLength(), Okio.buffer(source))).build();
+        }
+    }
+
+    /**
+     * Creates sockets that record how long connecting takes.
+     */
+    private class TimingSocketFactory extends SocketFactory {
+
+        private final SocketFactory mSocketFactory = SocketFactory.getDefault();
+
+        @Override
+        public Socket createSocket() throws IOException {
+            return new Socket() {
+                @Override
+                public void connect(SocketAddress endpoint, int timeout) throws IOException {
+                    CallMetrics call = mCurrentCall.get();
+                    if (call == null) {
+                        super.connect(endpoint, timeout);
+                        return;
+                    }
+                    if (call.mConnectStart == 0) {
+                        call.mConnectStart = System.nanoTime();
+                    }
+                    super.connect(endpoint, timeout);
+                    call.mConnectEnd = System.nanoTime();
+                }
+            };
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            return mSocketFactory.createSocket(host, port);
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort)
+                throws IOException {
+            return mSocketFactory.createSocket(host, port, localHost, localPort);
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            return mSocketFactory.createSocket(host, port);
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress,
+                                   int localPort) throws IOException {
+            return mSocketFactory.createSocket(address, port, localAddress, localPort);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Lukas Zorich, Magnet.cl
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package cl.magnet.magnetrestclient;
+
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.ResponseDelivery;
+import com.android.volley.VolleyError;
+
+/**
+ * A {com.android.volley.ResponseDelivery} that tells a {@link MetricsCollector} when the
+ * response or the error of a request is posted, which ends its parse and starts its delivery.
+ */
+class MetricsDelivery implements ResponseDelivery {
+
+    private final ResponseDelivery mDelivery;
+    private final MetricsCollector mCollector;
+
+    /**
+     * @param delivery  The delivery that delivers every response
+     * @param collector The collector of the metrics of the requests
+     */
+    MetricsDelivery(ResponseDelivery delivery, MetricsCollector collector) {
+        mDelivery = delivery;
+        mCollector = collector;
+    }
+
+    @Override
+    public void postResponse(Request<?> request, Response<?> response) {
+        postResponse(request, response, null);
+    }
+
+    @Override
+    public void postResponse(Request<?> request, Response<?> response, Runnable runnable) {
+        mCollector.onPosted(request, null);
+        mDelivery.postResponse(request, response, runnable);
+    }
+
+    @Override
+    public void postError(Request<?> request, VolleyError error) {
+        mCollector.onPosted(request, error.networkResponse);
+        mDelivery.postError(request, error);
+    }
+}
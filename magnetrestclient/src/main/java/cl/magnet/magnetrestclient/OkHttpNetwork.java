@@ -0,0 +1,384 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Lukas Zorich, Magnet.cl
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package cl.magnet.magnetrestclient;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.Cache;
+import com.android.volley.Network;
+import com.android.volley.NetworkError;
+import com.android.volley.NetworkResponse;
+import com.android.volley.NoConnectionError;
+import com.android.volley.Request;
+import com.android.volley.RetryPolicy;
+import com.android.volley.ServerError;
+import com.android.volley.TimeoutError;
+import com.android.volley.VolleyError;
+import com.android.volley.VolleyLog;
+import com.squareup.okhttp.Call;
+import com.squareup.okhttp.Headers;
+import com.squareup.okhttp.MediaType;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.RequestBody;
+import com.squareup.okhttp.Response;
+import com.squareup.okhttp.ResponseBody;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import cl.magnet.magnetrestclient.requests.StreamingRequest;
+
+/**
+ * A {com.android.volley.Network} implementation that performs requests directly with
+ * <a href="http://square.github.io/okhttp/">OkHttp</a>, without going through
+ * {java.net.HttpURLConnection} and {com.android.volley.toolbox.BasicNetwork}.
+ *
+ * Response bodies are read by OkHttp into a byte array of the exact size, instead of being
+ * copied through a growing pooled buffer. Requests that implement
+ * {@link cl.magnet.magnetrestclient.requests.StreamingRequest} and whose response won't be
+ * cached receive a {@link SourceNetworkResponse} instead, so they decode the body straight from
+ * the connection buffer.
+ *
+ * Like {com.android.volley.toolbox.BasicNetwork}, it adds the conditional cache headers, and
+ * retries timeouts and 401/403 responses according to the request's
+ * {com.android.volley.RetryPolicy}. Requests with an {@link AdaptiveRetryPolicy} are also
+ * retried on connection and server errors, if the policy allows it.
+ */
+public class OkHttpNetwork implements Network {
+
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+    private static final String HEADER_CACHE_CONTROL = "Cache-Control";
+    private static final String NO_STORE = "no-store";
+
+    private static final String RFC1123_DATE_FORMAT = "EEE, dd MMM yyyy HH:mm:ss 'GMT'";
+
+    private static final byte[] EMPTY_BODY = new byte[0];
+
+    private final OkHttpClient mClient;
+    private final MetricsCollector mMetricsCollector;
+
+    public OkHttpNetwork(OkHttpClient client) {
+        this(client, null);
+    }
+
+    /**
+     * @param client           The client that performs the requests
+     * @param metricsCollector The collector of the metrics of the calls, or null. It must have
+     *                         instrumented the client.
+     */
+    OkHttpNetwork(OkHttpClient client, MetricsCollector metricsCollector) {
+        if (client == null) {
+            throw new NullPointerException("Client must not be null.");
+        }
+        mClient = client;
+        mMetricsCollector = metricsCollector;
+    }
+
+    @Override
+    public NetworkResponse performRequest(Request<?> request) throws VolleyError {
+        return performRequest(request, null, true, 0);
+    }
+
+    /**
+     * Performs a request, tagging its calls so they can be cancelled with {@link #cancel}.
+     *
+     * @param request   The request
+     * @param tag       The tag of the calls, or null to tag them with themselves
+     * @param retry     False to fail on the first error, without asking the retry policy
+     * @param timeoutMs The timeout of the calls, or 0 for the current timeout of the request,
+     *                  which its retry policy may change while the call is performed
+     * @return The response
+     * @throws VolleyError If the request failed
+     */
+    NetworkResponse performRequest(Request<?> request, Object tag, boolean retry,
+                                   int timeoutMs) throws VolleyError {
+        long requestStart = System.currentTimeMillis();
+        while (true) {
+            Call call = null;
+            MetricsCollector.CallMetrics callMetrics = null;
+            Response response = null;
+            byte[] responseContents = null;
+            Map<String, String> responseHeaders = Collections.emptyMap();
+            try {
+                com.squareup.okhttp.Request okHttpRequest = buildRequest(request, tag);
+                if (mMetricsCollector != null) {
+                    RequestBody requestBody = okHttpRequest.body();
+                    callMetrics = mMetricsCollector.onCallStart(request,
+                            requestBody == null ? 0 : requestBody.contentLength());
+                }
+                call = getClient(timeoutMs > 0 ? timeoutMs : request.getTimeoutMs())
+                        .newCall(okHttpRequest);
+                response = call.execute();
+                int statusCode = response.code();
+                responseHeaders = convertHeaders(response.headers());
+                ResponseBody body = response.body();
+                long networkTimeMs = System.currentTimeMillis() - requestStart;
+
+                if (statusCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                    closeQuietly(body);
+                    Cache.Entry entry = request.getCacheEntry();
+                    if (entry == null) {
+                        return new NetworkResponse(statusCode, null, responseHeaders, true,
+                                networkTimeMs);
+                    }
+
+                    // the cache entry is still valid, so we update its headers
+                    entry.responseHeaders.putAll(responseHeaders);
+                    return new NetworkResponse(statusCode, entry.data, entry.responseHeaders,
+                            true, networkTimeMs);
+                }
+
+                boolean success = statusCode >= 200 && statusCode <= 299;
+                if (success && isStreamable(request, responseHeaders)) {
+                    // the request reads the body, and closes it, when parsing the response
+                    return new SourceNetworkResponse(statusCode, body, responseHeaders,
+                            networkTimeMs);
+                }
+
+                responseContents = body != null ? body.bytes() : EMPTY_BODY;
+                if (!success) {
+                    throw new IOException();
+                }
+
+                return new NetworkResponse(statusCode, responseContents, responseHeaders, false,
+                        System.currentTimeMillis() - requestStart);
+            } catch (SocketTimeoutException e) {
+                attemptRetryOnException("socket", request, new TimeoutError(), retry);
+            } catch (MalformedURLException e) {
+                throw new RuntimeException("Bad URL " + request.getUrl(), e);
+            } catch (IOException e) {
+                if (response == null) {
+                    // the call is null if the request body couldn't be built
+                    if (call != null && !call.isCanceled()
+                            && request.getRetryPolicy() instanceof AdaptiveRetryPolicy) {
+                        attemptRetryOnException("connection", request, new NoConnectionError(e),
+                                retry);
+                        continue;
+                    }
+                    throw new NoConnectionError(e);
+                }
+
+                int statusCode = response.code();
+                VolleyLog.e("Unexpected response code %d for %s", statusCode, request.getUrl());
+                if (responseContents == null) {
+                    throw new NetworkError(e);
+                }
+
+                NetworkResponse networkResponse = new NetworkResponse(statusCode,
+                        responseContents, responseHeaders, false,
+                        System.currentTimeMillis() - requestStart);
+                if (statusCode == HttpURLConnection.HTTP_UNAUTHORIZED
+                        || statusCode == HttpURLConnection.HTTP_FORBIDDEN) {
+                    attemptRetryOnException("auth", request, new AuthFailureError(
+                            networkResponse), retry);
+                } else if (request.getRetryPolicy() instanceof AdaptiveRetryPolicy) {
+                    // it decides which server errors are retried
+                    attemptRetryOnException("server", request, new ServerError(networkResponse),
+                            retry);
+                } else {
+                    throw new ServerError(networkResponse);
+                }
+            } finally {
+                if (callMetrics != null) {
+                    mMetricsCollector.onCallEnd(callMetrics, response == null ? 0
+                            : response.code());
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the client used to perform a request. Volley's retry policies grow the timeout
+     * of every attempt, so the read timeout is the request's timeout. The connect timeout is the
+     * client's one, or the request's timeout if the client doesn't set it.
+     *
+     * @param timeoutMs The timeout of the request
+     */
+    private OkHttpClient getClient(int timeoutMs) {
+        int connectTimeoutMs = mClient.getConnectTimeout() > 0 ? mClient.getConnectTimeout()
+                : timeoutMs;
+        if (mClient.getConnectTimeout() == connectTimeoutMs
+                && mClient.getReadTimeout() == timeoutMs) {
+            return mClient;
+        }
+
+        // cloning shares the connection pool, so connections are still reused
+        OkHttpClient client = mClient.clone();
+        client.setConnectTimeout(connectTimeoutMs, TimeUnit.MILLISECONDS);
+        client.setReadTimeout(timeoutMs, TimeUnit.MILLISECONDS);
+        return client;
+    }
+
+    /**
+     * Whether the response body can be handed to the request without reading it first. Bodies
+     * that will be written to the cache are always read.
+     */
+    private static boolean isStreamable(Request<?> request, Map<String, String> headers) {
+        if (!(request instanceof StreamingRequest)) {
+            return false;
+        }
+
+        String cacheControl = headers.get(HEADER_CACHE_CONTROL);
+        return !request.shouldCache() || (cacheControl != null && cacheControl.contains(NO_STORE));
+    }
+
+    /**
+     * Cancels the calls of the requests performed with a tag. They fail with a
+     * {com.android.volley.NoConnectionError}, and are not retried.
+     *
+     * @param tag The tag of the calls
+     */
+    void cancel(Object tag) {
+        mClient.cancel(tag);
+    }
+
+    @SuppressWarnings("deprecation")
+    private static com.squareup.okhttp.Request buildRequest(Request<?> request, Object tag) throws
+            AuthFailureError {
+        com.squareup.okhttp.Request.Builder builder = new com.squareup.okhttp.Request.Builder()
+                .url(request.getUrl())
+                .tag(tag);
+
+        for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+            builder.header(header.getKey(), header.getValue());
+        }
+        addCacheHeaders(builder, request.getCacheEntry());
+
+        switch (request.getMethod()) {
+            case Request.Method.DEPRECATED_GET_OR_POST:
+                // kept for backwards compatibility, like HurlStack does
+                byte[] postBody = request.getPostBody();
+                if (postBody != null) {
+                    builder.post(RequestBody.create(MediaType.parse(request
+                            .getPostBodyContentType()), postBody));
+                } else {
+                    builder.get();
+                }
+                break;
+            case Request.Method.GET:
+                builder.get();
+                break;
+            case Request.Method.DELETE:
+                builder.delete();
+                break;
+            case Request.Method.POST:
+                builder.post(createRequestBody(request));
+                break;
+            case Request.Method.PUT:
+                builder.put(createRequestBody(request));
+                break;
+            case Request.Method.HEAD:
+                builder.head();
+                break;
+            case Request.Method.OPTIONS:
+                builder.method("OPTIONS", null);
+                break;
+            case Request.Method.TRACE:
+                builder.method("TRACE", null);
+                break;
+            case Request.Method.PATCH:
+                builder.patch(createRequestBody(request));
+                break;
+            default:
+                throw new IllegalStateException("Unknown method type.");
+        }
+
+        return builder.build();
+    }
+
+    private static RequestBody createRequestBody(Request<?> request) throws AuthFailureError {
+        byte[] body = request.getBody();
+        return RequestBody.create(MediaType.parse(request.getBodyContentType()),
+                body != null ? body : EMPTY_BODY);
+    }
+
+    private static void addCacheHeaders(com.squareup.okhttp.Request.Builder builder,
+                                        Cache.Entry entry) {
+        // If there's no cache entry, we're done
+        if (entry == null) {
+            return;
+        }
+
+        if (entry.etag != null) {
+            builder.header(HEADER_IF_NONE_MATCH, entry.etag);
+        }
+
+        if (entry.serverDate > 0) {
+            SimpleDateFormat format = new SimpleDateFormat(RFC1123_DATE_FORMAT, Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("GMT"));
+            builder.header(HEADER_IF_MODIFIED_SINCE, format.format(new Date(entry.serverDate)));
+        }
+    }
+
+    private static Map<String, String> convertHeaders(Headers headers) {
+        // header names are case insensitive, and HTTP/2 sends them in lower case
+        Map<String, String> result = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (int i = 0, size = headers.size(); i < size; i++) {
+            result.put(headers.name(i), headers.value(i));
+        }
+        return result;
+    }
+
+    private static void attemptRetryOnException(String logPrefix, Request<?> request,
+                                                VolleyError exception, boolean retry) throws
+            VolleyError {
+        if (!retry) {
+            throw exception;
+        }
+        RetryPolicy retryPolicy = request.getRetryPolicy();
+        int oldTimeout = request.getTimeoutMs();
+
+        try {
+            retryPolicy.retry(exception);
+        } catch (VolleyError e) {
+            request.addMarker(String.format("%s-timeout-giveup [timeout=%s]", logPrefix,
+                    oldTimeout));
+            throw e;
+        }
+        request.addMarker(String.format("%s-retry [timeout=%s]", logPrefix, oldTimeout));
+    }
+
+    private static void closeQuietly(ResponseBody body) {
+        if (body == null) {
+            return;
+        }
+
+        try {
+            body.close();
+        } catch (IOException e) {
+            // nothing to do, the connection is discarded
+        }
+    }
+}
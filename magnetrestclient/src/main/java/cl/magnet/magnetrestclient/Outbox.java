@@ -0,0 +1,1013 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Lukas Zorich, Magnet.cl
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package cl.magnet.magnetrestclient;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.DefaultRetryPolicy;
+import com.android.volley.NetworkResponse;
+import com.android.volley.NoConnectionError;
+import com.android.volley.Request;
+import com.android.volley.RequestQueue;
+import com.android.volley.Response;
+import com.android.volley.TimeoutError;
+import com.android.volley.VolleyError;
+import com.android.volley.VolleyLog;
+import com.android.volley.toolbox.JsonRequest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import cl.magnet.magnetrestclient.requests.BaseJsonRequest;
+import cl.magnet.magnetrestclient.requests.BatchRequest;
+
+/**
+ * A durable queue of mutating requests (POST, PUT, PATCH and DELETE) that are sent when there is
+ * an internet connection, so they aren't lost when it drops.
+ *
+ * {@link #add(JsonRequest)} appends the method, url, headers and body of a request to a journal
+ * file, and only then sends it. The requests are sent in the order they were added, one at a
+ * time, or in a {@link BatchRequest} of up to the maximum batch size when a batch endpoint is
+ * configured. A request leaves the outbox when the server responds:
+ * <ul>
+ * <li>Successful responses are delivered to {@link Listener#onDelivered(Entry,
+ * NetworkResponse)}.</li>
+ * <li>When the request can't reach the server because the device is offline, it is kept and
+ * the outbox waits before trying again, with an exponential backoff. It tries right away when
+ * the connection comes back.</li>
+ * <li>Other errors without a response, like an SSL handshake failure or an unknown host, server
+ * errors (5xx), 408 and 429 responses are retried the same way, up to
+ * {@value #DEFAULT_MAX_ATTEMPTS} attempts. The attempts are saved with the request.</li>
+ * <li>Other errors, and requests out of attempts, are delivered to
+ * {@link Listener#onFailed(Entry, VolleyError)}. That includes 401 responses: the headers of a
+ * request are stored with it, so sending it again would repeat its expired credentials. The
+ * listener can add a new request with fresh ones.</li>
+ * </ul>
+ *
+ * A request may reach the server more than once, e.g: when the connection drops before its
+ * response arrives. Every request carries an {@value #IDEMPOTENCY_KEY_HEADER} header that stays
+ * the same between attempts, so the server can discard the duplicates.
+ *
+ * The requests pending when the app is closed are sent the next time the outbox is created.
+ * Since the original request objects don't survive, their listeners are not called; the outcome
+ * of every request is delivered to the {@link Listener}s of the outbox, in the main thread.
+ *
+ * The journal is append-only: adding a request appends a record, and so does removing it. The
+ * records are checksummed, so a record torn by a crash is discarded when the journal is read.
+ * The journal is compacted when most of its records belong to removed requests.
+ *
+ * The journal is not encrypted: the headers and bodies of the pending requests, including
+ * credentials like the Authorization header, are stored in plain text in the journal file,
+ * which {@link VolleyManager} keeps in the private files directory of the app.
+ */
+public class Outbox {
+
+    private static final String TAG = Outbox.class.getSimpleName();
+    private static final String USER_AGENT = "User-Agent";
+
+    /**
+     * The header with the key of a request, which stays the same between attempts.
+     */
+    public static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 10;
+
+    static final long DEFAULT_MIN_BACKOFF_MS = TimeUnit.SECONDS.toMillis(1);
+    static final long DEFAULT_MAX_BACKOFF_MS = TimeUnit.MINUTES.toMillis(5);
+
+    private static final byte OP_ADD = 1;
+    private static final byte OP_REMOVE = 2;
+    private static final byte OP_ATTEMPTS = 3;
+
+    /**
+     * The journal is not compacted until it has at least this number of removal records.
+     */
+    private static final int MIN_COMPACTION_REMOVALS = 32;
+
+    private static final String CHARSET = "UTF-8";
+
+    private final File mFile;
+    private final String mBatchUrl;
+    private final String mBatchOrigin;
+    private final int mMaxBatchSize;
+    private final int mTimeoutMs;
+    private final ScheduledExecutorService mExecutor;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Random mRandom = new Random();
+    private final List<Listener> mListeners = new ArrayList<>();
+
+    private final BroadcastReceiver mConnectivityReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            setConnected(isConnected(context));
+        }
+    };
+
+    private final Runnable mReplayRunnable = new Runnable() {
+        @Override
+        public void run() {
+            replay();
+        }
+    };
+
+    // the following fields are only accessed by the executor thread
+    private final LinkedList<Entry> mEntries = new LinkedList<>();
+    private RandomAccessFile mJournal;
+    private int mRemovalCount;
+    private long mNextId;
+    private boolean mInFlight;
+    private boolean mConnected = true;
+    private int mBackoffCount;
+    private ScheduledFuture<?> mRetry;
+    private long mMinBackoffMs = DEFAULT_MIN_BACKOFF_MS;
+    private long mMaxBackoffMs = DEFAULT_MAX_BACKOFF_MS;
+    private int mMaxAttempts = DEFAULT_MAX_ATTEMPTS;
+
+    private RequestQueue mRequestQueue;
+    private volatile Map<String, String> mDefaultHeaders;
+
+    /**
+     * @param file         The journal file
+     * @param batchUrl     The url of the batch endpoint, or null to send the requests one at a
+     *                     time
+     * @param maxBatchSize The maximum number of requests sent in a batch
+     * @param timeoutMs    The timeout of each attempt, in milliseconds
+     */
+    public Outbox(File file, String batchUrl, int maxBatchSize, int timeoutMs) {
+        mFile = file;
+        mBatchUrl = batchUrl;
+        if (batchUrl != null) {
+            URI uri = URI.create(batchUrl);
+            mBatchOrigin = uri.getScheme() + "://" + uri.getRawAuthority() + "/";
+        } else {
+            mBatchOrigin = null;
+        }
+        mMaxBatchSize = maxBatchSize;
+        mTimeoutMs = timeoutMs;
+        mExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, TAG);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                open();
+            }
+        });
+    }
+
+    /**
+     * Attaches the outbox to the queue that sends its requests, and starts sending the pending
+     * ones.
+     */
+    public void attach(final RequestQueue requestQueue) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mRequestQueue = requestQueue;
+                replay();
+            }
+        });
+    }
+
+    /**
+     * Sets the default headers, like the user agent, of the requests.
+     */
+    void setDefaultHeaders(Map<String, String> defaultHeaders) {
+        mDefaultHeaders = defaultHeaders;
+    }
+
+    /**
+     * Sets the backoff between attempts, and the maximum number of attempts of requests that
+     * receive a response.
+     */
+    void setRetryPolicy(final long minBackoffMs, final long maxBackoffMs,
+                        final int maxAttempts) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mMinBackoffMs = minBackoffMs;
+                mMaxBackoffMs = maxBackoffMs;
+                mMaxAttempts = maxAttempts;
+            }
+        });
+    }
+
+    /**
+     * Registers a receiver of connectivity changes, so the pending requests are sent as soon as
+     * the connection comes back.
+     *
+     * @param context The context
+     */
+    public void register(Context context) {
+        Context appContext = context.getApplicationContext();
+        setConnected(isConnected(appContext));
+        appContext.registerReceiver(mConnectivityReceiver,
+                new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+    }
+
+    /**
+     * Unregisters the receiver of connectivity changes.
+     *
+     * @param context The context
+     */
+    public void unregister(Context context) {
+        context.getApplicationContext().unregisterReceiver(mConnectivityReceiver);
+    }
+
+    /**
+     * Adds a listener of the outcome of the requests. It is called in the main thread.
+     *
+     * @param listener The listener
+     */
+    public synchronized void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    /**
+     * Removes a listener added with {@link #addListener(Listener)}.
+     *
+     * @param listener The listener
+     */
+    public synchronized void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Adds a request to the outbox. Its method, url, headers and body are saved before it is
+     * sent. The listeners of the request are not called, the outcome is delivered to the
+     * {@link Listener}s of the outbox instead.
+     *
+     * @param request A POST, PUT, PATCH or DELETE request
+     * @return The entry of the request
+     * @throws IllegalArgumentException If the method of the request doesn't modify data, or its
+     *                                  headers can't be obtained
+     */
+    public Entry add(JsonRequest<?> request) {
+        int method = request.getMethod();
+        if (method != Request.Method.POST && method != Request.Method.PUT
+                && method != Request.Method.PATCH && method != Request.Method.DELETE) {
+            throw new IllegalArgumentException("Only POST, PUT, PATCH and DELETE requests can "
+                    + "be added to the outbox");
+        }
+
+        Map<String, String> headers;
+        try {
+            headers = new LinkedHashMap<>(request.getHeaders());
+        } catch (AuthFailureError e) {
+            throw new IllegalArgumentException("Can't get the headers of the request", e);
+        }
+        // the user agent is one of the default headers set when the request is sent
+        headers.remove(USER_AGENT);
+        String body;
+        try {
+            byte[] bytes = request.getBody();
+            body = bytes == null ? null : new String(bytes, CHARSET);
+        } catch (UnsupportedEncodingException e) {
+            // UTF-8 is always supported
+            throw new IllegalStateException(e);
+        }
+
+        final Entry entry = new Entry(UUID.randomUUID().toString(), method, request.getUrl(),
+                headers, body, System.currentTimeMillis());
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                append(entry);
+                replay();
+            }
+        });
+        return entry;
+    }
+
+    /**
+     * Tries to send the pending requests right away, without waiting for the backoff.
+     */
+    public void retryNow() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mBackoffCount = 0;
+                replay();
+            }
+        });
+    }
+
+    /**
+     * @return The requests that haven't been delivered, in the order they are sent
+     */
+    public List<Entry> getPendingEntries() {
+        return await(new Callable<List<Entry>>() {
+            @Override
+            public List<Entry> call() {
+                return Collections.unmodifiableList(new ArrayList<>(mEntries));
+            }
+        });
+    }
+
+    /**
+     * Waits until the journal is written and closes it. The outbox can't be used afterwards.
+     */
+    public void close() {
+        await(new Callable<Void>() {
+            @Override
+            public Void call() {
+                if (mRetry != null) {
+                    mRetry.cancel(false);
+                }
+                closeJournal();
+                return null;
+            }
+        });
+        mExecutor.shutdown();
+    }
+
+    private <T> T await(Callable<T> callable) {
+        try {
+            return mExecutor.submit(callable).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Sets whether the device is connected, as the receiver of connectivity changes does.
+     */
+    void setConnected(final boolean connected) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean reconnected = connected && !mConnected;
+                mConnected = connected;
+                if (reconnected) {
+                    mBackoffCount = 0;
+                    replay();
+                }
+            }
+        });
+    }
+
+    private static boolean isConnected(Context context) {
+        ConnectivityManager connectivityManager = (ConnectivityManager) context.getSystemService(
+                Context.CONNECTIVITY_SERVICE);
+        NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
+        return networkInfo != null && networkInfo.isConnected();
+    }
+
+    /**
+     * Sends the next requests, unless some are in flight, or there is no connection.
+     */
+    private void replay() {
+        if (mInFlight || mEntries.isEmpty() || mRequestQueue == null || !mConnected) {
+            return;
+        }
+        if (mRetry != null) {
+            mRetry.cancel(false);
+            mRetry = null;
+        }
+
+        // consecutive requests to the host of the batch endpoint are sent in a batch
+        final List<Entry> entries = new ArrayList<>();
+        for (Entry entry : mEntries) {
+            if (entries.size() == (mBatchUrl == null ? 1 : mMaxBatchSize)
+                    || (!entries.isEmpty() && !isBatchable(entry))) {
+                break;
+            }
+            entries.add(entry);
+            if (!isBatchable(entry)) {
+                break;
+            }
+        }
+
+        mInFlight = true;
+        if (entries.size() == 1) {
+            final Entry entry = entries.get(0);
+            Callback callback = new Callback() {
+                @Override
+                void onResult(final NetworkResponse response, final VolleyError error) {
+                    mExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            onFinished(entries, Collections.singletonList(response), error);
+                        }
+                    });
+                }
+            };
+            send(new ReplayRequest(entry, callback, callback));
+            return;
+        }
+
+        List<ReplayRequest> requests = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            requests.add(new ReplayRequest(entry, null, null));
+        }
+        Response.Listener<List<NetworkResponse>> listener =
+                new Response.Listener<List<NetworkResponse>>() {
+                    @Override
+                    public void onResponse(final List<NetworkResponse> responses) {
+                        mExecutor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                onFinished(entries, responses, null);
+                            }
+                        });
+                    }
+                };
+        Response.ErrorListener errorListener = new Response.ErrorListener() {
+            @Override
+            public void onErrorResponse(final VolleyError error) {
+                mExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        onFinished(entries, null, error);
+                    }
+                });
+            }
+        };
+        send(new BatchRequest(mBatchUrl, requests, listener, errorListener));
+    }
+
+    private void send(BaseJsonRequest<?> request) {
+        // attempts are retried by the outbox, since the requests may not be idempotent
+        request.setRetryPolicy(new DefaultRetryPolicy(mTimeoutMs, 0,
+                DefaultRetryPolicy.DEFAULT_BACKOFF_MULT));
+        if (mDefaultHeaders != null) {
+            request.setDefaultHeaders(mDefaultHeaders);
+        }
+        mRequestQueue.add(request);
+    }
+
+    private boolean isBatchable(Entry entry) {
+        return mBatchOrigin != null && entry.url.regionMatches(true, 0, mBatchOrigin, 0,
+                mBatchOrigin.length());
+    }
+
+    /**
+     * Handles the outcome of the requests sent. Either there is a response per request, or an
+     * error for all of them.
+     */
+    private void onFinished(List<Entry> entries, List<NetworkResponse> responses,
+                            VolleyError error) {
+        mInFlight = false;
+        boolean retry = false;
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            NetworkResponse response = responses != null ? responses.get(i) : null;
+            VolleyError entryError = error;
+            if (response != null && (response.statusCode < 200 || response.statusCode > 299)) {
+                entryError = new VolleyError(response);
+            }
+
+            if (entryError == null) {
+                remove(entry);
+                notifyDelivered(entry, response);
+            } else if (isOffline(entryError)) {
+                // it doesn't count as an attempt
+                retry = true;
+            } else if ((entryError.networkResponse == null
+                    || isRetriable(entryError.networkResponse.statusCode))
+                    && ++entry.attempts < mMaxAttempts) {
+                saveAttempts(entry);
+                retry = true;
+            } else {
+                remove(entry);
+                notifyFailed(entry, entryError);
+            }
+        }
+
+        if (retry) {
+            scheduleRetry();
+        } else {
+            mBackoffCount = 0;
+            replay();
+        }
+    }
+
+    /**
+     * @return Whether the request failed because the device lost the connection, as opposed to
+     * errors that may never go away, like an unknown host
+     */
+    private boolean isOffline(VolleyError error) {
+        return !mConnected && (error instanceof NoConnectionError
+                || error instanceof TimeoutError);
+    }
+
+    private static boolean isRetriable(int statusCode) {
+        return statusCode >= 500 || statusCode == 408 || statusCode == 429;
+    }
+
+    /**
+     * Schedules the next attempt with an exponential backoff. The delay is randomized, so
+     * devices that lost the connection together don't retry together.
+     */
+    private void scheduleRetry() {
+        long backoff = mMinBackoffMs << Math.min(mBackoffCount, 20);
+        if (backoff <= 0 || backoff > mMaxBackoffMs) {
+            backoff = mMaxBackoffMs;
+        }
+        mBackoffCount++;
+        long delay = backoff / 2 + (long) (mRandom.nextDouble() * (backoff / 2));
+        mRetry = mExecutor.schedule(mReplayRunnable, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void notifyDelivered(final Entry entry, final NetworkResponse response) {
+        final List<Listener> listeners = getListeners();
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (Listener listener : listeners) {
+                    listener.onDelivered(entry, response);
+                }
+            }
+        });
+    }
+
+    private void notifyFailed(final Entry entry, final VolleyError error) {
+        final List<Listener> listeners = getListeners();
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (Listener listener : listeners) {
+                    listener.onFailed(entry, error);
+                }
+            }
+        });
+    }
+
+    private synchronized List<Listener> getListeners() {
+        return new ArrayList<>(mListeners);
+    }
+
+    /**
+     * Reads the journal, keeping the requests that weren't removed, and opens it for appending.
+     * A torn record at the end is discarded.
+     */
+    private void open() {
+        try {
+            File directory = mFile.getParentFile();
+            if (directory != null && !directory.exists() && !directory.mkdirs()) {
+                throw new IOException("Unable to create " + directory);
+            }
+            mJournal = new RandomAccessFile(mFile, "rw");
+            long validLength = readJournal();
+            if (validLength < mJournal.length()) {
+                VolleyLog.d("%s: discarding %d bytes of a torn record", TAG,
+                        mJournal.length() - validLength);
+                mJournal.setLength(validLength);
+            }
+        } catch (IOException e) {
+            VolleyLog.e("%s: could not open the journal: %s", TAG, e);
+            closeJournal();
+        }
+    }
+
+    /**
+     * @return The length of the valid records
+     */
+    private long readJournal() throws IOException {
+        Map<Long, Entry> entries = new LinkedHashMap<>();
+        long offset = 0;
+        long length = mJournal.length();
+        mJournal.seek(0);
+        while (offset + 8 <= length) {
+            int recordLength = mJournal.readInt();
+            int checksum = mJournal.readInt();
+            if (recordLength <= 0 || offset + 8 + recordLength > length) {
+                break;
+            }
+            byte[] record = new byte[recordLength];
+            mJournal.readFully(record);
+            if (checksum != checksum(record)) {
+                break;
+            }
+
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+            byte op = in.readByte();
+            if (op == OP_ADD) {
+                Entry entry = readEntry(in);
+                entries.put(entry.id, entry);
+                mNextId = Math.max(mNextId, entry.id + 1);
+            } else if (op == OP_REMOVE) {
+                entries.remove(in.readLong());
+                mRemovalCount++;
+            } else if (op == OP_ATTEMPTS) {
+                Entry entry = entries.get(in.readLong());
+                int attempts = in.readInt();
+                if (entry != null) {
+                    entry.attempts = attempts;
+                }
+            } else {
+                break;
+            }
+            offset += 8 + recordLength;
+        }
+        mEntries.addAll(entries.values());
+        return offset;
+    }
+
+    /**
+     * Appends a request to the journal and to the pending ones. The record is synced to disk
+     * before the request is sent.
+     */
+    private void append(Entry entry) {
+        entry.id = mNextId++;
+        mEntries.add(entry);
+        if (mJournal == null) {
+            return;
+        }
+        try {
+            writeEntryRecords(entry);
+        } catch (IOException e) {
+            VolleyLog.e("%s: could not save request %s: %s", TAG, entry.url, e);
+        }
+    }
+
+    /**
+     * Saves the attempts of a request, so it isn't retried forever across restarts.
+     */
+    private void saveAttempts(Entry entry) {
+        if (mJournal == null) {
+            return;
+        }
+        try {
+            writeAttemptsRecord(entry);
+        } catch (IOException e) {
+            VolleyLog.e("%s: could not save the attempts of request %s: %s", TAG, entry.url, e);
+        }
+    }
+
+    /**
+     * Removes a request from the journal and from the pending ones.
+     */
+    private void remove(Entry entry) {
+        mEntries.remove(entry);
+        if (mJournal == null) {
+            return;
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(OP_REMOVE);
+            out.writeLong(entry.id);
+            writeRecord(bytes.toByteArray());
+            mRemovalCount++;
+            if (mRemovalCount >= MIN_COMPACTION_REMOVALS && mRemovalCount > mEntries.size()) {
+                compact();
+            }
+        } catch (IOException e) {
+            VolleyLog.e("%s: could not remove request %s: %s", TAG, entry.url, e);
+        }
+    }
+
+    /**
+     * Writes the record that adds a request, followed by its attempts, if any.
+     */
+    private void writeEntryRecords(Entry entry) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(OP_ADD);
+        writeEntry(out, entry);
+        writeRecord(bytes.toByteArray());
+        if (entry.attempts > 0) {
+            writeAttemptsRecord(entry);
+        }
+    }
+
+    private void writeAttemptsRecord(Entry entry) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(OP_ATTEMPTS);
+        out.writeLong(entry.id);
+        out.writeInt(entry.attempts);
+        writeRecord(bytes.toByteArray());
+    }
+
+    private void writeRecord(byte[] record) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(record.length + 8);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(record.length);
+        out.writeInt(checksum(record));
+        out.write(record);
+        mJournal.seek(mJournal.length());
+        mJournal.write(bytes.toByteArray());
+        mJournal.getFD().sync();
+    }
+
+    /**
+     * Rewrites the journal with the pending requests only. The new journal replaces the old
+     * one atomically. If it can't, the old journal is reopened, or the outbox keeps the
+     * requests in memory only when even that fails.
+     */
+    private void compact() throws IOException {
+        File tmpFile = new File(mFile.getPath() + ".tmp");
+        RandomAccessFile journal = mJournal;
+        mJournal = new RandomAccessFile(tmpFile, "rw");
+        try {
+            mJournal.setLength(0);
+            for (Entry entry : mEntries) {
+                writeEntryRecords(entry);
+            }
+        } catch (IOException e) {
+            mJournal.close();
+            mJournal = journal;
+            tmpFile.delete();
+            throw e;
+        }
+        journal.close();
+        mJournal.close();
+        mJournal = null;
+        if (!tmpFile.renameTo(mFile)) {
+            tmpFile.delete();
+            // the old journal is still complete
+            mJournal = new RandomAccessFile(mFile, "rw");
+            throw new IOException("Can't rename " + tmpFile + " to " + mFile);
+        }
+        mJournal = new RandomAccessFile(mFile, "rw");
+        mRemovalCount = 0;
+    }
+
+    private void closeJournal() {
+        if (mJournal != null) {
+            try {
+                mJournal.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            mJournal = null;
+        }
+    }
+
+    private static int checksum(byte[] record) {
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        return (int) crc.getValue();
+    }
+
+    private static void writeEntry(DataOutputStream out, Entry entry) throws IOException {
+        out.writeLong(entry.id);
+        out.writeUTF(entry.key);
+        out.writeInt(entry.method);
+        writeString(out, entry.url);
+        out.writeLong(entry.createdAt);
+        out.writeInt(entry.headers.size());
+        for (Map.Entry<String, String> header : entry.headers.entrySet()) {
+            writeString(out, header.getKey());
+            writeString(out, header.getValue());
+        }
+        writeString(out, entry.body);
+    }
+
+    private static Entry readEntry(DataInputStream in) throws IOException {
+        long id = in.readLong();
+        String key = in.readUTF();
+        int method = in.readInt();
+        String url = readString(in);
+        long createdAt = in.readLong();
+        int headerCount = in.readInt();
+        Map<String, String> headers = new LinkedHashMap<>();
+        for (int i = 0; i < headerCount; i++) {
+            headers.put(readString(in), readString(in));
+        }
+        String body = readString(in);
+        Entry entry = new Entry(key, method, url, headers, body, createdAt);
+        entry.id = id;
+        return entry;
+    }
+
+    /**
+     * Writes a string of any length, or null.
+     */
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        if (string == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = string.getBytes(CHARSET);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length == -1) {
+            return null;
+        }
+        if (length < 0 || length > in.available()) {
+            throw new EOFException();
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, CHARSET);
+    }
+
+    /**
+     * Receives the outcome of the requests of the outbox.
+     */
+    public interface Listener {
+
+        /**
+         * Called when the server responds to a request with a successful status code.
+         *
+         * @param entry    The request
+         * @param response The response
+         */
+        void onDelivered(Entry entry, NetworkResponse response);
+
+        /**
+         * Called when the server rejects a request, or it runs out of attempts. The request
+         * leaves the outbox.
+         *
+         * @param entry The request
+         * @param error The error, with the response of the server
+         */
+        void onFailed(Entry entry, VolleyError error);
+    }
+
+    /**
+     * A request of the outbox.
+     */
+    public static final class Entry {
+
+        private final String key;
+        private final int method;
+        private final String url;
+        private final Map<String, String> headers;
+        private final String body;
+        private final long createdAt;
+        private long id;
+        private int attempts;
+
+        Entry(String key, int method, String url, Map<String, String> headers, String body,
+              long createdAt) {
+            this.key = key;
+            this.method = method;
+            this.url = url;
+            this.headers = Collections.unmodifiableMap(headers);
+            this.body = body;
+            this.createdAt = createdAt;
+        }
+
+        /**
+         * @return The key sent in the {@value #IDEMPOTENCY_KEY_HEADER} header
+         */
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * @return The method, see {com.android.volley.Request.Method}
+         */
+        public int getMethod() {
+            return method;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public Map<String, String> getHeaders() {
+            return headers;
+        }
+
+        /**
+         * @return The body, or null
+         */
+        public String getBody() {
+            return body;
+        }
+
+        /**
+         * @return When the request was added, in milliseconds since the epoch
+         */
+        public long getCreatedAt() {
+            return createdAt;
+        }
+
+        /**
+         * @return The number of attempts that failed with an error that is retried, other than
+         * a lost connection
+         */
+        public int getAttempts() {
+            return attempts;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Entry && ((Entry) o).key.equals(key);
+        }
+
+        @Override
+        public int hashCode() {
+            return key.hashCode();
+        }
+    }
+
+    /**
+     * Receives the outcome of a request sent by itself.
+     */
+    private abstract static class Callback implements Response.Listener<NetworkResponse>,
+            Response.ErrorListener {
+
+        abstract void onResult(NetworkResponse response, VolleyError error);
+
+        @Override
+        public void onResponse(NetworkResponse response) {
+            onResult(response, null);
+        }
+
+        @Override
+        public void onErrorResponse(VolleyError error) {
+            onResult(null, error);
+        }
+    }
+
+    /**
+     * Sends a request of the outbox, and delivers its raw response.
+     */
+    private static class ReplayRequest extends BaseJsonRequest<NetworkResponse> {
+
+        private final Response.Listener<NetworkResponse> mListener;
+
+        ReplayRequest(Entry entry, Response.Listener<NetworkResponse> listener,
+                      Response.ErrorListener errorListener) {
+            super(entry.method, entry.url, entry.body, listener, errorListener);
+            mListener = listener;
+            addHeaders(entry.headers);
+            addHeader(IDEMPOTENCY_KEY_HEADER, entry.key);
+            setShouldCache(false);
+        }
+
+        @Override
+        protected Response<NetworkResponse> parseNetworkResponse(NetworkResponse response) {
+            return Response.success(response, null);
+        }
+
+        @Override
+        protected void deliverResponse(NetworkResponse response) {
+            if (mListener != null) {
+                mListener.onResponse(response);
+            }
+        }
+    }
+}
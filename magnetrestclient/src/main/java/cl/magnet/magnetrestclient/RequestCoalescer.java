@@ -0,0 +1,286 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Lukas Zorich, Magnet.cl
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package cl.magnet.magnetrestclient;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.Request;
+import com.android.volley.RequestQueue;
+import com.android.volley.Response;
+import com.android.volley.ResponseDelivery;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import cl.magnet.magnetrestclient.requests.GsonRequest;
+
+/**
+ * Collapses identical GET requests that are in flight at the same time into a single network
+ * call. The first request, the leader, goes through the RequestQueue; the identical ones added
+ * while it is in flight, the followers, are not queued and receive the response parsed for the
+ * leader. Requests are identical when they have the same class, response type, URL and headers.
+ *
+ * Since the parsed response is shared, listeners of coalesced requests must not modify it.
+ *
+ * Followers are cancelled with {@link #cancelAll(RequestQueue.RequestFilter)}. If the leader is
+ * cancelled before its response is delivered, the first follower that is not cancelled is
+ * queued in its place. A leader that finishes without a final response and was not cancelled,
+ * e.g: its soft expired cache entry was delivered and the server answered 304 Not Modified,
+ * already delivered its last response, which is delivered to the followers that missed it.
+ */
+public class RequestCoalescer {
+
+    private final Map<String, Group> mGroups = new HashMap<>();
+    private final Map<Request<?>, Group> mGroupsByLeader = new IdentityHashMap<>();
+
+    private RequestQueue mRequestQueue;
+    private ResponseDelivery mDelivery;
+    private long mRequestCount;
+    private long mMergedCount;
+
+    /**
+     * Attaches the coalescer to the queue that performs the leaders, so a follower is queued
+     * when its leader is cancelled.
+     *
+     * @param requestQueue The queue
+     * @param delivery     The delivery of the responses to the followers, which must not deliver
+     *                     them to the coalescer again
+     */
+    void attach(RequestQueue requestQueue, ResponseDelivery delivery) {
+        mRequestQueue = requestQueue;
+        mDelivery = delivery;
+        mRequestQueue.addRequestFinishedListener(new RequestQueue
+                .RequestFinishedListener<Object>() {
+            @Override
+            public void onRequestFinished(Request<Object> request) {
+                Request<?> promoted = onLeaderFinished(request);
+                if (promoted != null) {
+                    mRequestQueue.add(promoted);
+                }
+            }
+        });
+    }
+
+    /**
+     * Registers a request before it is added to the RequestQueue.
+     *
+     * @param request The request
+     * @return True if the request must be added to the RequestQueue, false if it was merged into
+     * an identical request in flight
+     */
+    public synchronized boolean add(Request<?> request) {
+        String key = getKey(request);
+        if (key == null) {
+            return true;
+        }
+
+        mRequestCount++;
+        Group group = mGroups.get(key);
+        if (group == null) {
+            group = new Group(key);
+            mGroups.put(key, group);
+            mGroupsByLeader.put(request, group);
+            return true;
+        }
+
+        request.addMarker("coalesced");
+        group.followers.add(request);
+        mMergedCount++;
+        return false;
+    }
+
+    /**
+     * Cancels the followers that match the filter. Leaders are cancelled through the
+     * RequestQueue.
+     *
+     * @param filter The filter
+     */
+    public synchronized void cancelAll(RequestQueue.RequestFilter filter) {
+        for (Group group : mGroups.values()) {
+            for (Request<?> follower : group.followers) {
+                if (filter.apply(follower)) {
+                    follower.cancel();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The number of GET requests registered, merged or not
+     */
+    public synchronized long getRequestCount() {
+        return mRequestCount;
+    }
+
+    /**
+     * @return The number of requests merged into an identical one, that is, the network calls
+     * saved
+     */
+    public synchronized long getMergedCount() {
+        return mMergedCount;
+    }
+
+    /**
+     * @return The ratio of GET requests merged into an identical one, or 0 if there were none
+     */
+    public synchronized double getMergeRate() {
+        return mRequestCount == 0 ? 0 : (double) mMergedCount / mRequestCount;
+    }
+
+    /**
+     * @return The number of distinct requests in flight
+     */
+    public synchronized int getInFlightCount() {
+        return mGroups.size();
+    }
+
+    /**
+     * Returns the followers that must receive a response of the leader. The leader stops
+     * coalescing requests when the response is final.
+     *
+     * @param leader   The request whose response is being delivered
+     * @param response The response
+     * @return The followers, empty if the request is not a leader
+     */
+    synchronized List<Request<?>> onResponse(Request<?> leader, Response<?> response) {
+        Group group = response.intermediate ? mGroupsByLeader.get(leader) : removeGroup(leader);
+        if (group == null) {
+            return Collections.emptyList();
+        }
+        group.response = response;
+        group.deliveredCount = group.followers.size();
+        return new ArrayList<>(group.followers);
+    }
+
+    /**
+     * Returns the followers that must receive the error of the leader.
+     *
+     * @param leader The request whose error is being delivered
+     * @return The followers, empty if the request is not a leader
+     */
+    synchronized List<Request<?>> onError(Request<?> leader) {
+        Group group = removeGroup(leader);
+        if (group == null) {
+            return Collections.emptyList();
+        }
+        return group.followers;
+    }
+
+    /**
+     * Called when a request is finished. When a leader is cancelled before its final response,
+     * its first follower that is not cancelled becomes the leader. When a leader finishes
+     * without a final response otherwise, its last response was final, so it is delivered to
+     * the followers added after it.
+     *
+     * @param request The finished request
+     * @return The follower that must be added to the RequestQueue, or null if there is none
+     */
+    synchronized Request<?> onLeaderFinished(Request<?> request) {
+        Group group = removeGroup(request);
+        if (group == null) {
+            return null;
+        }
+
+        if (!request.isCanceled()) {
+            if (group.response != null) {
+                for (Request<?> follower : group.followers.subList(group.deliveredCount,
+                        group.followers.size())) {
+                    mDelivery.postResponse(follower, group.response);
+                }
+            }
+            return null;
+        }
+
+        while (!group.followers.isEmpty()) {
+            Request<?> follower = group.followers.remove(0);
+            if (!follower.isCanceled()) {
+                follower.addMarker("coalescing-leader");
+                Group promoted = new Group(group.key);
+                promoted.followers.addAll(group.followers);
+                mGroups.put(group.key, promoted);
+                mGroupsByLeader.put(follower, promoted);
+                return follower;
+            }
+        }
+
+        return null;
+    }
+
+    private Group removeGroup(Request<?> leader) {
+        Group group = mGroupsByLeader.remove(leader);
+        if (group != null) {
+            mGroups.remove(group.key);
+        }
+        return group;
+    }
+
+    /**
+     * @return The key of identical requests, or null if the request is not coalesced
+     */
+    private static String getKey(Request<?> request) {
+        if (request.getMethod() != Request.Method.GET || request.isCanceled()) {
+            return null;
+        }
+
+        Map<String, String> headers;
+        try {
+            headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            headers.putAll(request.getHeaders());
+        } catch (AuthFailureError e) {
+            return null;
+        }
+
+        StringBuilder key = new StringBuilder(request.getClass().getName());
+        if (request instanceof GsonRequest) {
+            key.append(' ').append(((GsonRequest<?>) request).getType());
+        }
+        key.append(' ').append(request.getUrl());
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            key.append('\n').append(header.getKey()).append(": ").append(header.getValue());
+        }
+        return key.toString();
+    }
+
+    /**
+     * The identical requests added while a leader is in flight.
+     */
+    private static class Group {
+        final String key;
+        final List<Request<?>> followers = new ArrayList<>();
+        /**
+         * The last response delivered to the followers, and to how many of them.
+         */
+        Response<?> response;
+        int deliveredCount;
+
+        Group(String key) {
+            this.key = key;
+        }
+    }
+}
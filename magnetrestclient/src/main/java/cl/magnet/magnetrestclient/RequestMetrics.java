@@ -0,0 +1,182 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Lukas Zorich, Magnet.cl
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package cl.magnet.magnetrestclient;
+
+import com.android.volley.Request;
+
+import java.util.Locale;
+
+/**
+ * The timing breakdown and the byte counts of a finished request, see
+ * {@link VolleyManager#addMetricsListener(VolleyManager.MetricsListener)}.
+ *
+ * The phases of a request are measured with {java.lang.System#nanoTime()}:
+ * <ul>
+ * <li>{@link Phase#QUEUE}: from being added to the queue until the network dispatcher performs
+ * it, including the cache lookup.</li>
+ * <li>{@link Phase#DNS}, {@link Phase#CONNECT} and {@link Phase#TLS}: the setup of a new
+ * connection. They are 0 when a pooled connection is reused.</li>
+ * <li>{@link Phase#TIME_TO_FIRST_BYTE}: from the connection being ready until the response
+ * headers are received, including sending the request.</li>
+ * <li>{@link Phase#DOWNLOAD}: reading the response body. When the body is streamed into the
+ * parser (see {@link cl.magnet.magnetrestclient.requests.StreamingRequest}), it includes the
+ * parse of the body.</li>
+ * <li>{@link Phase#PARSE}: from the body being read until the response is posted to the main
+ * thread, including the cache write.</li>
+ * <li>{@link Phase#DELIVERY}: from the response being posted until the listener of the request
+ * returns.</li>
+ * <li>{@link Phase#TOTAL}: from being added to the queue until the request finished.</li>
+ * </ul>
+ * The network phases are the ones of the last attempt of the request, or of the first response
+ * of a hedged request. Phases that didn't happen, e.g: the network phases of a response served
+ * from the cache, are 0.
+ */
+public final class RequestMetrics {
+
+    /**
+     * A phase of a request.
+     */
+    public enum Phase {
+        QUEUE,
+        DNS,
+        CONNECT,
+        TLS,
+        TIME_TO_FIRST_BYTE,
+        DOWNLOAD,
+        PARSE,
+        DELIVERY,
+        TOTAL
+    }
+
+    private final Object mTag;
+    private final String mUrl;
+    private final int mMethod;
+    private final int mStatusCode;
+    private final boolean mNetwork;
+    private final boolean mCanceled;
+    private final long[] mDurationsNs;
+    private final long mRequestBytes;
+    private final long mResponseBytes;
+
+    RequestMetrics(Request<?> request, int statusCode, boolean network, long[] durationsNs,
+                   long requestBytes, long responseBytes) {
+        mTag = request.getTag();
+        mUrl = request.getUrl();
+        mMethod = request.getMethod();
+        mCanceled = request.isCanceled();
+        mStatusCode = statusCode;
+        mNetwork = network;
+        mDurationsNs = durationsNs;
+        mRequestBytes = requestBytes;
+        mResponseBytes = responseBytes;
+    }
+
+    /**
+     * @return The tag of the request
+     */
+    public Object getTag() {
+        return mTag;
+    }
+
+    /**
+     * @return The url of the request
+     */
+    public String getUrl() {
+        return mUrl;
+    }
+
+    /**
+     * @return The method of the request, see {com.android.volley.Request.Method}
+     */
+    public int getMethod() {
+        return mMethod;
+    }
+
+    /**
+     * @return The status code of the response, or 0 if no response was received from the
+     * network
+     */
+    public int getStatusCode() {
+        return mStatusCode;
+    }
+
+    /**
+     * @return True if the request was sent, false if it was served from the cache or failed
+     * before being sent
+     */
+    public boolean isNetwork() {
+        return mNetwork;
+    }
+
+    /**
+     * @return True if the request was cancelled
+     */
+    public boolean isCanceled() {
+        return mCanceled;
+    }
+
+    /**
+     * @param phase The phase
+     * @return How long the phase took, in nanoseconds
+     */
+    public long getDurationNs(Phase phase) {
+        return mDurationsNs[phase.ordinal()];
+    }
+
+    /**
+     * @param phase The phase
+     * @return How long the phase took, in milliseconds
+     */
+    public long getDurationMs(Phase phase) {
+        return mDurationsNs[phase.ordinal()] / 1000000;
+    }
+
+    /**
+     * @return The size of the request body sent, in bytes
+     */
+    public long getRequestBytes() {
+        return mRequestBytes;
+    }
+
+    /**
+     * @return The size of the response body received, in bytes, as sent by the server, i.e:
+     * before it is decompressed
+     */
+    public long getResponseBytes() {
+        return mResponseBytes;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("RequestMetrics{").append(mUrl)
+                .append(", status=").append(mStatusCode);
+        for (Phase phase : Phase.values()) {
+            builder.append(", ").append(phase.name().toLowerCase(Locale.US)).append('=')
+                    .append(getDurationMs(phase)).append("ms");
+        }
+        return builder.append(", requestBytes=").append(mRequestBytes)
+                .append(", responseBytes=").append(mResponseBytes).append('}').toString();
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Lukas Zorich, Magnet.cl
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package cl.magnet.magnetrestclient;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A token bucket that limits retries to a ratio of the requests, so a backend that fails
+ * doesn't receive a retry storm on top of the regular traffic.
+ *
+ * Every request deposits a fraction of a token, the retry ratio, and every retry withdraws a
+ * whole token. The balance is capped, so the retries allowed in a burst are bounded too. The
+ * bucket starts full, so the first requests of a session can be retried. It doesn't lock, so it
+ * can be shared by every network dispatcher thread.
+ */
+public class RetryBudget {
+
+    public static final float DEFAULT_RETRY_RATIO = 0.1f;
+    public static final int DEFAULT_MAX_BALANCE = 10;
+
+    /**
+     * The balance is kept in thousandths of a token.
+     */
+    private static final int SCALE = 1000;
+
+    private final int mDeposit;
+    private final int mMaxBalance;
+    private final AtomicInteger mBalance;
+    private final AtomicLong mRetryCount = new AtomicLong();
+    private final AtomicLong mRejectedCount = new AtomicLong();
+
+    /**
+     * @param retryRatio The maximum ratio of retries to requests, e.g: 0.1 for 10%
+     * @param maxBalance The maximum number of retries allowed in a burst
+     */
+    public RetryBudget(float retryRatio, int maxBalance) {
+        if (retryRatio < 0) {
+            throw new IllegalArgumentException("retryRatio < 0");
+        }
+        if (maxBalance < 1) {
+            throw new IllegalArgumentException("maxBalance < 1");
+        }
+        mDeposit = Math.round(retryRatio * SCALE);
+        mMaxBalance = maxBalance * SCALE;
+        mBalance = new AtomicInteger(mMaxBalance);
+    }
+
+    /**
+     * Deposits the share of retries of a request.
+     */
+    public void onRequest() {
+        while (true) {
+            int balance = mBalance.get();
+            int updated = Math.min(mMaxBalance, balance + mDeposit);
+            if (updated == balance || mBalance.compareAndSet(balance, updated)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Withdraws a retry, if the balance allows it.
+     *
+     * @return True if the request can be retried
+     */
+    public boolean tryRetry() {
+        while (true) {
+            int balance = mBalance.get();
+            if (balance < SCALE) {
+                mRejectedCount.incrementAndGet();
+                return false;
+            }
+            if (mBalance.compareAndSet(balance, balance - SCALE)) {
+                mRetryCount.incrementAndGet();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return The number of retries that can be made right now
+     */
+    public float getBalance() {
+        return (float) mBalance.get() / SCALE;
+    }
+
+    /**
+     * @return The number of retries allowed
+     */
+    public long getRetryCount() {
+        return mRetryCount.get();
+    }
+
+    /**
+     * @return The number of retries rejected because the budget was exhausted
+     */
+    public long getRejectedCount() {
+        return mRejectedCount.get();
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Lukas Zorich, Magnet.cl
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package cl.magnet.magnetrestclient;
+
+import com.android.volley.NetworkResponse;
+import com.squareup.okhttp.ResponseBody;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+import java.util.Map;
+
+import okio.BufferedSource;
+
+/**
+ * A {com.android.volley.NetworkResponse} whose body has not been read yet. It is created by
+ * {@link OkHttpNetwork} for requests that implement
+ * {@link cl.magnet.magnetrestclient.requests.StreamingRequest}, so they can decode the body
+ * directly from the connection buffer instead of from a full copy of it.
+ *
+ * The {@link #data} of this response is always empty. The request must read the body from
+ * {@link #source()} while parsing the response, and then {@link #close()} it.
+ */
+public class SourceNetworkResponse extends NetworkResponse {
+
+    private final ResponseBody mBody;
+
+    public SourceNetworkResponse(int statusCode, ResponseBody body, Map<String, String> headers,
+                                 long networkTimeMs) {
+        super(statusCode, new byte[0], headers, false, networkTimeMs);
+        mBody = body;
+    }
+
+    /**
+     * @return The buffered source of the response body
+     * @throws IOException If the body can't be read
+     */
+    public BufferedSource source() throws IOException {
+        return mBody.source();
+    }
+
+    /**
+     * Returns a reader of the response body.
+     *
+     * @param charsetName The charset of the body
+     * @return The reader
+     * @throws IOException If the charset is not supported or the body can't be read
+     */
+    public Reader reader(String charsetName) throws IOException {
+        return new InputStreamReader(source().inputStream(), charsetName);
+    }
+
+    /**
+     * Reads the whole response body as a String.
+     *
+     * @param charsetName The charset of the body
+     * @return The response body
+     * @throws IOException If the charset is not supported or the body can't be read
+     */
+    public String readString(String charsetName) throws IOException {
+        Charset charset;
+        try {
+            charset = Charset.forName(charsetName);
+        } catch (IllegalArgumentException e) {
+            throw new UnsupportedEncodingException(charsetName);
+        }
+
+        return source().readString(charset);
+    }
+
+    /**
+     * Closes the response body, releasing the connection.
+     */
+    public void close() {
+        try {
+            mBody.close();
+        } catch (IOException e) {
+            // nothing to do, the connection is discarded
+        }
+    }
+}
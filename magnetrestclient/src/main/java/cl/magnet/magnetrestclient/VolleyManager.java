@@ -25,18 +25,46 @@
 package cl.magnet.magnetrestclient;
 
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
 
+import com.android.volley.DefaultRetryPolicy;
+import com.android.volley.ExecutorDelivery;
+import com.android.volley.Network;
 import com.android.volley.Request;
 import com.android.volley.RequestQueue;
-import com.android.volley.toolbox.ImageLoader;
-import com.android.volley.toolbox.Volley;
+import com.android.volley.ResponseDelivery;
+import com.android.volley.RetryPolicy;
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.JsonRequest;
+import com.squareup.okhttp.ConnectionPool;
 import com.squareup.okhttp.OkHttpClient;
 
+import java.io.File;
 import java.net.CookieHandler;
 import java.net.CookieManager;
 import java.net.CookiePolicy;
+import java.net.CookieStore;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
+import cl.magnet.magnetrestclient.cache.CachePartition;
+import cl.magnet.magnetrestclient.cache.EvictionPolicy;
+import cl.magnet.magnetrestclient.cache.FileCache;
+import cl.magnet.magnetrestclient.cache.JournalCache;
+import cl.magnet.magnetrestclient.cache.ManagedCache;
+import cl.magnet.magnetrestclient.cache.PartitionedCache;
 import cl.magnet.magnetrestclient.requests.BaseJsonRequest;
+import cl.magnet.magnetrestclient.requests.MagnetJsonObjectRequest;
+import cl.magnet.magnetrestclient.utils.ConcurrentCookieStore;
 import cl.magnet.magnetrestclient.utils.LruBitmapCache;
 import cl.magnet.magnetrestclient.utils.PersistentCookieStore;
 import cl.magnet.magnetrestclient.utils.UserAgentUtils;
@@ -46,43 +74,215 @@ import cl.magnet.magnetrestclient.utils.UserAgentUtils;
  * functionality, and uses <a href="http://square.github.io/okhttp/">OkHttp</a> as its transport
  * layer.
  *
- * To every {@link cl.magnet.magnetrestclient.requests.BaseJsonRequest}
- * sent, it set's the user agent to:
+ * To every {@link cl.magnet.magnetrestclient.requests.BaseJsonRequest} and
+ * {@link cl.magnet.magnetrestclient.requests.MagnetJsonObjectRequest} sent, it sets a shared,
+ * immutable set of default headers (see {@link #getDefaultHeaders()}), with the user agent:
  * <blockquote>{@code applicationId/versionName (androidVersion; model)}</blockquote>
  *
  * For example:
  * <blockquote>{@code com.example.app/1.0 (Android 4.4.4; XT1032)}</blockquote>
  *
+ * The connection pool, protocols, timeouts, number of network threads and response cache can be
+ * configured by calling {@link #init(Context, VolleyManagerConfig)} before the first
+ * {@link #getInstance(Context)}, usually in {@code Application.onCreate()}. When the
+ * configuration enables the asynchronous initialization (see
+ * {@link VolleyManagerConfig.Builder#setAsyncInitialization(boolean)}), the networking stack is
+ * built in a background thread: the requests added before it is ready are kept until it is, and
+ * the methods that return its components, like {@link #getCache()}, wait for it.
+ *
  * Created by lukas on 02-11-14.
  */
 public final class VolleyManager {
 
     public static final String TAG = VolleyManager.class.getSimpleName();
 
+    /**
+     * Default on-disk cache directory, the same one used by
+     * {com.android.volley.toolbox.Volley#newRequestQueue(android.content.Context)}.
+     */
+    private static final String DEFAULT_CACHE_DIR = "volley";
+
+    /**
+     * On-disk cache directory of the {@link JournalCache}.
+     */
+    private static final String JOURNAL_CACHE_DIR = "volley-journal";
+
+    /**
+     * Journal of the {@link Outbox}, in the files directory so it isn't cleared with the cache.
+     */
+    private static final String OUTBOX_FILE = "magnetrestclient-outbox";
+
+    private static final String USER_AGENT = "User-Agent";
+
     private static VolleyManager sInstance; // singleton instance of Volley Manager
 
+    private final VolleyManagerConfig mConfig;
+    private PartitionedCache mCache;
     private RequestQueue mRequestQueue;
-    private ImageLoader mImageLoader;
+    private ResponseDelivery mDelivery;
+    private RequestCoalescer mRequestCoalescer;
+    private BatchScheduler mBatchScheduler;
+    private Outbox mOutbox;
+    private RetryBudget mRetryBudget;
+    private HostCircuitBreaker mCircuitBreaker;
+    private HedgingNetwork mHedgingNetwork;
+    private AdaptiveNetwork mAdaptiveNetwork;
+    private final MetricsCollector mMetricsCollector = new MetricsCollector();
+    private LruBitmapCache mImageCache;
+    private MagnetImageLoader mImageLoader;
     private Context mContext;
-    private String mUserAgent; // user agent known at runtime
+    private Map<String, String> mDefaultHeaders; // built once with the user agent
+
+    /**
+     * Requests added before the networking stack is ready, or null once it is ready. Guarded by
+     * mPendingLock.
+     */
+    private List<PendingRequest> mPendingRequests = new ArrayList<>();
+    private final Object mPendingLock = new Object();
+    private final CountDownLatch mInitialized = new CountDownLatch(1);
+    private volatile Throwable mInitializationError;
 
     /**
      * Private constructor to prevent that VolleyManager is instanciated outside this class. Uses
-     * the {@link cl.magnet.magnetrestclient.utils.PersistentCookieStore} for reading and writing cookies.
+     * the {@link cl.magnet.magnetrestclient.utils.PersistentCookieStore} for reading and writing
+     * cookies, or the {@link cl.magnet.magnetrestclient.utils.ConcurrentCookieStore} if they are
+     * not persistent.
      *
      * @param context The context of the controller
+     * @param config  The configuration of the networking stack
      */
-    private VolleyManager(Context context) {
+    private VolleyManager(Context context, VolleyManagerConfig config) {
         mContext = context;
-        CookieManager cookieManager = new CookieManager(new PersistentCookieStore(mContext),
+        mConfig = config;
+        if (!mConfig.isAsyncInitialization()) {
+            initialize();
+            return;
+        }
+
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                try {
+                    initialize();
+                } catch (RuntimeException e) {
+                    // it is thrown by the methods that need the networking stack
+                    Log.e(TAG, "Could not initialize the networking stack", e);
+                } catch (Error e) {
+                    Log.e(TAG, "Could not initialize the networking stack", e);
+                }
+            }
+        }, TAG);
+        thread.start();
+    }
+
+    /**
+     * Builds the networking stack and queues the requests that were added before it was ready.
+     * If it fails, the error is kept and the pending requests fail with it.
+     */
+    private void initialize() {
+        try {
+            createNetworkingStack();
+        } catch (RuntimeException e) {
+            mInitializationError = e;
+            throw e;
+        } catch (Error e) {
+            mInitializationError = e;
+            throw e;
+        } finally {
+            synchronized (mPendingLock) {
+                // in the order they were added, before the ones added from now on
+                for (PendingRequest pending : mPendingRequests) {
+                    if (mInitializationError == null) {
+                        enqueue(pending.mRequest, pending.mTag);
+                    } else {
+                        postInitializationError(pending.mRequest);
+                    }
+                }
+                mPendingRequests = null;
+            }
+            mInitialized.countDown();
+        }
+    }
+
+    private void createNetworkingStack() {
+        CookieStore cookieStore = mConfig.isPersistentCookies()
+                ? new PersistentCookieStore(mContext) : new ConcurrentCookieStore();
+        CookieManager cookieManager = new CookieManager(cookieStore,
                 CookiePolicy.ACCEPT_ORIGINAL_SERVER);
         CookieHandler.setDefault(cookieManager);
         mRequestQueue = getRequestQueue();
-        mImageLoader = new ImageLoader(mRequestQueue, new LruBitmapCache(LruBitmapCache
-                .getCacheSize(context)));
+        int imageCacheSize = LruBitmapCache.getCacheSize(mContext);
+        mImageCache = new LruBitmapCache(imageCacheSize);
+        // the cache shrinks when the system is low on memory
+        mContext.getApplicationContext().registerComponentCallbacks(mImageCache);
+        String imageCacheTag = mConfig.getImageCachePartition() == null ? null
+                : VolleyManagerConfig.IMAGE_CACHE_TAG;
+        // no bitmap pool: the bitmaps of the memory cache may still be drawn after they are
+        // evicted, so nothing safe would fill it
+        mImageLoader = new MagnetImageLoader(mRequestQueue, mImageCache, null,
+                mConfig.isPreferRgb565Images(), imageCacheTag);
 
         // set USER AGENT
-        mUserAgent = UserAgentUtils.getUserAgent(mContext);
+        mDefaultHeaders = Collections.singletonMap(USER_AGENT,
+                UserAgentUtils.getUserAgent(mContext));
+        if (mBatchScheduler != null) {
+            mBatchScheduler.setDefaultHeaders(mDefaultHeaders);
+        }
+        if (mConfig.isOfflineOutbox()) {
+            mOutbox = new Outbox(new File(mContext.getApplicationContext().getFilesDir(),
+                    OUTBOX_FILE), mConfig.getBatchUrl(), mConfig.getMaxBatchSize(),
+                    mConfig.getRequestTimeoutMs());
+            mOutbox.setDefaultHeaders(mDefaultHeaders);
+            mOutbox.attach(mRequestQueue);
+            mOutbox.register(mContext);
+        }
+    }
+
+    /**
+     * Delivers the error of the initialization to a request that was waiting for it.
+     */
+    private void postInitializationError(final Request<?> request) {
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                if (!request.isCanceled()) {
+                    request.deliverError(new VolleyError("Could not initialize VolleyManager",
+                            mInitializationError));
+                }
+            }
+        });
+    }
+
+    /**
+     * Waits until the networking stack is ready.
+     *
+     * @throws IllegalStateException If the networking stack could not be initialized
+     */
+    private void awaitInitialization() {
+        waitForInitialization();
+        if (mInitializationError != null) {
+            throw new IllegalStateException("Could not initialize VolleyManager",
+                    mInitializationError);
+        }
+    }
+
+    /**
+     * Waits until the initialization finishes, whether it succeeded or not.
+     */
+    private void waitForInitialization() {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                mInitialized.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     /**
@@ -100,18 +300,122 @@ public final class VolleyManager {
      */
     public static synchronized VolleyManager getInstance(Context context) {
         if (sInstance == null) {
-            sInstance = new VolleyManager(context);
+            sInstance = new VolleyManager(context, VolleyManagerConfig.getDefault());
+        }
+
+        return sInstance;
+    }
+
+    /**
+     * Creates the singleton instance of VolleyManager with the specified configuration. It must
+     * be called once, before any call to {@link #getInstance(Context)}.
+     *
+     * @param context The application context
+     * @param config  The configuration of the networking stack
+     * @return The instance of VolleyManager
+     * @throws IllegalStateException If VolleyManager was already created
+     */
+    public static synchronized VolleyManager init(Context context, VolleyManagerConfig config) {
+        if (sInstance != null) {
+            throw new IllegalStateException("VolleyManager is already initialized");
         }
 
+        sInstance = new VolleyManager(context, config);
         return sInstance;
     }
 
+    /**
+     * Stops the RequestQueue of the singleton instance and discards it, so the next call to
+     * {@link #init(Context, VolleyManagerConfig)} or {@link #getInstance(Context)} creates a new
+     * one. Used by the tests that need a fresh networking stack.
+     */
+    static synchronized void reset() {
+        if (sInstance == null) {
+            return;
+        }
+
+        sInstance.waitForInitialization();
+        if (sInstance.mRequestQueue != null) {
+            sInstance.mRequestQueue.stop();
+        }
+        Context applicationContext = sInstance.mContext.getApplicationContext();
+        if (sInstance.mImageCache != null) {
+            applicationContext.unregisterComponentCallbacks(sInstance.mImageCache);
+        }
+        if (sInstance.mAdaptiveNetwork != null) {
+            sInstance.mAdaptiveNetwork.unregister(sInstance.mContext);
+        }
+        if (sInstance.mOutbox != null) {
+            sInstance.mOutbox.unregister(sInstance.mContext);
+        }
+        sInstance = null;
+    }
+
+    /**
+     * Creates the OkHttpClient used by the RequestQueue.
+     *
+     * @param config The configuration of the networking stack
+     * @return The client
+     */
+    static OkHttpClient createOkHttpClient(VolleyManagerConfig config) {
+        OkHttpClient client = new OkHttpClient();
+        client.setConnectionPool(new ConnectionPool(config.getMaxIdleConnections(),
+                config.getKeepAliveDurationMs()));
+        if (config.getProtocols() != null) {
+            client.setProtocols(config.getProtocols());
+        }
+        client.setConnectTimeout(config.getConnectTimeoutMs(), TimeUnit.MILLISECONDS);
+        client.setWriteTimeout(config.getWriteTimeoutMs(), TimeUnit.MILLISECONDS);
+        // the first attempt of most requests uses this timeout, so OkHttpNetwork doesn't need to
+        // clone the client for them
+        client.setReadTimeout(config.getRequestTimeoutMs(), TimeUnit.MILLISECONDS);
+        return client;
+    }
+
+    /**
+     * Creates the response cache, with a partition for each one in the configuration.
+     *
+     * @param cacheDir The cache directory of the app
+     * @param config   The configuration of the networking stack
+     * @return The cache
+     */
+    static PartitionedCache createCache(File cacheDir, VolleyManagerConfig config) {
+        String dirName = config.isJournaledCache() ? JOURNAL_CACHE_DIR : DEFAULT_CACHE_DIR;
+        ManagedCache defaultPartition = createCache(config, new File(cacheDir, dirName),
+                config.getCacheMaxBytes(), config.getCacheEvictionPolicy(), 0);
+        Map<String, ManagedCache> partitions = new HashMap<>();
+        List<CachePartition> cachePartitions = new ArrayList<>(
+                config.getCachePartitions().values());
+        if (config.getImageCachePartition() != null) {
+            cachePartitions.add(config.getImageCachePartition());
+        }
+        for (CachePartition partition : cachePartitions) {
+            File partitionDir = new File(cacheDir, dirName + "-" + partition.getTag());
+            partitions.put(partition.getTag(), createCache(config, partitionDir,
+                    partition.getMaxBytes(), partition.getEvictionPolicy(),
+                    partition.getMinTtlMs()));
+        }
+
+        return new PartitionedCache(defaultPartition, partitions);
+    }
+
+    private static ManagedCache createCache(VolleyManagerConfig config, File dir, long maxBytes,
+                                            EvictionPolicy evictionPolicy, long minTtlMs) {
+        if (config.isJournaledCache()) {
+            return new JournalCache(dir, maxBytes, evictionPolicy, minTtlMs);
+        }
+        return new FileCache(dir, maxBytes, evictionPolicy, minTtlMs);
+    }
+
     /**
      * Returns the singleton instance of RequestQueue that last the lifetime of the app. If there
      * is no instance of RequestQueue, then a new one is created.
      * <p/>
-     * The created RequestQueue uses {@link cl.magnet.magnetrestclient.OkHttpStack OkHttpStack}
-     * for networking.
+     * The created RequestQueue uses {@link cl.magnet.magnetrestclient.OkHttpNetwork OkHttpNetwork}
+     * for networking, wrapped in a {@link HedgingNetwork}, in an {@link AdaptiveNetwork} when the
+     * configuration enables adaptive network threads, in a {@link CircuitBreakerNetwork}, in a
+     * {@link BatchItemNetwork} when it sets a batch endpoint, and in a
+     * {@link CachePartitionNetwork}.
      *
      * @return RequestQueue instance
      */
@@ -119,19 +423,200 @@ public final class VolleyManager {
         if (mRequestQueue == null) {
             // getApplicationContext() keeps from leaking Activity or BroadcastReceiver if
             // someone pass one in
-            OkHttpClient client = new OkHttpClient();
+            OkHttpClient client = createOkHttpClient(mConfig);
             client.setCookieHandler(CookieHandler.getDefault());
-            mRequestQueue = Volley.newRequestQueue(mContext.getApplicationContext(),
-                    new OkHttpStack(client));
+            mMetricsCollector.instrument(client);
+            mCache = createCache(mContext.getApplicationContext().getCacheDir(), mConfig);
+            mHedgingNetwork = new HedgingNetwork(new OkHttpNetwork(client, mMetricsCollector));
+            Network network = mHedgingNetwork;
+            int threadPoolSize = mConfig.getNetworkThreadPoolSize();
+            if (mConfig.isAdaptiveNetworkThreads()) {
+                mAdaptiveNetwork = new AdaptiveNetwork(network);
+                mAdaptiveNetwork.register(mContext);
+                network = mAdaptiveNetwork;
+                threadPoolSize = mAdaptiveNetwork.getMaxConcurrency();
+            }
+            mRetryBudget = new RetryBudget(mConfig.getRetryBudgetRatio(),
+                    RetryBudget.DEFAULT_MAX_BALANCE);
+            mCircuitBreaker = new HostCircuitBreaker(mConfig.getCircuitFailureThreshold(),
+                    mConfig.getCircuitFailureRate(), mConfig.getCircuitSlowRequestMs(),
+                    mConfig.getCircuitOpenDurationMs());
+            network = new CircuitBreakerNetwork(network, mCircuitBreaker);
+            BatchItemNetwork batchItemNetwork = null;
+            if (mConfig.getBatchUrl() != null) {
+                batchItemNetwork = new BatchItemNetwork(network);
+                network = batchItemNetwork;
+                mBatchScheduler = new BatchScheduler(mConfig.getBatchUrl(),
+                        mConfig.getBatchWindowMs(), mConfig.getMaxBatchSize(),
+                        mConfig.getRequestTimeoutMs());
+            }
+            // outermost, so the response of a request is cached in the partition of its tag
+            CachePartitionNetwork cachePartitionNetwork = new CachePartitionNetwork(network,
+                    mCache);
+            network = cachePartitionNetwork;
+            ResponseDelivery executorDelivery = new ExecutorDelivery(new Handler(
+                    Looper.getMainLooper()));
+            ResponseDelivery delivery = executorDelivery;
+            if (mConfig.isRequestCoalescing()) {
+                mRequestCoalescer = new RequestCoalescer();
+                delivery = new CoalescingDelivery(delivery, mRequestCoalescer);
+            }
+            delivery = new MetricsDelivery(delivery, mMetricsCollector);
+            mDelivery = delivery;
+            mRequestQueue = new RequestQueue(mCache, network, threadPoolSize, delivery);
+            mRequestQueue.addRequestFinishedListener(mMetricsCollector);
+            mRequestQueue.addRequestFinishedListener(cachePartitionNetwork);
+            if (mRequestCoalescer != null) {
+                mRequestCoalescer.attach(mRequestQueue, executorDelivery);
+            }
+            if (mBatchScheduler != null) {
+                mBatchScheduler.attach(mRequestQueue, batchItemNetwork);
+            }
+            mRequestQueue.start();
         }
 
         return mRequestQueue;
     }
 
     /**
+     * @return The configuration of the networking stack
+     */
+    public VolleyManagerConfig getConfig() {
+        return mConfig;
+    }
+
+    /**
+     * Returns the response cache. Its counters and the ones of each partition are available
+     * through {@link ManagedCache#getStats()}.
+     *
+     * @return The response cache
+     */
+    public PartitionedCache getCache() {
+        awaitInitialization();
+        return mCache;
+    }
+
+    /**
+     * Returns the coalescer of identical GET requests, whose counters tell how many network
+     * calls were saved.
+     *
+     * @return The request coalescer, or null if request coalescing is not enabled
+     */
+    public RequestCoalescer getRequestCoalescer() {
+        awaitInitialization();
+        return mRequestCoalescer;
+    }
+
+    /**
+     * Returns the scheduler that packs requests into batches, whose counters tell how many round
+     * trips were saved.
+     *
+     * @return The batch scheduler, or null if no batch endpoint is configured
+     */
+    public BatchScheduler getBatchScheduler() {
+        awaitInitialization();
+        return mBatchScheduler;
+    }
+
+    /**
+     * Returns the outbox of mutating requests, whose listeners receive the outcome of its
+     * requests.
+     *
+     * @return The outbox, or null if it is not enabled
+     */
+    public Outbox getOutbox() {
+        awaitInitialization();
+        return mOutbox;
+    }
+
+    /**
+     * Returns the budget of retries of the requests that don't set their own retry policy. Its
+     * counters tell how many retries were made and how many were prevented.
+     *
+     * @return The retry budget
+     */
+    public RetryBudget getRetryBudget() {
+        awaitInitialization();
+        return mRetryBudget;
+    }
+
+    /**
+     * Returns the circuit breaker of the hosts, which tells the state of the circuit of each
+     * host.
+     *
+     * @return The circuit breaker
+     */
+    public HostCircuitBreaker getCircuitBreaker() {
+        awaitInitialization();
+        return mCircuitBreaker;
+    }
+
+    /**
+     * Returns the headers that every request sent by the manager has, unless it sets its own
+     * value for them. They are built once and shared by the requests.
+     *
+     * @return The immutable default headers
+     */
+    public Map<String, String> getDefaultHeaders() {
+        awaitInitialization();
+        return mDefaultHeaders;
+    }
+
+    /**
+     * Adds a listener that receives the {@link RequestMetrics} of every request when it finishes:
+     * how long it waited in the queue, set up the connection, waited for the response, downloaded
+     * and parsed it, and was delivered, and how many bytes it sent and received. The metrics are
+     * only collected while there are listeners. {@link HistogramMetricsAggregator} aggregates
+     * them per tag.
+     *
+     * @param listener The listener, called on the thread that finishes the request, which is the
+     *                 main thread unless it was cancelled. It must return quickly.
+     */
+    public void addMetricsListener(MetricsListener listener) {
+        mMetricsCollector.addListener(listener);
+    }
+
+    /**
+     * Removes a listener added with {@link #addMetricsListener(MetricsListener)}.
+     *
+     * @param listener The listener
+     */
+    public void removeMetricsListener(MetricsListener listener) {
+        mMetricsCollector.removeListener(listener);
+    }
+
+    /**
+     * Returns the histogram of the latencies of the endpoint of a request, which decides when
+     * hedged requests send a second request (see
+     * {@link cl.magnet.magnetrestclient.requests.BaseJsonRequest#setHedging(boolean)}).
+     *
+     * @param request A request to the endpoint
+     * @return The histogram of the latencies of the successful hedged requests to the endpoint
+     */
+    public LatencyHistogram getLatencyHistogram(Request<?> request) {
+        awaitInitialization();
+        return mHedgingNetwork.getLatencyHistogram(HedgingNetwork.getRoute(request));
+    }
+
+    /**
+     * Returns the memory cache of the image loader. Its size and number of evictions tell how
+     * it performs with the memory budget of the device.
+     *
+     * @return The memory cache of decoded images
+     */
+    public LruBitmapCache getImageCache() {
+        awaitInitialization();
+        return mImageCache;
+    }
+
+    /**
+     * Returns the image loader. The decoded images are kept in memory, and the encoded ones in
+     * the image partition of the response cache.
+     *
      * @return The image loader
      */
-    public ImageLoader getImageLoader() {
+    public MagnetImageLoader getImageLoader() {
+        awaitInitialization();
         return mImageLoader;
     }
 
@@ -148,29 +633,160 @@ public final class VolleyManager {
 
     /**
      * Adds a request to the RequestQueue with a specific tag.
+     * <p/>
+     * When the circuit of the host of a request that isn't cached is open (see
+     * {@link HostCircuitBreaker}), the request is not queued, and a {@link CircuitOpenError} is
+     * delivered to it right away. Requests that may be cached are queued, so they can be served
+     * from the cache, and fail in the network dispatcher without being sent.
      *
      * @param request The request that will be added to the queue.
      * @param tag     The tag to be added to the request
      * @param <T>     The type of the request
      */
     public <T> void addToRequestQueue(Request<T> request, Object tag) {
+        request.setTag(tag == null ? TAG : tag);
+        synchronized (mPendingLock) {
+            if (mPendingRequests != null) {
+                // it is queued when the networking stack is ready
+                mPendingRequests.add(new PendingRequest(request, tag));
+                return;
+            }
+        }
+
+        awaitInitialization();
+        enqueue(request, tag);
+    }
+
+    /**
+     * Queues a request once the networking stack is ready.
+     */
+    private void enqueue(Request<?> request, Object tag) {
         if (request instanceof BaseJsonRequest) {
-            ((BaseJsonRequest) request).setUserAgent(mUserAgent);
+            ((BaseJsonRequest<?>) request).setDefaultHeaders(mDefaultHeaders);
+        } else if (request instanceof MagnetJsonObjectRequest) {
+            ((MagnetJsonObjectRequest) request).setDefaultHeaders(mDefaultHeaders);
         }
 
-        request.setTag(tag == null ? TAG : tag);
+        if (!request.shouldCache()) {
+            String host = HostCircuitBreaker.getHost(request.getUrl());
+            if (!mCircuitBreaker.allowRequest(host)) {
+                request.addMarker("circuit-open");
+                mDelivery.postError(request, new CircuitOpenError(host, null));
+                return;
+            }
+        }
+
+        if (isDefaultRetryPolicy(request.getRetryPolicy())) {
+            request.setRetryPolicy(new AdaptiveRetryPolicy(request, mConfig.getRequestTimeoutMs(),
+                    mConfig.getMaxRetries(), mConfig.getMinRetryBackoffMs(),
+                    mConfig.getMaxRetryBackoffMs(), mRetryBudget, mCircuitBreaker));
+        }
+        // every request adds to the budget of retries, whatever its policy
+        mRetryBudget.onRequest();
+
+        if (mRequestCoalescer != null && !mRequestCoalescer.add(request)) {
+            // an identical request is in flight, its response is delivered to this one
+            return;
+        }
+        if (mBatchScheduler != null && !mBatchScheduler.add(request)) {
+            // it is sent in the next batch
+            return;
+        }
+        mMetricsCollector.onQueued(request);
         getRequestQueue().add(request);
     }
 
+    /**
+     * Adds a POST, PUT, PATCH or DELETE request to the outbox, which saves it and sends it when
+     * there is an internet connection. The listeners of the request are not called, its
+     * outcome is delivered to the listeners of the outbox (see {@link #getOutbox()}).
+     *
+     * @param request The request
+     * @return The entry of the request in the outbox
+     * @throws IllegalStateException If the outbox is not enabled, see
+     *                               {@link VolleyManagerConfig.Builder#setOfflineOutbox(boolean)}
+     */
+    public Outbox.Entry addToOutbox(JsonRequest<?> request) {
+        awaitInitialization();
+        if (mOutbox == null) {
+            throw new IllegalStateException("The outbox is not enabled");
+        }
+        return mOutbox.add(request);
+    }
+
+    /**
+     * Whether the retry policy is the one Volley sets to every request, that is, the request
+     * doesn't set its own.
+     */
+    private static boolean isDefaultRetryPolicy(RetryPolicy retryPolicy) {
+        return retryPolicy.getClass() == DefaultRetryPolicy.class
+                && retryPolicy.getCurrentTimeout() == DefaultRetryPolicy.DEFAULT_TIMEOUT_MS
+                && retryPolicy.getCurrentRetryCount() == 0;
+    }
+
     /**
      * Cancels all pending requests by the specified tag. It is important to specify a tag so
      * that pending/ongoing requests can be cancelled.
      *
      * @param tag The tag of the requests that are going to be cancelled
      */
-    public void cancelPendingRequests(Object tag) {
+    public void cancelPendingRequests(final Object tag) {
+        synchronized (mPendingLock) {
+            if (mPendingRequests != null) {
+                // the networking stack isn't ready, so the requests are all here
+                for (Iterator<PendingRequest> it = mPendingRequests.iterator(); it.hasNext(); ) {
+                    Request<?> request = it.next().mRequest;
+                    if (request.getTag() == tag) {
+                        request.cancel();
+                        it.remove();
+                    }
+                }
+                return;
+            }
+        }
+
         if (mRequestQueue != null) {
             mRequestQueue.cancelAll(tag);
         }
+        RequestQueue.RequestFilter filter = new RequestQueue.RequestFilter() {
+            @Override
+            public boolean apply(Request<?> request) {
+                return request.getTag() == tag;
+            }
+        };
+        if (mRequestCoalescer != null) {
+            mRequestCoalescer.cancelAll(filter);
+        }
+        if (mBatchScheduler != null) {
+            mBatchScheduler.cancelAll(filter);
+        }
+    }
+
+    /**
+     * A request added before the networking stack was ready.
+     */
+    private static class PendingRequest {
+
+        final Request<?> mRequest;
+        final Object mTag;
+
+        PendingRequest(Request<?> request, Object tag) {
+            mRequest = request;
+            mTag = tag;
+        }
+    }
+
+    /**
+     * Receives the {@link RequestMetrics} of the finished requests, see
+     * {@link #addMetricsListener(MetricsListener)}.
+     */
+    public interface MetricsListener {
+
+        /**
+         * Called when a request finishes.
+         *
+         * @param metrics The metrics of the request
+         */
+        void onRequestMetrics(RequestMetrics metrics);
     }
 }
@@ -0,0 +1,840 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Lukas Zorich, Magnet.cl
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package cl.magnet.magnetrestclient;
+
+import com.android.volley.DefaultRetryPolicy;
+import com.squareup.okhttp.Protocol;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import cl.magnet.magnetrestclient.cache.CachePartition;
+import cl.magnet.magnetrestclient.cache.EvictionPolicy;
+
+/**
+ * Configuration of the networking stack created by {@link VolleyManager}. Instances are
+ * immutable and are created with a {@link VolleyManagerConfig.Builder}:
+ * <pre>
+ * {@code
+ * VolleyManagerConfig config = new VolleyManagerConfig.Builder()
+ *         .setMaxIdleConnections(8)
+ *         .setKeepAliveDuration(2, TimeUnit.MINUTES)
+ *         .setProtocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+ *         .setNetworkThreadPoolSize(6)
+ *         .setCacheMaxBytes(10 * 1024 * 1024)
+ *         .addCachePartition(new CachePartition("feed", 2 * 1024 * 1024, EvictionPolicy.LFU))
+ *         .build();
+ * VolleyManager.init(getApplicationContext(), config);
+ * }
+ * </pre>
+ */
+public final class VolleyManagerConfig {
+
+    /**
+     * Default maximum number of idle connections kept alive in the pool.
+     */
+    public static final int DEFAULT_MAX_IDLE_CONNECTIONS = 5;
+
+    /**
+     * Default time an idle connection is kept alive, in milliseconds.
+     */
+    public static final long DEFAULT_KEEP_ALIVE_DURATION_MS = TimeUnit.MINUTES.toMillis(5);
+
+    /**
+     * Default number of network dispatcher threads, the same used by Volley.
+     */
+    public static final int DEFAULT_NETWORK_THREAD_POOL_SIZE = 4;
+
+    /**
+     * Default maximum size of the response cache in bytes, the same used by Volley.
+     */
+    public static final long DEFAULT_CACHE_MAX_BYTES = 5 * 1024 * 1024;
+
+    /**
+     * Tag of the cache partition where the images loaded by the
+     * {@link VolleyManager#getImageLoader()} are kept.
+     */
+    public static final String IMAGE_CACHE_TAG = "images";
+
+    /**
+     * Default maximum size of the image cache partition, in bytes.
+     */
+    public static final long DEFAULT_IMAGE_CACHE_MAX_BYTES = 10 * 1024 * 1024;
+
+    /**
+     * Minimum time images are kept on disk, even if the server doesn't allow caching them.
+     */
+    private static final long IMAGE_CACHE_MIN_TTL_MS = TimeUnit.DAYS.toMillis(1);
+
+    /**
+     * Default window in which requests are collected into a batch, in milliseconds.
+     */
+    public static final long DEFAULT_BATCH_WINDOW_MS = 20;
+
+    /**
+     * Default maximum number of requests sent in a batch.
+     */
+    public static final int DEFAULT_MAX_BATCH_SIZE = 20;
+
+    private final int mMaxIdleConnections;
+    private final long mKeepAliveDurationMs;
+    private final List<Protocol> mProtocols;
+    private final long mConnectTimeoutMs;
+    private final long mWriteTimeoutMs;
+    private final int mRequestTimeoutMs;
+    private final int mNetworkThreadPoolSize;
+    private final boolean mAdaptiveNetworkThreads;
+    private final long mCacheMaxBytes;
+    private final EvictionPolicy mCacheEvictionPolicy;
+    private final Map<String, CachePartition> mCachePartitions;
+    private final long mImageCacheMaxBytes;
+    private final boolean mPreferRgb565Images;
+    private final boolean mJournaledCache;
+    private final boolean mRequestCoalescing;
+    private final boolean mPersistentCookies;
+    private final boolean mOfflineOutbox;
+    private final boolean mAsyncInitialization;
+    private final int mMaxRetries;
+    private final long mMinRetryBackoffMs;
+    private final long mMaxRetryBackoffMs;
+    private final float mRetryBudgetRatio;
+    private final int mCircuitFailureThreshold;
+    private final long mCircuitOpenDurationMs;
+    private final float mCircuitFailureRate;
+    private final long mCircuitSlowRequestMs;
+    private final String mBatchUrl;
+    private final long mBatchWindowMs;
+    private final int mMaxBatchSize;
+
+    private VolleyManagerConfig(Builder builder) {
+        mMaxIdleConnections = builder.mMaxIdleConnections;
+        mKeepAliveDurationMs = builder.mKeepAliveDurationMs;
+        mProtocols = builder.mProtocols;
+        mConnectTimeoutMs = builder.mConnectTimeoutMs;
+        mWriteTimeoutMs = builder.mWriteTimeoutMs;
+        mRequestTimeoutMs = builder.mRequestTimeoutMs;
+        mNetworkThreadPoolSize = builder.mNetworkThreadPoolSize;
+        mAdaptiveNetworkThreads = builder.mAdaptiveNetworkThreads;
+        mCacheMaxBytes = builder.mCacheMaxBytes;
+        mCacheEvictionPolicy = builder.mCacheEvictionPolicy;
+        mCachePartitions = Collections.unmodifiableMap(new LinkedHashMap<>(
+                builder.mCachePartitions));
+        mImageCacheMaxBytes = builder.mImageCacheMaxBytes;
+        mPreferRgb565Images = builder.mPreferRgb565Images;
+        mJournaledCache = builder.mJournaledCache;
+        mRequestCoalescing = builder.mRequestCoalescing;
+        mPersistentCookies = builder.mPersistentCookies;
+        mOfflineOutbox = builder.mOfflineOutbox;
+        mAsyncInitialization = builder.mAsyncInitialization;
+        mMaxRetries = builder.mMaxRetries;
+        mMinRetryBackoffMs = builder.mMinRetryBackoffMs;
+        mMaxRetryBackoffMs = builder.mMaxRetryBackoffMs;
+        mRetryBudgetRatio = builder.mRetryBudgetRatio;
+        mCircuitFailureThreshold = builder.mCircuitFailureThreshold;
+        mCircuitOpenDurationMs = builder.mCircuitOpenDurationMs;
+        mCircuitFailureRate = builder.mCircuitFailureRate;
+        mCircuitSlowRequestMs = builder.mCircuitSlowRequestMs;
+        mBatchUrl = builder.mBatchUrl;
+        mBatchWindowMs = builder.mBatchWindowMs;
+        mMaxBatchSize = builder.mMaxBatchSize;
+    }
+
+    /**
+     * @return The configuration used when none is specified
+     */
+    public static VolleyManagerConfig getDefault() {
+        return new Builder().build();
+    }
+
+    /**
+     * @return The maximum number of idle connections kept alive in the pool
+     */
+    public int getMaxIdleConnections() {
+        return mMaxIdleConnections;
+    }
+
+    /**
+     * @return The time an idle connection is kept alive, in milliseconds
+     */
+    public long getKeepAliveDurationMs() {
+        return mKeepAliveDurationMs;
+    }
+
+    /**
+     * @return The protocols negotiated with the server, or {@code null} to use OkHttp's defaults
+     */
+    public List<Protocol> getProtocols() {
+        return mProtocols;
+    }
+
+    /**
+     * @return The connect timeout in milliseconds, or 0 to use the timeout of each request
+     */
+    public long getConnectTimeoutMs() {
+        return mConnectTimeoutMs;
+    }
+
+    /**
+     * @return The write timeout in milliseconds, or 0 for no timeout
+     */
+    public long getWriteTimeoutMs() {
+        return mWriteTimeoutMs;
+    }
+
+    /**
+     * @return The initial timeout of requests that don't set their own retry policy, in
+     * milliseconds
+     */
+    public int getRequestTimeoutMs() {
+        return mRequestTimeoutMs;
+    }
+
+    /**
+     * @return The number of network dispatcher threads of the RequestQueue
+     */
+    public int getNetworkThreadPoolSize() {
+        return mNetworkThreadPoolSize;
+    }
+
+    /**
+     * @return True if the number of concurrent requests follows the CPU cores and the network
+     * type instead of {@link #getNetworkThreadPoolSize()}
+     */
+    public boolean isAdaptiveNetworkThreads() {
+        return mAdaptiveNetworkThreads;
+    }
+
+    /**
+     * @return The maximum size of the default partition of the response cache in bytes
+     */
+    public long getCacheMaxBytes() {
+        return mCacheMaxBytes;
+    }
+
+    /**
+     * @return The eviction policy of the default partition of the response cache
+     */
+    public EvictionPolicy getCacheEvictionPolicy() {
+        return mCacheEvictionPolicy;
+    }
+
+    /**
+     * @return The partitions of the response cache by tag
+     */
+    public Map<String, CachePartition> getCachePartitions() {
+        return mCachePartitions;
+    }
+
+    /**
+     * @return The maximum size of the image cache partition, or 0 if images are kept with the
+     * rest of the responses
+     */
+    public long getImageCacheMaxBytes() {
+        return mImageCacheMaxBytes;
+    }
+
+    /**
+     * @return The cache partition where images are kept, or null if they are kept with the rest
+     * of the responses
+     */
+    public CachePartition getImageCachePartition() {
+        if (mImageCacheMaxBytes == 0) {
+            return null;
+        }
+        return new CachePartition(IMAGE_CACHE_TAG, mImageCacheMaxBytes, EvictionPolicy.LRU,
+                IMAGE_CACHE_MIN_TTL_MS);
+    }
+
+    /**
+     * @return True if images without alpha are decoded as RGB_565
+     */
+    public boolean isPreferRgb565Images() {
+        return mPreferRgb565Images;
+    }
+
+    /**
+     * @return True if the response cache keeps its entries in a journal instead of a file per
+     * entry
+     */
+    public boolean isJournaledCache() {
+        return mJournaledCache;
+    }
+
+    /**
+     * @return True if identical GET requests in flight at the same time are performed once
+     */
+    public boolean isRequestCoalescing() {
+        return mRequestCoalescing;
+    }
+
+    /**
+     * @return True if the cookies are saved to a file, false if they are only kept in memory
+     */
+    public boolean isPersistentCookies() {
+        return mPersistentCookies;
+    }
+
+    /**
+     * @return True if mutating requests can be added to an {@link Outbox} that sends them when
+     * there is an internet connection
+     */
+    public boolean isOfflineOutbox() {
+        return mOfflineOutbox;
+    }
+
+    /**
+     * @return True if {@link VolleyManager} builds the networking stack in a background thread
+     */
+    public boolean isAsyncInitialization() {
+        return mAsyncInitialization;
+    }
+
+    /**
+     * @return The maximum number of retries of the requests that use the default retry policy
+     */
+    public int getMaxRetries() {
+        return mMaxRetries;
+    }
+
+    /**
+     * @return The backoff before the first retry, in milliseconds
+     */
+    public long getMinRetryBackoffMs() {
+        return mMinRetryBackoffMs;
+    }
+
+    /**
+     * @return The maximum backoff between retries, in milliseconds
+     */
+    public long getMaxRetryBackoffMs() {
+        return mMaxRetryBackoffMs;
+    }
+
+    /**
+     * @return The maximum ratio of retries to requests
+     */
+    public float getRetryBudgetRatio() {
+        return mRetryBudgetRatio;
+    }
+
+    /**
+     * @return The number of consecutive failures that open the circuit of a host
+     */
+    public int getCircuitFailureThreshold() {
+        return mCircuitFailureThreshold;
+    }
+
+    /**
+     * @return How long the circuit of a host stays open, in milliseconds
+     */
+    public long getCircuitOpenDurationMs() {
+        return mCircuitOpenDurationMs;
+    }
+
+    /**
+     * @return The rate of failed or slow requests that opens the circuit of a host
+     */
+    public float getCircuitFailureRate() {
+        return mCircuitFailureRate;
+    }
+
+    /**
+     * @return How long a request must take to be slow, in milliseconds
+     */
+    public long getCircuitSlowRequestMs() {
+        return mCircuitSlowRequestMs;
+    }
+
+    /**
+     * @return The url of the batch endpoint, or null if requests are not batched
+     */
+    public String getBatchUrl() {
+        return mBatchUrl;
+    }
+
+    /**
+     * @return The window in which requests are collected into a batch, in milliseconds
+     */
+    public long getBatchWindowMs() {
+        return mBatchWindowMs;
+    }
+
+    /**
+     * @return The maximum number of requests sent in a batch
+     */
+    public int getMaxBatchSize() {
+        return mMaxBatchSize;
+    }
+
+    /**
+     * Builder of {@link VolleyManagerConfig}.
+     */
+    public static final class Builder {
+
+        private int mMaxIdleConnections = DEFAULT_MAX_IDLE_CONNECTIONS;
+        private long mKeepAliveDurationMs = DEFAULT_KEEP_ALIVE_DURATION_MS;
+        private List<Protocol> mProtocols;
+        private long mConnectTimeoutMs;
+        private long mWriteTimeoutMs;
+        private int mRequestTimeoutMs = DefaultRetryPolicy.DEFAULT_TIMEOUT_MS;
+        private int mNetworkThreadPoolSize = DEFAULT_NETWORK_THREAD_POOL_SIZE;
+        private boolean mAdaptiveNetworkThreads;
+        private long mCacheMaxBytes = DEFAULT_CACHE_MAX_BYTES;
+        private EvictionPolicy mCacheEvictionPolicy = EvictionPolicy.LRU;
+        private final Map<String, CachePartition> mCachePartitions = new LinkedHashMap<>();
+        private long mImageCacheMaxBytes = DEFAULT_IMAGE_CACHE_MAX_BYTES;
+        private boolean mPreferRgb565Images = true;
+        private boolean mJournaledCache;
+        private boolean mRequestCoalescing;
+        private boolean mPersistentCookies = true;
+        private boolean mOfflineOutbox;
+        private boolean mAsyncInitialization;
+        private int mMaxRetries = AdaptiveRetryPolicy.DEFAULT_MAX_RETRIES;
+        private long mMinRetryBackoffMs = AdaptiveRetryPolicy.DEFAULT_MIN_BACKOFF_MS;
+        private long mMaxRetryBackoffMs = AdaptiveRetryPolicy.DEFAULT_MAX_BACKOFF_MS;
+        private float mRetryBudgetRatio = RetryBudget.DEFAULT_RETRY_RATIO;
+        private int mCircuitFailureThreshold = HostCircuitBreaker.DEFAULT_FAILURE_THRESHOLD;
+        private long mCircuitOpenDurationMs = HostCircuitBreaker.DEFAULT_OPEN_DURATION_MS;
+        private float mCircuitFailureRate = HostCircuitBreaker.DEFAULT_FAILURE_RATE;
+        private long mCircuitSlowRequestMs = HostCircuitBreaker.DEFAULT_SLOW_REQUEST_MS;
+        private String mBatchUrl;
+        private long mBatchWindowMs = DEFAULT_BATCH_WINDOW_MS;
+        private int mMaxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+
+        /**
+         * Sets the maximum number of idle connections kept alive in the pool. Requests to a host
+         * reuse these connections instead of opening new ones.
+         *
+         * @param maxIdleConnections The maximum number of idle connections
+         * @return This builder
+         */
+        public Builder setMaxIdleConnections(int maxIdleConnections) {
+            if (maxIdleConnections < 0) {
+                throw new IllegalArgumentException("maxIdleConnections < 0");
+            }
+            mMaxIdleConnections = maxIdleConnections;
+            return this;
+        }
+
+        /**
+         * Sets how long an idle connection is kept alive in the pool.
+         *
+         * @param duration The keep alive duration
+         * @param unit     The unit of the duration
+         * @return This builder
+         */
+        public Builder setKeepAliveDuration(long duration, TimeUnit unit) {
+            if (duration < 0) {
+                throw new IllegalArgumentException("duration < 0");
+            }
+            mKeepAliveDurationMs = unit.toMillis(duration);
+            return this;
+        }
+
+        /**
+         * Sets the protocols negotiated with the server, in order of preference. Including
+         * {com.squareup.okhttp.Protocol#HTTP_2} allows concurrent requests to a host to be
+         * multiplexed over a single TLS connection.
+         *
+         * @param protocols The protocols. They must include
+         *                  {com.squareup.okhttp.Protocol#HTTP_1_1}.
+         * @return This builder
+         */
+        public Builder setProtocols(List<Protocol> protocols) {
+            if (!protocols.contains(Protocol.HTTP_1_1)) {
+                throw new IllegalArgumentException("protocols doesn't contain http/1.1: "
+                        + protocols);
+            }
+            mProtocols = Collections.unmodifiableList(new ArrayList<>(protocols));
+            return this;
+        }
+
+        /**
+         * Sets the connect timeout of every request. When it is not set, each request uses its
+         * retry policy timeout to connect.
+         *
+         * @param timeout The timeout
+         * @param unit    The unit of the timeout
+         * @return This builder
+         */
+        public Builder setConnectTimeout(long timeout, TimeUnit unit) {
+            if (timeout < 0) {
+                throw new IllegalArgumentException("timeout < 0");
+            }
+            mConnectTimeoutMs = unit.toMillis(timeout);
+            return this;
+        }
+
+        /**
+         * Sets the write timeout of every request.
+         *
+         * @param timeout The timeout
+         * @param unit    The unit of the timeout
+         * @return This builder
+         */
+        public Builder setWriteTimeout(long timeout, TimeUnit unit) {
+            if (timeout < 0) {
+                throw new IllegalArgumentException("timeout < 0");
+            }
+            mWriteTimeoutMs = unit.toMillis(timeout);
+            return this;
+        }
+
+        /**
+         * Sets the initial timeout of the requests that don't set their own retry policy. It
+         * is used as the read timeout, and as the
+         * connect timeout when that one is not set.
+         *
+         * @param timeout The timeout
+         * @param unit    The unit of the timeout
+         * @return This builder
+         */
+        public Builder setRequestTimeout(long timeout, TimeUnit unit) {
+            if (timeout <= 0) {
+                throw new IllegalArgumentException("timeout <= 0");
+            }
+            mRequestTimeoutMs = (int) unit.toMillis(timeout);
+            return this;
+        }
+
+        /**
+         * Sets the number of network dispatcher threads, that is, how many requests are
+         * performed concurrently.
+         *
+         * @param networkThreadPoolSize The number of threads
+         * @return This builder
+         */
+        public Builder setNetworkThreadPoolSize(int networkThreadPoolSize) {
+            if (networkThreadPoolSize <= 0) {
+                throw new IllegalArgumentException("networkThreadPoolSize <= 0");
+            }
+            mNetworkThreadPoolSize = networkThreadPoolSize;
+            return this;
+        }
+
+        /**
+         * Sets whether the number of concurrent requests scales with the CPU cores and the type of
+         * the active network (see {@link AdaptiveNetwork}). When enabled, the network thread pool
+         * size is ignored. The app needs the {@code ACCESS_NETWORK_STATE} permission, which is
+         * declared in the library manifest.
+         *
+         * @param adaptiveNetworkThreads True to adapt the concurrency to the device and network
+         * @return This builder
+         */
+        public Builder setAdaptiveNetworkThreads(boolean adaptiveNetworkThreads) {
+            mAdaptiveNetworkThreads = adaptiveNetworkThreads;
+            return this;
+        }
+
+        /**
+         * Sets the maximum size of the response cache, not counting its partitions.
+         *
+         * @param cacheMaxBytes The maximum size in bytes
+         * @return This builder
+         */
+        public Builder setCacheMaxBytes(long cacheMaxBytes) {
+            if (cacheMaxBytes <= 0) {
+                throw new IllegalArgumentException("cacheMaxBytes <= 0");
+            }
+            mCacheMaxBytes = cacheMaxBytes;
+            return this;
+        }
+
+        /**
+         * Sets the eviction policy of the response cache, not counting its partitions. The
+         * default is {@link EvictionPolicy#LRU}.
+         *
+         * @param cacheEvictionPolicy The eviction policy
+         * @return This builder
+         */
+        public Builder setCacheEvictionPolicy(EvictionPolicy cacheEvictionPolicy) {
+            if (cacheEvictionPolicy == null) {
+                throw new NullPointerException("cacheEvictionPolicy must not be null");
+            }
+            mCacheEvictionPolicy = cacheEvictionPolicy;
+            return this;
+        }
+
+        /**
+         * Adds a partition to the response cache. Responses of the requests added with the tag of
+         * the partition, see {@link VolleyManager#addToRequestQueue(com.android.volley.Request,
+         * Object)}, are stored in it instead of the default one.
+         *
+         * @param partition The partition
+         * @return This builder
+         */
+        public Builder addCachePartition(CachePartition partition) {
+            mCachePartitions.put(partition.getTag(), partition);
+            return this;
+        }
+
+        /**
+         * Sets the maximum size of the cache partition where the encoded images loaded by the
+         * {@link VolleyManager#getImageLoader()} are kept, so they are decoded again from disk
+         * instead of being downloaded when they are evicted from memory. Images are kept for at
+         * least a day even if the server doesn't allow caching them.
+         *
+         * @param imageCacheMaxBytes The maximum size in bytes, or 0 to keep the images with the
+         *                           rest of the responses
+         * @return This builder
+         */
+        public Builder setImageCacheMaxBytes(long imageCacheMaxBytes) {
+            if (imageCacheMaxBytes < 0) {
+                throw new IllegalArgumentException("imageCacheMaxBytes < 0");
+            }
+            mImageCacheMaxBytes = imageCacheMaxBytes;
+            return this;
+        }
+
+        /**
+         * Sets whether images without alpha, that is JPEG images, are decoded as RGB_565, which
+         * uses half the memory of ARGB_8888. Images with alpha are always decoded as ARGB_8888.
+         * The default is true, like {com.android.volley.toolbox.ImageLoader} does.
+         *
+         * @param preferRgb565Images True to decode images without alpha as RGB_565
+         * @return This builder
+         */
+        public Builder setPreferRgb565Images(boolean preferRgb565Images) {
+            mPreferRgb565Images = preferRgb565Images;
+            return this;
+        }
+
+        /**
+         * Sets whether the response cache, and its partitions, keep their entries in a journal
+         * with a memory mapped index (see {@link cl.magnet.magnetrestclient.cache.JournalCache})
+         * instead of a file per entry. It makes the cold start faster when the cache has many
+         * entries. The entries cached with the other implementation are not migrated.
+         *
+         * @param journaledCache True to use the journaled cache
+         * @return This builder
+         */
+        public Builder setJournaledCache(boolean journaledCache) {
+            mJournaledCache = journaledCache;
+            return this;
+        }
+
+        /**
+         * Sets whether identical GET requests added while one of them is in flight are merged
+         * into a single network call (see {@link RequestCoalescer}). Their listeners receive the
+         * same parsed response, so they must not modify it.
+         *
+         * @param requestCoalescing True to coalesce identical requests
+         * @return This builder
+         */
+        public Builder setRequestCoalescing(boolean requestCoalescing) {
+            mRequestCoalescing = requestCoalescing;
+            return this;
+        }
+
+        /**
+         * Sets whether the cookies are saved to a file, so they persist between application
+         * sessions (see {@link cl.magnet.magnetrestclient.utils.PersistentCookieStore}), or only
+         * kept in memory (see {@link cl.magnet.magnetrestclient.utils.ConcurrentCookieStore}).
+         * They are saved by default.
+         *
+         * @param persistentCookies True to save the cookies
+         * @return This builder
+         */
+        public Builder setPersistentCookies(boolean persistentCookies) {
+            mPersistentCookies = persistentCookies;
+            return this;
+        }
+
+        /**
+         * Sets whether mutating requests can be added to an {@link Outbox} with
+         * {@link VolleyManager#addToOutbox(com.android.volley.toolbox.JsonRequest)}. The outbox
+         * saves them and sends them in order when there is an internet connection, in batches
+         * if a batch endpoint is set. The requests left by a previous session are sent when
+         * VolleyManager is created.
+         *
+         * @param offlineOutbox True to enable the outbox
+         * @return This builder
+         */
+        public Builder setOfflineOutbox(boolean offlineOutbox) {
+            mOfflineOutbox = offlineOutbox;
+            return this;
+        }
+
+        /**
+         * Sets whether {@link VolleyManager} builds the networking stack (cookie store, request
+         * queue, caches and user agent) in a background thread, so
+         * {@link VolleyManager#init(android.content.Context, VolleyManagerConfig)} returns right
+         * away when it is called from {@code Application.onCreate()}. The requests added before
+         * the stack is ready are queued as soon as it is, and the methods that return its
+         * components wait for it.
+         *
+         * @param asyncInitialization True to initialize VolleyManager in the background
+         * @return This builder
+         */
+        public Builder setAsyncInitialization(boolean asyncInitialization) {
+            mAsyncInitialization = asyncInitialization;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of retries of the requests that don't set their own retry
+         * policy. They use an {@link AdaptiveRetryPolicy}.
+         *
+         * @param maxRetries The maximum number of retries
+         * @return This builder
+         */
+        public Builder setMaxRetries(int maxRetries) {
+            if (maxRetries < 0) {
+                throw new IllegalArgumentException("maxRetries < 0");
+            }
+            mMaxRetries = maxRetries;
+            return this;
+        }
+
+        /**
+         * Sets the backoff between retries. It starts at the minimum, doubles on every retry up
+         * to the maximum, and the actual wait is a random time up to it.
+         *
+         * @param minBackoff The backoff before the first retry
+         * @param maxBackoff The maximum backoff
+         * @param unit       The unit of the backoffs
+         * @return This builder
+         */
+        public Builder setRetryBackoff(long minBackoff, long maxBackoff, TimeUnit unit) {
+            if (minBackoff < 0 || maxBackoff < minBackoff) {
+                throw new IllegalArgumentException("Invalid backoff: " + minBackoff + ", "
+                        + maxBackoff);
+            }
+            mMinRetryBackoffMs = unit.toMillis(minBackoff);
+            mMaxRetryBackoffMs = unit.toMillis(maxBackoff);
+            return this;
+        }
+
+        /**
+         * Sets the maximum ratio of retries to requests, e.g: 0.1 for 10%. Retries beyond it
+         * are not made, so a backend that fails doesn't receive a retry storm (see
+         * {@link RetryBudget}).
+         *
+         * @param retryBudgetRatio The ratio
+         * @return This builder
+         */
+        public Builder setRetryBudgetRatio(float retryBudgetRatio) {
+            if (retryBudgetRatio < 0) {
+                throw new IllegalArgumentException("retryBudgetRatio < 0");
+            }
+            mRetryBudgetRatio = retryBudgetRatio;
+            return this;
+        }
+
+        /**
+         * Sets when the circuit of a host opens and for how long. While it is open, the
+         * requests to the host fail without being sent (see {@link HostCircuitBreaker}).
+         *
+         * @param failureThreshold The number of consecutive failures that open the circuit
+         * @param openDuration     How long the circuit stays open
+         * @param unit             The unit of the duration
+         * @return This builder
+         */
+        public Builder setCircuitBreaker(int failureThreshold, long openDuration,
+                                         TimeUnit unit) {
+            if (failureThreshold < 1) {
+                throw new IllegalArgumentException("failureThreshold < 1");
+            }
+            mCircuitFailureThreshold = failureThreshold;
+            mCircuitOpenDurationMs = unit.toMillis(openDuration);
+            return this;
+        }
+
+        /**
+         * Sets the rate of failed or slow requests among the last ones to a host that opens its
+         * circuit (see {@link HostCircuitBreaker}).
+         *
+         * @param failureRate         The rate, between 0 (exclusive) and 1
+         * @param slowRequestDuration How long a request must take to be slow
+         * @param unit                The unit of the duration
+         * @return This builder
+         */
+        public Builder setCircuitFailureRate(float failureRate, long slowRequestDuration,
+                                             TimeUnit unit) {
+            if (failureRate <= 0 || failureRate > 1) {
+                throw new IllegalArgumentException("failureRate must be in (0, 1]");
+            }
+            mCircuitFailureRate = failureRate;
+            mCircuitSlowRequestMs = unit.toMillis(slowRequestDuration);
+            return this;
+        }
+
+        /**
+         * Sets the batch endpoint of the backend. The JSON requests to its host added within the
+         * batch window are sent to it in a single POST (see {@link BatchScheduler} and
+         * {@link cl.magnet.magnetrestclient.requests.BatchRequest} for the format). GET requests
+         * are only batched when they are not cached. By default requests are not batched.
+         *
+         * @param batchUrl The url of the batch endpoint, or null to not batch requests
+         * @return This builder
+         */
+        public Builder setBatchUrl(String batchUrl) {
+            mBatchUrl = batchUrl;
+            return this;
+        }
+
+        /**
+         * Sets how long requests are collected before being sent in a batch. A longer window
+         * packs more requests per round trip, but delays the first one.
+         *
+         * @param window The batch window
+         * @param unit   The unit of the window
+         * @return This builder
+         */
+        public Builder setBatchWindow(long window, TimeUnit unit) {
+            if (window < 0) {
+                throw new IllegalArgumentException("window < 0");
+            }
+            mBatchWindowMs = unit.toMillis(window);
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of requests sent in a batch. When it is reached, the batch is
+         * sent without waiting for the window to end.
+         *
+         * @param maxBatchSize The maximum number of requests in a batch
+         * @return This builder
+         */
+        public Builder setMaxBatchSize(int maxBatchSize) {
+            if (maxBatchSize < 2) {
+                throw new IllegalArgumentException("maxBatchSize < 2");
+            }
+            mMaxBatchSize = maxBatchSize;
+            return this;
+        }
+
+        /**
+         * @return The configuration
+         */
+        public VolleyManagerConfig build() {
+            return new VolleyManagerConfig(this);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Lukas Zorich, Magnet.cl
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package cl.magnet.magnetrestclient.cache;
+
+import com.android.volley.Cache;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The metadata of a cache entry, written before its data by {@link FileCache} and
+ * {@link JournalCache}.
+ */
+class CacheHeader {
+
+    /**
+     * Magic number of the cache records. Files without it, e.g: the ones written by
+     * {com.android.volley.toolbox.DiskBasedCache}, are deleted on initialization.
+     */
+    static final int CACHE_MAGIC = 0x4d524301;
+
+    final String key;
+    final String etag;
+    final long serverDate;
+    final long lastModified;
+    final long ttl;
+    final long softTtl;
+    final Map<String, String> responseHeaders;
+
+    CacheHeader(String key, Cache.Entry entry, long ttl) {
+        this(key, entry.etag, entry.serverDate, entry.lastModified, ttl, entry.softTtl,
+                entry.responseHeaders);
+    }
+
+    CacheHeader(String key, String etag, long serverDate, long lastModified, long ttl,
+                long softTtl, Map<String, String> responseHeaders) {
+        this.key = key;
+        this.etag = etag;
+        this.serverDate = serverDate;
+        this.lastModified = lastModified;
+        this.ttl = ttl;
+        this.softTtl = softTtl;
+        this.responseHeaders = responseHeaders == null
+                ? Collections.<String, String>emptyMap() : responseHeaders;
+    }
+
+    static CacheHeader read(DataInputStream in) throws IOException {
+        if (in.readInt() != CACHE_MAGIC) {
+            throw new IOException("Not a cache record");
+        }
+        String key = in.readUTF();
+        String etag = in.readUTF();
+        long serverDate = in.readLong();
+        long lastModified = in.readLong();
+        long ttl = in.readLong();
+        long softTtl = in.readLong();
+        int headerCount = in.readInt();
+        Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (int i = 0; i < headerCount; i++) {
+            headers.put(in.readUTF(), in.readUTF());
+        }
+        return new CacheHeader(key, etag.isEmpty() ? null : etag, serverDate, lastModified, ttl,
+                softTtl, headers);
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(CACHE_MAGIC);
+        out.writeUTF(key);
+        out.writeUTF(etag == null ? "" : etag);
+        out.writeLong(serverDate);
+        out.writeLong(lastModified);
+        out.writeLong(ttl);
+        out.writeLong(softTtl);
+        out.writeInt(responseHeaders.size());
+        for (Map.Entry<String, String> header : responseHeaders.entrySet()) {
+            out.writeUTF(header.getKey());
+            out.writeUTF(header.getValue());
+        }
+    }
+
+    Cache.Entry toEntry(byte[] data) {
+        Cache.Entry entry = new Cache.Entry();
+        entry.data = data;
+        entry.etag = etag;
+        entry.serverDate = serverDate;
+        entry.lastModified = lastModified;
+        entry.ttl = ttl;
+        entry.softTtl = softTtl;
+        entry.responseHeaders = responseHeaders;
+        return entry;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Lukas Zorich, Magnet.cl
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package cl.magnet.magnetrestclient.cache;
+
+/**
+ * Describes a partition of the response cache. Responses of requests added to the
+ * {@link cl.magnet.magnetrestclient.VolleyManager} with the tag of a partition are stored in
+ * that partition, so they are evicted independently of the rest of the responses.
+ */
+public final class CachePartition {
+
+    private final String mTag;
+    private final long mMaxBytes;
+    private final EvictionPolicy mEvictionPolicy;
+    private final long mMinTtlMs;
+
+    /**
+     * @param tag            The tag of the requests stored in the partition
+     * @param maxBytes       The maximum size of the partition in bytes
+     * @param evictionPolicy The eviction policy of the partition
+     */
+    public CachePartition(String tag, long maxBytes, EvictionPolicy evictionPolicy) {
+        this(tag, maxBytes, evictionPolicy, 0);
+    }
+
+    /**
+     * @param tag            The tag of the requests stored in the partition
+     * @param maxBytes       The maximum size of the partition in bytes
+     * @param evictionPolicy The eviction policy of the partition
+     * @param minTtlMs       The minimum time the responses are kept, in milliseconds, even if
+     *                       the server doesn't allow caching them. See
+     *                       {@link FileCache#FileCache(java.io.File, long, EvictionPolicy, long)}.
+     */
+    public CachePartition(String tag, long maxBytes, EvictionPolicy evictionPolicy,
+                          long minTtlMs) {
+        if (tag == null || evictionPolicy == null) {
+            throw new NullPointerException("tag and evictionPolicy must not be null");
+        }
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes <= 0");
+        }
+        if (minTtlMs < 0) {
+            throw new IllegalArgumentException("minTtlMs < 0");
+        }
+        mTag = tag;
+        mMaxBytes = maxBytes;
+        mEvictionPolicy = evictionPolicy;
+        mMinTtlMs = minTtlMs;
+    }
+
+    public String getTag() {
+        return mTag;
+    }
+
+    public long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    public EvictionPolicy getEvictionPolicy() {
+        return mEvictionPolicy;
+    }
+
+    public long getMinTtlMs() {
+        return mMinTtlMs;
+    }
+}
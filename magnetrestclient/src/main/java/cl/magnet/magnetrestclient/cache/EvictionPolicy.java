@@ -0,0 +1,117 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Lukas Zorich, Magnet.cl
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package cl.magnet.magnetrestclient.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The policy used by {@link FileCache} to choose which entry is evicted when the cache is full.
+ */
+public enum EvictionPolicy {
+
+    /**
+     * Evicts the least recently used entry.
+     */
+    LRU,
+
+    /**
+     * Evicts the least frequently used entry. Ties are broken by evicting the least recently
+     * used one.
+     */
+    LFU,
+
+    /**
+     * Evicts expired entries first, then the entry that expires the soonest. Entries that the
+     * server allows to be cached for longer are kept over short lived ones.
+     */
+    TTL_WEIGHTED;
+
+    /**
+     * Chooses the entries to evict in a single pass: the entries are sorted once by the policy,
+     * instead of being scanned again for every victim.
+     *
+     * @param entries     The entries in access order, the least recently used first
+     * @param excludedKey The key of an entry that must not be evicted, usually the one just
+     *                    written. Otherwise LFU would always evict it, since it has no hits yet.
+     * @param bytes       The number of bytes to free
+     * @return The keys of the entries to evict, in eviction order
+     */
+    List<String> selectVictims(LinkedHashMap<String, ? extends CacheEntryInfo> entries,
+                               String excludedKey, long bytes) {
+        List<Map.Entry<String, ? extends CacheEntryInfo>> candidates = new ArrayList<>();
+        long candidateBytes = 0;
+        for (Map.Entry<String, ? extends CacheEntryInfo> candidate : entries.entrySet()) {
+            if (candidate.getKey().equals(excludedKey)) {
+                continue;
+            }
+            candidates.add(candidate);
+            candidateBytes += candidate.getValue().size;
+            if (this == LRU && candidateBytes >= bytes) {
+                // the least recently used entries free enough space
+                break;
+            }
+        }
+
+        if (this != LRU) {
+            // the sort is stable, so ties keep the least recently used entry first
+            Collections.sort(candidates, getComparator(System.currentTimeMillis()));
+        }
+
+        List<String> victims = new ArrayList<>();
+        long freed = 0;
+        for (Map.Entry<String, ? extends CacheEntryInfo> candidate : candidates) {
+            if (freed >= bytes) {
+                break;
+            }
+            victims.add(candidate.getKey());
+            freed += candidate.getValue().size;
+        }
+        return victims;
+    }
+
+    private Comparator<Map.Entry<String, ? extends CacheEntryInfo>> getComparator(
+            final long now) {
+        return new Comparator<Map.Entry<String, ? extends CacheEntryInfo>>() {
+            @Override
+            public int compare(Map.Entry<String, ? extends CacheEntryInfo> lhs,
+                               Map.Entry<String, ? extends CacheEntryInfo> rhs) {
+                if (EvictionPolicy.this == LFU) {
+                    return compareLongs(lhs.getValue().hits, rhs.getValue().hits);
+                }
+                return compareLongs(lhs.getValue().remainingTtl(now),
+                        rhs.getValue().remainingTtl(now));
+            }
+        };
+    }
+
+    private static int compareLongs(long lhs, long rhs) {
+        return lhs < rhs ? -1 : (lhs == rhs ? 0 : 1);
+    }
+}
@@ -0,0 +1,394 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Lukas Zorich, Magnet.cl
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package cl.magnet.magnetrestclient.cache;
+
+import android.os.SystemClock;
+
+import com.android.volley.VolleyLog;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * A {@link ManagedCache} that stores each response in its own file, like
+ * {com.android.volley.toolbox.DiskBasedCache}, but with a configurable eviction policy, hit,
+ * miss and eviction counters and an optional minimum time to live.
+ *
+ * The index of the entries is kept in memory and rebuilt by {@link #initialize()} from the
+ * files, so the responses of a previous run are available on a cold start.
+ */
+public class FileCache implements ManagedCache {
+
+    /**
+     * When the cache is full, entries are evicted until it is at this ratio of its maximum size,
+     * so an eviction doesn't happen on every put.
+     */
+    private static final float HYSTERESIS_FACTOR = 0.9f;
+
+    private final File mRootDirectory;
+    private final long mMaxBytes;
+    private final EvictionPolicy mEvictionPolicy;
+    private final long mMinTtlMs;
+    private final CacheStats mStats = new CacheStats();
+
+    /**
+     * The entries in access order, the least recently used first.
+     */
+    private final LinkedHashMap<String, CacheEntryInfo> mEntries = new LinkedHashMap<>(16, .75f,
+            true);
+    private long mTotalBytes;
+
+    /**
+     * @param rootDirectory  The directory of the cache files
+     * @param maxBytes       The maximum size of the cache in bytes
+     * @param evictionPolicy The eviction policy
+     */
+    public FileCache(File rootDirectory, long maxBytes, EvictionPolicy evictionPolicy) {
+        this(rootDirectory, maxBytes, evictionPolicy, 0);
+    }
+
+    /**
+     * @param rootDirectory  The directory of the cache files
+     * @param maxBytes       The maximum size of the cache in bytes
+     * @param evictionPolicy The eviction policy
+     * @param minTtlMs       The minimum time an entry is kept, in milliseconds. Entries that the
+     *                       server doesn't allow to be cached for this long are stored with this
+     *                       time to live but keep their soft time to live, so they are shown
+     *                       right away and refreshed from the network.
+     */
+    public FileCache(File rootDirectory, long maxBytes, EvictionPolicy evictionPolicy,
+                     long minTtlMs) {
+        if (evictionPolicy == null) {
+            throw new NullPointerException("evictionPolicy must not be null");
+        }
+        mRootDirectory = rootDirectory;
+        mMaxBytes = maxBytes;
+        mEvictionPolicy = evictionPolicy;
+        mMinTtlMs = minTtlMs;
+    }
+
+    @Override
+    public synchronized void initialize() {
+        if (!mRootDirectory.exists()) {
+            if (!mRootDirectory.mkdirs()) {
+                VolleyLog.e("Unable to create cache dir %s", mRootDirectory.getAbsolutePath());
+            }
+            return;
+        }
+
+        File[] files = mRootDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        List<LoadedEntry> loaded = new ArrayList<>(files.length);
+        for (File file : files) {
+            if (!file.isFile()) {
+                continue;
+            }
+            DataInputStream in = null;
+            try {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+                CacheHeader header = CacheHeader.read(in);
+                loaded.add(new LoadedEntry(header.key, new CacheEntryInfo(file.length(),
+                        header.ttl), file.lastModified()));
+            } catch (IOException e) {
+                // unknown or corrupt file
+                deleteFile(file);
+            } finally {
+                closeQuietly(in);
+            }
+        }
+
+        // the most recently written files are the most recently used ones we know of
+        Collections.sort(loaded, new Comparator<LoadedEntry>() {
+            @Override
+            public int compare(LoadedEntry lhs, LoadedEntry rhs) {
+                return lhs.lastModified < rhs.lastModified ? -1
+                        : (lhs.lastModified == rhs.lastModified ? 0 : 1);
+            }
+        });
+        for (LoadedEntry entry : loaded) {
+            putEntryInfo(entry.key, entry.info);
+        }
+    }
+
+    @Override
+    public synchronized Entry get(String key) {
+        Entry entry = read(key);
+        if (entry == null) {
+            mStats.recordMiss();
+        } else {
+            mStats.recordHit();
+            mEntries.get(key).hits++;
+        }
+
+        return entry;
+    }
+
+    @Override
+    public synchronized void put(String key, Entry entry) {
+        if (entry.data.length > mMaxBytes) {
+            // it would evict every other entry and then itself
+            remove(key);
+            return;
+        }
+
+        // the caller's entry is not modified
+        write(key, entry, getTtl(entry));
+    }
+
+    @Override
+    public synchronized void invalidate(String key, boolean fullExpire) {
+        Entry entry = read(key);
+        if (entry != null) {
+            entry.softTtl = 0;
+            if (fullExpire) {
+                entry.ttl = 0;
+            }
+            // without the minimum ttl, which would undo the invalidation
+            write(key, entry, entry.ttl);
+        }
+    }
+
+    /**
+     * Writes an entry with the specified ttl, and evicts entries if the cache doesn't fit.
+     */
+    private void write(String key, Entry entry, long ttl) {
+        File file = getFileForKey(key);
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            new CacheHeader(key, entry, ttl).write(out);
+            out.writeInt(entry.data.length);
+            out.write(entry.data);
+            out.close();
+            out = null;
+        } catch (IOException e) {
+            VolleyLog.d("Could not write cache entry %s: %s", key, e);
+            closeQuietly(out);
+            deleteFile(file);
+            removeEntryInfo(key);
+            return;
+        }
+
+        int hits = removeEntryInfo(key);
+        CacheEntryInfo info = new CacheEntryInfo(file.length(), ttl);
+        info.hits = hits;
+        putEntryInfo(key, info);
+        pruneIfNeeded(key);
+    }
+
+    @Override
+    public synchronized void remove(String key) {
+        deleteFile(getFileForKey(key));
+        removeEntryInfo(key);
+    }
+
+    @Override
+    public synchronized void clear() {
+        File[] files = mRootDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                deleteFile(file);
+            }
+        }
+        mEntries.clear();
+        mTotalBytes = 0;
+        VolleyLog.d("Cache cleared.");
+    }
+
+    @Override
+    public synchronized boolean contains(String key) {
+        return mEntries.containsKey(key);
+    }
+
+    @Override
+    public synchronized long getSizeBytes() {
+        return mTotalBytes;
+    }
+
+    @Override
+    public long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    @Override
+    public CacheStats getStats() {
+        return mStats;
+    }
+
+    /**
+     * @return The eviction policy of the cache
+     */
+    public EvictionPolicy getEvictionPolicy() {
+        return mEvictionPolicy;
+    }
+
+    /**
+     * @return The cache keys, the least recently used first
+     */
+    public synchronized List<String> getKeys() {
+        return new ArrayList<>(mEntries.keySet());
+    }
+
+    /**
+     * Reads an entry without updating the counters.
+     */
+    private Entry read(String key) {
+        if (!mEntries.containsKey(key)) {
+            return null;
+        }
+
+        File file = getFileForKey(key);
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            CacheHeader header = CacheHeader.read(in);
+            if (!key.equals(header.key)) {
+                // another key with the same file name replaced the entry
+                removeEntryInfo(key);
+                return null;
+            }
+            byte[] data = new byte[in.readInt()];
+            in.readFully(data);
+            return header.toEntry(data);
+        } catch (IOException e) {
+            VolleyLog.d("Could not read cache entry %s: %s", key, e);
+            remove(key);
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Evicts entries, as chosen by the eviction policy, until the cache fits its maximum size.
+     *
+     * @param newKey The key of the entry just written, which is never evicted
+     */
+    private void pruneIfNeeded(String newKey) {
+        if (mTotalBytes <= mMaxBytes) {
+            return;
+        }
+
+        long before = mTotalBytes;
+        int evicted = 0;
+        long startTime = SystemClock.elapsedRealtime();
+        long bytesToFree = mTotalBytes - (long) (mMaxBytes * HYSTERESIS_FACTOR);
+        for (String key : mEvictionPolicy.selectVictims(mEntries, newKey, bytesToFree)) {
+            deleteFile(getFileForKey(key));
+            removeEntryInfo(key);
+            mStats.recordEviction();
+            evicted++;
+        }
+
+        if (VolleyLog.DEBUG) {
+            VolleyLog.v("pruned %d files, %d bytes, %d ms", evicted, before - mTotalBytes,
+                    SystemClock.elapsedRealtime() - startTime);
+        }
+    }
+
+    /**
+     * @return The ttl of the entry, extended to the minimum ttl of the cache
+     */
+    private long getTtl(Entry entry) {
+        return mMinTtlMs > 0 ? Math.max(entry.ttl, System.currentTimeMillis() + mMinTtlMs)
+                : entry.ttl;
+    }
+
+    private void putEntryInfo(String key, CacheEntryInfo info) {
+        CacheEntryInfo previous = mEntries.put(key, info);
+        if (previous != null) {
+            mTotalBytes -= previous.size;
+        }
+        mTotalBytes += info.size;
+    }
+
+    /**
+     * @return The hits of the removed entry, or 0 if there was none
+     */
+    private int removeEntryInfo(String key) {
+        CacheEntryInfo info = mEntries.remove(key);
+        if (info == null) {
+            return 0;
+        }
+        mTotalBytes -= info.size;
+        return info.hits;
+    }
+
+    /**
+     * Creates a pseudo-unique filename for the specified cache key, the same way
+     * {com.android.volley.toolbox.DiskBasedCache} does.
+     */
+    private File getFileForKey(String key) {
+        int firstHalfLength = key.length() / 2;
+        String fileName = String.valueOf(key.substring(0, firstHalfLength).hashCode());
+        fileName += String.valueOf(key.substring(firstHalfLength).hashCode());
+        return new File(mRootDirectory, fileName);
+    }
+
+    private static void deleteFile(File file) {
+        if (file.exists() && !file.delete()) {
+            VolleyLog.d("Could not delete cache file %s", file.getAbsolutePath());
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * An entry read by {@link #initialize()}, before it is added in access order.
+     */
+    private static class LoadedEntry {
+        final String key;
+        final CacheEntryInfo info;
+        final long lastModified;
+
+        LoadedEntry(String key, CacheEntryInfo info, long lastModified) {
+            this.key = key;
+            this.info = info;
+            this.lastModified = lastModified;
+        }
+    }
+}
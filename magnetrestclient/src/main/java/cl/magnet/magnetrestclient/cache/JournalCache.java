@@ -0,0 +1,627 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Lukas Zorich, Magnet.cl
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package cl.magnet.magnetrestclient.cache;
+
+import android.os.SystemClock;
+
+import com.android.volley.VolleyLog;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+/**
+ * A {@link ManagedCache} that appends every entry to a single journal file and keeps an index
+ * of the entries in a second file, so {@link #initialize()} only reads the index, which is
+ * memory mapped, instead of the header of every entry like
+ * {com.android.volley.toolbox.DiskBasedCache} and {@link FileCache} do.
+ *
+ * Both files are append-only: a put appends the entry to the journal and a record with its
+ * offset and CRC to the index, and a removal appends a record to the index. Both files start
+ * with the same generation, so an index is never replayed against another journal, and entries
+ * whose record doesn't match its CRC, e.g: the journal was not flushed before a crash, are
+ * dropped when read.
+ *
+ * The space of replaced and removed entries is reclaimed by compacting both files once the
+ * journal is twice the size of the live entries. The compaction runs in the put that triggers
+ * it, which holds the lock of the cache meanwhile, so the other reads and writes of the cache
+ * wait for it. It copies the live entries once, so it takes about as long as reading the whole
+ * cache, and it happens on the network dispatcher threads, never on the main thread.
+ */
+public class JournalCache implements ManagedCache {
+
+    static final String JOURNAL_FILE = "journal";
+    static final String INDEX_FILE = "index";
+
+    private static final int JOURNAL_MAGIC = 0x4d524a4a;
+    private static final int INDEX_MAGIC = 0x4d524a02;
+    /**
+     * The size of the header of both files: the magic number and the generation.
+     */
+    private static final int HEADER_SIZE = 4 + 8;
+    private static final byte OP_PUT = 1;
+    private static final byte OP_REMOVE = 2;
+
+    /**
+     * The journal is not compacted until it has at least this size.
+     */
+    private static final long MIN_COMPACTION_BYTES = 1024 * 1024;
+
+    /**
+     * When the cache is full, entries are evicted until it is at this ratio of its maximum size,
+     * so an eviction doesn't happen on every put.
+     */
+    private static final float HYSTERESIS_FACTOR = 0.9f;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File mRootDirectory;
+    private final long mMaxBytes;
+    private final EvictionPolicy mEvictionPolicy;
+    private final long mMinTtlMs;
+    private final CacheStats mStats = new CacheStats();
+
+    /**
+     * The entries in access order, the least recently used first.
+     */
+    private final LinkedHashMap<String, JournalEntryInfo> mEntries = new LinkedHashMap<>(16,
+            .75f, true);
+    private long mTotalBytes;
+
+    private RandomAccessFile mJournal;
+    private FileOutputStream mIndex;
+    /**
+     * The generation of the journal and index files. It changes every time they are replaced.
+     */
+    private long mGeneration;
+
+    /**
+     * @param rootDirectory  The directory of the journal and index files
+     * @param maxBytes       The maximum size of the live entries in bytes
+     * @param evictionPolicy The eviction policy
+     */
+    public JournalCache(File rootDirectory, long maxBytes, EvictionPolicy evictionPolicy) {
+        this(rootDirectory, maxBytes, evictionPolicy, 0);
+    }
+
+    /**
+     * @param rootDirectory  The directory of the journal and index files
+     * @param maxBytes       The maximum size of the live entries in bytes
+     * @param evictionPolicy The eviction policy
+     * @param minTtlMs       The minimum time an entry is kept, in milliseconds. See
+     *                       {@link FileCache#FileCache(File, long, EvictionPolicy, long)}.
+     */
+    public JournalCache(File rootDirectory, long maxBytes, EvictionPolicy evictionPolicy,
+                        long minTtlMs) {
+        if (evictionPolicy == null) {
+            throw new NullPointerException("evictionPolicy must not be null");
+        }
+        mRootDirectory = rootDirectory;
+        mMaxBytes = maxBytes;
+        mEvictionPolicy = evictionPolicy;
+        mMinTtlMs = minTtlMs;
+    }
+
+    @Override
+    public synchronized void initialize() {
+        if (!mRootDirectory.exists() && !mRootDirectory.mkdirs()) {
+            VolleyLog.e("Unable to create cache dir %s", mRootDirectory.getAbsolutePath());
+            return;
+        }
+
+        File journalFile = new File(mRootDirectory, JOURNAL_FILE);
+        File indexFile = new File(mRootDirectory, INDEX_FILE);
+        try {
+            if (indexFile.exists()) {
+                readIndex(indexFile, journalFile);
+            } else {
+                // a journal without its index can't be read
+                deleteFile(journalFile);
+                mGeneration = newGeneration();
+            }
+            openFiles();
+        } catch (IOException e) {
+            VolleyLog.d("Could not read the cache index: %s", e);
+            // start over with an empty cache
+            closeFiles();
+            mEntries.clear();
+            mTotalBytes = 0;
+            deleteFile(journalFile);
+            deleteFile(indexFile);
+            mGeneration = newGeneration();
+            try {
+                openFiles();
+            } catch (IOException e1) {
+                VolleyLog.e("Could not create the cache files: %s", e1);
+                closeFiles();
+            }
+        }
+    }
+
+    @Override
+    public synchronized Entry get(String key) {
+        Entry entry = read(key);
+        if (entry == null) {
+            mStats.recordMiss();
+        } else {
+            mStats.recordHit();
+            mEntries.get(key).hits++;
+        }
+
+        return entry;
+    }
+
+    @Override
+    public synchronized void put(String key, Entry entry) {
+        if (mJournal == null || entry.data.length > mMaxBytes) {
+            remove(key);
+            return;
+        }
+
+        // the caller's entry is not modified
+        write(key, entry, mMinTtlMs > 0
+                ? Math.max(entry.ttl, System.currentTimeMillis() + mMinTtlMs) : entry.ttl);
+    }
+
+    @Override
+    public synchronized void invalidate(String key, boolean fullExpire) {
+        Entry entry = read(key);
+        if (entry != null) {
+            entry.softTtl = 0;
+            if (fullExpire) {
+                entry.ttl = 0;
+            }
+            // without the minimum ttl, which would undo the invalidation
+            write(key, entry, entry.ttl);
+        }
+    }
+
+    /**
+     * Appends an entry with the specified ttl, and evicts entries if the cache doesn't fit.
+     */
+    private void write(String key, Entry entry, long ttl) {
+        try {
+            byte[] record = toRecord(key, entry, ttl);
+            long offset = mJournal.length();
+            mJournal.seek(offset);
+            mJournal.write(record);
+
+            JournalEntryInfo previous = mEntries.remove(key);
+            JournalEntryInfo info = new JournalEntryInfo(offset, record.length, ttl,
+                    getCrc(record));
+            if (previous != null) {
+                mTotalBytes -= previous.size;
+                info.hits = previous.hits;
+            }
+            mEntries.put(key, info);
+            mTotalBytes += info.size;
+            // the index record is written after the data. Without a sync, the data may still
+            // be lost in a crash, which the CRC detects when the entry is read.
+            mIndex.write(toIndexRecord(OP_PUT, key, info));
+        } catch (IOException e) {
+            VolleyLog.d("Could not write cache entry %s: %s", key, e);
+            remove(key);
+            return;
+        }
+
+        pruneIfNeeded(key);
+        compactIfNeeded();
+    }
+
+    @Override
+    public synchronized void remove(String key) {
+        JournalEntryInfo info = mEntries.remove(key);
+        if (info == null) {
+            return;
+        }
+        mTotalBytes -= info.size;
+        try {
+            mIndex.write(toIndexRecord(OP_REMOVE, key, null));
+        } catch (IOException e) {
+            VolleyLog.d("Could not remove cache entry %s: %s", key, e);
+        }
+    }
+
+    @Override
+    public synchronized void clear() {
+        closeFiles();
+        deleteFile(new File(mRootDirectory, JOURNAL_FILE));
+        deleteFile(new File(mRootDirectory, INDEX_FILE));
+        mEntries.clear();
+        mTotalBytes = 0;
+        mGeneration = newGeneration();
+        try {
+            openFiles();
+        } catch (IOException e) {
+            VolleyLog.e("Could not create the cache files: %s", e);
+            closeFiles();
+        }
+        VolleyLog.d("Cache cleared.");
+    }
+
+    @Override
+    public synchronized boolean contains(String key) {
+        return mEntries.containsKey(key);
+    }
+
+    @Override
+    public synchronized long getSizeBytes() {
+        return mTotalBytes;
+    }
+
+    @Override
+    public long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    @Override
+    public CacheStats getStats() {
+        return mStats;
+    }
+
+    /**
+     * @return The size of the journal in bytes, including replaced and removed entries that
+     * were not compacted yet
+     */
+    public synchronized long getJournalBytes() {
+        try {
+            return mJournal == null ? 0 : mJournal.length();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Releases the files of the cache. It can be used again after calling
+     * {@link #initialize()}.
+     */
+    public synchronized void close() {
+        closeFiles();
+        mEntries.clear();
+        mTotalBytes = 0;
+    }
+
+    /**
+     * Rebuilds the entries by replaying the index records.
+     *
+     * @throws IOException If the index can't be read, or doesn't belong to the journal
+     */
+    private void readIndex(File indexFile, File journalFile) throws IOException {
+        long journalLength = journalFile.length();
+        RandomAccessFile file = new RandomAccessFile(indexFile, "r");
+        long validLength = 0;
+        try {
+            MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+                    file.length());
+            if (buffer.getInt() != INDEX_MAGIC) {
+                throw new IOException("Not a cache index");
+            }
+            mGeneration = buffer.getLong();
+            if (readJournalGeneration(journalFile) != mGeneration) {
+                // e.g: the process died while the compacted files replaced the old ones
+                throw new IOException("The cache index doesn't belong to the journal");
+            }
+            validLength = buffer.position();
+            try {
+                while (buffer.hasRemaining()) {
+                    byte op = buffer.get();
+                    byte[] keyBytes = new byte[buffer.getShort() & 0xffff];
+                    buffer.get(keyBytes);
+                    String key = new String(keyBytes, UTF_8);
+                    if (op == OP_PUT) {
+                        JournalEntryInfo info = new JournalEntryInfo(buffer.getLong(),
+                                buffer.getInt(), buffer.getLong(), buffer.getInt());
+                        if (info.offset + info.size > journalLength) {
+                            // the journal was truncated
+                            break;
+                        }
+                        JournalEntryInfo previous = mEntries.put(key, info);
+                        if (previous != null) {
+                            mTotalBytes -= previous.size;
+                        }
+                        mTotalBytes += info.size;
+                    } else if (op == OP_REMOVE) {
+                        JournalEntryInfo previous = mEntries.remove(key);
+                        if (previous != null) {
+                            mTotalBytes -= previous.size;
+                        }
+                    } else {
+                        throw new IOException("Unknown index record " + op);
+                    }
+                    validLength = buffer.position();
+                }
+            } catch (BufferUnderflowException e) {
+                // the last record was not completely written
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Empty cache index");
+        } finally {
+            closeQuietly(file);
+        }
+
+        if (validLength < indexFile.length()) {
+            // drop the incomplete record, so new records are not appended after it
+            RandomAccessFile truncated = new RandomAccessFile(indexFile, "rw");
+            try {
+                truncated.setLength(validLength);
+            } finally {
+                closeQuietly(truncated);
+            }
+        }
+    }
+
+    /**
+     * @return The generation of the journal file
+     * @throws IOException If the journal can't be read, or is not a cache journal
+     */
+    private static long readJournalGeneration(File journalFile) throws IOException {
+        RandomAccessFile journal = new RandomAccessFile(journalFile, "r");
+        try {
+            if (journal.length() < HEADER_SIZE || journal.readInt() != JOURNAL_MAGIC) {
+                throw new IOException("Not a cache journal");
+            }
+            return journal.readLong();
+        } finally {
+            closeQuietly(journal);
+        }
+    }
+
+    private void openFiles() throws IOException {
+        File indexFile = new File(mRootDirectory, INDEX_FILE);
+        boolean newIndex = !indexFile.exists() || indexFile.length() == 0;
+        mJournal = new RandomAccessFile(new File(mRootDirectory, JOURNAL_FILE), "rw");
+        if (mJournal.length() == 0) {
+            mJournal.write(toHeader(JOURNAL_MAGIC, mGeneration));
+        }
+        mIndex = new FileOutputStream(indexFile, true);
+        if (newIndex) {
+            mIndex.write(toHeader(INDEX_MAGIC, mGeneration));
+        }
+    }
+
+    private void closeFiles() {
+        closeQuietly(mJournal);
+        closeQuietly(mIndex);
+        mJournal = null;
+        mIndex = null;
+    }
+
+    /**
+     * Reads an entry without updating the counters.
+     */
+    private Entry read(String key) {
+        JournalEntryInfo info = mEntries.get(key);
+        if (info == null || mJournal == null) {
+            return null;
+        }
+
+        try {
+            byte[] record = new byte[(int) info.size];
+            mJournal.seek(info.offset);
+            mJournal.readFully(record);
+            if (getCrc(record) != info.crc) {
+                throw new IOException("Corrupt record");
+            }
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+            CacheHeader header = CacheHeader.read(in);
+            if (!key.equals(header.key)) {
+                throw new IOException("Index points to " + header.key);
+            }
+            byte[] data = new byte[in.readInt()];
+            in.readFully(data);
+            return header.toEntry(data);
+        } catch (IOException e) {
+            VolleyLog.d("Could not read cache entry %s: %s", key, e);
+            remove(key);
+            return null;
+        }
+    }
+
+    /**
+     * Evicts entries, as chosen by the eviction policy, until the cache fits its maximum size.
+     *
+     * @param newKey The key of the entry just written, which is never evicted
+     */
+    private void pruneIfNeeded(String newKey) {
+        if (mTotalBytes <= mMaxBytes) {
+            return;
+        }
+
+        long bytesToFree = mTotalBytes - (long) (mMaxBytes * HYSTERESIS_FACTOR);
+        for (String key : mEvictionPolicy.selectVictims(mEntries, newKey, bytesToFree)) {
+            remove(key);
+            mStats.recordEviction();
+        }
+    }
+
+    /**
+     * Rewrites the journal and the index with the live entries only, once the replaced and
+     * removed entries take as much space as the live ones.
+     */
+    private void compactIfNeeded() {
+        long journalBytes = getJournalBytes();
+        if (journalBytes < MIN_COMPACTION_BYTES || journalBytes < 2 * mTotalBytes) {
+            return;
+        }
+
+        long startTime = SystemClock.elapsedRealtime();
+        File journalFile = new File(mRootDirectory, JOURNAL_FILE);
+        File indexFile = new File(mRootDirectory, INDEX_FILE);
+        File newJournalFile = new File(mRootDirectory, JOURNAL_FILE + ".tmp");
+        File newIndexFile = new File(mRootDirectory, INDEX_FILE + ".tmp");
+        long generation = mGeneration + 1;
+        RandomAccessFile newJournal = null;
+        FileOutputStream newIndex = null;
+        try {
+            newJournal = new RandomAccessFile(newJournalFile, "rw");
+            newJournal.setLength(0);
+            newJournal.write(toHeader(JOURNAL_MAGIC, generation));
+            newIndex = new FileOutputStream(newIndexFile);
+            ByteArrayOutputStream indexBuffer = new ByteArrayOutputStream();
+            indexBuffer.write(toHeader(INDEX_MAGIC, generation));
+
+            LinkedHashMap<String, JournalEntryInfo> compacted = new LinkedHashMap<>(
+                    mEntries.size() * 2, .75f, true);
+            byte[] record = new byte[0];
+            long offset = HEADER_SIZE;
+            // iterating doesn't change the access order
+            for (Map.Entry<String, JournalEntryInfo> entry : mEntries.entrySet()) {
+                JournalEntryInfo info = entry.getValue();
+                if (record.length < info.size) {
+                    record = new byte[(int) info.size];
+                }
+                mJournal.seek(info.offset);
+                mJournal.readFully(record, 0, (int) info.size);
+                newJournal.write(record, 0, (int) info.size);
+
+                JournalEntryInfo newInfo = new JournalEntryInfo(offset, info.size, info.ttl,
+                        info.crc);
+                newInfo.hits = info.hits;
+                compacted.put(entry.getKey(), newInfo);
+                indexBuffer.write(toIndexRecord(OP_PUT, entry.getKey(), newInfo));
+                offset += info.size;
+            }
+            newIndex.write(indexBuffer.toByteArray());
+            // the new files must be on disk before they replace the old ones
+            newJournal.getFD().sync();
+            newIndex.getFD().sync();
+            newJournal.close();
+            newJournal = null;
+            newIndex.close();
+            newIndex = null;
+
+            closeFiles();
+            // if the process dies between the renames, the generation of the old index doesn't
+            // match the new journal, and the cache starts over when it is initialized
+            if (!newJournalFile.renameTo(journalFile) || !newIndexFile.renameTo(indexFile)) {
+                throw new IOException("Could not replace the cache files");
+            }
+            mGeneration = generation;
+            mEntries.clear();
+            mEntries.putAll(compacted);
+            openFiles();
+        } catch (IOException e) {
+            VolleyLog.e("Could not compact the cache: %s", e);
+            closeQuietly(newJournal);
+            closeQuietly(newIndex);
+            deleteFile(newJournalFile);
+            deleteFile(newIndexFile);
+            if (mJournal == null) {
+                // the files were already closed, start over
+                clear();
+            }
+            return;
+        }
+
+        if (VolleyLog.DEBUG) {
+            VolleyLog.v("compacted %d bytes into %d bytes, %d ms", journalBytes, mTotalBytes,
+                    SystemClock.elapsedRealtime() - startTime);
+        }
+    }
+
+    private static byte[] toRecord(String key, Entry entry, long ttl) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(entry.data.length + 256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        new CacheHeader(key, entry, ttl).write(out);
+        out.writeInt(entry.data.length);
+        out.write(entry.data);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] toIndexRecord(byte op, String key, JournalEntryInfo info) {
+        byte[] keyBytes = key.getBytes(UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(1 + 2 + keyBytes.length
+                + (op == OP_PUT ? 8 + 4 + 8 + 4 : 0));
+        buffer.put(op);
+        buffer.putShort((short) keyBytes.length);
+        buffer.put(keyBytes);
+        if (op == OP_PUT) {
+            buffer.putLong(info.offset);
+            buffer.putInt((int) info.size);
+            buffer.putLong(info.ttl);
+            buffer.putInt(info.crc);
+        }
+        return buffer.array();
+    }
+
+    private static byte[] toHeader(int magic, long generation) {
+        return ByteBuffer.allocate(HEADER_SIZE).putInt(magic).putLong(generation).array();
+    }
+
+    private static long newGeneration() {
+        return new Random().nextLong();
+    }
+
+    private static int getCrc(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return (int) crc.getValue();
+    }
+
+    private static void deleteFile(File file) {
+        if (file.exists() && !file.delete()) {
+            VolleyLog.d("Could not delete cache file %s", file.getAbsolutePath());
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * The in memory information of an entry, including where its record is in the journal.
+     */
+    private static class JournalEntryInfo extends CacheEntryInfo {
+        final long offset;
+        final int crc;
+
+        JournalEntryInfo(long offset, long size, long ttl, int crc) {
+            super(size, ttl);
+            this.offset = offset;
+            this.crc = crc;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Lukas Zorich, Magnet.cl
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package cl.magnet.magnetrestclient.cache;
+
+import com.android.volley.Cache;
+
+/**
+ * A size bounded {com.android.volley.Cache} that can be inspected and partitioned by
+ * {@link PartitionedCache}.
+ */
+public interface ManagedCache extends Cache {
+
+    /**
+     * @param key The cache key
+     * @return True if the cache has an entry for the key. It doesn't count as a hit or a miss.
+     */
+    boolean contains(String key);
+
+    /**
+     * @return The current size of the cache in bytes
+     */
+    long getSizeBytes();
+
+    /**
+     * @return The maximum size of the cache in bytes
+     */
+    long getMaxBytes();
+
+    /**
+     * @return The hit, miss and eviction counters of the cache
+     */
+    CacheStats getStats();
+}
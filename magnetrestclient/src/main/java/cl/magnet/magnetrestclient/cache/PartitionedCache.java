@@ -0,0 +1,192 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Lukas Zorich, Magnet.cl
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package cl.magnet.magnetrestclient.cache;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A {@link ManagedCache} split in partitions, each one with its own size, eviction policy and
+ * counters. Entries are stored in the partition their key is assigned to with
+ * {@link #assign(String, String)}, which {@link cl.magnet.magnetrestclient.VolleyManager} does
+ * with the String tag of a request while it is in flight, or in the partition that already
+ * holds them, or in the default partition. Lookups find the entry in whichever partition holds
+ * it, so the entries of every partition are available after a restart.
+ */
+public class PartitionedCache implements ManagedCache {
+
+    private final ManagedCache mDefaultPartition;
+    private final Map<String, ManagedCache> mPartitions;
+    private final Map<String, String> mAssignments = new ConcurrentHashMap<>();
+
+    /**
+     * @param defaultPartition The partition of the entries that are not assigned to another one
+     * @param partitions       The partitions by tag
+     */
+    public PartitionedCache(ManagedCache defaultPartition, Map<String, ManagedCache> partitions) {
+        mDefaultPartition = defaultPartition;
+        mPartitions = Collections.unmodifiableMap(new LinkedHashMap<>(partitions));
+    }
+
+    /**
+     * @param tag The tag of the partition
+     * @return The partition, or null if there is no partition with the tag
+     */
+    public ManagedCache getPartition(String tag) {
+        return mPartitions.get(tag);
+    }
+
+    /**
+     * @return The partition of the entries that are not assigned to another one
+     */
+    public ManagedCache getDefaultPartition() {
+        return mDefaultPartition;
+    }
+
+    /**
+     * Stores the entry of a key in a partition when it is put, until the key is unassigned.
+     *
+     * @param key The cache key
+     * @param tag The tag of the partition. Tags without a partition are ignored.
+     */
+    public void assign(String key, String tag) {
+        if (mPartitions.containsKey(tag)) {
+            mAssignments.put(key, tag);
+        }
+    }
+
+    /**
+     * Removes the assignment of a key made with {@link #assign(String, String)}. The entry stays
+     * in its partition.
+     *
+     * @param key The cache key
+     */
+    public void unassign(String key) {
+        mAssignments.remove(key);
+    }
+
+    @Override
+    public void initialize() {
+        mDefaultPartition.initialize();
+        for (ManagedCache partition : mPartitions.values()) {
+            partition.initialize();
+        }
+    }
+
+    @Override
+    public Entry get(String key) {
+        return findPartition(key).get(key);
+    }
+
+    @Override
+    public void put(String key, Entry entry) {
+        String tag = mAssignments.get(key);
+        ManagedCache partition = tag != null ? mPartitions.get(tag) : null;
+        if (partition == null) {
+            partition = findPartition(key);
+        }
+
+        // an entry lives in a single partition
+        for (ManagedCache other : mPartitions.values()) {
+            if (other != partition && other.contains(key)) {
+                other.remove(key);
+            }
+        }
+        if (partition != mDefaultPartition && mDefaultPartition.contains(key)) {
+            mDefaultPartition.remove(key);
+        }
+
+        partition.put(key, entry);
+    }
+
+    @Override
+    public void invalidate(String key, boolean fullExpire) {
+        findPartition(key).invalidate(key, fullExpire);
+    }
+
+    @Override
+    public void remove(String key) {
+        findPartition(key).remove(key);
+    }
+
+    @Override
+    public void clear() {
+        mDefaultPartition.clear();
+        for (ManagedCache partition : mPartitions.values()) {
+            partition.clear();
+        }
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return findPartition(key).contains(key);
+    }
+
+    @Override
+    public long getSizeBytes() {
+        long size = mDefaultPartition.getSizeBytes();
+        for (ManagedCache partition : mPartitions.values()) {
+            size += partition.getSizeBytes();
+        }
+        return size;
+    }
+
+    @Override
+    public long getMaxBytes() {
+        long maxBytes = mDefaultPartition.getMaxBytes();
+        for (ManagedCache partition : mPartitions.values()) {
+            maxBytes += partition.getMaxBytes();
+        }
+        return maxBytes;
+    }
+
+    /**
+     * @return A snapshot of the sum of the counters of every partition. The counters of a single
+     * partition are available through {@link #getPartition(String)}.
+     */
+    @Override
+    public CacheStats getStats() {
+        CacheStats stats = new CacheStats();
+        stats.add(mDefaultPartition.getStats());
+        for (ManagedCache partition : mPartitions.values()) {
+            stats.add(partition.getStats());
+        }
+        return stats;
+    }
+
+    /**
+     * @return The partition that holds the entry of the key, or the default partition
+     */
+    private ManagedCache findPartition(String key) {
+        for (ManagedCache partition : mPartitions.values()) {
+            if (partition.contains(key)) {
+                return partition;
+            }
+        }
+        return mDefaultPartition;
+    }
+}
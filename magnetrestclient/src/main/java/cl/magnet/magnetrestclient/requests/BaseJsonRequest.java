@@ -28,12 +28,8 @@ import com.android.volley.AuthFailureError;
 import com.android.volley.Response;
 import com.android.volley.toolbox.JsonRequest;
 
-import java.util.HashMap;
 import java.util.Map;
 
-import cl.magnet.magnetrestclient.BuildConfig;
-import cl.magnet.magnetrestclient.utils.UserAgentUtils;
-
 
 /**
  * A request for retrieving a T type response body at a given URL that also
@@ -48,12 +44,9 @@ import cl.magnet.magnetrestclient.utils.UserAgentUtils;
 public abstract class BaseJsonRequest<T> extends JsonRequest<T> {
 
     private static final String TAG = BaseJsonRequest.class.getSimpleName();
-    private static final String USER_AGENT = "User-Agent";
-
-    private static final String USER_AGENT_DEFAULT = UserAgentUtils.getUserAgent(BuildConfig
-            .APPLICATION_ID, BuildConfig.VERSION_NAME);
 
-    private Map<String, String> mHeaders;
+    private final RequestHeaders mHeaders = new RequestHeaders();
+    private boolean mHedging;
 
 
     /**
@@ -71,17 +64,12 @@ public abstract class BaseJsonRequest<T> extends JsonRequest<T> {
     public BaseJsonRequest(int method, String url, String requestBody,
                            Response.Listener<T> listener, Response.ErrorListener errorListener) {
         super(method, url, requestBody, listener, errorListener);
-
-        mHeaders = new HashMap<>();
-
-        // we add the default user-agent header
-        addHeader(USER_AGENT, USER_AGENT_DEFAULT);
     }
 
 
     @Override
     public Map<String, String> getHeaders() throws AuthFailureError {
-        return mHeaders;
+        return mHeaders.get();
     }
 
     /**
@@ -90,7 +78,42 @@ public abstract class BaseJsonRequest<T> extends JsonRequest<T> {
      * @param userAgent The user agent
      */
     public void setUserAgent(String userAgent) {
-        addHeader(USER_AGENT, userAgent);
+        addHeader(RequestHeaders.USER_AGENT, userAgent);
+    }
+
+    /**
+     * Sets whether the request is hedged: when its response takes longer than the 95th
+     * percentile latency of its endpoint, a second, identical request is sent, and the first
+     * response is delivered. It trades bandwidth for tail latency, so it is meant for a few
+     * latency-critical endpoints. It requires the request to be added with
+     * {@link cl.magnet.magnetrestclient.VolleyManager}.
+     *
+     * @param hedging True to hedge the request
+     * @throws IllegalStateException If the request is not a GET request
+     */
+    public void setHedging(boolean hedging) {
+        if (hedging && getMethod() != Method.GET) {
+            throw new IllegalStateException("Only GET requests can be hedged");
+        }
+        mHedging = hedging;
+    }
+
+    /**
+     * @return True if the request is hedged
+     */
+    public boolean isHedging() {
+        return mHedging;
+    }
+
+    /**
+     * Sets the default headers of the request, like the user agent, which
+     * {@link cl.magnet.magnetrestclient.VolleyManager} shares between all the requests it sends.
+     * The headers added to the request take precedence over them.
+     *
+     * @param defaultHeaders The default headers. They must not be modified afterwards.
+     */
+    public void setDefaultHeaders(Map<String, String> defaultHeaders) {
+        mHeaders.setDefaultHeaders(defaultHeaders);
     }
 
     /**
@@ -109,8 +132,6 @@ public abstract class BaseJsonRequest<T> extends JsonRequest<T> {
      * @param headers The headers map.
      */
     protected void addHeaders(Map<String, String> headers) {
-        if (headers != null) {
-            mHeaders.putAll(headers);
-        }
+        mHeaders.putAll(headers);
     }
 }
\ No newline at end of file
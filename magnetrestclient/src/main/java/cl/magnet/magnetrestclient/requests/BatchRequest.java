@@ -0,0 +1,268 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Lukas Zorich, Magnet.cl
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package cl.magnet.magnetrestclient.requests;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.NetworkResponse;
+import com.android.volley.ParseError;
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.toolbox.HttpHeaderParser;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+
+/**
+ * A request that sends many requests to a batch endpoint in a single POST, and retrieves the
+ * response of each one of them. The body of the request is a JSON array with a sub-request per
+ * request, in the same order:
+ * <pre>
+ * {@code
+ * [{"method": "GET", "url": "/items/1?fields=name", "headers": {"Accept": "application/json"}},
+ *  {"method": "POST", "url": "/items", "headers": {}, "body": "{\"name\":\"item\"}"}]
+ * }
+ * </pre>
+ * The url of a sub-request is relative to the host of the batch endpoint. The response must be
+ * a JSON array with the response of each sub-request, in the same order. The body of a
+ * response can be a String or any JSON value:
+ * <pre>
+ * {@code
+ * [{"status": 200, "headers": {"Content-Type": "application/json"}, "body": {"id": 1}},
+ *  {"status": 401, "headers": {}, "body": "unauthorized"}]
+ * }
+ * </pre>
+ * The listener receives a {com.android.volley.NetworkResponse} per request, which can be parsed
+ * by the request itself. {@link cl.magnet.magnetrestclient.BatchScheduler} does that for the
+ * requests added to {@link cl.magnet.magnetrestclient.VolleyManager}.
+ *
+ * {@inheritDoc}
+ */
+public class BatchRequest extends BaseJsonRequest<List<NetworkResponse>> {
+
+    private static final String CHARSET = "UTF-8";
+
+    private final List<Request<?>> mRequests;
+    private final Response.Listener<List<NetworkResponse>> mListener;
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param url           The url of the batch endpoint
+     * @param requests      The requests sent in the batch
+     * @param listener      Callback for delivering the response of each request, in the same
+     *                      order as the requests
+     * @param errorListener Callback for devilering errors of the whole batch. It can be a
+     *                      {@link cl.magnet.magnetrestclient.MagnetErrorListener} or
+     *                      {com.android.volley.Response.ErrorListener}
+     */
+    public BatchRequest(String url, List<? extends Request<?>> requests,
+                        Response.Listener<List<NetworkResponse>> listener,
+                        Response.ErrorListener errorListener) {
+        super(Method.POST, url, null, listener, errorListener);
+        mRequests = Collections.unmodifiableList(new ArrayList<Request<?>>(requests));
+        mListener = listener;
+
+        // the responses belong to the requests, they are cached by them if needed
+        setShouldCache(false);
+    }
+
+    /**
+     * @return The requests sent in the batch
+     */
+    public List<Request<?>> getRequests() {
+        return mRequests;
+    }
+
+    /**
+     * Builds the JSON array of sub-requests. If the headers or the body of a request can't be
+     * obtained, the batch fails with that error as cause.
+     */
+    @Override
+    public byte[] getBody() {
+        StringWriter body = new StringWriter();
+        JsonWriter writer = new JsonWriter(body);
+        try {
+            writer.beginArray();
+            for (Request<?> request : mRequests) {
+                writer.beginObject();
+                writer.name("method").value(getMethodName(request));
+                writer.name("url").value(getRelativeUrl(request.getUrl()));
+                writer.name("headers").beginObject();
+                for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+                    writer.name(header.getKey()).value(header.getValue());
+                }
+                writer.endObject();
+                byte[] requestBody = request.getBody();
+                if (requestBody != null) {
+                    writer.name("body").value(new String(requestBody, CHARSET));
+                }
+                writer.endObject();
+            }
+            writer.endArray();
+            writer.close();
+            return body.toString().getBytes(CHARSET);
+        } catch (AuthFailureError e) {
+            throw new IllegalStateException("Can't add a request to the batch", e);
+        } catch (IOException e) {
+            // a StringWriter doesn't throw, and UTF-8 is always supported
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    protected Response<List<NetworkResponse>> parseNetworkResponse(
+            NetworkResponse networkResponse) {
+        try {
+            JsonReader reader = new JsonReader(new InputStreamReader(new ByteArrayInputStream(
+                    networkResponse.data), HttpHeaderParser.parseCharset(
+                    networkResponse.headers)));
+            List<NetworkResponse> responses = new ArrayList<>(mRequests.size());
+            reader.beginArray();
+            while (reader.hasNext()) {
+                responses.add(readResponse(reader));
+            }
+            reader.endArray();
+
+            if (responses.size() != mRequests.size()) {
+                return Response.error(new ParseError(new IllegalStateException("Expected "
+                        + mRequests.size() + " responses but got " + responses.size())));
+            }
+            return Response.success(responses, null);
+        } catch (UnsupportedEncodingException e) {
+            return Response.error(new ParseError(e));
+        } catch (JsonSyntaxException e) {
+            return Response.error(new ParseError(e));
+        } catch (JsonIOException e) {
+            return Response.error(new ParseError(e));
+        } catch (IOException e) {
+            // malformed JSON
+            return Response.error(new ParseError(e));
+        } catch (IllegalStateException e) {
+            // unexpected JSON token
+            return Response.error(new ParseError(e));
+        }
+    }
+
+    /**
+     * Reads the response of a sub-request.
+     */
+    private static NetworkResponse readResponse(JsonReader reader) throws IOException {
+        int status = 0;
+        Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        String body = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("status")) {
+                status = reader.nextInt();
+            } else if (name.equals("headers") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    headers.put(reader.nextName(), reader.nextString());
+                }
+                reader.endObject();
+            } else if (name.equals("body") && reader.peek() == JsonToken.STRING) {
+                body = reader.nextString();
+            } else if (name.equals("body") && reader.peek() != JsonToken.NULL) {
+                body = new JsonParser().parse(reader).toString();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        byte[] data = body == null ? new byte[0] : body.getBytes(CHARSET);
+        return new NetworkResponse(status, data, headers, false);
+    }
+
+    @Override
+    protected void deliverResponse(List<NetworkResponse> response) {
+        if (mListener != null) {
+            mListener.onResponse(response);
+        }
+    }
+
+    /**
+     * @return The name of the http method of the request
+     */
+    private static String getMethodName(Request<?> request) throws AuthFailureError {
+        switch (request.getMethod()) {
+            case Method.DEPRECATED_GET_OR_POST:
+                return request.getBody() == null ? "GET" : "POST";
+            case Method.GET:
+                return "GET";
+            case Method.POST:
+                return "POST";
+            case Method.PUT:
+                return "PUT";
+            case Method.DELETE:
+                return "DELETE";
+            case Method.HEAD:
+                return "HEAD";
+            case Method.OPTIONS:
+                return "OPTIONS";
+            case Method.TRACE:
+                return "TRACE";
+            case Method.PATCH:
+                return "PATCH";
+            default:
+                throw new IllegalStateException("Unknown method type.");
+        }
+    }
+
+    /**
+     * @return The path and query of the url, or the url itself if it can't be parsed
+     */
+    private static String getRelativeUrl(String url) {
+        try {
+            URI uri = new URI(url);
+            if (uri.getRawPath() == null) {
+                return url;
+            }
+            String path = uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+            return uri.getRawQuery() == null ? path : path + "?" + uri.getRawQuery();
+        } catch (URISyntaxException e) {
+            return url;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Lukas Zorich, Magnet.cl
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package cl.magnet.magnetrestclient.requests;
+
+import android.graphics.Bitmap;
+import android.widget.ImageView.ScaleType;
+
+import com.android.volley.DefaultRetryPolicy;
+import com.android.volley.NetworkResponse;
+import com.android.volley.ParseError;
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.VolleyLog;
+import com.android.volley.toolbox.HttpHeaderParser;
+
+import cl.magnet.magnetrestclient.utils.BitmapDecoder;
+
+/**
+ * A request for retrieving a {android.graphics.Bitmap} at a given URL. It behaves like
+ * {com.android.volley.toolbox.ImageRequest}, but the image is decoded by a
+ * {@link BitmapDecoder}: it is sampled and scaled down to the requested size while decoding,
+ * into a bitmap taken from a {@link cl.magnet.magnetrestclient.utils.BitmapPool} when there is
+ * one that fits.
+ */
+public class BitmapRequest extends Request<Bitmap> {
+
+    // the same values used by ImageRequest
+    private static final int IMAGE_TIMEOUT_MS = 1000;
+    private static final int IMAGE_MAX_RETRIES = 2;
+    private static final float IMAGE_BACKOFF_MULT = 2f;
+
+    /**
+     * Decodes one image at a time, so several big images don't run out of memory.
+     */
+    private static final Object DECODE_LOCK = new Object();
+
+    private final Response.Listener<Bitmap> mListener;
+    private final int mMaxWidth;
+    private final int mMaxHeight;
+    private final ScaleType mScaleType;
+    private final boolean mPreferRgb565;
+    private final BitmapDecoder mDecoder;
+    private Priority mPriority = Priority.LOW;
+
+    /**
+     * Creates a request that decodes the image with the specified maximum dimensions. If both
+     * are zero, the image is decoded at its size. If only one is zero, the image is scaled to
+     * the other one keeping its aspect ratio.
+     *
+     * @param url           The request url
+     * @param listener      Callback for delivering the decoded bitmap
+     * @param maxWidth      The maximum width of the bitmap, or zero for none
+     * @param maxHeight     The maximum height of the bitmap, or zero for none
+     * @param scaleType     The ImageView's scale type, used to compute the dimensions
+     * @param preferRgb565  True to decode images without alpha as RGB_565
+     * @param decoder       The decoder, which reuses the bitmaps of its pool
+     * @param errorListener Callback for devilering errors
+     */
+    public BitmapRequest(String url, Response.Listener<Bitmap> listener, int maxWidth,
+                         int maxHeight, ScaleType scaleType, boolean preferRgb565,
+                         BitmapDecoder decoder, Response.ErrorListener errorListener) {
+        super(Method.GET, url, errorListener);
+        setRetryPolicy(new DefaultRetryPolicy(IMAGE_TIMEOUT_MS, IMAGE_MAX_RETRIES,
+                IMAGE_BACKOFF_MULT));
+        mListener = listener;
+        mMaxWidth = maxWidth;
+        mMaxHeight = maxHeight;
+        mScaleType = scaleType;
+        mPreferRgb565 = preferRgb565;
+        mDecoder = decoder;
+    }
+
+    /**
+     * Sets the priority of the request in the RequestQueue. It must be set before the request
+     * is added to the queue. The default is {com.android.volley.Request.Priority#LOW}, like
+     * {com.android.volley.toolbox.ImageRequest}.
+     *
+     * @param priority The priority
+     */
+    public void setPriority(Priority priority) {
+        mPriority = priority;
+    }
+
+    @Override
+    public Priority getPriority() {
+        return mPriority;
+    }
+
+    @Override
+    protected Response<Bitmap> parseNetworkResponse(NetworkResponse response) {
+        synchronized (DECODE_LOCK) {
+            try {
+                Bitmap bitmap = mDecoder.decode(response.data, mMaxWidth, mMaxHeight,
+                        mScaleType, mPreferRgb565);
+                if (bitmap == null) {
+                    return Response.error(new ParseError(response));
+                }
+                return Response.success(bitmap, HttpHeaderParser.parseCacheHeaders(response));
+            } catch (OutOfMemoryError e) {
+                VolleyLog.e("Caught OOM for %d byte image, url=%s", response.data.length,
+                        getUrl());
+                return Response.error(new ParseError(e));
+            }
+        }
+    }
+
+    @Override
+    protected void deliverResponse(Bitmap response) {
+        if (mListener != null) {
+            mListener.onResponse(response);
+        }
+    }
+}
@@ -24,19 +24,29 @@
 
 package cl.magnet.magnetrestclient.requests;
 
+import com.android.volley.NetworkError;
 import com.android.volley.NetworkResponse;
 import com.android.volley.ParseError;
 import com.android.volley.Response;
 import com.android.volley.toolbox.HttpHeaderParser;
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import com.google.gson.JsonIOException;
 import com.google.gson.JsonSyntaxException;
+import com.google.gson.reflect.TypeToken;
 
 import org.json.JSONObject;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Type;
 import java.util.Map;
 
+import cl.magnet.magnetrestclient.SourceNetworkResponse;
+import cl.magnet.magnetrestclient.utils.GsonRegistry;
+
 
 /**
  * A request for retreving a Java object from the response body at a given URL that also
@@ -44,18 +54,38 @@ import java.util.Map;
  * The request uses {com.google.gson.Gson} to parse the json response into a Java object.
  * The default {com.google.gson.Gson} date format is {@code yyyy-MM-dd'T'HH:mm:ss}. For
  * customizing {com.google.gson.Gson} settings, {@link #getGson()} method can be overriden
- * in order to build Gson with various configuration settings.
+ * in order to build Gson with various configuration settings. Requests share the
+ * {com.google.gson.Gson} instances kept by {@link GsonRegistry}, so the TypeAdapters of the
+ * model classes are only created once per process.
+ *
+ * By default the response body is parsed in streaming mode: Gson reads the raw response bytes
+ * through a {com.google.gson.stream.JsonReader}, so no intermediate String copy of the whole
+ * payload is created. Streaming can be disabled with {@link #setStreamingParse(boolean)}. When
+ * the request is not cached, Gson reads the body straight from the connection buffer (see
+ * {@link StreamingRequest}).
+ *
+ * Generic responses, e.g: {@code List<Item>}, are parsed by passing a
+ * {com.google.gson.reflect.TypeToken} or a {java.lang.reflect.Type} instead of a class:
+ * <pre>
+ * {@code
+ * new GsonRequest<>(Request.Method.GET, url, new TypeToken<List<Item>>() {}, null, listener,
+ *         errorListener);
+ * }
+ * </pre>
+ * The type is overloaded, so a literal {@code null} type is ambiguous and has to be cast, e.g:
+ * {@code (Class<Item>) null}.
+ *
  * Created by lukas on 26-07-14.
  * {@inheritDoc}
  */
-public class GsonRequest<T> extends BaseJsonRequest<T> {
-
-    private static final String DATE_FORMAT = "yyyy-MM-dd'T'HH:mm:ss";
+public class GsonRequest<T> extends BaseJsonRequest<T> implements StreamingRequest {
 
     private final Gson mGson;
-    private final Class<T> mClassType;
+    private final Type mType;
     private final Response.Listener<T> mListener;
 
+    private boolean mStreamingParse = true;
+
     /**
      * {@inheritDoc}
      *
@@ -91,9 +121,85 @@ public class GsonRequest<T> extends BaseJsonRequest<T> {
     public GsonRequest(int method, String url, Class<T> classType, Map<String, String> headers,
                        JSONObject jsonRequest, Response.Listener<T> listener,
                        Response.ErrorListener errorListener) {
+        this(method, url, (Type) classType, headers, jsonRequest, listener, errorListener);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param method        the http request method. See {com.android.volley.Request.Method} for
+     *                      supported methods.
+     * @param url           The request url
+     * @param typeToken     The type of the response, e.g: {@code new TypeToken<List<Item>>() {}}
+     * @param jsonRequest   The json that will be sent in the request body
+     * @param listener      Callback for delivering parse responses
+     * @param errorListener Callback for devilering errors. It can be a
+     *                      {@link cl.magnet.magnetrestclient.MagnetErrorListener} or
+     *                      {com.android.volley.Response.ErrorListener}
+     */
+    public GsonRequest(int method, String url, TypeToken<T> typeToken, JSONObject jsonRequest,
+                       Response.Listener<T> listener, Response.ErrorListener errorListener) {
+        this(method, url, typeToken.getType(), null, jsonRequest, listener, errorListener);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param method        the http request method. See {com.android.volley.Request.Method} for
+     *                      supported methods.
+     * @param url           The request url
+     * @param typeToken     The type of the response, e.g: {@code new TypeToken<List<Item>>() {}}
+     * @param headers       Map of request headers
+     * @param jsonRequest   The json that will be sent in the request body
+     * @param listener      Callback for delivering parse responses
+     * @param errorListener Callback for devilering errors. It can be a
+     *                      {@link cl.magnet.magnetrestclient.MagnetErrorListener} or
+     *                      {com.android.volley.Response.ErrorListener}
+     */
+    public GsonRequest(int method, String url, TypeToken<T> typeToken, Map<String, String> headers,
+                       JSONObject jsonRequest, Response.Listener<T> listener,
+                       Response.ErrorListener errorListener) {
+        this(method, url, typeToken.getType(), headers, jsonRequest, listener, errorListener);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param method        the http request method. See {com.android.volley.Request.Method} for
+     *                      supported methods.
+     * @param url           The request url
+     * @param type          The type of the response. It must be compatible with T.
+     * @param jsonRequest   The json that will be sent in the request body
+     * @param listener      Callback for delivering parse responses
+     * @param errorListener Callback for devilering errors. It can be a
+     *                      {@link cl.magnet.magnetrestclient.MagnetErrorListener} or
+     *                      {com.android.volley.Response.ErrorListener}
+     */
+    public GsonRequest(int method, String url, Type type, JSONObject jsonRequest,
+                       Response.Listener<T> listener, Response.ErrorListener errorListener) {
+        this(method, url, type, null, jsonRequest, listener, errorListener);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param method        the http request method. See {com.android.volley.Request.Method} for
+     *                      supported methods.
+     * @param url           The request url
+     * @param type          The type of the response. It must be compatible with T.
+     * @param headers       Map of request headers
+     * @param jsonRequest   The json that will be sent in the request body
+     * @param listener      Callback for delivering parse responses
+     * @param errorListener Callback for devilering errors. It can be a
+     *                      {@link cl.magnet.magnetrestclient.MagnetErrorListener} or
+     *                      {com.android.volley.Response.ErrorListener}
+     */
+    public GsonRequest(int method, String url, Type type, Map<String, String> headers,
+                       JSONObject jsonRequest, Response.Listener<T> listener,
+                       Response.ErrorListener errorListener) {
         super(method, url, (jsonRequest == null) ? null : jsonRequest.toString(), listener,
                 errorListener);
-        mClassType = classType;
+        mType = type;
         mListener = listener;
         mGson = getGson();
 
@@ -104,14 +210,58 @@ public class GsonRequest<T> extends BaseJsonRequest<T> {
     @Override
     protected Response<T> parseNetworkResponse(NetworkResponse networkResponse) {
         try {
-            String json = new String(networkResponse.data, HttpHeaderParser.parseCharset
-                    (networkResponse.headers));
-            return Response.success(mGson.fromJson(json, mClassType),
-                    HttpHeaderParser.parseCacheHeaders(networkResponse));
+            T parsed;
+            if (networkResponse instanceof SourceNetworkResponse) {
+                parsed = parseSource((SourceNetworkResponse) networkResponse);
+            } else if (mStreamingParse) {
+                parsed = parseStreaming(networkResponse);
+            } else {
+                parsed = parseString(networkResponse);
+            }
+            return Response.success(parsed, HttpHeaderParser.parseCacheHeaders(networkResponse));
         } catch (UnsupportedEncodingException e) {
             return Response.error(new ParseError(e));
         } catch (JsonSyntaxException e) {
             return Response.error(new ParseError(e));
+        } catch (JsonIOException e) {
+            return Response.error(new ParseError(e));
+        } catch (IOException e) {
+            return Response.error(new NetworkError(e));
+        }
+    }
+
+    /**
+     * Parses the response body by decoding it into a String first.
+     */
+    private T parseString(NetworkResponse networkResponse) throws UnsupportedEncodingException {
+        String json = new String(networkResponse.data, HttpHeaderParser.parseCharset
+                (networkResponse.headers));
+        return mGson.fromJson(json, mType);
+    }
+
+    /**
+     * Parses the response body by reading the raw bytes through a
+     * {com.google.gson.stream.JsonReader}, without building an intermediate String.
+     */
+    private T parseStreaming(NetworkResponse networkResponse) throws
+            UnsupportedEncodingException {
+        Reader reader = new InputStreamReader(new ByteArrayInputStream(networkResponse.data),
+                HttpHeaderParser.parseCharset(networkResponse.headers));
+        return mGson.fromJson(reader, mType);
+    }
+
+    /**
+     * Parses a response body that is still in the connection buffer.
+     */
+    private T parseSource(SourceNetworkResponse networkResponse) throws IOException {
+        String charset = HttpHeaderParser.parseCharset(networkResponse.headers);
+        try {
+            if (mStreamingParse) {
+                return mGson.fromJson(networkResponse.reader(charset), mType);
+            }
+            return mGson.fromJson(networkResponse.readString(charset), mType);
+        } finally {
+            networkResponse.close();
         }
     }
 
@@ -122,14 +272,41 @@ public class GsonRequest<T> extends BaseJsonRequest<T> {
         }
     }
 
+    /**
+     * Sets whether the response is parsed in streaming mode. When {@code true} (the default) the
+     * response bytes are read directly by Gson; when {@code false} the whole body is decoded into
+     * a String before parsing.
+     *
+     * @param streamingParse True to parse the response in streaming mode
+     */
+    public void setStreamingParse(boolean streamingParse) {
+        mStreamingParse = streamingParse;
+    }
+
+    /**
+     * @return True if the response is parsed in streaming mode
+     */
+    public boolean isStreamingParse() {
+        return mStreamingParse;
+    }
+
+    /**
+     * @return The type of the response
+     */
+    public Type getType() {
+        return mType;
+    }
+
     /**
      * This method is used to obtain the {com.google.gson.Gson} object that will parse the
      * response. It can be overriden in order to customize {com.google.gson.Gson}
-     * with various configuration settings.
+     * with various configuration settings. It is called for every request, so overriding
+     * methods should return an instance kept by {@link GsonRegistry} instead of building a new
+     * one.
      *
      * @return The gson object that will parse the response
      */
     protected Gson getGson() {
-        return new GsonBuilder().setDateFormat(DATE_FORMAT).create();
+        return GsonRegistry.getDefault();
     }
 }
\ No newline at end of file
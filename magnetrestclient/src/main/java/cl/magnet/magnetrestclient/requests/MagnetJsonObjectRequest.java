@@ -6,24 +6,16 @@ import com.android.volley.toolbox.JsonObjectRequest;
 
 import org.json.JSONObject;
 
-import java.util.HashMap;
 import java.util.Map;
 
-import cl.magnet.magnetrestclient.BuildConfig;
-import cl.magnet.magnetrestclient.utils.UserAgentUtils;
-
 /**
  * Created by ignacio on 02-08-15 for the LayoutGenerator Library.
  */
 public class MagnetJsonObjectRequest extends JsonObjectRequest {
 
     private static final String TAG = BaseJsonRequest.class.getSimpleName();
-    private static final String USER_AGENT = "User-Agent";
-
-    private static final String USER_AGENT_DEFAULT = UserAgentUtils.getUserAgent(BuildConfig
-            .APPLICATION_ID, BuildConfig.VERSION_NAME);
 
-    private Map<String, String> mHeaders;
+    private final RequestHeaders mHeaders = new RequestHeaders();
 
 
     /**
@@ -43,11 +35,6 @@ public class MagnetJsonObjectRequest extends JsonObjectRequest {
                                    Response.ErrorListener errorListener) {
 
         super(method, url, requestBody, listener, errorListener);
-
-        mHeaders = new HashMap<>();
-
-        // we add the default user-agent header
-        addHeader(USER_AGENT, USER_AGENT_DEFAULT);
     }
 
     /**
@@ -66,16 +53,11 @@ public class MagnetJsonObjectRequest extends JsonObjectRequest {
                                    Response.ErrorListener errorListener) {
 
         super(method, url, listener, errorListener);
-
-        mHeaders = new HashMap<>();
-
-        // we add the default user-agent header
-        addHeader(USER_AGENT, USER_AGENT_DEFAULT);
     }
 
     @Override
     public Map<String, String> getHeaders() throws AuthFailureError {
-        return mHeaders;
+        return mHeaders.get();
     }
 
     /**
@@ -84,7 +66,18 @@ public class MagnetJsonObjectRequest extends JsonObjectRequest {
      * @param userAgent The user agent
      */
     public void setUserAgent(String userAgent) {
-        addHeader(USER_AGENT, userAgent);
+        addHeader(RequestHeaders.USER_AGENT, userAgent);
+    }
+
+    /**
+     * Sets the default headers of the request, like the user agent, which
+     * {@link cl.magnet.magnetrestclient.VolleyManager} shares between all the requests it sends.
+     * The headers added to the request take precedence over them.
+     *
+     * @param defaultHeaders The default headers. They must not be modified afterwards.
+     */
+    public void setDefaultHeaders(Map<String, String> defaultHeaders) {
+        mHeaders.setDefaultHeaders(defaultHeaders);
     }
 
     /**
@@ -103,8 +96,6 @@ public class MagnetJsonObjectRequest extends JsonObjectRequest {
      * @param headers The headers map.
      */
     protected void addHeaders(Map<String, String> headers) {
-        if (headers != null) {
-            mHeaders.putAll(headers);
-        }
+        mHeaders.putAll(headers);
     }
 }
@@ -0,0 +1,105 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Lukas Zorich, Magnet.cl
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package cl.magnet.magnetrestclient.requests;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import cl.magnet.magnetrestclient.BuildConfig;
+import cl.magnet.magnetrestclient.utils.UserAgentUtils;
+
+/**
+ * The headers of a request: its own headers layered over a shared, immutable set of default
+ * headers, like the user agent.
+ *
+ * The default headers are copied on write: a request that only sends them returns the shared
+ * set, and a request is given its own copy the first time a header is added to it.
+ */
+final class RequestHeaders {
+
+    static final String USER_AGENT = "User-Agent";
+
+    /**
+     * The default headers of a request until it is added with
+     * {@link cl.magnet.magnetrestclient.VolleyManager}, which sets its own.
+     */
+    static final Map<String, String> DEFAULT_HEADERS = Collections.singletonMap(USER_AGENT,
+            UserAgentUtils.getUserAgent(BuildConfig.APPLICATION_ID, BuildConfig.VERSION_NAME));
+
+    private Map<String, String> mDefaultHeaders = DEFAULT_HEADERS;
+    private Map<String, String> mHeaders; // the default and own headers, or null
+
+    /**
+     * Replaces the default headers. The request's own headers take precedence over them.
+     *
+     * @param defaultHeaders The immutable default headers
+     */
+    void setDefaultHeaders(Map<String, String> defaultHeaders) {
+        if (mHeaders != null) {
+            // a copied default value is the same instance, unless the request set its own
+            for (Map.Entry<String, String> header : mDefaultHeaders.entrySet()) {
+                String key = header.getKey();
+                if (mHeaders.get(key) == header.getValue() && !defaultHeaders.containsKey(key)) {
+                    mHeaders.remove(key);
+                }
+            }
+            for (Map.Entry<String, String> header : defaultHeaders.entrySet()) {
+                String key = header.getKey();
+                String value = mHeaders.get(key);
+                if (value == null || value == mDefaultHeaders.get(key)) {
+                    mHeaders.put(key, header.getValue());
+                }
+            }
+        }
+        mDefaultHeaders = defaultHeaders;
+    }
+
+    void put(String key, String value) {
+        copyOnWrite().put(key, value);
+    }
+
+    void putAll(Map<String, String> headers) {
+        if (headers != null && !headers.isEmpty()) {
+            copyOnWrite().putAll(headers);
+        }
+    }
+
+    /**
+     * @return The headers to send. It must not be modified.
+     */
+    Map<String, String> get() {
+        return mHeaders == null ? mDefaultHeaders : mHeaders;
+    }
+
+    private Map<String, String> copyOnWrite() {
+        if (mHeaders == null) {
+            // requests add a few headers
+            mHeaders = new HashMap<>(mDefaultHeaders.size() + 4);
+            mHeaders.putAll(mDefaultHeaders);
+        }
+        return mHeaders;
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Lukas Zorich, Magnet.cl
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package cl.magnet.magnetrestclient.requests;
+
+/**
+ * Marks a request that can parse a {@link cl.magnet.magnetrestclient.SourceNetworkResponse},
+ * reading the response body directly from the connection instead of from a byte array.
+ *
+ * {@link cl.magnet.magnetrestclient.OkHttpNetwork} only streams the body to requests whose
+ * response won't be cached, i.e. requests with {@code setShouldCache(false)} or responses with a
+ * {@code no-store} cache control. Every other response is delivered with its body in
+ * {com.android.volley.NetworkResponse#data}, so implementations must handle both.
+ *
+ * Requests are cached by default, so a default GET is not streamed and gets no zero-copy parse.
+ * Large responses that don't need to be cached only benefit from streaming when the request
+ * calls {@code setShouldCache(false)}.
+ */
+public interface StreamingRequest {
+}
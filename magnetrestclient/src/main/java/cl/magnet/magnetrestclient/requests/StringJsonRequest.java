@@ -25,20 +25,28 @@
 package cl.magnet.magnetrestclient.requests;
 
 
+import com.android.volley.NetworkError;
 import com.android.volley.NetworkResponse;
 import com.android.volley.Response;
 import com.android.volley.toolbox.HttpHeaderParser;
 
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+
+import cl.magnet.magnetrestclient.SourceNetworkResponse;
 
 
 /**
  * A request for retrieving a String type response body at a given URL that also
  * optionally sends along a JSON body in the request specified.
  *
+ * When the request is not cached, the String is decoded straight from the connection buffer
+ * (see {@link StreamingRequest}).
+ *
  * Created by lukas on 18-08-14.
  */
-public class StringJsonRequest extends BaseJsonRequest<String> {
+public class StringJsonRequest extends BaseJsonRequest<String> implements StreamingRequest {
 
     /**
      * {@inheritDoc}
@@ -60,6 +68,10 @@ public class StringJsonRequest extends BaseJsonRequest<String> {
 
     @Override
     protected Response<String> parseNetworkResponse(NetworkResponse networkResponse) {
+        if (networkResponse instanceof SourceNetworkResponse) {
+            return parseSource((SourceNetworkResponse) networkResponse);
+        }
+
         String parsed;
         try {
             parsed = new String(networkResponse.data, HttpHeaderParser.parseCharset
@@ -70,4 +82,24 @@ public class StringJsonRequest extends BaseJsonRequest<String> {
         return Response.success(parsed, HttpHeaderParser.parseCacheHeaders(networkResponse));
     }
 
+    /**
+     * Decodes a response body that is still in the connection buffer.
+     */
+    private Response<String> parseSource(SourceNetworkResponse networkResponse) {
+        String parsed;
+        try {
+            try {
+                parsed = networkResponse.readString(HttpHeaderParser.parseCharset
+                        (networkResponse.headers));
+            } catch (UnsupportedEncodingException e) {
+                parsed = networkResponse.source().readString(Charset.defaultCharset());
+            }
+        } catch (IOException e) {
+            return Response.error(new NetworkError(e));
+        } finally {
+            networkResponse.close();
+        }
+        return Response.success(parsed, HttpHeaderParser.parseCacheHeaders(networkResponse));
+    }
+
 }
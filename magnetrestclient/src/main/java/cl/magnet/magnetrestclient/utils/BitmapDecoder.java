@@ -0,0 +1,229 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Lukas Zorich, Magnet.cl
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package cl.magnet.magnetrestclient.utils;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.widget.ImageView.ScaleType;
+
+/**
+ * Decodes images at the size they are displayed at. The image is sampled down by the biggest
+ * power of two that keeps it at least as big as the target size, and from KitKat on the rest of
+ * the scaling is done while decoding, so no full size or intermediate bitmap is allocated. When
+ * RGB_565 is preferred, JPEG images, which have no alpha, are decoded with half the memory.
+ * Bitmaps are decoded into the ones of a {@link BitmapPool} when there is one that fits.
+ */
+public class BitmapDecoder {
+
+    private static final String JPEG_MIME_TYPE = "image/jpeg";
+
+    private final BitmapPool mBitmapPool;
+
+    /**
+     * @param bitmapPool The pool of reusable bitmaps, or null to allocate new ones
+     */
+    public BitmapDecoder(BitmapPool bitmapPool) {
+        mBitmapPool = bitmapPool;
+    }
+
+    /**
+     * Decodes an image with the specified maximum dimensions. If both are zero, the image is
+     * decoded at its size. If only one is zero, the image is scaled to the other one keeping its
+     * aspect ratio.
+     *
+     * @param data         The encoded image
+     * @param maxWidth     The maximum width of the bitmap, or zero for none
+     * @param maxHeight    The maximum height of the bitmap, or zero for none
+     * @param scaleType    The ImageView's scale type, used to compute the dimensions
+     * @param preferRgb565 True to decode images without alpha as RGB_565
+     * @return The bitmap, or null if the image can't be decoded
+     */
+    public Bitmap decode(byte[] data, int maxWidth, int maxHeight, ScaleType scaleType,
+                         boolean preferRgb565) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        int actualWidth = options.outWidth;
+        int actualHeight = options.outHeight;
+        if (actualWidth <= 0 || actualHeight <= 0) {
+            return null;
+        }
+
+        int desiredWidth = getResizedDimension(maxWidth, maxHeight, actualWidth, actualHeight,
+                scaleType);
+        int desiredHeight = getResizedDimension(maxHeight, maxWidth, actualHeight, actualWidth,
+                scaleType);
+        int sampleSize = findBestSampleSize(actualWidth, actualHeight, desiredWidth,
+                desiredHeight);
+        int width = ceilDiv(actualWidth, sampleSize);
+        int height = ceilDiv(actualHeight, sampleSize);
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = preferRgb565 && JPEG_MIME_TYPE.equals(options.outMimeType)
+                ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+        boolean scaledByDecoder = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT
+                && width > desiredWidth
+                && isProportional(width, height, desiredWidth, desiredHeight);
+        if (scaledByDecoder) {
+            // the decoder scales the sampled image by inTargetDensity / inDensity
+            options.inScaled = true;
+            options.inDensity = width;
+            options.inTargetDensity = desiredWidth;
+            height = (int) Math.ceil((double) height * desiredWidth / width);
+            width = desiredWidth;
+        }
+        Bitmap bitmap = decode(data, options, width, height);
+        if (bitmap != null && scaledByDecoder) {
+            // the decoder sets the target density to the bitmap, which would scale it again when
+            // drawn
+            bitmap.setDensity(Resources.getSystem().getDisplayMetrics().densityDpi);
+        }
+
+        // if necessary, scale down to the maximal acceptable size. The decoder may round the
+        // scaled height one pixel up.
+        if (bitmap != null && (bitmap.getWidth() > desiredWidth
+                || bitmap.getHeight() > desiredHeight + 1)) {
+            Bitmap scaled = Bitmap.createScaledBitmap(bitmap, desiredWidth, desiredHeight, true);
+            if (scaled != bitmap && mBitmapPool != null) {
+                mBitmapPool.put(bitmap);
+            }
+            bitmap = scaled;
+        }
+        return bitmap;
+    }
+
+    /**
+     * Decodes the image into a bitmap of the pool if there is one that fits.
+     */
+    private Bitmap decode(byte[] data, BitmapFactory.Options options, int width, int height) {
+        if (mBitmapPool == null) {
+            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        }
+
+        options.inMutable = true;
+        // before KitKat, sampled images can't be decoded into an existing bitmap
+        if (options.inSampleSize == 1 || Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            options.inBitmap = mBitmapPool.get(width, height, options.inPreferredConfig);
+        }
+        if (options.inBitmap != null) {
+            try {
+                return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+            } catch (IllegalArgumentException e) {
+                // the image format doesn't support reusing bitmaps
+                mBitmapPool.put(options.inBitmap);
+                options.inBitmap = null;
+            }
+        }
+        return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+    }
+
+    /**
+     * Whether scaling the first rectangle to the width of the second one gives the second one.
+     */
+    private static boolean isProportional(int width, int height, int desiredWidth,
+                                          int desiredHeight) {
+        return Math.abs((double) height * desiredWidth / width - desiredHeight) <= 1;
+    }
+
+    /**
+     * Scales one side of a rectangle to fit aspect ratio, the same way
+     * {com.android.volley.toolbox.ImageRequest} does.
+     *
+     * @param maxPrimary      Maximum size of the primary dimension (i.e. width for max width),
+     *                        or zero to maintain aspect ratio with secondary dimension
+     * @param maxSecondary    Maximum size of the secondary dimension, or zero to maintain aspect
+     *                        ratio with primary dimension
+     * @param actualPrimary   Actual size of the primary dimension
+     * @param actualSecondary Actual size of the secondary dimension
+     * @param scaleType       The ScaleType used to calculate the needed image size
+     */
+    static int getResizedDimension(int maxPrimary, int maxSecondary, int actualPrimary,
+                                   int actualSecondary, ScaleType scaleType) {
+        // if no dominant value at all, just return the actual
+        if (maxPrimary == 0 && maxSecondary == 0) {
+            return actualPrimary;
+        }
+
+        // if ScaleType.FIT_XY fill the whole rectangle, ignore ratio
+        if (scaleType == ScaleType.FIT_XY) {
+            return maxPrimary == 0 ? actualPrimary : maxPrimary;
+        }
+
+        // if primary is unspecified, scale primary to match secondary's scaling ratio
+        if (maxPrimary == 0) {
+            double ratio = (double) maxSecondary / (double) actualSecondary;
+            return (int) (actualPrimary * ratio);
+        }
+
+        if (maxSecondary == 0) {
+            return maxPrimary;
+        }
+
+        double ratio = (double) actualSecondary / (double) actualPrimary;
+        int resized = maxPrimary;
+
+        // if ScaleType.CENTER_CROP fill the whole rectangle, preserve aspect ratio
+        if (scaleType == ScaleType.CENTER_CROP) {
+            if ((resized * ratio) < maxSecondary) {
+                resized = (int) (maxSecondary / ratio);
+            }
+            return resized;
+        }
+
+        if ((resized * ratio) > maxSecondary) {
+            resized = (int) (maxSecondary / ratio);
+        }
+        return resized;
+    }
+
+    /**
+     * Returns the largest power-of-two divisor for use in downscaling a bitmap that will not
+     * result in the scaling past the desired dimensions.
+     *
+     * @param actualWidth   Actual width of the bitmap
+     * @param actualHeight  Actual height of the bitmap
+     * @param desiredWidth  Desired width of the bitmap
+     * @param desiredHeight Desired height of the bitmap
+     */
+    static int findBestSampleSize(int actualWidth, int actualHeight, int desiredWidth,
+                                  int desiredHeight) {
+        double wr = (double) actualWidth / desiredWidth;
+        double hr = (double) actualHeight / desiredHeight;
+        double ratio = Math.min(wr, hr);
+        int n = 1;
+        while ((n * 2) <= ratio) {
+            n *= 2;
+        }
+
+        return n;
+    }
+
+    private static int ceilDiv(int value, int divisor) {
+        return (value + divisor - 1) / divisor;
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Lukas Zorich, Magnet.cl
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package cl.magnet.magnetrestclient.utils;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A pool of mutable bitmaps that are no longer in use, so new images can be decoded into them
+ * through {android.graphics.BitmapFactory.Options#inBitmap} instead of allocating new ones.
+ * Bitmaps are kept in buckets by their allocation size; when the pool is full the oldest ones
+ * are dropped.
+ *
+ * From KitKat on, a bitmap can be reused for any image whose decoded size is not bigger than
+ * the bitmap's allocation. Before KitKat, the bitmap must have the same dimensions and config as
+ * the decoded image, and the image can't be sampled down.
+ *
+ * A bitmap must only be added to the pool when nothing draws it anymore, since its pixels are
+ * overwritten by the next decode. Only the app knows when that is, so besides the intermediate
+ * bitmaps of a {@link BitmapDecoder}, the pool is filled by the app. The bitmaps evicted from a
+ * {@link LruBitmapCache} are not added, and {@link cl.magnet.magnetrestclient.VolleyManager}
+ * doesn't create a pool.
+ */
+public class BitmapPool {
+
+    /**
+     * How many times bigger than the needed size a reused bitmap can be. Bigger ones would waste
+     * memory while in use.
+     */
+    private static final int MAX_SIZE_MULTIPLE = 4;
+
+    private final int mMaxBytes;
+    private final TreeMap<Integer, LinkedList<Bitmap>> mBuckets = new TreeMap<>();
+    private final LinkedList<Bitmap> mBitmaps = new LinkedList<>(); // oldest first
+    private int mSizeBytes;
+    private long mHitCount;
+    private long mMissCount;
+
+    /**
+     * @param maxBytes The maximum sum of the allocation sizes of the bitmaps in the pool
+     */
+    public BitmapPool(int maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Adds a bitmap that is no longer in use to the pool. Immutable and recycled bitmaps, and
+     * the ones bigger than the pool, are ignored.
+     *
+     * @param bitmap The bitmap
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || !bitmap.isMutable() || bitmap.isRecycled()) {
+            return;
+        }
+        int size = getByteCount(bitmap);
+        if (size > mMaxBytes || mBitmaps.contains(bitmap)) {
+            return;
+        }
+
+        LinkedList<Bitmap> bucket = mBuckets.get(size);
+        if (bucket == null) {
+            bucket = new LinkedList<>();
+            mBuckets.put(size, bucket);
+        }
+        bucket.add(bitmap);
+        mBitmaps.add(bitmap);
+        mSizeBytes += size;
+        trimToSize(mMaxBytes);
+    }
+
+    /**
+     * Removes from the pool a bitmap that can be used to decode an image.
+     *
+     * @param width  The width of the decoded image
+     * @param height The height of the decoded image
+     * @param config The config of the decoded image
+     * @return The bitmap, or null if there is none that fits
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        int size = width * height * getBytesPerPixel(config);
+        boolean anySize = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+        Map<Integer, LinkedList<Bitmap>> candidates = anySize
+                ? mBuckets.subMap(size, true, size * MAX_SIZE_MULTIPLE, true)
+                : mBuckets.subMap(size, true, size, true);
+
+        for (Map.Entry<Integer, LinkedList<Bitmap>> entry : candidates.entrySet()) {
+            Iterator<Bitmap> iterator = entry.getValue().iterator();
+            while (iterator.hasNext()) {
+                Bitmap bitmap = iterator.next();
+                if (anySize || (bitmap.getWidth() == width && bitmap.getHeight() == height
+                        && bitmap.getConfig() == config)) {
+                    iterator.remove();
+                    if (entry.getValue().isEmpty()) {
+                        mBuckets.remove(entry.getKey());
+                    }
+                    mBitmaps.remove(bitmap);
+                    mSizeBytes -= entry.getKey();
+                    mHitCount++;
+                    return bitmap;
+                }
+            }
+        }
+
+        mMissCount++;
+        return null;
+    }
+
+    /**
+     * Removes the oldest bitmaps until the size of the pool is at most the specified one.
+     *
+     * @param maxBytes The maximum size, in bytes
+     */
+    public synchronized void trimToSize(int maxBytes) {
+        while (mSizeBytes > maxBytes && !mBitmaps.isEmpty()) {
+            Bitmap bitmap = mBitmaps.removeFirst();
+            int size = getByteCount(bitmap);
+            LinkedList<Bitmap> bucket = mBuckets.get(size);
+            bucket.remove(bitmap);
+            if (bucket.isEmpty()) {
+                mBuckets.remove(size);
+            }
+            mSizeBytes -= size;
+        }
+    }
+
+    /**
+     * Removes all the bitmaps from the pool.
+     */
+    public void clear() {
+        trimToSize(0);
+    }
+
+    /**
+     * @return The sum of the allocation sizes of the bitmaps in the pool
+     */
+    public synchronized int getSizeBytes() {
+        return mSizeBytes;
+    }
+
+    /**
+     * @return The maximum size of the pool, in bytes
+     */
+    public int getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    /**
+     * @return The number of times a bitmap was reused
+     */
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * @return The number of times there was no bitmap to reuse
+     */
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * Returns the number of bytes of memory used by the pixels of a bitmap. From KitKat on it can
+     * be bigger than the size of the image, when the bitmap is reused for a smaller one.
+     *
+     * @param bitmap The bitmap
+     * @return The size of the bitmap in bytes
+     */
+    public static int getByteCount(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return getAllocationByteCount(bitmap);
+        }
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private static int getAllocationByteCount(Bitmap bitmap) {
+        return bitmap.getAllocationByteCount();
+    }
+
+    /**
+     * @return The number of bytes per pixel of the config. The deprecated ARGB_4444 is counted
+     * as 4, which only asks for a bigger bitmap than needed.
+     */
+    static int getBytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        }
+        if (config == Bitmap.Config.RGB_565) {
+            return 2;
+        }
+        return 4;
+    }
+}
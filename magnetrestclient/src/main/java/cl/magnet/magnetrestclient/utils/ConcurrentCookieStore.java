@@ -0,0 +1,396 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Lukas Zorich, Magnet.cl
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package cl.magnet.magnetrestclient.utils;
+
+import java.net.CookieStore;
+import java.net.HttpCookie;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An in memory {java.net.CookieStore} that can be read by many threads without locking, unlike
+ * the store of {java.net.CookieManager}, which is guarded by a single lock and compares every
+ * cookie with the request.
+ *
+ * The cookies are indexed by their domain. A lookup visits the cookies of the host of the
+ * request and of its parent domains, down to its registrable domain (e.g: {@code example.com}
+ * for {@code api.example.com}), so it doesn't depend on the cookies of other hosts. The cookies
+ * of a domain are kept in an immutable array, sorted by path length, that is replaced
+ * atomically when it changes. Lookups read the current arrays and never wait for writers, and
+ * return the cookies with the longest paths first.
+ *
+ * It can be used by a {java.net.CookieManager}:
+ * <pre>
+ * {@code
+ * CookieHandler.setDefault(new CookieManager(new ConcurrentCookieStore(),
+ *         CookiePolicy.ACCEPT_ORIGINAL_SERVER));
+ * }
+ * </pre>
+ */
+public class ConcurrentCookieStore implements CookieStore {
+
+    private static final Entry[] EMPTY = new Entry[0];
+
+    /**
+     * Sorts cookies by path length, longest first.
+     */
+    private static final Comparator<HttpCookie> PATH_LENGTH_COMPARATOR =
+            new Comparator<HttpCookie>() {
+                @Override
+                public int compare(HttpCookie lhs, HttpCookie rhs) {
+                    int lhsLength = lhs.getPath() == null ? 0 : lhs.getPath().length();
+                    int rhsLength = rhs.getPath() == null ? 0 : rhs.getPath().length();
+                    return lhsLength > rhsLength ? -1 : (lhsLength == rhsLength ? 0 : 1);
+                }
+            };
+
+    private final ConcurrentMap<String, Entry[]> mCookies = new ConcurrentHashMap<>();
+
+    @Override
+    public void add(URI uri, HttpCookie cookie) {
+        if (cookie.getDomain() == null) {
+            if (uri.getHost() == null) {
+                return;
+            }
+            cookie.setDomain(uri.getHost());
+        }
+        // a max age of 0 removes the cookie
+        put(cookie.hasExpired() ? null : new Entry(cookie, getExpiresAt(cookie)), cookie);
+        onCookiesChanged();
+    }
+
+    @Override
+    public List<HttpCookie> get(URI uri) {
+        String host = uri.getHost();
+        if (host == null) {
+            return new ArrayList<>();
+        }
+
+        host = getDomainKey(host);
+        boolean secure = "https".equalsIgnoreCase(uri.getScheme());
+        String path = uri.getPath() == null || uri.getPath().isEmpty() ? "/" : uri.getPath();
+        long now = System.currentTimeMillis();
+        List<HttpCookie> result = new ArrayList<>();
+
+        // visit the host and its parent domains, down to its registrable domain
+        String domain = host;
+        int registrableLength = getRegistrableDomain(host).length();
+        int matchedDomains = 0;
+        while (true) {
+            Entry[] entries = mCookies.get(domain);
+            if (entries != null) {
+                int size = result.size();
+                addMatches(domain, entries, secure, path, now, result);
+                if (result.size() > size) {
+                    matchedDomains++;
+                }
+            }
+            if (domain.length() <= registrableLength) {
+                break;
+            }
+            domain = domain.substring(domain.indexOf('.') + 1);
+        }
+        if (matchedDomains > 1) {
+            Collections.sort(result, PATH_LENGTH_COMPARATOR);
+        }
+        return result;
+    }
+
+    /**
+     * Adds the cookies of a domain that match the request to the result, and removes the ones
+     * that expired.
+     */
+    private void addMatches(String domain, Entry[] entries, boolean secure, String path,
+                            long now, List<HttpCookie> result) {
+        boolean expired = false;
+        for (Entry entry : entries) {
+            if (entry.hasExpired(now)) {
+                expired = true;
+            } else if ((secure || !entry.cookie.getSecure())
+                    && pathMatches(path, entry.cookie.getPath())) {
+                result.add(entry.cookie);
+            }
+        }
+        if (expired) {
+            removeExpired(domain, now);
+        }
+    }
+
+    @Override
+    public List<HttpCookie> getCookies() {
+        List<HttpCookie> result = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (Entry[] entries : mCookies.values()) {
+            for (Entry entry : entries) {
+                if (!entry.hasExpired(now)) {
+                    result.add(entry.cookie);
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public List<URI> getURIs() {
+        Set<String> domains = new LinkedHashSet<>();
+        for (Entry[] entries : mCookies.values()) {
+            for (Entry entry : entries) {
+                domains.add(entry.domain);
+            }
+        }
+        List<URI> result = new ArrayList<>(domains.size());
+        for (String domain : domains) {
+            result.add(URI.create("http://" + domain));
+        }
+        return result;
+    }
+
+    @Override
+    public boolean remove(URI uri, HttpCookie cookie) {
+        if (cookie.getDomain() == null && uri.getHost() == null) {
+            return false;
+        }
+
+        HttpCookie removed = new HttpCookie(cookie.getName(), cookie.getValue());
+        removed.setDomain(cookie.getDomain() != null ? cookie.getDomain() : uri.getHost());
+        removed.setPath(cookie.getPath());
+        boolean changed = put(null, removed);
+        if (changed) {
+            onCookiesChanged();
+        }
+        return changed;
+    }
+
+    @Override
+    public boolean removeAll() {
+        boolean changed = !mCookies.isEmpty();
+        mCookies.clear();
+        onCookiesChanged();
+        return changed;
+    }
+
+    /**
+     * Called after the cookies are added or removed. Expired cookies may be removed without
+     * calling it.
+     */
+    protected void onCookiesChanged() {
+    }
+
+    /**
+     * Adds a cookie that expires at the given time, without calling {@link #onCookiesChanged()}.
+     */
+    void addEntry(HttpCookie cookie, long expiresAt) {
+        put(new Entry(cookie, expiresAt), cookie);
+    }
+
+    /**
+     * @return The cookies that haven't expired, with the time they expire at
+     */
+    List<Entry> getEntries() {
+        List<Entry> result = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (Entry[] entries : mCookies.values()) {
+            for (Entry entry : entries) {
+                if (!entry.hasExpired(now)) {
+                    result.add(entry);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Replaces the cookies with the same name, domain and path of the given cookie by the entry,
+     * or removes them if the entry is null.
+     *
+     * @return True if the cookies changed
+     */
+    private boolean put(Entry entry, HttpCookie cookie) {
+        String key = getDomainKey(cookie.getDomain());
+        while (true) {
+            Entry[] current = mCookies.get(key);
+            if (current == null) {
+                current = EMPTY;
+            }
+
+            List<Entry> updated = new ArrayList<>(current.length + 1);
+            for (Entry existing : current) {
+                if (!existing.cookie.equals(cookie)) {
+                    updated.add(existing);
+                }
+            }
+            if (entry == null && updated.size() == current.length) {
+                return false;
+            }
+            if (entry != null) {
+                // longest paths first, the order cookies are sent in
+                int index = 0;
+                while (index < updated.size() && updated.get(index).pathLength
+                        >= entry.pathLength) {
+                    index++;
+                }
+                updated.add(index, entry);
+            }
+            if (replace(key, current, updated)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Removes the cookies of a domain that expired.
+     */
+    private void removeExpired(String key, long now) {
+        while (true) {
+            Entry[] current = mCookies.get(key);
+            if (current == null) {
+                return;
+            }
+
+            List<Entry> updated = new ArrayList<>(current.length);
+            for (Entry entry : current) {
+                if (!entry.hasExpired(now)) {
+                    updated.add(entry);
+                }
+            }
+            if (updated.size() == current.length || replace(key, current, updated)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Replaces the cookies of a domain if they haven't changed since they were read.
+     *
+     * @return True if they were replaced
+     */
+    private boolean replace(String key, Entry[] current, List<Entry> updated) {
+        if (updated.isEmpty()) {
+            return current == EMPTY || mCookies.remove(key, current);
+        }
+        Entry[] entries = updated.toArray(new Entry[updated.size()]);
+        if (current == EMPTY) {
+            return mCookies.putIfAbsent(key, entries) == null;
+        }
+        return mCookies.replace(key, current, entries);
+    }
+
+    /**
+     * @return The domain in lowercase and without the leading dot. Local hosts, e.g:
+     * {@code localhost}, are returned as {@code localhost.local}, like
+     * {java.net.CookieManager} stores their cookies.
+     */
+    static String getDomainKey(String domain) {
+        String key = domain.toLowerCase(Locale.US);
+        if (key.startsWith(".")) {
+            key = key.substring(1);
+        }
+        return key.indexOf('.') == -1 && key.indexOf(':') == -1 ? key + ".local" : key;
+    }
+
+    /**
+     * Returns the registrable domain of a host, approximated as its last two labels, e.g:
+     * {@code example.com} for {@code api.example.com}. IP addresses are returned as they are.
+     * Cookies of domains above it, e.g: {@code com}, are never sent.
+     *
+     * @param host The host, in lowercase and without the leading dot
+     * @return The registrable domain
+     */
+    static String getRegistrableDomain(String host) {
+        if (host.indexOf(':') != -1 || isIpv4Address(host)) {
+            return host;
+        }
+        int last = host.lastIndexOf('.');
+        if (last <= 0) {
+            return host;
+        }
+        int secondLast = host.lastIndexOf('.', last - 1);
+        return secondLast == -1 ? host : host.substring(secondLast + 1);
+    }
+
+    private static boolean isIpv4Address(String host) {
+        for (int i = 0; i < host.length(); i++) {
+            char c = host.charAt(i);
+            if (c != '.' && (c < '0' || c > '9')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Whether the path of the request is in the path of the cookie (RFC 6265, section 5.1.4).
+     */
+    static boolean pathMatches(String path, String cookiePath) {
+        if (cookiePath == null || path.equals(cookiePath)) {
+            return true;
+        }
+        return path.startsWith(cookiePath) && (cookiePath.endsWith("/")
+                || path.charAt(cookiePath.length()) == '/');
+    }
+
+    /**
+     * @return When the cookie expires, in milliseconds since the epoch, or -1 if it lasts for
+     * the session
+     */
+    static long getExpiresAt(HttpCookie cookie) {
+        if (cookie.getMaxAge() < 0) {
+            return -1;
+        }
+        return System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(cookie.getMaxAge());
+    }
+
+    /**
+     * A cookie with the absolute time it expires at, since {java.net.HttpCookie} only keeps its
+     * max age relative to the time it was created. Entries are immutable.
+     */
+    static final class Entry {
+
+        final HttpCookie cookie;
+        final long expiresAt;
+        final String domain;
+        final int pathLength;
+
+        Entry(HttpCookie cookie, long expiresAt) {
+            this.cookie = cookie;
+            this.expiresAt = expiresAt;
+            domain = getDomainKey(cookie.getDomain());
+            pathLength = cookie.getPath() == null ? 0 : cookie.getPath().length();
+        }
+
+        boolean hasExpired(long now) {
+            return expiresAt != -1 && now >= expiresAt;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Lukas Zorich, Magnet.cl
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package cl.magnet.magnetrestclient.utils;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+
+import java.lang.reflect.InvocationTargetException;
+
+import cl.magnet.magnetrestclient.annotations.GenerateTypeAdapter;
+
+/**
+ * {com.google.gson.TypeAdapterFactory} that returns the TypeAdapters generated by the
+ * {@code magnetrestclient-compiler} annotation processor for classes annotated with
+ * {@link GenerateTypeAdapter}.
+ *
+ * The generated adapter is looked up once per Gson instance, when Gson creates the adapter for
+ * the class, so parsing itself doesn't use reflection. If the generated adapter is not found,
+ * for example because the annotation processor is not configured, the factory returns
+ * {@code null} and Gson falls back to its reflective adapter.
+ */
+public final class GeneratedTypeAdapterFactory implements TypeAdapterFactory {
+
+    /**
+     * Suffix of the generated adapter class name.
+     */
+    public static final String ADAPTER_SUFFIX = "_TypeAdapter";
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+        Class<? super T> rawType = type.getRawType();
+        if (rawType != type.getType() || !rawType.isAnnotationPresent(GenerateTypeAdapter.class)) {
+            return null;
+        }
+
+        try {
+            Class<?> adapterClass = Class.forName(getAdapterClassName(rawType), true,
+                    rawType.getClassLoader());
+            return (TypeAdapter<T>) adapterClass.getConstructor(Gson.class).newInstance(gson);
+        } catch (ClassNotFoundException e) {
+            return null;
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("Invalid generated adapter for " + rawType, e);
+        } catch (InstantiationException e) {
+            throw new IllegalStateException("Invalid generated adapter for " + rawType, e);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Invalid generated adapter for " + rawType, e);
+        } catch (InvocationTargetException e) {
+            throw new IllegalStateException("Invalid generated adapter for " + rawType, e);
+        }
+    }
+
+    /**
+     * Returns the name of the adapter generated for a class. The adapter lives in the same
+     * package as the class and is named after its simple names joined by underscores, e.g:
+     * {@code com.example.Page.Item} has the adapter {@code com.example.Page_Item_TypeAdapter}.
+     *
+     * @param type The annotated class
+     * @return The fully qualified name of the generated adapter
+     */
+    static String getAdapterClassName(Class<?> type) {
+        return type.getName().replace('$', '_') + ADAPTER_SUFFIX;
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2015 Lukas Zorich, Magnet.cl
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package cl.magnet.magnetrestclient.utils;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Process wide registry of {com.google.gson.Gson} instances, keyed by configuration.
+ *
+ * A {com.google.gson.Gson} instance is thread safe and caches every TypeAdapter it creates, so
+ * building a new one for each request throws that cache away and makes Gson reflect over the
+ * same model classes again. Requests that share a configuration should share the instance kept
+ * by this registry instead.
+ *
+ * The default instance uses the {@value #DEFAULT_DATE_FORMAT} date format and the adapters
+ * generated for classes annotated with
+ * {@link cl.magnet.magnetrestclient.annotations.GenerateTypeAdapter}. Custom
+ * configurations are registered under a key of the caller's choice, for example:
+ * <pre>
+ * {@code
+ * Gson gson = GsonRegistry.get(MyRequest.class, new GsonRegistry.GsonFactory() {
+ *     public Gson create() {
+ *         return new GsonBuilder().setFieldNamingPolicy(LOWER_CASE_WITH_UNDERSCORES).create();
+ *     }
+ * });
+ * }
+ * </pre>
+ */
+public final class GsonRegistry {
+
+    /**
+     * The date format used by the default Gson instance.
+     */
+    public static final String DEFAULT_DATE_FORMAT = "yyyy-MM-dd'T'HH:mm:ss";
+
+    private static final Object DEFAULT_KEY = new Object();
+
+    private static final ConcurrentMap<Object, Gson> sInstances = new ConcurrentHashMap<>();
+
+    private GsonRegistry() {
+        // this class shouldn't be instantiated
+    }
+
+    /**
+     * Creates the Gson instance for a configuration the first time it is requested.
+     */
+    public interface GsonFactory {
+
+        /**
+         * @return A new Gson instance
+         */
+        Gson create();
+    }
+
+    /**
+     * @return The shared Gson instance with the default configuration
+     */
+    public static Gson getDefault() {
+        Gson gson = sInstances.get(DEFAULT_KEY);
+        if (gson == null) {
+            gson = putIfAbsent(DEFAULT_KEY, newDefaultBuilder().create());
+        }
+
+        return gson;
+    }
+
+    /**
+     * Returns the shared Gson instance registered under the specified key. If there is no
+     * instance for the key, a new one is created with the factory and registered. When several
+     * threads race to create the same instance, all of them get the one registered first.
+     *
+     * @param key     The configuration key. It must implement equals and hashCode.
+     * @param factory Factory used to create the instance if it is not registered yet
+     * @return The Gson instance for the key
+     */
+    public static Gson get(Object key, GsonFactory factory) {
+        Gson gson = sInstances.get(key);
+        if (gson == null) {
+            gson = putIfAbsent(key, factory.create());
+        }
+
+        return gson;
+    }
+
+    /**
+     * Registers a Gson instance under the specified key, replacing any previous instance.
+     *
+     * @param key  The configuration key
+     * @param gson The Gson instance
+     */
+    public static void register(Object key, Gson gson) {
+        sInstances.put(key, gson);
+    }
+
+    /**
+     * Removes the Gson instance registered under the specified key.
+     *
+     * @param key The configuration key
+     */
+    public static void unregister(Object key) {
+        sInstances.remove(key);
+    }
+
+    /**
+     * Returns a GsonBuilder with the default configuration, so custom configurations can be built
+     * on top of it.
+     *
+     * @return A new GsonBuilder with the default configuration
+     */
+    public static GsonBuilder newDefaultBuilder() {
+        return new GsonBuilder()
+                .setDateFormat(DEFAULT_DATE_FORMAT)
+                .registerTypeAdapterFactory(new GeneratedTypeAdapterFactory());
+    }
+
+    private static Gson putIfAbsent(Object key, Gson gson) {
+        Gson previous = sInstances.putIfAbsent(key, gson);
+        return previous != null ? previous : gson;
+    }
+}
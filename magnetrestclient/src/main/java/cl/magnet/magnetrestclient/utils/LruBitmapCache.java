@@ -24,31 +24,53 @@
 
 package cl.magnet.magnetrestclient.utils;
 
+import android.annotation.TargetApi;
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
+import android.content.res.Configuration;
 import android.graphics.Bitmap;
-import android.util.DisplayMetrics;
+import android.os.Build;
 import android.util.LruCache;
 
 import com.android.volley.toolbox.ImageLoader;
 
 /**
- * Implementation of an in-memory lru cache.
+ * Implementation of an in-memory lru cache. Evicted bitmaps are not added to a
+ * {@link BitmapPool}, since a view may still display them after they leave the cache.
+ *
+ * Its size is usually a fraction of the app's heap (see {@link #getCacheSize(Context)}). When it
+ * is registered with {android.content.Context#registerComponentCallbacks}, the cache and its
+ * pool shrink in steps as the system runs low on memory. {@link #size()},
+ * {@link #evictionCount()}, {@link #hitCount()} and {@link #missCount()} tell how it behaves.
  *
  * Created by lukas on 25-07-14.
  */
-public class LruBitmapCache extends LruCache<String, Bitmap> implements ImageLoader.ImageCache {
+public class LruBitmapCache extends LruCache<String, Bitmap> implements ImageLoader.ImageCache,
+        ComponentCallbacks2 {
+
+    // an eighth of the heap
+    private static final int HEAP_FRACTION = 8;
 
-    // 4 bytes per pixel
-    private static final int BYTES_PER_PIXEL = 4;
+    // a sixteenth of the heap on low RAM devices
+    private static final int LOW_RAM_HEAP_FRACTION = 16;
 
-    // three screens
-    private static final int SCREENS_NUMB = 3;
+    private final BitmapPool mBitmapPool;
 
     /**
      * @param maxSize maximum sum of the sizes of the entries in this cache.
      */
     public LruBitmapCache(int maxSize) {
+        this(maxSize, null);
+    }
+
+    /**
+     * @param maxSize    maximum sum of the sizes of the entries in this cache.
+     * @param bitmapPool The pool that is trimmed with the cache, or null
+     */
+    public LruBitmapCache(int maxSize, BitmapPool bitmapPool) {
         super(maxSize);
+        mBitmapPool = bitmapPool;
     }
 
     /**
@@ -62,7 +84,14 @@ public class LruBitmapCache extends LruCache<String, Bitmap> implements ImageLoa
 
     @Override
     protected int sizeOf(String key, Bitmap value) {
-        return value.getRowBytes() * value.getHeight();
+        return BitmapPool.getByteCount(value);
+    }
+
+    /**
+     * @return The pool that is trimmed with the cache, or null
+     */
+    public BitmapPool getBitmapPool() {
+        return mBitmapPool;
     }
 
     @Override
@@ -76,19 +105,80 @@ public class LruBitmapCache extends LruCache<String, Bitmap> implements ImageLoa
     }
 
     /**
-     * Returns a cache size equal to approximately {@value #SCREENS_NUMB} screens worth of images,
-     * using {@value #BYTES_PER_PIXEL} bytes per pixel.
+     * Shrinks the cache and its pool according to how low the system is on memory. While the app
+     * is visible they keep a part of their size that depends on the pressure; once its UI is
+     * hidden they are halved, and they are cleared when the app is likely to be killed.
+     *
+     * @param level The context of the trim, e.g: {#TRIM_MEMORY_RUNNING_LOW}
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_MODERATE) {
+            trimToFraction(0);
+        } else if (level >= TRIM_MEMORY_UI_HIDDEN) {
+            trimToFraction(0.5f);
+        } else if (level >= TRIM_MEMORY_RUNNING_CRITICAL) {
+            trimToFraction(0.25f);
+        } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            trimToFraction(0.5f);
+        } else if (level >= TRIM_MEMORY_RUNNING_MODERATE) {
+            trimToFraction(0.75f);
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        trimToFraction(0);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+        // nothing to do
+    }
+
+    /**
+     * Evicts the least recently used bitmaps until the cache, and its pool, are at most the
+     * fraction of their maximum size.
+     */
+    private void trimToFraction(float fraction) {
+        if (fraction == 0) {
+            evictAll();
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            trimToSize((int) (maxSize() * fraction));
+        } else {
+            // LruCache#trimToSize(int) is not public before Jelly Bean MR1
+            evictAll();
+        }
+
+        if (mBitmapPool != null) {
+            mBitmapPool.trimToSize((int) (mBitmapPool.getMaxBytes() * fraction));
+        }
+    }
+
+    /**
+     * Returns a cache size that is a fraction of the memory available to the app: an eighth of
+     * its heap, or a sixteenth on low RAM devices. So the cache is smaller on devices that
+     * would run out of memory, and bigger on the ones with large heaps, like tablets.
      *
      * @param context The context where the cache needs to be
      * @return The cache size
      */
     public static int getCacheSize(Context context) {
-        final DisplayMetrics displayMetrics = context.getResources().
-                getDisplayMetrics();
-        final int screenWidth = displayMetrics.widthPixels;
-        final int screenHeight = displayMetrics.heightPixels;
-        final int screenBytes = screenWidth * screenHeight * BYTES_PER_PIXEL;
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(
+                Context.ACTIVITY_SERVICE);
+        long heapBytes = activityManager.getMemoryClass() * 1024L * 1024L;
+        int fraction = isLowRamDevice(activityManager) ? LOW_RAM_HEAP_FRACTION : HEAP_FRACTION;
+
+        return (int) (heapBytes / fraction);
+    }
+
+    private static boolean isLowRamDevice(ActivityManager activityManager) {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT
+                && isLowRamDeviceKitKat(activityManager);
+    }
 
-        return screenBytes * SCREENS_NUMB;
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private static boolean isLowRamDeviceKitKat(ActivityManager activityManager) {
+        return activityManager.isLowRamDevice();
     }
 }
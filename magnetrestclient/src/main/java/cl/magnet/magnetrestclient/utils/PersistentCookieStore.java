@@ -26,121 +26,351 @@ package cl.magnet.magnetrestclient.utils;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.util.Log;
 
-import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 
-import java.net.CookieManager;
-import java.net.CookieStore;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.net.HttpCookie;
 import java.net.URI;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Repository for cookies. CookieManager will store cookies of every incoming HTTP response into
  * CookieStore, and retrieve cookies for every outgoing HTTP request.
  *
- * Cookies are stored in {@link android.content.SharedPreferences} and will persist on the
- * user's device between application session. {com.google.gson.Gson} is used to serialize
- * the cookies into a json string in order to be able to save the cookie to
- * {@link android.content.SharedPreferences}
+ * Cookies are kept in memory by a {@link ConcurrentCookieStore}, so looking up the cookies of a
+ * request only visits the cookies of its site and doesn't lock. They are also saved to a file,
+ * so they persist on the user's device between application sessions:
+ * <ul>
+ * <li>The file is read in a background thread when the store is created. The store waits for
+ * it the first time it is used, usually when the first request is sent.</li>
+ * <li>Changes are saved in batches, in a background thread, {@value #WRITE_DELAY_MS} ms after
+ * the first change of the batch. {@link #flush()} saves them right away.</li>
+ * <li>Expired cookies are removed when they are looked up, and are not saved.</li>
+ * </ul>
+ *
+ * The session cookie saved in {@link android.content.SharedPreferences} by previous versions is
+ * moved to the file.
  *
  * Created by lukas on 17-11-14.
  */
-public class PersistentCookieStore implements CookieStore {
+public class PersistentCookieStore extends ConcurrentCookieStore {
+
+    private static final String TAG = PersistentCookieStore.class.getSimpleName();
+
+    /**
+     * The file where the cookies are saved, in the files directory of the app.
+     */
+    private static final String COOKIES_FILE = "magnetrestclient-cookies.json";
+
+    /**
+     * How long changes are batched before being saved, in milliseconds.
+     */
+    private static final long WRITE_DELAY_MS = 1000;
 
     /**
      * The default preferences string.
      */
     private final static String PREF_DEFAULT_STRING = "";
 
-    private final static String SESSION_ID = "sessionid";
-
     /**
-     * The preferences name.
+     * The preferences name, used by previous versions.
      */
     private final static String PREFS_NAME = PersistentCookieStore.class.getName();
 
     /**
-     * The preferences session cookie key.
+     * The preferences session cookie key, used by previous versions.
      */
     private final static String PREF_SESSION_COOKIE = "session_cookie";
 
-    private CookieStore mStore;
-    private Context mContext;
+    private final Context mContext;
+    private final File mFile;
+    private final ScheduledExecutorService mExecutor;
+    private final CountDownLatch mLoaded = new CountDownLatch(1);
+    private final AtomicBoolean mWriteScheduled = new AtomicBoolean();
+    private final AtomicLong mWriteCount = new AtomicLong();
+
+    private final Runnable mWriteRunnable = new Runnable() {
+        @Override
+        public void run() {
+            write();
+        }
+    };
 
     /**
      * @param context The application context
      */
     public PersistentCookieStore(Context context) {
         // prevent context leaking by getting the application context
-        mContext = context.getApplicationContext();
-
-        // get the default in memory store and if there is a cookie stored in shared preferences,
-        // we added it to the cookie store
-        mStore = new CookieManager().getCookieStore();
-        String jsonSessionCookie = getJsonSessionCookieString();
-        if (!jsonSessionCookie.equals(PREF_DEFAULT_STRING)) {
-            Gson gson = new Gson();
-            HttpCookie cookie = gson.fromJson(jsonSessionCookie, HttpCookie.class);
-            mStore.add(URI.create(cookie.getDomain()), cookie);
-        }
+        this(context.getApplicationContext(), new File(context.getApplicationContext()
+                .getFilesDir(), COOKIES_FILE));
+    }
+
+    /**
+     * @param context The application context, used to move the session cookie of previous
+     *                versions, or null
+     * @param file    The file where the cookies are saved
+     */
+    public PersistentCookieStore(Context context, File file) {
+        mContext = context;
+        mFile = file;
+        mExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, TAG);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                load();
+            }
+        });
     }
 
     @Override
     public void add(URI uri, HttpCookie cookie) {
-        if (cookie.getName().equals(SESSION_ID)) {
-            // if the cookie that the cookie store attempt to add is a session cookie,
-            // we remove the older cookie and save the new one in shared preferences
-            remove(URI.create(cookie.getDomain()), cookie);
-            saveSessionCookie(cookie);
-        }
-
-        mStore.add(URI.create(cookie.getDomain()), cookie);
+        awaitLoaded();
+        super.add(uri, cookie);
     }
 
     @Override
     public List<HttpCookie> get(URI uri) {
-        return mStore.get(uri);
+        awaitLoaded();
+        return super.get(uri);
     }
 
     @Override
     public List<HttpCookie> getCookies() {
-        return mStore.getCookies();
+        awaitLoaded();
+        return super.getCookies();
     }
 
     @Override
     public List<URI> getURIs() {
-        return mStore.getURIs();
+        awaitLoaded();
+        return super.getURIs();
     }
 
     @Override
     public boolean remove(URI uri, HttpCookie cookie) {
-        return mStore.remove(uri, cookie);
+        awaitLoaded();
+        return super.remove(uri, cookie);
     }
 
     @Override
     public boolean removeAll() {
-        return mStore.removeAll();
+        awaitLoaded();
+        return super.removeAll();
+    }
+
+    /**
+     * Schedules the cookies to be saved, unless they already are.
+     */
+    @Override
+    protected void onCookiesChanged() {
+        if (mWriteScheduled.compareAndSet(false, true)) {
+            mExecutor.schedule(mWriteRunnable, WRITE_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Saves the pending changes and waits until they are written.
+     */
+    public void flush() {
+        try {
+            mExecutor.submit(mWriteRunnable).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Error saving cookies", e);
+        }
+    }
+
+    /**
+     * @return The number of times the cookies were saved
+     */
+    public long getWriteCount() {
+        return mWriteCount.get();
+    }
+
+    /**
+     * Waits until the cookies are read from the file.
+     */
+    private void awaitLoaded() {
+        try {
+            mLoaded.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Reads the cookies saved in the file, and moves the session cookie of previous versions.
+     */
+    private void load() {
+        try {
+            if (mFile.exists()) {
+                read();
+            }
+            if (mContext != null) {
+                moveSessionCookie();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Error reading cookies", e);
+        } catch (JsonParseException e) {
+            Log.e(TAG, "Error reading cookies", e);
+        } catch (IllegalStateException e) {
+            // unexpected JSON token
+            Log.e(TAG, "Error reading cookies", e);
+        } finally {
+            mLoaded.countDown();
+        }
+    }
+
+    private void read() throws IOException {
+        long now = System.currentTimeMillis();
+        JsonReader reader = new JsonReader(new InputStreamReader(new FileInputStream(mFile),
+                "UTF-8"));
+        try {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                readCookie(reader, now);
+            }
+            reader.endArray();
+        } finally {
+            reader.close();
+        }
     }
 
-    private String getJsonSessionCookieString() {
-        return getPrefs().getString(PREF_SESSION_COOKIE, PREF_DEFAULT_STRING);
+    private void moveSessionCookie() {
+        SharedPreferences prefs = mContext.getSharedPreferences(PREFS_NAME,
+                Context.MODE_PRIVATE);
+        String jsonSessionCookie = prefs.getString(PREF_SESSION_COOKIE, PREF_DEFAULT_STRING);
+        if (jsonSessionCookie.equals(PREF_DEFAULT_STRING)) {
+            return;
+        }
+
+        HttpCookie cookie = GsonRegistry.getDefault().fromJson(jsonSessionCookie,
+                HttpCookie.class);
+        if (cookie != null && cookie.getDomain() != null) {
+            addEntry(cookie, -1);
+            onCookiesChanged();
+        }
+        prefs.edit().remove(PREF_SESSION_COOKIE).apply();
     }
 
     /**
-     * Saves the HttpCookie to SharedPreferences as a json string.
-     *
-     * @param cookie The cookie to save in SharedPreferences.
+     * Writes the cookies that haven't expired to the file. The file is replaced atomically, so
+     * it is never left half written.
      */
-    private void saveSessionCookie(HttpCookie cookie) {
-        Gson gson = new Gson();
-        String jsonSessionCookieString = gson.toJson(cookie);
-        SharedPreferences.Editor editor = getPrefs().edit();
-        editor.putString(PREF_SESSION_COOKIE, jsonSessionCookieString);
-        editor.apply();
+    private void write() {
+        mWriteScheduled.set(false);
+        mWriteCount.incrementAndGet();
+        List<Entry> entries = getEntries();
+
+        File tmpFile = new File(mFile.getPath() + ".tmp");
+        try {
+            JsonWriter writer = new JsonWriter(new OutputStreamWriter(new FileOutputStream(
+                    tmpFile), "UTF-8"));
+            try {
+                writer.beginArray();
+                for (Entry entry : entries) {
+                    writeCookie(writer, entry);
+                }
+                writer.endArray();
+            } finally {
+                writer.close();
+            }
+            if (!tmpFile.renameTo(mFile)) {
+                throw new IOException("Can't rename " + tmpFile + " to " + mFile);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Error saving cookies", e);
+            tmpFile.delete();
+        }
+    }
+
+    private static void writeCookie(JsonWriter writer, Entry entry) throws IOException {
+        HttpCookie cookie = entry.cookie;
+        writer.beginObject();
+        writer.name("name").value(cookie.getName());
+        writer.name("value").value(cookie.getValue());
+        writer.name("domain").value(cookie.getDomain());
+        writer.name("path").value(cookie.getPath());
+        writer.name("secure").value(cookie.getSecure());
+        writer.name("version").value(cookie.getVersion());
+        writer.name("expiresAt").value(entry.expiresAt);
+        writer.endObject();
     }
 
-    private SharedPreferences getPrefs() {
-        return mContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    /**
+     * Reads a cookie and adds it, unless it has expired.
+     */
+    private void readCookie(JsonReader reader, long now) throws IOException {
+        String name = null;
+        String value = null;
+        String domain = null;
+        String path = null;
+        boolean secure = false;
+        int version = 0;
+        long expiresAt = -1;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String key = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+            } else if (key.equals("name")) {
+                name = reader.nextString();
+            } else if (key.equals("value")) {
+                value = reader.nextString();
+            } else if (key.equals("domain")) {
+                domain = reader.nextString();
+            } else if (key.equals("path")) {
+                path = reader.nextString();
+            } else if (key.equals("secure")) {
+                secure = reader.nextBoolean();
+            } else if (key.equals("version")) {
+                version = reader.nextInt();
+            } else if (key.equals("expiresAt")) {
+                expiresAt = reader.nextLong();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (name == null || domain == null || (expiresAt != -1 && now >= expiresAt)) {
+            return;
+        }
+        HttpCookie cookie = new HttpCookie(name, value);
+        cookie.setDomain(domain);
+        cookie.setPath(path);
+        cookie.setSecure(secure);
+        cookie.setVersion(version);
+        if (expiresAt != -1) {
+            cookie.setMaxAge(TimeUnit.MILLISECONDS.toSeconds(expiresAt - now));
+        }
+        addEntry(cookie, expiresAt);
     }
 }
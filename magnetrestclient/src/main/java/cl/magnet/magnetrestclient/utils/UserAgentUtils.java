@@ -26,8 +26,11 @@ package cl.magnet.magnetrestclient.utils;
 
 import android.content.Context;
 import android.os.Build;
+import android.util.Log;
 
 import java.lang.reflect.Field;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * User agent utility class.
@@ -36,6 +39,13 @@ import java.lang.reflect.Field;
  */
 public final class UserAgentUtils {
 
+    private static final String TAG = UserAgentUtils.class.getSimpleName();
+
+    /**
+     * The user agents by package name, which are looked up by reflection only once.
+     */
+    private static final Map<String, String> sUserAgents = new ConcurrentHashMap<>();
+
     private UserAgentUtils() {
         // this class shouldn't be instantiated
     }
@@ -47,14 +57,23 @@ public final class UserAgentUtils {
      * For example:
      * <blockquote>{@code com.example.app/1.0 (Android 4.4.4; XT1032)}</blockquote>
      *
+     * The application id and version name are read from the app BuildConfig the first time, and
+     * the user agent is reused afterwards for contexts with the same package name.
+     *
      * @param context The application context
      * @return The user agent
      */
     public static String getUserAgent(Context context) {
-        String applicationId = (String) getBuildConfigValue(context, "APPLICATION_ID");
-        String versionName = (String) getBuildConfigValue(context, "VERSION_NAME");
+        String packageName = context.getPackageName();
+        String userAgent = sUserAgents.get(packageName);
+        if (userAgent == null) {
+            String applicationId = (String) getBuildConfigValue(context, "APPLICATION_ID");
+            String versionName = (String) getBuildConfigValue(context, "VERSION_NAME");
 
-        return getUserAgent(applicationId, versionName);
+            userAgent = getUserAgent(applicationId, versionName);
+            sUserAgents.put(packageName, userAgent);
+        }
+        return userAgent;
     }
 
     /**
@@ -103,11 +122,11 @@ public final class UserAgentUtils {
             Field field = clazz.getField(fieldName);
             return field.get(null);
         } catch (ClassNotFoundException e) {
-            e.printStackTrace();
+            Log.w(TAG, "BuildConfig not found", e);
         } catch (NoSuchFieldException e) {
-            e.printStackTrace();
+            Log.w(TAG, "BuildConfig." + fieldName + " not found", e);
         } catch (IllegalAccessException e) {
-            e.printStackTrace();
+            Log.w(TAG, "BuildConfig." + fieldName + " is not accessible", e);
         }
         return null;
     }
@@ -0,0 +1,129 @@
+package cl.magnet.magnetrestclient;
+
+import java.util.Locale;
+
+/**
+ * The results of a {@link LoadScenario} run by {@link LoadTestHarness}.
+ */
+public final class LoadReport {
+
+    private static final long MB = 1024 * 1024;
+
+    private final String mScenario;
+    private final int mRequestCount;
+    private final int mErrorCount;
+    private final int mServerRequestCount;
+    private final long mDurationMs;
+    private final long mP50Ms;
+    private final long mP99Ms;
+    private final float mBusyNetworkThreads;
+    private final int mPeakThreadCount;
+    private final long mHeapBaselineBytes;
+    private final long mHeapHighWaterBytes;
+
+    LoadReport(String scenario, int requestCount, int errorCount, int serverRequestCount,
+               long durationMs, long p50Ms, long p99Ms, float busyNetworkThreads,
+               int peakThreadCount, long heapBaselineBytes, long heapHighWaterBytes) {
+        mScenario = scenario;
+        mRequestCount = requestCount;
+        mErrorCount = errorCount;
+        mServerRequestCount = serverRequestCount;
+        mDurationMs = durationMs;
+        mP50Ms = p50Ms;
+        mP99Ms = p99Ms;
+        mBusyNetworkThreads = busyNetworkThreads;
+        mPeakThreadCount = peakThreadCount;
+        mHeapBaselineBytes = heapBaselineBytes;
+        mHeapHighWaterBytes = heapHighWaterBytes;
+    }
+
+    /**
+     * @return The number of requests that received a response or an error
+     */
+    public int getRequestCount() {
+        return mRequestCount;
+    }
+
+    /**
+     * @return The number of requests that received an error
+     */
+    public int getErrorCount() {
+        return mErrorCount;
+    }
+
+    /**
+     * @return The number of requests received by the server, including the retries
+     */
+    public int getServerRequestCount() {
+        return mServerRequestCount;
+    }
+
+    /**
+     * @return The time from adding the first request until the last one finished, in
+     * milliseconds
+     */
+    public long getDurationMs() {
+        return mDurationMs;
+    }
+
+    /**
+     * @return The finished requests per second
+     */
+    public double getThroughput() {
+        return mDurationMs == 0 ? 0 : mRequestCount * 1000.0 / mDurationMs;
+    }
+
+    /**
+     * @return The median latency of the requests, from being added to the queue until they
+     * finished, in milliseconds
+     */
+    public long getP50Ms() {
+        return mP50Ms;
+    }
+
+    /**
+     * @return The 99th percentile of the latency of the requests, in milliseconds
+     */
+    public long getP99Ms() {
+        return mP99Ms;
+    }
+
+    /**
+     * @return The average number of network dispatcher threads that were performing requests,
+     * which is the pool size when the network threads are saturated
+     */
+    public float getBusyNetworkThreads() {
+        return mBusyNetworkThreads;
+    }
+
+    /**
+     * @return The peak number of live threads of the process during the scenario
+     */
+    public int getPeakThreadCount() {
+        return mPeakThreadCount;
+    }
+
+    /**
+     * @return The used heap before the scenario, in bytes
+     */
+    public long getHeapBaselineBytes() {
+        return mHeapBaselineBytes;
+    }
+
+    /**
+     * @return The highest used heap sampled during the scenario, in bytes
+     */
+    public long getHeapHighWaterBytes() {
+        return mHeapHighWaterBytes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%s: %d requests (%d errors, %d server requests) in %d ms,"
+                        + " %.1f requests/s, p50=%dms, p99=%dms, %.1f network threads busy,"
+                        + " %d peak threads, heap %dMB -> %dMB", mScenario, mRequestCount,
+                mErrorCount, mServerRequestCount, mDurationMs, getThroughput(), mP50Ms, mP99Ms,
+                mBusyNetworkThreads, mPeakThreadCount, mHeapBaselineBytes / MB,
+                mHeapHighWaterBytes / MB);
+    }
+}
@@ -0,0 +1,245 @@
+package cl.magnet.magnetrestclient;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A load test scenario run by {@link LoadTestHarness}: how many requests are added at once to
+ * {@link VolleyManager}, and how the server responds to them. Scenarios are immutable and are
+ * created with a {@link LoadScenario.Builder}:
+ * <pre>
+ * {@code
+ * LoadScenario scenario = new LoadScenario.Builder("slow server")
+ *         .setRequestCount(2000)
+ *         .setLatency(100, TimeUnit.MILLISECONDS)
+ *         .build();
+ * }
+ * </pre>
+ */
+public final class LoadScenario {
+
+    private final String mName;
+    private final int mRequestCount;
+    private final int mResponseBytes;
+    private final long mLatencyMs;
+    private final long mBandwidth;
+    private final float mErrorRate;
+    private final boolean mShouldCache;
+    private final VolleyManagerConfig mConfig;
+    private final long mTimeoutMs;
+
+    private LoadScenario(Builder builder) {
+        mName = builder.mName;
+        mRequestCount = builder.mRequestCount;
+        mResponseBytes = builder.mResponseBytes;
+        mLatencyMs = builder.mLatencyMs;
+        mBandwidth = builder.mBandwidth;
+        mErrorRate = builder.mErrorRate;
+        mShouldCache = builder.mShouldCache;
+        mConfig = builder.mConfig;
+        mTimeoutMs = builder.mTimeoutMs;
+    }
+
+    /**
+     * @return The name of the scenario, used in the reports
+     */
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * @return The number of requests
+     */
+    public int getRequestCount() {
+        return mRequestCount;
+    }
+
+    /**
+     * @return The size of the response bodies in bytes
+     */
+    public int getResponseBytes() {
+        return mResponseBytes;
+    }
+
+    /**
+     * @return The time the server waits before responding, in milliseconds
+     */
+    public long getLatencyMs() {
+        return mLatencyMs;
+    }
+
+    /**
+     * @return The bytes per second the server sends in each response body, or 0 if it is not
+     * throttled
+     */
+    public long getBandwidth() {
+        return mBandwidth;
+    }
+
+    /**
+     * @return The fraction of the responses that are errors
+     */
+    public float getErrorRate() {
+        return mErrorRate;
+    }
+
+    /**
+     * @return True if the responses are written to the cache
+     */
+    public boolean shouldCache() {
+        return mShouldCache;
+    }
+
+    /**
+     * @return The configuration of {@link VolleyManager}
+     */
+    public VolleyManagerConfig getConfig() {
+        return mConfig;
+    }
+
+    /**
+     * @return The maximum duration of the scenario, in milliseconds
+     */
+    public long getTimeoutMs() {
+        return mTimeoutMs;
+    }
+
+    /**
+     * Builder of {@link LoadScenario}.
+     */
+    public static final class Builder {
+
+        private final String mName;
+        private int mRequestCount = 1000;
+        private int mResponseBytes = 1024;
+        private long mLatencyMs;
+        private long mBandwidth;
+        private float mErrorRate;
+        private boolean mShouldCache = true;
+        private VolleyManagerConfig mConfig = VolleyManagerConfig.getDefault();
+        private long mTimeoutMs = TimeUnit.MINUTES.toMillis(5);
+
+        /**
+         * @param name The name of the scenario, used in the reports
+         */
+        public Builder(String name) {
+            mName = name;
+        }
+
+        /**
+         * Sets the number of requests, which are all added to the queue at once. Defaults to
+         * 1000.
+         *
+         * @param requestCount The number of requests
+         * @return This builder
+         */
+        public Builder setRequestCount(int requestCount) {
+            if (requestCount <= 0) {
+                throw new IllegalArgumentException("requestCount <= 0");
+            }
+            mRequestCount = requestCount;
+            return this;
+        }
+
+        /**
+         * Sets the size of the JSON response bodies. Defaults to 1KB.
+         *
+         * @param responseBytes The size of the response bodies in bytes
+         * @return This builder
+         */
+        public Builder setResponseBytes(int responseBytes) {
+            if (responseBytes < 0) {
+                throw new IllegalArgumentException("responseBytes < 0");
+            }
+            mResponseBytes = responseBytes;
+            return this;
+        }
+
+        /**
+         * Sets the time the server waits before responding each request. Defaults to 0.
+         *
+         * @param latency The latency
+         * @param unit    The unit of the latency
+         * @return This builder
+         */
+        public Builder setLatency(long latency, TimeUnit unit) {
+            if (latency < 0) {
+                throw new IllegalArgumentException("latency < 0");
+            }
+            mLatencyMs = unit.toMillis(latency);
+            return this;
+        }
+
+        /**
+         * Throttles the response bodies to the given bytes per second, per connection. By
+         * default they are not throttled.
+         *
+         * @param bandwidth The bytes per second, or 0 to not throttle the responses
+         * @return This builder
+         */
+        public Builder setBandwidth(long bandwidth) {
+            if (bandwidth < 0) {
+                throw new IllegalArgumentException("bandwidth < 0");
+            }
+            mBandwidth = bandwidth;
+            return this;
+        }
+
+        /**
+         * Sets the fraction of the responses that are {@code 503 Service Unavailable} errors,
+         * which may be retried. Defaults to 0.
+         *
+         * @param errorRate The error rate, between 0 and 1
+         * @return This builder
+         */
+        public Builder setErrorRate(float errorRate) {
+            if (errorRate < 0 || errorRate > 1) {
+                throw new IllegalArgumentException("errorRate must be between 0 and 1");
+            }
+            mErrorRate = errorRate;
+            return this;
+        }
+
+        /**
+         * Sets whether the responses are written to the cache, see
+         * {com.android.volley.Request#setShouldCache(boolean)}. Defaults to true.
+         *
+         * @param shouldCache True to cache the responses
+         * @return This builder
+         */
+        public Builder setShouldCache(boolean shouldCache) {
+            mShouldCache = shouldCache;
+            return this;
+        }
+
+        /**
+         * Sets the configuration of {@link VolleyManager}. Defaults to
+         * {@link VolleyManagerConfig#getDefault()}.
+         *
+         * @param config The configuration
+         * @return This builder
+         */
+        public Builder setConfig(VolleyManagerConfig config) {
+            mConfig = config;
+            return this;
+        }
+
+        /**
+         * Sets the maximum duration of the scenario. Defaults to 5 minutes.
+         *
+         * @param timeout The timeout
+         * @param unit    The unit of the timeout
+         * @return This builder
+         */
+        public Builder setTimeout(long timeout, TimeUnit unit) {
+            mTimeoutMs = unit.toMillis(timeout);
+            return this;
+        }
+
+        /**
+         * @return The scenario
+         */
+        public LoadScenario build() {
+            return new LoadScenario(this);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package cl.magnet.magnetrestclient;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Load tests of the networking stack, run with {@link LoadTestHarness}. They take a few minutes,
+ * so they only run when the {@code loadTest} property is set:
+ * <pre>
+ * {@code
+ * ./gradlew :magnetrestclient:testDebugUnitTest -PloadTest --tests '*LoadTest'
+ * }
+ * </pre>
+ * Every test prints its {@link LoadReport}, so the numbers can be compared between changes.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 25)
+public class LoadTest {
+
+    private LoadTestHarness mHarness;
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue(Boolean.getBoolean("loadTest"));
+        mHarness = new LoadTestHarness(RuntimeEnvironment.application);
+    }
+
+    @After
+    public void tearDown() {
+        VolleyManager.reset();
+    }
+
+    @Test
+    public void testFastServer() throws Exception {
+        LoadReport report = run(new LoadScenario.Builder("fast server")
+                .setRequestCount(10000)
+                .build());
+
+        assertEquals(0, report.getErrorCount());
+        assertEquals(10000, report.getServerRequestCount());
+    }
+
+    @Test
+    public void testUncachedResponses() throws Exception {
+        LoadReport report = run(new LoadScenario.Builder("uncached responses")
+                .setRequestCount(10000)
+                .setShouldCache(false)
+                .build());
+
+        assertEquals(0, report.getErrorCount());
+    }
+
+    @Test
+    public void testSlowServer() throws Exception {
+        LoadReport report = run(new LoadScenario.Builder("slow server")
+                .setRequestCount(2000)
+                .setLatency(100, TimeUnit.MILLISECONDS)
+                .build());
+
+        assertEquals(0, report.getErrorCount());
+    }
+
+    @Test
+    public void testMoreNetworkThreads() throws Exception {
+        LoadReport report = run(new LoadScenario.Builder("slow server, 8 network threads")
+                .setRequestCount(2000)
+                .setLatency(100, TimeUnit.MILLISECONDS)
+                .setConfig(new VolleyManagerConfig.Builder()
+                        .setNetworkThreadPoolSize(8)
+                        .build())
+                .build());
+
+        assertEquals(0, report.getErrorCount());
+    }
+
+    @Test
+    public void testThrottledBandwidth() throws Exception {
+        LoadReport report = run(new LoadScenario.Builder("throttled bandwidth")
+                .setRequestCount(1000)
+                .setResponseBytes(64 * 1024)
+                .setBandwidth(2 * 1024 * 1024)
+                .build());
+
+        assertEquals(0, report.getErrorCount());
+    }
+
+    @Test
+    public void testServerErrors() throws Exception {
+        LoadReport report = run(new LoadScenario.Builder("5% server errors")
+                .setRequestCount(5000)
+                .setErrorRate(0.05f)
+                .build());
+
+        // the errors are retried, so only some requests fail
+        assertEquals(5000, report.getRequestCount());
+    }
+
+    private LoadReport run(LoadScenario scenario) throws Exception {
+        LoadReport report = mHarness.run(scenario);
+        System.out.println(report);
+        return report;
+    }
+}
@@ -0,0 +1,305 @@
+package cl.magnet.magnetrestclient;
+
+import android.content.Context;
+
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+import com.squareup.okhttp.mockwebserver.Dispatcher;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+
+import org.robolectric.shadows.ShadowLooper;
+
+import javax.net.ServerSocketFactory;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import cl.magnet.magnetrestclient.requests.GsonRequest;
+
+/**
+ * Runs a {@link LoadScenario} against the real networking stack: a new {@link VolleyManager} with
+ * the configuration of the scenario performs the requests against a {@code MockWebServer} that
+ * injects the latency, the bandwidth limit and the errors of the scenario.
+ *
+ * All the requests are added at once from the main thread, which runs the response deliveries
+ * until every request finished. The harness runs under Robolectric, so the main thread is the
+ * thread of the test and the server runs in the same process: its threads and buffers are
+ * included in the thread count and the heap of the {@link LoadReport}.
+ */
+public class LoadTestHarness {
+
+    private static final long SEED = 42;
+    private static final long HEAP_SAMPLE_MS = 10;
+
+    private final Context mContext;
+
+    /**
+     * @param context The application context of the {@link VolleyManager} instances
+     */
+    public LoadTestHarness(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Runs a scenario. {@link VolleyManager} is reset before and after the scenario.
+     *
+     * @param scenario The scenario
+     * @return The results of the scenario
+     * @throws TimeoutException If the requests don't finish before the timeout of the scenario
+     * @throws Exception        If the server fails
+     */
+    public LoadReport run(LoadScenario scenario) throws Exception {
+        // the server logs every request, which would slow it down
+        Logger.getLogger(MockWebServer.class.getName()).setLevel(Level.WARNING);
+        MockWebServer server = new MockWebServer();
+        server.setServerSocketFactory(new NoDelayServerSocketFactory());
+        server.setDispatcher(new ScenarioDispatcher(scenario));
+        server.start();
+
+        final AtomicLong networkTimeNs = new AtomicLong();
+        VolleyManager.reset();
+        VolleyManager volleyManager = VolleyManager.init(mContext, scenario.getConfig());
+        volleyManager.addMetricsListener(new VolleyManager.MetricsListener() {
+            @Override
+            public void onRequestMetrics(RequestMetrics metrics) {
+                if (metrics.isNetwork()) {
+                    // the time a network dispatcher spent on the request
+                    networkTimeNs.addAndGet(metrics.getDurationNs(RequestMetrics.Phase.TOTAL)
+                            - metrics.getDurationNs(RequestMetrics.Phase.QUEUE)
+                            - metrics.getDurationNs(RequestMetrics.Phase.DELIVERY));
+                }
+            }
+        });
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        System.gc();
+        HeapSampler heapSampler = new HeapSampler();
+        LatencyHistogram latency = new LatencyHistogram();
+        AtomicInteger finished = new AtomicInteger();
+        AtomicInteger errors = new AtomicInteger();
+        try {
+            heapSampler.start();
+            threads.resetPeakThreadCount();
+
+            long start = System.nanoTime();
+            for (int i = 0; i < scenario.getRequestCount(); i++) {
+                volleyManager.addToRequestQueue(newRequest(server.getUrl("/items/" + i)
+                        .toString(), scenario, latency, finished, errors));
+            }
+            long deadline = start + TimeUnit.MILLISECONDS.toNanos(scenario.getTimeoutMs());
+            while (finished.get() < scenario.getRequestCount()) {
+                if (System.nanoTime() > deadline) {
+                    throw new TimeoutException(scenario.getName() + ": " + finished.get() + " of "
+                            + scenario.getRequestCount() + " requests finished");
+                }
+                ShadowLooper.runUiThreadTasks();
+                Thread.sleep(1);
+            }
+            long durationNs = System.nanoTime() - start;
+
+            return new LoadReport(scenario.getName(), finished.get(), errors.get(),
+                    server.getRequestCount(), TimeUnit.NANOSECONDS.toMillis(durationNs),
+                    latency.getPercentile(50), latency.getPercentile(99),
+                    (float) networkTimeNs.get() / durationNs, threads.getPeakThreadCount(),
+                    heapSampler.mBaseline, heapSampler.finish());
+        } finally {
+            heapSampler.finish();
+            VolleyManager.reset();
+            server.shutdown();
+        }
+    }
+
+    private static Request<Item> newRequest(String url, LoadScenario scenario,
+                                            final LatencyHistogram latency,
+                                            final AtomicInteger finished,
+                                            final AtomicInteger errors) {
+        final long added = System.nanoTime();
+        Response.Listener<Item> listener = new Response.Listener<Item>() {
+            @Override
+            public void onResponse(Item response) {
+                latency.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - added));
+                finished.incrementAndGet();
+            }
+        };
+        Response.ErrorListener errorListener = new Response.ErrorListener() {
+            @Override
+            public void onErrorResponse(VolleyError error) {
+                latency.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - added));
+                errors.incrementAndGet();
+                finished.incrementAndGet();
+            }
+        };
+        GsonRequest<Item> request = new GsonRequest<>(Request.Method.GET, url, Item.class, null,
+                listener, errorListener);
+        request.setShouldCache(scenario.shouldCache());
+        return request;
+    }
+
+    /**
+     * Builds a JSON body of about the given size.
+     */
+    private static String createBody(int bytes) {
+        StringBuilder builder = new StringBuilder("{\"id\":1,\"data\":\"");
+        while (builder.length() < bytes - 2) {
+            builder.append('x');
+        }
+        return builder.append("\"}").toString();
+    }
+
+    /**
+     * Responds to the requests of a scenario.
+     */
+    private static class ScenarioDispatcher extends Dispatcher {
+
+        private final LoadScenario mScenario;
+        private final String mBody;
+        private final Random mRandom = new Random(SEED);
+
+        ScenarioDispatcher(LoadScenario scenario) {
+            mScenario = scenario;
+            mBody = createBody(scenario.getResponseBytes());
+        }
+
+        @Override
+        public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+            // every connection is served by its own thread, so this only delays this response
+            if (mScenario.getLatencyMs() > 0) {
+                Thread.sleep(mScenario.getLatencyMs());
+            }
+            boolean error;
+            synchronized (mRandom) {
+                error = mRandom.nextFloat() < mScenario.getErrorRate();
+            }
+            if (error) {
+                return new MockResponse().setResponseCode(503)
+                        .setBody("{\"detail\":\"Service unavailable\"}");
+            }
+
+            MockResponse response = new MockResponse()
+                    .setHeader("Content-Type", "application/json; charset=utf-8")
+                    .setBody(mBody);
+            if (mScenario.getBandwidth() > 0) {
+                // sends a tenth of the bandwidth every 100ms
+                response.throttleBody(Math.max(1, mScenario.getBandwidth() / 10), 100,
+                        TimeUnit.MILLISECONDS);
+            }
+            return response;
+        }
+    }
+
+    /**
+     * Creates server sockets that disable Nagle's algorithm on the accepted connections, so the
+     * responses aren't held back by the delayed acknowledgments of the client.
+     */
+    private static class NoDelayServerSocketFactory extends ServerSocketFactory {
+
+        @Override
+        public ServerSocket createServerSocket() throws IOException {
+            return new NoDelayServerSocket();
+        }
+
+        @Override
+        public ServerSocket createServerSocket(int port) throws IOException {
+            ServerSocket serverSocket = createServerSocket();
+            serverSocket.bind(new InetSocketAddress(port));
+            return serverSocket;
+        }
+
+        @Override
+        public ServerSocket createServerSocket(int port, int backlog) throws IOException {
+            ServerSocket serverSocket = createServerSocket();
+            serverSocket.bind(new InetSocketAddress(port), backlog);
+            return serverSocket;
+        }
+
+        @Override
+        public ServerSocket createServerSocket(int port, int backlog, InetAddress address)
+                throws IOException {
+            ServerSocket serverSocket = createServerSocket();
+            serverSocket.bind(new InetSocketAddress(address, port), backlog);
+            return serverSocket;
+        }
+    }
+
+    private static class NoDelayServerSocket extends ServerSocket {
+
+        NoDelayServerSocket() throws IOException {
+        }
+
+        @Override
+        public Socket accept() throws IOException {
+            Socket socket = super.accept();
+            socket.setTcpNoDelay(true);
+            return socket;
+        }
+    }
+
+    /**
+     * Samples the used heap until it is stopped, keeping the highest value.
+     */
+    private static class HeapSampler extends Thread {
+
+        private final MemoryMXBean mMemory = ManagementFactory.getMemoryMXBean();
+        private final long mBaseline = getUsedHeap();
+        private volatile boolean mStopped;
+        private long mHighWater = mBaseline;
+
+        HeapSampler() {
+            super("HeapSampler");
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (!mStopped) {
+                long used = getUsedHeap();
+                synchronized (this) {
+                    mHighWater = Math.max(mHighWater, used);
+                }
+                try {
+                    Thread.sleep(HEAP_SAMPLE_MS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        private long getUsedHeap() {
+            return mMemory.getHeapMemoryUsage().getUsed();
+        }
+
+        /**
+         * Stops sampling.
+         *
+         * @return The highest used heap
+         */
+        synchronized long finish() {
+            mStopped = true;
+            return Math.max(mHighWater, getUsedHeap());
+        }
+    }
+
+    /**
+     * The response of the server.
+     */
+    private static class Item {
+        int id;
+        String data;
+    }
+}